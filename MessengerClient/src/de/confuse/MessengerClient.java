@@ -5,7 +5,8 @@ import de.confuse.confFileV2.ConfFileFieldV2;
 import de.confuse.confFileV2.ConfFileReaderV2;
 import de.confuse.eventapi.EventManager;
 import de.confuse.security.AesUtilities;
-import de.confuse.security.RsaUtilities;
+import de.confuse.security.RsaKeyPairPool;
+import de.confuse.security.X25519Utilities;
 import de.confuse.util.CryptoCommunication;
 
 import javax.crypto.SecretKey;
@@ -13,12 +14,29 @@ import javax.crypto.spec.IvParameterSpec;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MessengerClient extends Client
 {
+	/**
+	 * So lange wartet der Client nach einer neuen Verbindung auf die Herausforderung, bevor er neu anmeldet.
+	 */
+	private static final long HERAUSFORDERUNG_MS = 5000;
+	/**
+	 * Abstände und Anzahl der Wiederholungen, falls der Server einen Handshake als <code>Busy</code> ablehnt.
+	 */
+	private static final long BUSY_MIN_MS = 250;
+	private static final long BUSY_MAX_MS = 8000;
+	private static final int BUSY_VERSUCHE = 8;
+
 	private final MessengerClientMain messengerClientMain;
 	/**
 	 * Eine HashMap, welche für jeden Benutzernamen zu dem eine <strong>aktuelle</strong> Verbindung besteht, sowohl
@@ -52,15 +70,69 @@ public class MessengerClient extends Client
 	 * IP:Port, Bsp.: '127.0.0.1:53241'
 	 */
 	private CryptoCommunication.CryptoStorage[] serverCryptoStorageArray;
+	/**
+	 * Erzeugt im Hintergrund die RSA Schlüsselpaare, die jedes Angebot für Gegenseiten enthält, die nur RSA können.
+	 * Ein Paar liegt immer bereit, damit das Angebot nicht auf die Erzeugung wartet.
+	 */
+	private final RsaKeyPairPool keyPairPool;
+	/**
+	 * Das Ticket, mit dem die Sitzung beim Server nach einem Verbindungsabbruch fortgesetzt wird, oder
+	 * <code>null</code>, falls der Server keines ausgestellt hat.
+	 *
+	 * @see #fortsetzen()
+	 */
+	private volatile String sitzungsTicket;
+	/**
+	 * Die Herausforderung, die der Server mit der Begrüßung geschickt hat; das Fortsetzen verschlüsselt sie mit dem
+	 * Sitzungsschlüssel, damit es nur auf dieser Verbindung gilt.
+	 */
+	private volatile byte[] herausforderung;
+	/**
+	 * Ob {@link #fortsetzen()} auf die Herausforderung wartet.
+	 */
+	private final AtomicBoolean fortsetzenAusstehend;
+	/**
+	 * Der zuletzt an den Server gerichtete Handshake, der nach einem <code>Busy</code> erneut gesendet wird.
+	 */
+	private volatile String serverHandshake;
+	/**
+	 * Wie oft {@link #serverHandshake} bereits wiederholt wurde.
+	 */
+	private final AtomicInteger busyVersuche;
+	/**
+	 * Sendet Pakete erneut, die der Server wegen zu vieler Pakete verworfen hat.
+	 */
+	private final RateLimitRetry rateLimitRetry;
 
 	public MessengerClient(String pServerIP, int pServerPort)
 	{
-		super(pServerIP, pServerPort);
+		this(pServerIP, pServerPort, false);
+	}
+
+	/**
+	 * @param pVirtualThread Ob Nachrichten in einem virtuellen Thread empfangen werden sollen
+	 */
+	public MessengerClient(String pServerIP, int pServerPort, boolean pVirtualThread)
+	{
+		this(pServerIP, pServerPort, pVirtualThread, false);
+	}
+
+	/**
+	 * @param pVirtualThread Ob Nachrichten in einem virtuellen Thread empfangen werden sollen
+	 * @param pFrames        Ob mit dem Server längenpräfixierte Rahmen statt Zeilen ausgehandelt werden sollen
+	 */
+	public MessengerClient(String pServerIP, int pServerPort, boolean pVirtualThread, boolean pFrames)
+	{
+		super(pServerIP, pServerPort, pVirtualThread, pFrames);
 		this.messengerClientMain = MessengerClientMain.instance;
 
 		// Client Variablen
 		this.direktChatCryptoStorageHashMap = new HashMap<>();
 		this.serverCryptoStorageArray = new CryptoCommunication.CryptoStorage[2];
+		this.keyPairPool = new RsaKeyPairPool(1, 8, 1);
+		this.rateLimitRetry = new RateLimitRetry(super::send);
+		this.fortsetzenAusstehend = new AtomicBoolean();
+		this.busyVersuche = new AtomicInteger();
 	}
 
 	@Override
@@ -81,11 +153,36 @@ public class MessengerClient extends Client
 				final String[] user = handshake.getValues("sender");
 				final String formattedUser = user.length > 1 ? user[0] + ':' + user[1] : user[0] + ":000001";
 
-				if (stage.equals("1"))
+				if (stage.equals("1") && CryptoCommunication.isX25519Handshake(handshake))
+				{
+					System.out.println("1 (X25519)!");
+					// Beide Seiten leiten den Sitzungsschlüssel ab, es wird nichts mit RSA verschlüsselt
+					final KeyPair clientKeyPair = X25519Utilities.generateKeyPair();
+					final CryptoCommunication.CryptoStorage sitzung = CryptoCommunication.deriveX25519Session(
+							clientKeyPair, CryptoCommunication.extractX25519PublicKey(handshake), false);
+					if (sitzung == null)
+					{
+						send(CryptoCommunication.generateCryptoHandshakeFailure().putFirst("receiver", user)
+								.put("sender", ip.split(":")).getFormattedFieldV2(0));
+						return;
+					}
+					// Wer X25519 kann, kann auch AES-GCM
+					sitzung.aeadSession = new CryptoCommunication.AeadSession(sitzung.secretKey, false,
+							sitzung.cipherCache);
+					beenden(direktChatCryptoStorageHashMap.put(formattedUser, new CryptoCommunication.CryptoStorage[]{
+							sitzung, sitzung}));
+
+					final ConfFileFieldV2 stage2HandshakeOutgoing = CryptoCommunication
+							.generateCryptoHandshakeStage2X25519(clientKeyPair.getPublic()).putFirst("receiver", user)
+							.put("sender", ip.split(":")).put("aead", CryptoCommunication.AEAD_GCM);
+					send(stage2HandshakeOutgoing.getFormattedFieldV2(0));
+					return;
+				}
+				else if (stage.equals("1"))
 				{
 					System.out.println("1!");
 					final PublicKey externerPublicKey = CryptoCommunication.extractHandshakeDataStage1(handshake);
-					final KeyPair clientKeyPair = RsaUtilities.generateRsaKeyPair();
+					final KeyPair clientKeyPair = keyPairPool.take();
 					final IvParameterSpec clientIvParameterSpec = AesUtilities.generateIv();
 					final SecretKey clientSecretKey = AesUtilities.generateSecretKey(256);
 
@@ -102,53 +199,106 @@ public class MessengerClient extends Client
 
 					ConfFileFieldV2 stage2HandshakeOutgoing =
 							Objects.requireNonNull(CryptoCommunication.generateCryptoHandshakeStage2(externerPublicKey,
-									clientKeyPair.getPublic(), clientSecretKey, clientIvParameterSpec)).put("receiver"
+									clientKeyPair.getPublic(), clientSecretKey, clientIvParameterSpec)).putFirst("receiver"
 									, user).put("sender", ip.split(":"));
+					// Kann die Gegenseite AES-GCM, reicht pro Nachricht der Sitzungsschlüssel statt RSA
+					if (CryptoCommunication.AEAD_GCM.equals(handshake.getValue("aead")))
+					{
+						final CryptoCommunication.CryptoStorage externerStorage =
+								direktChatCryptoStorageHashMap.get(formattedUser)[1];
+						externerStorage.aeadSession = new CryptoCommunication.AeadSession(clientSecretKey, false,
+								externerStorage.cipherCache);
+						stage2HandshakeOutgoing.put("aead", CryptoCommunication.AEAD_GCM);
+					}
 					send(stage2HandshakeOutgoing.getFormattedFieldV2(0));
 					return;
 				}
 				else if (stage.equals("2"))
 				{
 					System.out.println("2!");
+					final boolean x25519 = CryptoCommunication.isX25519Handshake(handshake);
 					final CryptoCommunication.CryptoStorage fullStorage;
 
 					// Handshake vom Server durch die Anmeldung
-					if (handshake.getValue("name") != null && handshake.getValue("sender").equals("server"))
+					final boolean anmeldung = handshake.getValue("name") != null && handshake.getValue("sender")
+							.equals("server");
+					final CryptoCommunication.CryptoStorage[] angebot = anmeldung ? serverCryptoStorageArray
+							: direktChatCryptoStorageHashMap.get(formattedUser);
+					// Ohne offenes Angebot, z. B. die späte Antwort auf ein bereits beantwortetes, wird nichts getan
+					if (angebot == null || angebot[0] == null || (x25519 ? angebot[0].x25519KeyPair
+							: angebot[0].serverPrivateKey) == null)
 					{
-						fullStorage = CryptoCommunication.extractHandshakeDataStage2(handshake,
+						System.err.println("Unerwarteter Stage 2 Handshake von " + formattedUser);
+						return;
+					}
+
+					if (anmeldung)
+					{
+						fullStorage = x25519 ? CryptoCommunication.deriveX25519Session(
+								serverCryptoStorageArray[0].x25519KeyPair,
+								CryptoCommunication.extractX25519PublicKey(handshake), true)
+								: CryptoCommunication.extractHandshakeDataStage2(handshake,
 								serverCryptoStorageArray[0].serverPrivateKey);
+						verwerfen(serverCryptoStorageArray[0], x25519);
 						ip = handshake.getValue("name");
 						serverCryptoStorageArray[1] = fullStorage; // Alle Daten erhalten
+						if ("deflate".equals(handshake.getValue("compression")))
+							enableCompression();
 					}
 					else
 					{ // Andere Handshakes, z. B. durch Direktverbindungen
-						final CryptoCommunication.CryptoStorage[] cryptoStorages =
-								new CryptoCommunication.CryptoStorage[2];
-						direktChatCryptoStorageHashMap.putIfAbsent(formattedUser, cryptoStorages);
-
-						fullStorage = CryptoCommunication.extractHandshakeDataStage2(handshake,
-								direktChatCryptoStorageHashMap.get(formattedUser)[0].serverPrivateKey);
+						final CryptoCommunication.CryptoStorage lokalerStorage = angebot[0];
+						fullStorage = x25519 ? CryptoCommunication.deriveX25519Session(lokalerStorage.x25519KeyPair,
+								CryptoCommunication.extractX25519PublicKey(handshake), true)
+								: CryptoCommunication.extractHandshakeDataStage2(handshake,
+								lokalerStorage.serverPrivateKey);
+						verwerfen(lokalerStorage, x25519);
 						// Erste Datenspeicherung der Client Daten: RSA Schlüssel
-						direktChatCryptoStorageHashMap.get(formattedUser)[1] = fullStorage;
+						angebot[1] = fullStorage;
+						if (fullStorage != null && (x25519
+								|| CryptoCommunication.AEAD_GCM.equals(handshake.getValue("aead"))))
+							fullStorage.aeadSession = new CryptoCommunication.AeadSession(fullStorage.secretKey, true,
+									fullStorage.cipherCache);
+					}
+
+					if (fullStorage == null)
+					{
+						System.err.println("Stage 2 Handshake failed");
+						if (!anmeldung)
+							beenden(direktChatCryptoStorageHashMap.remove(formattedUser));
+						send(CryptoCommunication.generateCryptoHandshakeFailure().putFirst("receiver",
+								handshake.getValueObject("sender").getValues()).put("sender", ip.split(":"))
+								.getFormattedFieldV2(0));
+						return;
 					}
 
-					assert fullStorage != null;
 					final ConfFileFieldV2 stage3HandshakeOutgoing =
-							Objects.requireNonNull(CryptoCommunication.generateCryptoHandshakeStage3
+							Objects.requireNonNull(x25519 ? CryptoCommunication.generateCryptoHandshakeStage3X25519(
+									fullStorage) : CryptoCommunication.generateCryptoHandshakeStage3
 											(fullStorage.serverPublicKey, fullStorage.secretKey,
 													fullStorage.ivParameterSpec))
-									.put("receiver", handshake.getValueObject("sender").getValues())
+									.putFirst("receiver", handshake.getValueObject("sender").getValues())
 									.put("sender", ip.split(":"));
-					send(stage3HandshakeOutgoing.getFormattedFieldV2(0));
+					// Bittet den Server um ein Ticket, um die Sitzung später fortsetzen zu können
+					if (anmeldung)
+					{
+						stage3HandshakeOutgoing.put("resume", "ticket");
+						anServerSenden(stage3HandshakeOutgoing.getFormattedFieldV2(0));
+					}
+					else
+						send(stage3HandshakeOutgoing.getFormattedFieldV2(0));
 					return;
 				}
 				else if (stage.equals("3"))
 				{
 					System.out.println("3!");
 					// Prüft, ob alles funktioniert hat
-					if (CryptoCommunication.extractHandshakeDataStage3(handshake,
-							direktChatCryptoStorageHashMap.get(formattedUser)[1],
-							direktChatCryptoStorageHashMap.get(formattedUser)[0].serverPrivateKey))
+					final CryptoCommunication.CryptoStorage[] cryptoStorages =
+							direktChatCryptoStorageHashMap.get(formattedUser);
+					if (CryptoCommunication.X25519_HANDSHAKE_VERSION.equals(handshake.getValue("version"))
+							? CryptoCommunication.extractHandshakeDataStage3X25519(handshake, cryptoStorages[1])
+							: CryptoCommunication.extractHandshakeDataStage3(handshake, cryptoStorages[1],
+							cryptoStorages[0].serverPrivateKey))
 					{
 						System.out.println("Stage 3 bestätigt");
 					}
@@ -160,6 +310,36 @@ public class MessengerClient extends Client
 
 					return;
 				}
+				else if (stage.equals("ticket"))
+				{
+					System.out.println("Ticket!");
+					sitzungsTicket = handshake.getValue("ticket");
+					return;
+				}
+				else if (stage.equals("resumed"))
+				{
+					System.out.println("Sitzung fortgesetzt!");
+					// Der Server leitet Pakete an den alten Namen weiter, Direktverbindungen bleiben bestehen
+					ip = handshake.getValue("name");
+					sitzungsTicket = handshake.getValue("ticket");
+					if ("deflate".equals(handshake.getValue("compression")))
+						enableCompression();
+					return;
+				}
+				else if (stage.equals(CryptoCommunication.FAILED_STAGE))
+				{
+					System.err.println("Handshake mit " + formattedUser + " fehlgeschlagen!");
+					if (!"server".equals(user[0]))
+						beenden(direktChatCryptoStorageHashMap.remove(formattedUser));
+					return;
+				}
+				else if (stage.equals(CryptoCommunication.RESUME_STAGE))
+				{
+					System.out.println("Fortsetzen abgelehnt!");
+					sitzungsTicket = null;
+					anmelden();
+					return;
+				}
 
 			}
 			else if (inputReader.getField("CryptoCommunication") != null)
@@ -169,11 +349,63 @@ public class MessengerClient extends Client
 				final String[] user = communication.getValues("sender");
 				final String formattedUser = user.length > 1 ? user[0] + ':' + user[1] : user[0] + ":000001";
 
-				final String nachricht = CryptoCommunication.decryptReceivedMessage(communication,
-						direktChatCryptoStorageHashMap.get(formattedUser)[1],
-						direktChatCryptoStorageHashMap.get(formattedUser)[0].serverPrivateKey);
+				final CryptoCommunication.CryptoStorage[] cryptoStorage = direktChatCryptoStorageHashMap.get(formattedUser);
+
+				// Pakete ohne Version stammen von Clients, die nur RSA verschlüsselte IVs kennen
+				final String nachricht;
+				if (CryptoCommunication.isAeadPacket(communication))
+				{
+					if (cryptoStorage[1].aeadSession == null)
+					{
+						System.err.println("AES-GCM Paket ohne ausgehandelte Sitzung von " + formattedUser);
+						return;
+					}
+					nachricht = CryptoCommunication.decryptAeadPacket(communication, cryptoStorage[1].aeadSession,
+							String.join(":", user));
+				}
+				else
+					nachricht = CryptoCommunication.decryptReceivedMessage(communication, cryptoStorage[1],
+							cryptoStorage[0].serverPrivateKey);
 
-				EventManager.call(new EventMessageReceived(nachricht));
+				// Abgelehnte Pakete wurden bereits gemeldet und erreichen die Empfänger nicht
+				if (nachricht != null)
+					EventManager.call(new EventMessageReceived(nachricht));
+			}
+			else if (inputReader.getField("DeliveryStatus") != null)
+			{
+				// Der Server meldet, was mit einer Nachricht an einen nicht verbundenen Empfänger geschieht
+				final ConfFileFieldV2 status = inputReader.getField("DeliveryStatus");
+				final String[] recipient = status.getValues("recipient");
+				System.out.println("Zustellung an " + String.join(":", recipient) + ": " + status.getValue("status"));
+			}
+			else if (inputReader.getField("RateLimited") != null)
+			{
+				// Der Server verwirft alles ab dem genannten Paket, bis es erneut gesendet wird
+				final ConfFileFieldV2 rateLimited = inputReader.getField("RateLimited");
+				System.out.println("Zu viele Pakete (" + rateLimited.getValue("kind")
+						+ "), sende sie gleich erneut");
+				final String packet = rateLimited.getValue("packet");
+				final String retryAfter = rateLimited.getValue("retryAfter");
+				if (packet != null)
+					rateLimitRetry.rateLimited(Long.parseLong(packet), retryAfter != null ? Long.parseLong(retryAfter)
+							: 0);
+			}
+			else if (inputReader.getField("Greeting") != null)
+			{
+				final String challenge = inputReader.getField("Greeting").getValue("challenge");
+				if (challenge != null)
+					herausforderung = Base64.getDecoder().decode(challenge);
+				// Wartet das Fortsetzen schon darauf, geht es jetzt weiter. Die Begrüßung kann eintreffen, bevor der
+				// Konstruktor fertig ist; dann wartet noch niemand.
+				if (fortsetzenAusstehend != null && fortsetzenAusstehend.compareAndSet(true, false))
+					fortsetzen();
+			}
+			else if (inputReader.getField("Busy") != null)
+			{
+				// Der Server hat zu viele Handshakes zugleich zu bearbeiten und hat diesen verworfen
+				System.out.println("Der Server ist ausgelastet (" + inputReader.getField("Busy").getValue("kind")
+						+ ")");
+				busy();
 			}
 
 		}
@@ -184,26 +416,90 @@ public class MessengerClient extends Client
 
 	}
 
+	@Override
+	public void processGoAway(String pAlternative)
+	{
+		System.out.println("Der Server fährt herunter" + (pAlternative != null ? ", weiter unter " + pAlternative : "")
+				+ '!');
+	}
+
 	/**
 	 * Meldet den Client an
 	 */
 	public void anmelden()
 	{
 		System.out.println("Melde an...");
-		final KeyPair clientKeyPair = RsaUtilities.generateRsaKeyPair();
-		final CryptoCommunication.CryptoStorage lokalerStorage =
-				new CryptoCommunication.CryptoStorage(null, clientKeyPair.getPublic(),
-						clientKeyPair.getPrivate(), null);
+		final CryptoCommunication.CryptoStorage lokalerStorage = angebot();
 		serverCryptoStorageArray[0] = lokalerStorage;
 
-		// Das Handshake Package
-		final ConfFileFieldV2 handshake =
-				CryptoCommunication.generateCryptoHandshakeStage1(clientKeyPair.getPublic()).put("receiver", "server");
-
-		send(handshake.getFormattedFieldV2(0));
+		// Das Handshake Package; komprimiert werden nur Rahmen, der Server bestätigt im Stage 2 Handshake
+		final ConfFileFieldV2 handshake = CryptoCommunication.generateCryptoHandshakeStage1(
+				lokalerStorage.serverPublicKey, lokalerStorage.x25519KeyPair.getPublic()).putFirst("receiver", "server");
+		if (isFramed())
+			handshake.put("compression", "deflate");
+		anServerSenden(handshake.getFormattedFieldV2(0));
 		System.out.println("Anmeldung gesendet!");
 	}
 
+	/**
+	 * Setzt die Sitzung nach einer neuen Verbindung zum Server mit dem Ticket der letzten Anmeldung fort, ohne
+	 * Schlüssel auszuhandeln. Der Client behält seinen Namen und seine Direktverbindungen. Ohne Ticket, oder falls
+	 * der Server es ablehnt, wird neu angemeldet.
+	 *
+	 * @see #neuVerbinden()
+	 */
+	public void fortsetzen()
+	{
+		final String ticket = sitzungsTicket;
+		final CryptoCommunication.CryptoStorage sitzung = serverCryptoStorageArray[1];
+		if (ticket == null || sitzung == null)
+		{
+			anmelden();
+			return;
+		}
+
+		final byte[] challenge = herausforderung;
+		if (challenge == null)
+		{
+			// Die Begrüßung der neuen Verbindung ist noch nicht da; wer zuletzt kommt, setzt fort
+			fortsetzenAusstehend.set(true);
+			if (herausforderung != null && fortsetzenAusstehend.compareAndSet(true, false))
+				fortsetzen();
+			else
+				CompletableFuture.delayedExecutor(HERAUSFORDERUNG_MS, TimeUnit.MILLISECONDS).execute(() ->
+				{
+					// Ein Server ohne Tickets schickt keine Herausforderung
+					if (fortsetzenAusstehend.compareAndSet(true, false))
+						anmelden();
+				});
+			return;
+		}
+
+		System.out.println("Setze Sitzung fort...");
+		// Ticket und Herausforderung gelten nur einmal, der Server schickt mit der Bestätigung ein neues Ticket
+		sitzungsTicket = null;
+		herausforderung = null;
+		final ConfFileFieldV2 handshake = Objects.requireNonNull(CryptoCommunication.generateCryptoHandshakeResume(
+				ticket, challenge, sitzung)).putFirst("receiver", "server");
+		if (isFramed())
+			handshake.put("compression", "deflate");
+		anServerSenden(handshake.getFormattedFieldV2(0));
+	}
+
+	/**
+	 * Baut die Verbindung zum Server neu auf und setzt die Sitzung fort.
+	 *
+	 * @return true, falls die neue Verbindung steht.
+	 * @see #fortsetzen()
+	 */
+	public boolean neuVerbinden()
+	{
+		if (!reconnect())
+			return false;
+		fortsetzen();
+		return true;
+	}
+
 	/**
 	 * Verbindet den Client mit einem anderen Client, ende zu Ende verschlüsselt.
 	 *
@@ -213,22 +509,91 @@ public class MessengerClient extends Client
 	{
 		System.out.println("---------------MessengerClient.verbinde---------------");
 		System.out.println("Verbinde...");
-		final KeyPair clientKeyPair = RsaUtilities.generateRsaKeyPair();
-		final CryptoCommunication.CryptoStorage lokalerStorage =
-				new CryptoCommunication.CryptoStorage(null, clientKeyPair.getPublic(),
-						clientKeyPair.getPrivate(), null);
-		direktChatCryptoStorageHashMap.put(name, new CryptoCommunication.CryptoStorage[2]);
-		direktChatCryptoStorageHashMap.get(name)[0] = lokalerStorage;
+		final CryptoCommunication.CryptoStorage lokalerStorage = angebot();
+		final CryptoCommunication.CryptoStorage[] cryptoStorages = new CryptoCommunication.CryptoStorage[2];
+		cryptoStorages[0] = lokalerStorage;
+		beenden(direktChatCryptoStorageHashMap.put(name, cryptoStorages));
 
 		// Das Handshake Package
-		final ConfFileFieldV2 handshake =
-				CryptoCommunication.generateCryptoHandshakeStage1(clientKeyPair.getPublic()).put("receiver",
-						name.split(":")).put("sender", this.ip.split(":"));
-
-		send(handshake.getFormattedFieldV2(0));
+		send(CryptoCommunication.generateCryptoHandshakeStage1(lokalerStorage.serverPublicKey,
+				lokalerStorage.x25519KeyPair.getPublic()).putFirst("receiver", name.split(":"))
+				.put("sender", this.ip.split(":")).put("aead", CryptoCommunication.AEAD_GCM).getFormattedFieldV2(0));
 		System.out.println("Verbindungsversuch gestartet!");
 	}
 
+	/**
+	 * Legt ein Angebot mit einem X25519 Schlüsselpaar und, für Gegenseiten, die nur RSA kennen, einem RSA
+	 * Schlüsselpaar an. Beides geht in einem Stage 1 Handshake hinaus; die Gegenseite wählt und antwortet nur einmal.
+	 *
+	 * @return Der Storage des Angebots, bis zur Antwort mit beiden Schlüsselpaaren
+	 * @see #verwerfen(CryptoCommunication.CryptoStorage, boolean)
+	 */
+	private CryptoCommunication.CryptoStorage angebot()
+	{
+		final KeyPair rsaKeyPair = keyPairPool.take();
+		final CryptoCommunication.CryptoStorage lokalerStorage =
+				new CryptoCommunication.CryptoStorage(null, rsaKeyPair.getPublic(), rsaKeyPair.getPrivate(), null);
+		lokalerStorage.x25519KeyPair = X25519Utilities.generateKeyPair();
+		return lokalerStorage;
+	}
+
+	/**
+	 * Verwirft nach der Antwort auf ein Angebot das X25519 Schlüsselpaar und, falls die Gegenseite X25519 gewählt hat,
+	 * auch das RSA Schlüsselpaar. Eine weitere Antwort derselben Art auf das Angebot wird dann abgewiesen.
+	 *
+	 * @param lokalerStorage Der Storage des Angebots
+	 * @param x25519         Ob die Gegenseite X25519 gewählt hat
+	 */
+	private static void verwerfen(CryptoCommunication.CryptoStorage lokalerStorage, boolean x25519)
+	{
+		lokalerStorage.x25519KeyPair = null;
+		if (x25519)
+		{
+			lokalerStorage.serverPublicKey = null;
+			lokalerStorage.serverPrivateKey = null;
+		}
+	}
+
+	/**
+	 * Sendet einen Handshake an den Server und merkt ihn sich, damit er nach einem <code>Busy</code> wiederholt werden
+	 * kann.
+	 */
+	private void anServerSenden(String pHandshake)
+	{
+		serverHandshake = pHandshake;
+		busyVersuche.set(0);
+		send(pHandshake);
+	}
+
+	/**
+	 * Sendet den zuletzt an den Server gerichteten Handshake nach einer zufällig gestreuten, exponentiell wachsenden
+	 * Wartezeit erneut, damit nicht alle abgewiesenen Clients zugleich wiederkommen. Nach {@link #BUSY_VERSUCHE}
+	 * Versuchen wird aufgegeben.
+	 */
+	private void busy()
+	{
+		final String handshake = serverHandshake;
+		if (handshake == null)
+			return;
+		final int versuch = busyVersuche.getAndIncrement();
+		if (versuch >= BUSY_VERSUCHE)
+		{
+			System.err.println("Der Server ist weiterhin ausgelastet, bitte später erneut versuchen");
+			serverHandshake = null;
+			return;
+		}
+
+		final long backoff = Math.min(BUSY_MAX_MS, BUSY_MIN_MS << versuch);
+		final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+		System.out.println("Versuche es in " + delay + " ms erneut...");
+		CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() ->
+		{
+			// Inzwischen kann ein neuerer Handshake gesendet oder die Verbindung neu aufgebaut worden sein
+			if (serverHandshake == handshake && isConnected())
+				send(handshake);
+		});
+	}
+
 	/**
 	 * Sendet eine Nachricht an einen anderen Client mit dem bereits eine Verschlüsselung abgesprochen wurde
 	 *
@@ -247,15 +612,67 @@ public class MessengerClient extends Client
 		}
 
 		final CryptoCommunication.CryptoStorage[] cryptoStorage = direktChatCryptoStorageHashMap.get(name);
-		final ConfFileFieldV2 cryptoPacket = Objects.requireNonNull(CryptoCommunication.generateCryptoPacket(nachricht
-				, cryptoStorage[1].serverPublicKey,
-				cryptoStorage[1].secretKey, cryptoStorage[1].ivParameterSpec)).put("receiver",
+		// Alte Gegenstellen erhalten weiterhin Pakete mit RSA verschlüsseltem IV
+		final ConfFileFieldV2 cryptoPacket = Objects.requireNonNull(cryptoStorage[1].aeadSession != null
+				? CryptoCommunication.generateAeadPacket(nachricht, cryptoStorage[1].aeadSession, this.ip)
+				: CryptoCommunication.generateCryptoPacket(nachricht, cryptoStorage[1])).putFirst("receiver",
 				name.split(":")).put("sender", this.ip.split(":"));
 
 		send(cryptoPacket.getFormattedFieldV2(0));
 		System.out.println("Nachricht gesendet!");
 	}
 
+	/**
+	 * Merkt sich jedes Paket, damit es erneut gesendet werden kann, falls der Server es verwirft.
+	 *
+	 * @see RateLimitRetry
+	 */
+	@Override
+	public void send(String pMessage)
+	{
+		rateLimitRetry.send(pMessage);
+	}
+
+	/**
+	 * Für die neue Verbindung zählt der Server die Pakete von vorn und schickt eine neue Herausforderung.
+	 */
+	@Override
+	public synchronized boolean reconnect(String pServerIP, int pServerPort)
+	{
+		rateLimitRetry.reset();
+		herausforderung = null;
+		fortsetzenAusstehend.set(false);
+		serverHandshake = null;
+		return super.reconnect(pServerIP, pServerPort);
+	}
+
+	/**
+	 * Hält auch die Erzeugung der Schlüsselpaare an und gibt die Cipher aller Sitzungen frei.
+	 */
+	@Override
+	public void close()
+	{
+		super.close();
+		keyPairPool.close();
+		for (CryptoCommunication.CryptoStorage[] cryptoStorages : direktChatCryptoStorageHashMap.values())
+			beenden(cryptoStorages);
+		beenden(serverCryptoStorageArray);
+	}
+
+	/**
+	 * Gibt die zwischengespeicherten Cipher beendeter Sitzungen frei.
+	 *
+	 * @param cryptoStorages Die Sitzungen oder <code>null</code>
+	 */
+	private static void beenden(CryptoCommunication.CryptoStorage[] cryptoStorages)
+	{
+		if (cryptoStorages == null)
+			return;
+		for (CryptoCommunication.CryptoStorage cryptoStorage : cryptoStorages)
+			if (cryptoStorage != null)
+				cryptoStorage.destroy();
+	}
+
 	public HashMap<String, CryptoCommunication.CryptoStorage[]> getDirektChatCryptoStorageHashMap()
 	{
 		return direktChatCryptoStorageHashMap;
@@ -13,6 +13,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class MessengerClientMain
@@ -24,12 +25,16 @@ public class MessengerClientMain
 	 */
 	public final MessengerClient messengerClient;
 
-	public MessengerClientMain()
+	public MessengerClientMain(String[] args)
 	{
 		System.out.println("Starte Client...");
 		instance = this;
 		new MessageHandler();
-		this.messengerClient = new MessengerClient("localhost", 1887);
+		// Mit "port=" kann z. B. ein anderer Knoten eines Clusters auf demselben Rechner gewählt werden
+		final int port = Arrays.stream(args).filter(arg -> arg.startsWith("port=")).findFirst()
+				.map(arg -> Integer.parseInt(arg.substring("port=".length()))).orElse(1887);
+		this.messengerClient = new MessengerClient("localhost", port, Arrays.asList(args).contains("threads=virtual"),
+				Arrays.asList(args).contains("frames=on"));
 
 		consoleThread();
 		messengerClient.anmelden();
@@ -38,7 +43,7 @@ public class MessengerClientMain
 
 	public static void main(String[] args)
 	{
-		new MessengerClientMain();
+		new MessengerClientMain(args);
 	}
 
 	private void consoleThread()
@@ -76,7 +81,13 @@ public class MessengerClientMain
 	 */
 	private void handleConsoleInput(String line, BufferedReader reader) throws NoSuchAlgorithmException, IOException
 	{
-		if (messengerClient.isConnected())
+		// Geht auch, nachdem die Verbindung abgebrochen ist
+		if (line.equalsIgnoreCase("reconnect"))
+		{
+			if (!messengerClient.neuVerbinden())
+				System.out.println("Server nicht erreichbar!");
+		}
+		else if (messengerClient.isConnected())
 		{
 			if (line.equalsIgnoreCase("anmelden"))
 			{
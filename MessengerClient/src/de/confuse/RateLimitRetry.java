@@ -0,0 +1,184 @@
+package de.confuse;
+
+import de.confuse.confFileV2.ConfFileFieldV2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Sendet Pakete erneut, die der Server wegen zu vieler Pakete verworfen hat. Der Server zählt die Pakete jeder
+ * Verbindung und nennt in seinem <code>RateLimited</code> Paket das erste verworfene; danach verwirft er alles, bis
+ * die Wiederholungsmarke kommt. Deshalb merkt sich der Client die zuletzt gesendeten Pakete mit ihrer Nummer, wartet
+ * mit zufällig gestreutem, exponentiell wachsendem Abstand und sendet dann die Marke und ab dem ersten verworfenen
+ * Paket alles erneut, in der ursprünglichen Reihenfolge. Was während der Wartezeit gesendet wird, wird zurückgehalten
+ * und danach gesendet.
+ *
+ * @author Confuse
+ * @version 1
+ */
+final class RateLimitRetry
+{
+	/**
+	 * Zeigt dem Server an, dass ab jetzt erneut gesendet wird.
+	 */
+	private static final String RETRY_MARKER = new ConfFileFieldV2("RateLimitRetry", true).getFormattedFieldV2(0);
+	/**
+	 * So viele gesendete Pakete werden für eine Wiederholung aufbewahrt.
+	 */
+	private static final int HISTORY_SIZE = 1024;
+	private static final long MIN_DELAY_MS = 100;
+	private static final long MAX_DELAY_MS = 5000;
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(task ->
+	{
+		final Thread thread = new Thread(task, "RateLimit-Retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Consumer<String> transport;
+	/**
+	 * Die zuletzt gesendeten Pakete in der Reihenfolge ihrer Nummern.
+	 */
+	private final ArrayDeque<Sent> history;
+	/**
+	 * Pakete, die während der Wartezeit gesendet werden sollen.
+	 */
+	private final ArrayDeque<String> held;
+	/**
+	 * Die Nummer des zuletzt gesendeten Pakets, das erste hat die Nummer 1.
+	 */
+	private long sent;
+	/**
+	 * Das erste verworfene Paket, 0 falls gerade nicht gewartet wird.
+	 */
+	private long retryFrom;
+	/**
+	 * Die Nummer des letzten Pakets, das aus {@link #history} verdrängt wurde.
+	 */
+	private long evicted;
+	private int attempts;
+	private long lastNotice;
+	private ScheduledFuture<?> scheduled;
+
+	/**
+	 * @param pTransport Sendet ein Paket an den Server
+	 */
+	RateLimitRetry(Consumer<String> pTransport)
+	{
+		this.transport = pTransport;
+		this.history = new ArrayDeque<>();
+		this.held = new ArrayDeque<>();
+	}
+
+	/**
+	 * Sendet das Paket, während der Wartezeit erst danach.
+	 */
+	synchronized void send(String pMessage)
+	{
+		if (retryFrom > 0)
+			held.add(pMessage);
+		else
+			transmit(pMessage);
+	}
+
+	/**
+	 * Verarbeitet ein <code>RateLimited</code> Paket des Servers.
+	 *
+	 * @param pFirstDropped Die Nummer des ersten verworfenen Pakets
+	 * @param pRetryAfterMs So lange sollte mindestens gewartet werden
+	 */
+	synchronized void rateLimited(long pFirstDropped, long pRetryAfterMs)
+	{
+		if (pFirstDropped <= 0 || pFirstDropped > sent)
+			return;
+
+		final long now = System.nanoTime();
+		// Liegt die letzte Ablehnung lange zurück, beginnt der Abstand wieder klein
+		if (now - lastNotice > TimeUnit.MILLISECONDS.toNanos(4 * MAX_DELAY_MS))
+			attempts = 0;
+		lastNotice = now;
+		retryFrom = retryFrom > 0 ? Math.min(retryFrom, pFirstDropped) : pFirstDropped;
+
+		final long backoff = Math.min(MAX_DELAY_MS, MIN_DELAY_MS << Math.min(attempts++, 16));
+		final long delay = Math.min(MAX_DELAY_MS, Math.max(pRetryAfterMs, backoff / 2
+				+ ThreadLocalRandom.current().nextLong(backoff / 2 + 1)));
+		if (scheduled != null)
+			scheduled.cancel(false);
+		scheduled = SCHEDULER.schedule(this::retry, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Vergisst alles, z. B. nach einer neuen Verbindung, für die der Server neu zählt.
+	 */
+	synchronized void reset()
+	{
+		if (scheduled != null)
+			scheduled.cancel(false);
+		scheduled = null;
+		history.clear();
+		held.clear();
+		sent = 0;
+		evicted = 0;
+		retryFrom = 0;
+		attempts = 0;
+	}
+
+	private synchronized void retry()
+	{
+		if (retryFrom == 0)
+			return;
+
+		// Die Marke zählt beim Server mit, wird aber selbst nie wiederholt
+		sent++;
+		transport.accept(RETRY_MARKER);
+
+		final List<String> resend = new ArrayList<>();
+		final Iterator<Sent> iterator = history.iterator();
+		while (iterator.hasNext())
+		{
+			final Sent candidate = iterator.next();
+			if (candidate.number >= retryFrom)
+			{
+				resend.add(candidate.message);
+				iterator.remove();
+			}
+		}
+		if (evicted >= retryFrom)
+			System.err.println("Nicht alle verworfenen Pakete konnten erneut gesendet werden");
+		retryFrom = 0;
+
+		for (String message : resend)
+			transmit(message);
+		while (!held.isEmpty())
+			transmit(held.poll());
+	}
+
+	private void transmit(String pMessage)
+	{
+		history.addLast(new Sent(++sent, pMessage));
+		if (history.size() > HISTORY_SIZE)
+			evicted = history.removeFirst().number;
+		transport.accept(pMessage);
+	}
+
+	private static final class Sent
+	{
+		private final long number;
+		private final String message;
+
+		private Sent(long pNumber, String pMessage)
+		{
+			this.number = pNumber;
+			this.message = pMessage;
+		}
+	}
+
+}
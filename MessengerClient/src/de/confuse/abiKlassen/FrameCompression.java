@@ -0,0 +1,175 @@
+package de.confuse.abiKlassen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Komprimiert die Nutzdaten von {@link Frame#TYPE_MESSAGE} Rahmen einer Verbindung mit Deflate und entpackt Rahmen
+ * mit {@link Frame#FLAG_DEFLATE}. {@link Deflater} und {@link Inflater} werden erst bei Bedarf angelegt und danach fuer
+ * jeden Rahmen der Verbindung wiederverwendet; ihren nativen Speicher gibt der Garbage Collector frei. Die Puffer
+ * dafuer gehoeren nicht der Verbindung, sondern dem Thread, und werden nur bis {@link #RETAINED_SCRATCH} Bytes
+ * aufbewahrt, damit ein einzelner grosser Rahmen nicht dauerhaft Speicher je Verbindung belegt.<br>
+ * Rahmen mit weniger als {@link #MIN_PAYLOAD} Bytes Nutzdaten werden nicht komprimiert, ebenso Rahmen, die dadurch
+ * nicht kleiner wuerden.<br>
+ * Nicht threadsicher: Komprimiert wird nur von dem Thread, der die Verbindung gerade beschreibt, entpackt nur von dem,
+ * der ihre Nachrichten bearbeitet, und {@link #peek(Frame, int)} nur von dem, der sie liest.
+ *
+ * @author Confuse
+ * @version 3
+ */
+final class FrameCompression
+{
+	/**
+	 * Kleinere Nutzdaten lohnen den Aufwand nicht, da Deflate erst bei Wiederholungen spart.
+	 */
+	static final int MIN_PAYLOAD = 256;
+	private static final int SCRATCH_SIZE = 8192;
+	/**
+	 * Groessere Puffer werden nach dem Rahmen, fuer den sie gebraucht wurden, verworfen.
+	 */
+	static final int RETAINED_SCRATCH = 64 * 1024;
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+	private Deflater deflater;
+	private Inflater inflater;
+	/**
+	 * Gehoert dem lesenden Thread, der {@link #peek(Frame, int)} aufruft, waehrend {@link #inflater} entpackt.
+	 */
+	private Inflater peekInflater;
+
+	/**
+	 * @param pFrame Ein vollstaendiger Rahmen, wie er auf der Leitung steht
+	 * @return Der komprimierte Rahmen oder <code>pFrame</code>, falls sich Komprimieren nicht lohnt.
+	 */
+	byte[] compress(byte[] pFrame)
+	{
+		final int payloadLength = pFrame.length - Frame.HEADER_SIZE;
+		if (payloadLength < MIN_PAYLOAD || pFrame[4] != Frame.TYPE_MESSAGE || (pFrame[5] & Frame.FLAG_DEFLATE) != 0)
+			return (pFrame);
+
+		if (deflater == null)
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		// Mehr als den unkomprimierten Rahmen braucht es nie, alles darueber lohnt sich nicht
+		final byte[] deflateBuffer = scratch(pFrame.length);
+
+		deflater.reset();
+		deflater.setInput(pFrame, Frame.HEADER_SIZE, payloadLength);
+		deflater.finish();
+		int length = Frame.HEADER_SIZE;
+		while (!deflater.finished())
+		{
+			if (length >= pFrame.length)
+				return (pFrame);
+			length += deflater.deflate(deflateBuffer, length, pFrame.length - length);
+		}
+		if (length >= pFrame.length)
+			return (pFrame);
+
+		Frame.writeHeader(deflateBuffer, length - Frame.HEADER_SIZE, pFrame[4],
+				(byte) (pFrame[5] | Frame.FLAG_DEFLATE));
+		final byte[] compressed = Arrays.copyOf(deflateBuffer, length);
+		keep(deflateBuffer);
+		return (compressed);
+	}
+
+	/**
+	 * @return Der entpackte Rahmen oder <code>pFrame</code>, falls er nicht komprimiert ist.
+	 * @throws IOException Falls die Nutzdaten beschaedigt sind oder entpackt {@link Frame#MAX_PAYLOAD} uebersteigen
+	 */
+	Frame inflate(Frame pFrame) throws IOException
+	{
+		if ((pFrame.getFlags() & Frame.FLAG_DEFLATE) == 0)
+			return (pFrame);
+
+		if (inflater == null)
+			inflater = new Inflater(true);
+		byte[] inflateBuffer = scratch(SCRATCH_SIZE);
+
+		inflater.reset();
+		inflater.setInput(pFrame.getData(), Frame.HEADER_SIZE, pFrame.getPayloadLength());
+		int length = Frame.HEADER_SIZE;
+		try
+		{
+			while (!inflater.finished())
+			{
+				if (length == inflateBuffer.length)
+				{
+					if (length == Frame.HEADER_SIZE + Frame.MAX_PAYLOAD)
+						throw new IOException("Entpackter Rahmen zu gross");
+					inflateBuffer = Arrays.copyOf(inflateBuffer, Math.min(length * 2, Frame.HEADER_SIZE
+							+ Frame.MAX_PAYLOAD));
+				}
+				final int inflated = inflater.inflate(inflateBuffer, length, inflateBuffer.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Unvollstaendiger komprimierter Rahmen");
+				length += inflated;
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException(e);
+		}
+
+		Frame.writeHeader(inflateBuffer, length - Frame.HEADER_SIZE, pFrame.getType(),
+				(byte) (pFrame.getFlags() & ~Frame.FLAG_DEFLATE));
+		final Frame inflated = new Frame(Arrays.copyOf(inflateBuffer, length));
+		keep(inflateBuffer);
+		return (inflated);
+	}
+
+	/**
+	 * Entpackt nur so viel, wie fuer den Anfang der Nutzdaten noetig ist.
+	 *
+	 * @return Hoechstens <code>pLength</code> Zeichen vom Anfang der Nutzdaten als ISO-8859-1, bei beschaedigten
+	 * Nutzdaten weniger; {@link #inflate(Frame)} meldet den Fehler spaeter.
+	 */
+	String peek(Frame pFrame, int pLength)
+	{
+		if ((pFrame.getFlags() & Frame.FLAG_DEFLATE) == 0)
+			return (new String(pFrame.getData(), Frame.HEADER_SIZE, Math.min(pFrame.getPayloadLength(), pLength),
+					StandardCharsets.ISO_8859_1));
+
+		if (peekInflater == null)
+			peekInflater = new Inflater(true);
+		final byte[] start = new byte[pLength];
+		int length = 0;
+		peekInflater.reset();
+		peekInflater.setInput(pFrame.getData(), Frame.HEADER_SIZE, pFrame.getPayloadLength());
+		try
+		{
+			int inflated;
+			while (length < pLength && (inflated = peekInflater.inflate(start, length, pLength - length)) > 0)
+				length += inflated;
+		}
+		catch (DataFormatException e)
+		{
+			/*
+			 * Es zaehlt, was bis dahin entpackt wurde.
+			 */
+		}
+		return (new String(start, 0, length, StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * @return Der Puffer des Threads, oder ein neuer, falls dieser zu klein ist.
+	 */
+	private static byte[] scratch(int pLength)
+	{
+		final byte[] scratch = SCRATCH.get();
+		return (scratch.length >= pLength ? scratch : new byte[pLength]);
+	}
+
+	/**
+	 * Bewahrt einen gewachsenen Puffer fuer den naechsten Rahmen des Threads auf, falls er nicht zu gross ist.
+	 */
+	private static void keep(byte[] pScratch)
+	{
+		if (pScratch.length <= RETAINED_SCRATCH)
+			SCRATCH.set(pScratch);
+	}
+
+}
@@ -0,0 +1,158 @@
+package de.confuse.abiKlassen;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Blockierendes Lesen einer Verbindung, die zunaechst zeilenweise und nach der Aushandlung in {@link Frame}s
+ * spricht. Zeilen werden wie bei {@link java.io.BufferedReader#readLine()} an '\n', '\r' oder "\r\n" getrennt und
+ * mit dem Standard-Zeichensatz dekodiert. Da Zeilen und Rahmen aus demselben Puffer gelesen werden, geht beim
+ * Wechsel nichts verloren. Das Array eines Rahmens waechst mit den angekommenen Bytes, damit ein Kopf mit grosser
+ * Laenge allein keinen Speicher belegt.
+ *
+ * @author Confuse
+ * @version 2
+ */
+class WireInput
+{
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * Laengere Zeilen werden als fehlerhafte Verbindung gewertet.
+	 */
+	private static final int MAX_LINE_LENGTH = 8 * 1024 * 1024;
+	/**
+	 * So gross ist das Array eines Rahmens anfangs hoechstens; es verdoppelt sich, bis der Rahmen hineinpasst.
+	 */
+	private static final int INITIAL_FRAME_CAPACITY = 64 * 1024;
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+	private byte[] line;
+	/**
+	 * Wird fuer jeden Rahmen wiederverwendet; nur die Bytes des Rahmens selbst werden neu angelegt, da sie z. B. beim
+	 * Weiterleiten in den Warteschlangen anderer Verbindungen liegen bleiben.
+	 */
+	private final byte[] header;
+	private boolean skipLineFeed;
+
+	WireInput(InputStream pIn)
+	{
+		in = pIn;
+		buffer = new byte[BUFFER_SIZE];
+		line = new byte[128];
+		header = new byte[Frame.HEADER_SIZE];
+	}
+
+	/**
+	 * @return Die naechste Zeile ohne Zeilentrenner oder <code>null</code> am Ende des Datenstroms.
+	 */
+	String readLine() throws IOException
+	{
+		int length = 0;
+		while (true)
+		{
+			if (position == limit && !fill())
+				return (length > 0 ? new String(line, 0, length, Charset.defaultCharset()) : null);
+
+			final byte b = buffer[position++];
+			if (skipLineFeed)
+			{
+				skipLineFeed = false;
+				if (b == '\n')
+					continue;
+			}
+
+			if (b == '\n' || b == '\r')
+			{
+				skipLineFeed = b == '\r';
+				return (new String(line, 0, length, Charset.defaultCharset()));
+			}
+
+			if (length == line.length)
+			{
+				if (length == MAX_LINE_LENGTH)
+					throw new IOException("Line too long");
+				final byte[] grown = new byte[Math.min(length * 2, MAX_LINE_LENGTH)];
+				System.arraycopy(line, 0, grown, 0, length);
+				line = grown;
+			}
+			line[length++] = b;
+		}
+	}
+
+	/**
+	 * @return Der naechste vollstaendige Rahmen oder <code>null</code> am Ende des Datenstroms.
+	 */
+	Frame readFrame() throws IOException
+	{
+		// Ein "\r\n" nach der letzten Zeile; das erste Byte eines Rahmens ist immer 0
+		if (skipLineFeed)
+		{
+			if (position == limit && !fill())
+				return (null);
+			if (buffer[position] == '\n')
+				position++;
+			skipLineFeed = false;
+		}
+
+		if (!readFully(header, 0, header.length, true))
+			return (null);
+
+		final int payloadLength = Frame.readPayloadLength(header);
+		if (payloadLength < 0)
+			throw new IOException("Invalid frame length");
+
+		final int frameLength = Frame.HEADER_SIZE + payloadLength;
+		byte[] data = new byte[Math.min(frameLength, INITIAL_FRAME_CAPACITY)];
+		System.arraycopy(header, 0, data, 0, Frame.HEADER_SIZE);
+		int dataLength = Frame.HEADER_SIZE;
+		while (dataLength < frameLength)
+		{
+			if (dataLength == data.length)
+				data = Arrays.copyOf(data, (int) Math.min(2L * data.length, frameLength));
+			readFully(data, dataLength, data.length - dataLength, false);
+			dataLength = data.length;
+		}
+		return (new Frame(data));
+	}
+
+	/**
+	 * @return false, falls der Datenstrom vor dem ersten Byte endet und <code>pEndAllowed</code> gesetzt ist.
+	 */
+	private boolean readFully(byte[] pTarget, int pOffset, int pLength, boolean pEndAllowed) throws IOException
+	{
+		int read = 0;
+		while (read < pLength)
+		{
+			if (position == limit && !fill())
+			{
+				if (read == 0 && pEndAllowed)
+					return (false);
+				throw new EOFException("Connection closed inside a frame");
+			}
+
+			final int n = Math.min(limit - position, pLength - read);
+			System.arraycopy(buffer, position, pTarget, pOffset + read, n);
+			position += n;
+			read += n;
+		}
+		return (true);
+	}
+
+	private boolean fill() throws IOException
+	{
+		final int n = in.read(buffer, 0, buffer.length);
+		if (n <= 0)
+			return (false);
+
+		position = 0;
+		limit = n;
+		return (true);
+	}
+
+}
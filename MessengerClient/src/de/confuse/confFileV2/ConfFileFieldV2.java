@@ -197,6 +197,22 @@ public class ConfFileFieldV2
 		return put(new ConfFileValueV2(key, null, values));
 	}
 
+	/**
+	 * Creates a {@link ConfFileValueV2} with the given values and inserts it in
+	 * front of all other {@link #values}. Used for values that should be found
+	 * without reading the whole field, see {@link ConfFileRoutingHeaderV2}.
+	 *
+	 * @param key    The key (name) to search for.
+	 * @param values The Values to add to the {@link ConfFileValueV2} field.
+	 * @return This objects instance for chaining.
+	 * @see #put(String, String...)
+	 */
+	public ConfFileFieldV2 putFirst(String key, String... values)
+	{
+		this.values.add(0, new ConfFileValueV2(key, null, values));
+		return this;
+	}
+
 	/**
 	 * Creates and adds a {@link ConfFileValueV2} with the given values to the
 	 * {@link #values} list.
@@ -0,0 +1,272 @@
+package de.confuse.confFileV2;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads only the routing information of a single inline {@link ConfFileFieldV2}, that is its name and the
+ * <code>receiver</code> value, e.g. from <code>Field: CryptoCommunication {(receiver ["127.0.0.1", "53241"]), ...}</code>.
+ * <br>
+ * Unlike the {@link ConfFileReaderV2} it scans from left to right, stops as soon as the receiver has been found and
+ * only allocates the name and the receiver values. Every other value is skipped without being copied, so writers
+ * should put the receiver in front of large values (see {@link ConfFileFieldV2#putFirst(String, String...)}) to make
+ * routing independent of the message size.
+ *
+ * @author Confuse
+ * @version 1
+ */
+public final class ConfFileRoutingHeaderV2
+{
+	private static final String FIELD_PREFIX = "Field:";
+	private static final String RECEIVER_KEY = "receiver";
+
+	private final String fieldName;
+	private final String[] receiver;
+
+	private ConfFileRoutingHeaderV2(String fieldName, String[] receiver)
+	{
+		this.fieldName = fieldName;
+		this.receiver = receiver;
+	}
+
+	/**
+	 * @param line A single inline field
+	 * @return The routing header or null, if the line does not start with an inline field.
+	 */
+	public static ConfFileRoutingHeaderV2 read(CharSequence line)
+	{
+		return new Scanner(line).read();
+	}
+
+	/**
+	 * Reads the header directly from UTF-8 encoded bytes, without decoding the whole field first.
+	 *
+	 * @param data   The array containing the field
+	 * @param offset The index of the first byte of the field
+	 * @param length The length of the field in bytes
+	 * @return The routing header or null, if the bytes do not start with an inline field.
+	 */
+	public static ConfFileRoutingHeaderV2 read(byte[] data, int offset, int length)
+	{
+		return new Scanner(new Utf8Sequence(data, offset, length)).read();
+	}
+
+	/**
+	 * @return The name of the field, e.g. <code>CryptoCommunication</code>
+	 */
+	public String getFieldName()
+	{return fieldName;}
+
+	/**
+	 * @return The values of the <code>receiver</code> key or null, if the field has none.
+	 */
+	public String[] getReceiver()
+	{return receiver;}
+
+	private static final class Scanner
+	{
+		private final CharSequence in;
+		private int pos;
+
+		private Scanner(CharSequence in)
+		{
+			this.in = in;
+		}
+
+		private ConfFileRoutingHeaderV2 read()
+		{
+			skipWhitespace();
+			if (!startsWith(FIELD_PREFIX))
+				return null;
+			pos += FIELD_PREFIX.length();
+
+			skipWhitespace();
+			final int nameStart = pos;
+			while (pos < in.length() && !Character.isWhitespace(in.charAt(pos)) && in.charAt(pos) != '{')
+				pos++;
+			final String name = in.subSequence(nameStart, pos).toString();
+
+			skipWhitespace();
+			if (!consume('{'))
+				return null;
+
+			// Values look like (key: "value") or (key ["value", "value"]) and are separated by commas
+			while (true)
+			{
+				while (pos < in.length() && (Character.isWhitespace(in.charAt(pos)) || in.charAt(pos) == ','))
+					pos++;
+				if (!consume('('))
+					return new ConfFileRoutingHeaderV2(name, null);
+
+				skipWhitespace();
+				final int keyStart = pos;
+				while (pos < in.length() && in.charAt(pos) != ':' && in.charAt(pos) != '['
+						&& !Character.isWhitespace(in.charAt(pos)))
+					pos++;
+				final boolean receiver = regionEquals(keyStart, pos, RECEIVER_KEY);
+
+				skipWhitespace();
+				consume(':');
+				skipWhitespace();
+
+				if (receiver)
+				{
+					final String[] values = readValues();
+					return new ConfFileRoutingHeaderV2(name, values);
+				}
+
+				if (!skipValue())
+					return new ConfFileRoutingHeaderV2(name, null);
+			}
+		}
+
+		/**
+		 * Reads a single quoted value or an array of quoted values.
+		 *
+		 * @return The unescaped values or null, if the value is malformed.
+		 */
+		private String[] readValues()
+		{
+			if (consume('"'))
+			{
+				final String value = readQuoted();
+				return value == null ? null : new String[]{value};
+			}
+
+			if (!consume('['))
+				return null;
+
+			String[] values = new String[0];
+			while (true)
+			{
+				while (pos < in.length() && (Character.isWhitespace(in.charAt(pos)) || in.charAt(pos) == ','))
+					pos++;
+				if (consume(']'))
+					return values;
+				if (!consume('"'))
+					return null;
+
+				final String value = readQuoted();
+				if (value == null)
+					return null;
+
+				final String[] grown = new String[values.length + 1];
+				System.arraycopy(values, 0, grown, 0, values.length);
+				grown[values.length] = value;
+				values = grown;
+			}
+		}
+
+		/**
+		 * @return The value up to the closing quote, which is consumed, or null if there is none.
+		 */
+		private String readQuoted()
+		{
+			final int start = pos;
+			if (!skipQuoted())
+				return null;
+			return ConfFileValueV2.replaceEscapeMarkers(in.subSequence(start, pos - 1).toString());
+		}
+
+		/**
+		 * Skips the rest of a value, including its comment and the closing bracket, without copying anything.
+		 *
+		 * @return false if the end of the input has been reached.
+		 */
+		private boolean skipValue()
+		{
+			while (pos < in.length())
+			{
+				final char c = in.charAt(pos++);
+				if (c == '"')
+				{
+					if (!skipQuoted())
+						return false;
+				}
+				else if (c == ')')
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Moves behind the next quote that is not escaped.
+		 */
+		private boolean skipQuoted()
+		{
+			while (pos < in.length())
+			{
+				final char c = in.charAt(pos++);
+				if (c == '"' && in.charAt(pos - 2) != '\\')
+					return true;
+			}
+			return false;
+		}
+
+		private void skipWhitespace()
+		{
+			while (pos < in.length() && Character.isWhitespace(in.charAt(pos)))
+				pos++;
+		}
+
+		private boolean consume(char c)
+		{
+			if (pos < in.length() && in.charAt(pos) == c)
+			{
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean startsWith(String prefix)
+		{
+			return regionEquals(pos, Math.min(pos + prefix.length(), in.length()), prefix);
+		}
+
+		private boolean regionEquals(int start, int end, String value)
+		{
+			if (end - start != value.length())
+				return false;
+
+			for (int i = 0; i < value.length(); i++)
+				if (in.charAt(start + i) != value.charAt(i))
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * A view of UTF-8 bytes as characters. Every byte is one char, which is enough to find the ASCII delimiters of a
+	 * field, as multibyte sequences never contain ASCII bytes. Only extracted parts are decoded properly.
+	 */
+	private static final class Utf8Sequence implements CharSequence
+	{
+		private final byte[] data;
+		private final int offset;
+		private final int length;
+
+		private Utf8Sequence(byte[] data, int offset, int length)
+		{
+			this.data = data;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length()
+		{return length;}
+
+		@Override
+		public char charAt(int index)
+		{return (char) (data[offset + index] & 0xFF);}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{return new Utf8Sequence(data, offset + start, end - start);}
+
+		@Override
+		public String toString()
+		{return new String(data, offset, length, StandardCharsets.UTF_8);}
+	}
+
+}
@@ -1,21 +1,47 @@
 package de.confuse;
 
+import de.confuse.abiKlassen.Frame;
+import de.confuse.abiKlassen.LatencyHistogram;
 import de.confuse.abiKlassen.Server;
+import de.confuse.abiKlassen.ServerOptions;
+import de.confuse.abiKlassen.ServerStats;
+import de.confuse.cluster.ClusterNode;
 import de.confuse.confFileV2.ConfFileFieldV2;
 import de.confuse.confFileV2.ConfFileReaderV2;
+import de.confuse.confFileV2.ConfFileRoutingHeaderV2;
+import de.confuse.ratelimit.RateLimiter;
 import de.confuse.security.AesUtilities;
+import de.confuse.security.RsaKeyPairPool;
 import de.confuse.security.RsaUtilities;
+import de.confuse.security.X25519Utilities;
+import de.confuse.session.HandshakeExecutor;
+import de.confuse.session.SessionTickets;
+import de.confuse.store.MessageJournal;
+import de.confuse.store.OfflineStore;
 import de.confuse.util.CryptoCommunication;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.PublicKey;
-import java.util.HashMap;
+import java.util.Base64;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MessengerServer extends Server
 {
+	/**
+	 * Mit diesem Paket zeigt ein Client nach einem <code>RateLimited</code> Paket an, dass er ab dem ersten verworfenen
+	 * Paket erneut sendet, siehe {@link RateLimiter}.
+	 */
+	private static final String RATE_LIMIT_RETRY = "RateLimitRetry";
+	private static final String HANDSHAKE_BUSY = new ConfFileFieldV2("Busy", true).put("kind", "handshake")
+			.getFormattedFieldV2(0);
+
 	private final MessengerServerMain messengerServerMain;
 
 	/**
@@ -36,15 +62,92 @@ public class MessengerServer extends Server
 	 * Keys werden wie folgt gespeichert:<br>
 	 * IP:Port, Bsp.: '127.0.0.1:53241'
 	 */
-	private final HashMap<String, CryptoCommunication.CryptoStorage[]> direktChatCryptoStorageHashMap;
+	private final ConcurrentHashMap<String, CryptoCommunication.CryptoStorage[]> direktChatCryptoStorageHashMap;
+	/**
+	 * Der Knoten im Cluster, über den Pakete an Clients anderer Server gehen, oder <code>null</code> ohne Cluster.
+	 */
+	private final ClusterNode cluster;
+	/**
+	 * Bewahrt Pakete an nicht verbundene Clients auf, oder <code>null</code>, falls sie verworfen werden.
+	 */
+	private final OfflineStore offlineStore;
+	/**
+	 * Zeichnet weitergeleitete <code>CryptoCommunication</code> Pakete auf, oder <code>null</code>.
+	 */
+	private final MessageJournal journal;
+	/**
+	 * Begrenzt die Pakete je Verbindung und IP-Adresse, oder <code>null</code> ohne Begrenzung.
+	 */
+	private final RateLimiter rateLimiter;
+	/**
+	 * Hält für Stage 1 Handshakes fertige RSA Schlüsselpaare bereit, oder <code>null</code>, falls sie erst beim
+	 * Handshake erzeugt werden.
+	 */
+	private final RsaKeyPairPool keyPairPool;
+	/**
+	 * Stellt nach dem Handshake Tickets aus, mit denen Clients ihre Sitzung fortsetzen können, oder
+	 * <code>null</code>, falls jeder Client einen vollständigen Handshake braucht.
+	 */
+	private final SessionTickets sessionTickets;
+	/**
+	 * Bearbeitet Handshakes an den Server abseits der lesenden Threads, oder <code>null</code>, falls sie dort
+	 * bearbeitet werden.
+	 */
+	private final HandshakeExecutor handshakeExecutor;
+	/**
+	 * Fortgesetzte Sitzungen behalten den Namen, unter dem ihr Client sich angemeldet hat, damit dessen
+	 * Direktverbindungen bestehen bleiben: alter Name -> aktuelle Verbindung.
+	 */
+	private final Map<String, String> aliases = new ConcurrentHashMap<>();
+	/**
+	 * Aktuelle Verbindung -> alter Name, siehe {@link #aliases}.
+	 */
+	private final Map<String, String> aliasOf = new ConcurrentHashMap<>();
+	/**
+	 * Verbindungen, die eine Sitzung mit einem Ticket fortgesetzt haben. Nur ihnen werden aufbewahrte Pakete
+	 * zugestellt: Das Ticket beweist, dass der Client der Empfänger ist, während die Adresse eines neuen Handshakes
+	 * auch ein anderer Client erhalten haben kann (NAT, wiederverwendete Ports).
+	 */
+	private final Set<String> resumedConnections = ConcurrentHashMap.newKeySet();
+	/**
+	 * Die Herausforderung jeder Verbindung, mit der ihr Client beim Fortsetzen beweist, dass er den Sitzungsschlüssel
+	 * kennt; sie wird beim ersten Versuch verbraucht.
+	 */
+	private final Map<String, byte[]> challenges = new ConcurrentHashMap<>();
+	/**
+	 * Laufzeiten des Handshakes und des Parsens, siehe {@link #getStatsReport()}.
+	 */
+	private final LatencyHistogram acceptToHandshake = new LatencyHistogram();
+	private final LatencyHistogram handshakeStage1 = new LatencyHistogram();
+	private final LatencyHistogram handshakeStage3 = new LatencyHistogram();
+	private final LatencyHistogram handshakeResume = new LatencyHistogram();
+	private final LatencyHistogram headerParse = new LatencyHistogram();
+	private final LatencyHistogram messageParse = new LatencyHistogram();
 
 	public MessengerServer(int pPort)
 	{
-		super(pPort);
+		this(pPort, new ServerOptions(), new MessengerServerOptions());
+	}
+
+	/**
+	 * @param pOptions          Die Einstellungen des zugrunde liegenden {@link Server}
+	 * @param pMessengerOptions Cluster, aufbewahrte Pakete, Journal und die weiteren Bestandteile; fehlende gibt es
+	 *                          nicht
+	 */
+	public MessengerServer(int pPort, ServerOptions pOptions, MessengerServerOptions pMessengerOptions)
+	{
+		super(pPort, pOptions);
 		this.messengerServerMain = MessengerServerMain.instance;
 
 		// Server Variablen
-		this.direktChatCryptoStorageHashMap = new HashMap<>();
+		this.direktChatCryptoStorageHashMap = new ConcurrentHashMap<>();
+		this.cluster = pMessengerOptions.getCluster();
+		this.offlineStore = pMessengerOptions.getOfflineStore();
+		this.journal = pMessengerOptions.getJournal();
+		this.rateLimiter = pMessengerOptions.getRateLimiter();
+		this.keyPairPool = pMessengerOptions.getKeyPairPool();
+		this.sessionTickets = pMessengerOptions.getSessionTickets();
+		this.handshakeExecutor = pMessengerOptions.getHandshakeExecutor();
 	}
 
 	@Override
@@ -53,18 +156,75 @@ public class MessengerServer extends Server
 		System.out.println("Connection: pClientIP = " + pClientIP + ", pClientPort = " + pClientPort);
 		// Neuer
 		direktChatCryptoStorageHashMap.put(pClientIP + ':' + pClientPort, new CryptoCommunication.CryptoStorage[2]);
+		if (rateLimiter != null)
+			rateLimiter.connected(pClientIP, pClientPort);
+		if (cluster != null)
+			cluster.addClient(pClientIP, pClientPort);
 		send(pClientIP, pClientPort, "Connection: pClientIP = " + pClientIP + ", pClientPort = " + pClientPort);
+		// Mit der Begrüßung erhält der Client die Herausforderung, die er beim Fortsetzen beantwortet
+		if (sessionTickets != null)
+		{
+			final byte[] challenge = sessionTickets.newChallenge();
+			challenges.put(pClientIP + ':' + pClientPort, challenge);
+			send(pClientIP, pClientPort, new ConfFileFieldV2("Greeting", true).put("challenge",
+					Base64.getEncoder().encodeToString(challenge)).getFormattedFieldV2(0));
+		}
 	}
 
 	// Eingehende Nachrichten
 	@Override
 	public void processMessage(String pClientIP, int pClientPort, String pMessage)
+	{
+		final boolean handshake = isHandshake(pMessage);
+		if (isField(pMessage, RATE_LIMIT_RETRY))
+			return;
+
+		// Weiterzuleitende Pakete werden nur bis zum Empfänger gelesen
+		final long headerStart = System.nanoTime();
+		final ConfFileRoutingHeaderV2 header = ConfFileRoutingHeaderV2.read(pMessage);
+		headerParse.recordSince(headerStart);
+		if (relay(header, null, pMessage, pClientIP, pClientPort))
+			return;
+		if (handshake)
+			dispatchHandshake(pClientIP, pClientPort, pMessage);
+		else
+			parseMessage(pClientIP, pClientPort, pMessage);
+	}
+
+	/**
+	 * Übergibt einen Handshake an den Server dem {@link HandshakeExecutor}. Ist dessen Warteschlange voll, wird der
+	 * Handshake verworfen und der Client mit einem <code>Busy</code> Paket gebeten, es später erneut zu versuchen.
+	 */
+	private void dispatchHandshake(String pClientIP, int pClientPort, String pMessage)
+	{
+		if (handshakeExecutor == null)
+		{
+			parseMessage(pClientIP, pClientPort, pMessage);
+			return;
+		}
+
+		final boolean submitted = handshakeExecutor.submit(() ->
+		{
+			// Während der Handshake wartete, kann sich der Client getrennt haben
+			if (isConnectedTo(pClientIP, pClientPort))
+				parseMessage(pClientIP, pClientPort, pMessage);
+		});
+		if (!submitted)
+			send(pClientIP, pClientPort, HANDSHAKE_BUSY);
+	}
+
+	/**
+	 * Parst und bearbeitet ein Paket, das nicht weitergeleitet wurde.
+	 */
+	private void parseMessage(String pClientIP, int pClientPort, String pMessage)
 	{
 		System.out.println("Message: pClientIP = " + pClientIP + ", pClientPort = " + pClientPort + ", pMessage = " + pMessage);
 
 		try
 		{
+			final long parseStart = System.nanoTime();
 			final ConfFileReaderV2 inputReader = new ConfFileReaderV2(pMessage);
+			messageParse.recordSince(parseStart);
 			final String user = pClientIP + ':' + pClientPort;
 			final ConfFileFieldV2 field;
 
@@ -72,11 +232,37 @@ public class MessengerServer extends Server
 					"server"))
 			{
 				final String stage = field.getValue("stage");
+				final long stageStart = System.nanoTime();
 
-				if (stage.equals("1"))
+				if (stage.equals("1") && CryptoCommunication.isX25519Handshake(field))
+				{
+					// Schlüsselaustausch mit X25519: kein RSA Schlüsselpaar und keine RSA Verschlüsselung nötig
+					final KeyPair serverKeyPair = X25519Utilities.generateKeyPair();
+					final CryptoCommunication.CryptoStorage sitzung = CryptoCommunication.deriveX25519Session(
+							serverKeyPair, CryptoCommunication.extractX25519PublicKey(field), false);
+					if (sitzung == null)
+					{
+						System.err.println("Stage 1 Handshake failed");
+						send(pClientIP, pClientPort, CryptoCommunication.generateCryptoHandshakeFailure()
+								.put("sender", "server").put("receiver", user).getFormattedFieldV2(0));
+						return;
+					}
+					direktChatCryptoStorageHashMap.get(user)[0] = sitzung;
+					direktChatCryptoStorageHashMap.get(user)[1] = sitzung;
+
+					final ConfFileFieldV2 stage2HandshakeOutgoing = CryptoCommunication
+							.generateCryptoHandshakeStage2X25519(serverKeyPair.getPublic()).put("name", user)
+							.put("sender", "server").put("receiver", user);
+					if ("deflate".equals(field.getValue("compression")) && enableCompression(pClientIP, pClientPort))
+						stage2HandshakeOutgoing.put("compression", "deflate");
+					send(pClientIP, pClientPort, stage2HandshakeOutgoing.getFormattedFieldV2(0));
+					handshakeStage1.recordSince(stageStart);
+				}
+				else if (stage.equals("1"))
 				{
 					final PublicKey externerPublicKey = CryptoCommunication.extractHandshakeDataStage1(field);
-					final KeyPair clientKeyPair = RsaUtilities.generateRsaKeyPair();
+					final KeyPair clientKeyPair = keyPairPool != null ? keyPairPool.take()
+							: RsaUtilities.generateRsaKeyPair();
 					final IvParameterSpec clientIvParameterSpec = AesUtilities.generateIv();
 					final SecretKey clientSecretKey = AesUtilities.generateSecretKey(256);
 					direktChatCryptoStorageHashMap.get(user)[0] =
@@ -93,16 +279,30 @@ public class MessengerServer extends Server
 									, clientKeyPair.getPublic(), clientSecretKey, clientIvParameterSpec)).put("name",
 									user).put("sender", "server").put("receiver", user);
 					assert stage2HandshakeOutgoing != null;
+					// Bietet der Client Komprimierung an, ist schon diese Antwort mit den Schlüsseln komprimiert
+					if ("deflate".equals(field.getValue("compression")) && enableCompression(pClientIP, pClientPort))
+						stage2HandshakeOutgoing.put("compression", "deflate");
 					send(pClientIP, pClientPort, stage2HandshakeOutgoing.getFormattedFieldV2(0));
+					handshakeStage1.recordSince(stageStart);
 				}
 				else if (stage.equals("3"))
 				{
 					// Prüft, ob alles funktioniert hat
-					if (CryptoCommunication.extractHandshakeDataStage3(field,
-							direktChatCryptoStorageHashMap.get(user)[1],
-							direktChatCryptoStorageHashMap.get(user)[0].serverPrivateKey))
+					final CryptoCommunication.CryptoStorage[] cryptoStorages = direktChatCryptoStorageHashMap.get(user);
+					if (CryptoCommunication.X25519_HANDSHAKE_VERSION.equals(field.getValue("version"))
+							? CryptoCommunication.extractHandshakeDataStage3X25519(field, cryptoStorages[1])
+							: CryptoCommunication.extractHandshakeDataStage3(field, cryptoStorages[1],
+							cryptoStorages[0].serverPrivateKey))
 					{
 						System.out.println("Stage 3 bestätigt");
+						handshakeStage3.recordSince(stageStart);
+						final long accepted = getAcceptedNanos(pClientIP, pClientPort);
+						if (accepted >= 0)
+							acceptToHandshake.recordSince(accepted);
+						// Nur Clients, die Tickets kennen, fragen danach
+						if (sessionTickets != null && "ticket".equals(field.getValue("resume")))
+							send(pClientIP, pClientPort, ticketHandshake("ticket", user, user, cryptoStorages[1])
+									.getFormattedFieldV2(0));
 					}
 					else
 					{
@@ -114,6 +314,16 @@ public class MessengerServer extends Server
 
 					return;
 				}
+				else if (stage.equals(CryptoCommunication.RESUME_STAGE))
+				{
+					if (resume(pClientIP, pClientPort, field))
+					{
+						handshakeResume.recordSince(stageStart);
+						final long accepted = getAcceptedNanos(pClientIP, pClientPort);
+						if (accepted >= 0)
+							acceptToHandshake.recordSince(accepted);
+					}
+				}
 
 				return;
 			}
@@ -149,9 +359,498 @@ public class MessengerServer extends Server
 
 	}
 
+	/**
+	 * Leitet Pakete, die an einen anderen Client gerichtet sind, direkt als Bytes weiter. Der verschlüsselte Inhalt wird
+	 * dabei weder dekodiert noch geparst; alles andere wird dekodiert und wie in
+	 * {@link #processMessage(String, int, String)} bearbeitet; den {@link RateLimiter} hat schon
+	 * {@link #admitMessage(String, int, String)} gefragt.
+	 */
+	@Override
+	public boolean processFrame(String pClientIP, int pClientPort, Frame pFrame)
+	{
+		final String start = new String(pFrame.getData(), Frame.HEADER_SIZE,
+				Math.min(pFrame.getPayloadLength(), ADMIT_SCAN_LENGTH), StandardCharsets.ISO_8859_1);
+		final boolean handshake = isHandshake(start);
+		if (isField(start, RATE_LIMIT_RETRY))
+			return true;
+
+		final long headerStart = System.nanoTime();
+		final ConfFileRoutingHeaderV2 header = ConfFileRoutingHeaderV2.read(pFrame.getData(), Frame.HEADER_SIZE,
+				pFrame.getPayloadLength());
+		headerParse.recordSince(headerStart);
+		if (relay(header, pFrame, null, pClientIP, pClientPort))
+			return true;
+		if (handshake)
+			dispatchHandshake(pClientIP, pClientPort, pFrame.getText());
+		else
+			parseMessage(pClientIP, pClientPort, pFrame.getText());
+		return true;
+	}
+
+	/**
+	 * Fragt den {@link RateLimiter}, bevor ein Paket zur Bearbeitung weitergereicht wird. Ein abgelehntes Paket kostet
+	 * nur diese Prüfung im lesenden Thread; der Client erfährt nur von der ersten Ablehnung in Folge, ab welchem Paket
+	 * er erneut senden muss, und wie lange er mindestens warten sollte.
+	 */
+	@Override
+	public boolean admitMessage(String pClientIP, int pClientPort, String pStart)
+	{
+		if (rateLimiter == null)
+			return true;
+
+		final boolean handshake = isHandshake(pStart);
+		switch (rateLimiter.tryAcquire(pClientIP, pClientPort, handshake, isField(pStart, RATE_LIMIT_RETRY)))
+		{
+			case ADMIT:
+				return true;
+			case REJECT_AND_NOTIFY:
+				send(pClientIP, pClientPort, new ConfFileFieldV2("RateLimited", true)
+						.put("kind", handshake ? "handshake" : "message")
+						.put("packet", Long.toString(rateLimiter.getFirstDropped(pClientIP, pClientPort)))
+						.put("retryAfter", Long.toString(rateLimiter.getRetryAfterMillis(pClientIP, pClientPort)))
+						.getFormattedFieldV2(0));
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Erkennt einen <code>CryptoHandshake</code> nur am Anfang des Pakets, ohne es zu parsen. Leerraum wird wie vom
+	 * {@link ConfFileRoutingHeaderV2} übersprungen, damit sich ein Handshake nicht als gewöhnliches Paket ausgeben
+	 * kann.
+	 */
+	private static boolean isHandshake(String pMessage)
+	{
+		return isField(pMessage, "CryptoHandshake");
+	}
+
+	/**
+	 * @return true, falls das Paket mit dem Feld <code>pName</code> beginnt.
+	 */
+	private static boolean isField(String pMessage, String pName)
+	{
+		int position = skipWhitespace(pMessage, 0);
+		if (!pMessage.startsWith("Field:", position))
+			return false;
+		position = skipWhitespace(pMessage, position + "Field:".length());
+		return pMessage.startsWith(pName, position);
+	}
+
+	private static int skipWhitespace(String pMessage, int pPosition)
+	{
+		while (pPosition < pMessage.length() && Character.isWhitespace(pMessage.charAt(pPosition)))
+			pPosition++;
+		return pPosition;
+	}
+
+	/**
+	 * Setzt die Sitzung eines Clients mit dem Ticket seines <code>resume</code> Handshakes fort, siehe
+	 * {@link SessionTickets}. Der Client behält dabei den Namen, unter dem er die Sitzung begonnen hat, damit ihn seine
+	 * Direktverbindungen weiterhin erreichen.
+	 *
+	 * @return true, falls die Sitzung fortgesetzt wurde.
+	 */
+	private boolean resume(String pClientIP, int pClientPort, ConfFileFieldV2 pHandshake)
+	{
+		final String user = pClientIP + ':' + pClientPort;
+		// Jede Herausforderung gilt nur für einen Versuch
+		final SessionTickets.Session session = sessionTickets != null ? sessionTickets.redeem(pHandshake,
+				challenges.remove(user)) : null;
+		final CryptoCommunication.CryptoStorage[] cryptoStorages = direktChatCryptoStorageHashMap.get(user);
+		if (session == null || cryptoStorages == null)
+		{
+			// Der Client meldet sich daraufhin mit einem vollständigen Handshake an
+			send(pClientIP, pClientPort, new ConfFileFieldV2("CryptoHandshake", true)
+					.put("stage", CryptoCommunication.RESUME_STAGE).put("status", "failed").put("sender", "server")
+					.put("receiver", user).getFormattedFieldV2(0));
+			return false;
+		}
+
+		cryptoStorages[0] = session.getStorage();
+		cryptoStorages[1] = session.getStorage();
+		if (!session.getName().equals(user))
+			claimName(session.getName(), pClientIP, pClientPort);
+
+		final ConfFileFieldV2 resumed = ticketHandshake("resumed", session.getName(), user, session.getStorage());
+		if ("deflate".equals(pHandshake.getValue("compression")) && enableCompression(pClientIP, pClientPort))
+			resumed.put("compression", "deflate");
+		send(pClientIP, pClientPort, resumed.getFormattedFieldV2(0));
+		resumedConnections.add(user);
+		deliverOffline(session.getName(), pClientIP, pClientPort);
+		return true;
+	}
+
+	/**
+	 * Leitet Pakete an den alten Namen einer fortgesetzten Sitzung an deren aktuelle Verbindung weiter. Eine noch
+	 * bestehende Verbindung unter diesem Namen wird getrennt.
+	 */
+	private void claimName(String pName, String pClientIP, int pClientPort)
+	{
+		final String user = pClientIP + ':' + pClientPort;
+		final String previous = aliases.put(pName, user);
+		aliasOf.put(user, pName);
+
+		// Die alte Verbindung ist womöglich noch nicht als getrennt erkannt
+		final String stale = previous != null ? previous : pName;
+		final int separator = stale.lastIndexOf(':');
+		final String staleIP = stale.substring(0, separator);
+		final int stalePort = Integer.parseInt(stale.substring(separator + 1));
+		if (isConnectedTo(staleIP, stalePort))
+			closeConnection(staleIP, stalePort);
+
+		final int nameSeparator = pName.lastIndexOf(':');
+		if (cluster != null)
+			cluster.addClient(pName.substring(0, nameSeparator), Integer.parseInt(pName.substring(nameSeparator + 1)));
+	}
+
+	/**
+	 * Stellt einen Handshake mit einem neuen Ticket für die Sitzung zusammen; ohne Ticket, falls es nicht
+	 * verschlüsselt werden konnte.
+	 */
+	private ConfFileFieldV2 ticketHandshake(String pStage, String pName, String pReceiver,
+			CryptoCommunication.CryptoStorage pSession)
+	{
+		final ConfFileFieldV2 handshake = new ConfFileFieldV2("CryptoHandshake", true).put("stage", pStage)
+				.put("name", pName);
+		final String ticket = sessionTickets.issue(pName, pSession);
+		if (ticket != null)
+			handshake.put("ticket", ticket);
+		return handshake.put("sender", "server").put("receiver", pReceiver);
+	}
+
+	/**
+	 * @return Wie oft der {@link RateLimiter} Pakete abgelehnt hat, oder <code>null</code> ohne Begrenzung.
+	 */
+	public RateLimiter getRateLimiter()
+	{
+		return rateLimiter;
+	}
+
+	/**
+	 * @return Der Vorrat an Schlüsselpaaren für Handshakes, oder <code>null</code>, falls sie erst beim Handshake
+	 * erzeugt werden.
+	 */
+	public RsaKeyPairPool getKeyPairPool()
+	{
+		return keyPairPool;
+	}
+
+	/**
+	 * @return Die Tickets zum Fortsetzen von Sitzungen, oder <code>null</code>, falls keine ausgestellt werden.
+	 */
+	public SessionTickets getSessionTickets()
+	{
+		return sessionTickets;
+	}
+
+	/**
+	 * @return Der Executor für Handshakes, oder <code>null</code>, falls sie auf den lesenden Threads bearbeitet
+	 * werden.
+	 */
+	public HandshakeExecutor getHandshakeExecutor()
+	{
+		return handshakeExecutor;
+	}
+
+	/**
+	 * @return Die Zeit von der Annahme einer Verbindung bis zur Bestätigung von Stage 3 des Handshakes.
+	 */
+	public LatencyHistogram getAcceptToHandshakeLatency()
+	{
+		return acceptToHandshake;
+	}
+
+	/**
+	 * @return Die Bearbeitungszeit von Stage 1 des Handshakes, einschließlich der Erzeugung der Schlüssel, sofern der
+	 * {@link RsaKeyPairPool} kein fertiges Paar hatte.
+	 */
+	public LatencyHistogram getHandshakeStage1Latency()
+	{
+		return handshakeStage1;
+	}
+
+	/**
+	 * @return Die Bearbeitungszeit von Stage 3 des Handshakes.
+	 */
+	public LatencyHistogram getHandshakeStage3Latency()
+	{
+		return handshakeStage3;
+	}
+
+	/**
+	 * @return Die Bearbeitungszeit eines Handshakes, der eine Sitzung mit einem Ticket fortsetzt.
+	 */
+	public LatencyHistogram getHandshakeResumeLatency()
+	{
+		return handshakeResume;
+	}
+
+	/**
+	 * @return Die Zeit zum Lesen des Routing-Headers eines Pakets.
+	 */
+	public LatencyHistogram getHeaderParseLatency()
+	{
+		return headerParse;
+	}
+
+	/**
+	 * @return Die Zeit zum vollständigen Parsen eines Pakets, das nicht weitergeleitet wurde.
+	 */
+	public LatencyHistogram getMessageParseLatency()
+	{
+		return messageParse;
+	}
+
+	/**
+	 * @return Alle Zähler und Laufzeiten des Servers, eine Zeile je Messwert.
+	 */
+	public String getStatsReport()
+	{
+		final ServerStats stats = getStats();
+		final String separator = System.lineSeparator();
+		return "Verbindungen: aktiv " + stats.getActiveConnections() + ", insgesamt " + stats.getOpenedConnections()
+				+ separator + "Nachrichten: ein " + stats.getMessagesIn() + ", aus " + stats.getMessagesOut()
+				+ separator + "Bytes: ein " + stats.getBytesIn() + ", aus " + stats.getBytesOut()
+				+ separator + "Verbindungsaufbau: " + stats.getSetupLatency()
+				+ separator + "Annahme bis Handshake: " + acceptToHandshake
+				+ separator + "Handshake Stage 1: " + handshakeStage1
+				+ separator + "Handshake Stage 3: " + handshakeStage3
+				+ separator + "Handshake fortsetzen: " + handshakeResume
+				+ separator + "Header lesen: " + headerParse
+				+ separator + "Paket parsen: " + messageParse
+				+ separator + "Warten auf Versand: " + stats.getOutboundLatency()
+				+ separator + "Langsame Empfänger: " + getSlowConsumerStats()
+				+ (rateLimiter != null ? separator + "Begrenzung: " + rateLimiter : "")
+				+ (keyPairPool != null ? separator + "Schlüsselpaare: " + keyPairPool : "")
+				+ (sessionTickets != null ? separator + "Tickets: " + sessionTickets : "")
+				+ (handshakeExecutor != null ? separator + "Handshake-Threads: " + handshakeExecutor : "");
+	}
+
+	/**
+	 * Leitet Pakete, die an einen anderen Client gerichtet sind, anhand ihres Headers weiter. Der verschlüsselte Inhalt
+	 * wird dabei weder geparst noch, bei Rahmen, dekodiert.
+	 *
+	 * @param pHeader  Der Header des Pakets, kann <code>null</code> sein
+	 * @param pFrame   Das Paket als Rahmen oder <code>null</code>
+	 * @param pMessage Das Paket als Zeile, falls es nicht als Rahmen vorliegt
+	 * @return true, falls das Paket weitergeleitet wurde und nicht weiter verarbeitet werden muss.
+	 */
+	private boolean relay(ConfFileRoutingHeaderV2 pHeader, Frame pFrame, String pMessage, String pSenderIP,
+			int pSenderPort)
+	{
+		if (pHeader == null || !(pHeader.getFieldName().equals("CryptoCommunication") || pHeader.getFieldName().equals(
+				"CryptoHandshake")))
+			return false;
+
+		final String[] receiver = pHeader.getReceiver();
+		if (receiver == null || receiver.length < 2 || receiver[0].equals("server"))
+			return false;
+
+		// Aufgezeichnet werden die Nutzdaten, wie sie vorliegen; eine Zeile wird dafür höchstens einmal kodiert
+		byte[] data = pFrame != null ? pFrame.getData() : null;
+		final int offset = pFrame != null ? Frame.HEADER_SIZE : 0;
+		if (journal != null && pHeader.getFieldName().equals("CryptoCommunication"))
+			try
+			{
+				if (data == null)
+					data = pMessage.getBytes(StandardCharsets.UTF_8);
+				journal.append(data, offset, data.length - offset);
+			}
+			catch (IOException e)
+			{
+				System.err.println("Journal: " + e.getMessage());
+			}
+
+		try
+		{
+			final String ip = receiver[0];
+			final int port = Integer.parseInt(receiver[1]);
+			if (deliver(ip, port, pFrame, pMessage))
+				return true;
+
+			// Fortgesetzte Sitzungen sind unter ihrem alten Namen erreichbar
+			final String alias = aliases.isEmpty() ? null : aliases.get(ip + ':' + port);
+			if (alias != null)
+			{
+				final int separator = alias.lastIndexOf(':');
+				if (deliver(alias.substring(0, separator), Integer.parseInt(alias.substring(separator + 1)), pFrame,
+						pMessage))
+					return true;
+			}
+
+			// Ist der Empfänger nicht hier verbunden, geht das Paket an seinen Knoten oder wartet auf ihn
+			if (data == null)
+				data = pMessage.getBytes(StandardCharsets.UTF_8);
+			if (cluster != null && cluster.forward(ip, port, data, offset, data.length - offset))
+				return true;
+			// Handshakes gelten nur der Verbindung, an die sie gerichtet sind, und werden nie aufbewahrt
+			if (pHeader.getFieldName().equals("CryptoCommunication"))
+				storeOffline(ip, port, data, offset, data.length - offset, pSenderIP, pSenderPort);
+			else
+				sendDeliveryStatus(pSenderIP, pSenderPort, ip, port, "undeliverable");
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("Invalid receiver: " + receiver[1]);
+		}
+		return true;
+	}
+
+	/**
+	 * Stellt ein Paket direkt an einen hier verbundenen Client zu.
+	 *
+	 * @return true, falls der Client hier verbunden ist.
+	 */
+	private boolean deliver(String pClientIP, int pClientPort, Frame pFrame, String pMessage)
+	{
+		if (pFrame != null)
+			return relay(pClientIP, pClientPort, pFrame);
+		if (!isConnectedTo(pClientIP, pClientPort))
+			return false;
+		send(pClientIP, pClientPort, pMessage);
+		return true;
+	}
+
 	@Override
 	public void processClosingConnection(String pClientIP, int pClientPort)
 	{
 		System.out.println("Disconnect: pClientIP = " + pClientIP + ", pClientPort = " + pClientPort);
+		final String user = pClientIP + ':' + pClientPort;
+		// Schlüssel getrennter Verbindungen werden nicht mehr gebraucht
+		final CryptoCommunication.CryptoStorage[] cryptoStorages = direktChatCryptoStorageHashMap.remove(user);
+		if (cryptoStorages != null)
+			for (CryptoCommunication.CryptoStorage cryptoStorage : cryptoStorages)
+				if (cryptoStorage != null)
+					cryptoStorage.destroy();
+		resumedConnections.remove(user);
+		challenges.remove(user);
+		if (rateLimiter != null)
+			rateLimiter.disconnected(pClientIP, pClientPort);
+
+		// Der alte Name gilt nur, solange keine neuere Verbindung ihn übernommen hat
+		final String alias = aliasOf.remove(user);
+		if (alias != null && aliases.remove(alias, user) && cluster != null)
+		{
+			final int separator = alias.lastIndexOf(':');
+			cluster.removeClient(alias.substring(0, separator), Integer.parseInt(alias.substring(separator + 1)));
+		}
+		// Hat eine fortgesetzte Sitzung den Namen übernommen, bleibt sie im Cluster darunter erreichbar
+		if (cluster != null && !aliases.containsKey(user))
+			cluster.removeClient(pClientIP, pClientPort);
+	}
+
+	/**
+	 * Stellt ein Paket für einen nicht verbundenen Client in den {@link OfflineStore} und teilt dem Absender mit einem
+	 * <code>DeliveryStatus</code> mit, ob es aufbewahrt wird. Aufbewahrt wird unter dem Namen, an den das Paket
+	 * gerichtet ist; eine fortgesetzte Sitzung behält diesen Namen auch unter einer neuen Adresse. Zugestellt wird
+	 * erst, wenn der Empfänger seine Sitzung fortsetzt.
+	 */
+	private void storeOffline(String pClientIP, int pClientPort, byte[] pData, int pOffset, int pLength,
+			String pSenderIP, int pSenderPort)
+	{
+		if (offlineStore == null)
+		{
+			sendDeliveryStatus(pSenderIP, pSenderPort, pClientIP, pClientPort, "undeliverable");
+			return;
+		}
+
+		final String name = pClientIP + ':' + pClientPort;
+		final boolean queued = offlineStore.store(name, pData, pOffset, pLength, stored ->
+		{
+			sendDeliveryStatus(pSenderIP, pSenderPort, pClientIP, pClientPort, stored ? "stored" : "failed");
+			// Der Empfänger kann seinen Handshake abgeschlossen haben, während das Paket geschrieben wurde
+			final String connection = stored ? sessionOf(name) : null;
+			if (connection != null)
+			{
+				final int separator = connection.lastIndexOf(':');
+				deliverOffline(name, connection.substring(0, separator),
+						Integer.parseInt(connection.substring(separator + 1)));
+			}
+		});
+		if (!queued)
+			sendDeliveryStatus(pSenderIP, pSenderPort, pClientIP, pClientPort, "failed");
+	}
+
+	/**
+	 * Stellt die für den Namen aufbewahrten Pakete in ihrer Reihenfolge an den Client zu. Trennt er sich
+	 * währenddessen, bleibt der Rest in derselben Reihenfolge aufbewahrt.
+	 *
+	 * @param pName Der Name, unter dem die Pakete aufbewahrt wurden; bei fortgesetzten Sitzungen nicht die Adresse
+	 *              des Clients
+	 */
+	private void deliverOffline(String pName, String pClientIP, int pClientPort)
+	{
+		if (offlineStore != null)
+			offlineStore.deliver(pName, payload -> relay(pClientIP, pClientPort,
+					Frame.of(Frame.TYPE_MESSAGE, (byte) 0, payload)));
+	}
+
+	/**
+	 * @return Die Verbindung, die die Sitzung des Namens mit einem Ticket fortgesetzt hat, oder <code>null</code>.
+	 */
+	private String sessionOf(String pName)
+	{
+		final String alias = aliases.get(pName);
+		final String connection = alias != null ? alias : pName;
+		return resumedConnections.contains(connection) ? connection : null;
+	}
+
+	private void sendDeliveryStatus(String pSenderIP, int pSenderPort, String pClientIP, int pClientPort,
+			String pStatus)
+	{
+		send(pSenderIP, pSenderPort, new ConfFileFieldV2("DeliveryStatus", true)
+				.put("recipient", pClientIP, String.valueOf(pClientPort)).put("status", pStatus)
+				.getFormattedFieldV2(0));
+	}
+
+	/**
+	 * Beendet auch die Verbindungen zu den anderen Knoten des Clusters und hält die weiteren Bestandteile an, siehe
+	 * {@link #closeComponents()}.
+	 */
+	@Override
+	public void close()
+	{
+		super.close();
+		closeComponents();
+	}
+
+	/**
+	 * Die anderen Knoten des Clusters erfahren durch die Abmeldung der Clients, dass diese nicht mehr erreichbar sind,
+	 * und werden erst danach getrennt.
+	 */
+	@Override
+	public void drain(String pAlternative)
+	{
+		super.drain(pAlternative);
+		closeComponents();
+	}
+
+	/**
+	 * Beendet die Verbindungen zu den anderen Knoten des Clusters, schreibt den {@link OfflineStore} und das
+	 * {@link MessageJournal} fest und hält den {@link RsaKeyPairPool}, den {@link HandshakeExecutor} und den
+	 * {@link RateLimiter} an. Erst aufzurufen, wenn keine Verbindung mehr besteht.
+	 */
+	private void closeComponents()
+	{
+		if (cluster != null)
+			cluster.close();
+		if (offlineStore != null)
+			offlineStore.close();
+		if (journal != null)
+			try
+			{
+				journal.close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Journal: " + e.getMessage());
+			}
+		if (keyPairPool != null)
+			keyPairPool.close();
+		if (handshakeExecutor != null)
+			handshakeExecutor.close();
+		if (rateLimiter != null)
+			rateLimiter.close();
 	}
 }
@@ -1,11 +1,27 @@
 package de.confuse;
 
+import de.confuse.abiKlassen.ServerOptions;
+import de.confuse.cluster.ClusterNode;
+import de.confuse.ratelimit.RateLimiter;
+import de.confuse.ratelimit.TokenBucket;
+import de.confuse.security.AesUtilities;
+import de.confuse.security.RsaKeyPairPool;
+import de.confuse.session.HandshakeExecutor;
+import de.confuse.session.SessionTickets;
+import de.confuse.store.MessageJournal;
+import de.confuse.store.OfflineStore;
 import de.confuse.util.CryptoCommunication;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class MessengerServerMain
 {
@@ -14,19 +30,429 @@ public class MessengerServerMain
 
 	public static void main(String[] args)
 	{
-		new MessengerServerMain();
+		new MessengerServerMain(args);
 	}
 
-	public MessengerServerMain()
+	public MessengerServerMain(String[] args)
 	{
 		System.out.println("Starte Server...");
 		instance = this;
-		this.messengerServer = new MessengerServer(1887);
+		final ClusterNode cluster = parseCluster(args);
+		this.messengerServer = new MessengerServer(parsePort(args, "port", 1887), parseOptions(args),
+				new MessengerServerOptions().cluster(cluster).offlineStore(parseOfflineStore(args))
+						.journal(parseJournal(args)).rateLimiter(parseRateLimiter(args))
+						.keyPairPool(parseKeyPairPool(args)).sessionTickets(parseSessionTickets(args))
+						.handshakeExecutor(parseHandshakeExecutor(args)));
+		if (cluster != null)
+			try
+			{
+				cluster.start(messengerServer);
+				System.out.println("Cluster-Knoten " + cluster.getNodeId() + " gestartet");
+			}
+			catch (IOException e)
+			{
+				System.err.println("Cluster konnte nicht gestartet werden: " + e.getMessage());
+				messengerServer.close();
+				return;
+			}
 
 		consoleThread();
 		System.out.println("Server Online!");
 	}
 
+	/**
+	 * Liest die Startparameter im Format <code>name=wert</code>, z. B. <code>backend=selector
+	 * selectorThreads=4</code> oder <code>backend=virtual</code>. Unbekannte Parameter und ungültige Werte werden
+	 * gemeldet und ignoriert, es gilt dann der Standardwert.<br>
+	 * Bei Leerlauf getrennt werden standardmäßig nur Verbindungen mit Rahmen, die auf Pings nicht antworten; stille
+	 * Verbindungen mit Zeilen erst, wenn <code>reapIdleLines=on</code> gesetzt ist.
+	 */
+	private static ServerOptions parseOptions(String[] args)
+	{
+		final ServerOptions options = new ServerOptions();
+		for (String arg : args)
+		{
+			final String name = arg.substring(0, Math.max(arg.indexOf('='), 0)).trim();
+			final String value = arg.substring(arg.indexOf('=') + 1).trim();
+
+			try
+			{
+				if (name.equalsIgnoreCase("backend"))
+					options.backend(parseBackend(value));
+				else if (name.equalsIgnoreCase("selectorThreads"))
+					options.selectorThreads(Integer.parseInt(value));
+				else if (name.equalsIgnoreCase("outboundLimit"))
+					options.outboundLimit(Integer.parseInt(value));
+				else if (name.equalsIgnoreCase("slowConsumer"))
+					options.slowConsumerPolicy(ServerOptions.SlowConsumerPolicy.valueOf(value.toUpperCase()));
+				else if (name.equalsIgnoreCase("spillDirectory"))
+					options.spillDirectory(new File(value));
+				else if (name.equalsIgnoreCase("frames"))
+					options.frames(parseSwitch(value));
+				else if (name.equalsIgnoreCase("acceptorThreads"))
+					options.acceptorThreads(Integer.parseInt(value));
+				else if (name.equalsIgnoreCase("setupThreads"))
+					options.setupThreads(Integer.parseInt(value));
+				else if (name.equalsIgnoreCase("acceptBacklog"))
+					options.acceptBacklog(Integer.parseInt(value));
+				else if (name.equalsIgnoreCase("heartbeatInterval"))
+					options.heartbeatInterval(Long.parseLong(value));
+				else if (name.equalsIgnoreCase("idleTimeout"))
+					options.idleTimeout(Long.parseLong(value));
+				else if (name.equalsIgnoreCase("lineIdleTimeout"))
+					options.lineIdleTimeout(Long.parseLong(value));
+				else if (name.equalsIgnoreCase("reapIdleLines"))
+					options.reapIdleLines(parseSwitch(value));
+				else if (name.equalsIgnoreCase("drainTimeout"))
+					options.drainTimeout(Long.parseLong(value));
+				else if (name.equalsIgnoreCase("compression"))
+					options.compression(parseSwitch(value));
+				else if (name.equalsIgnoreCase("processingThreads"))
+					options.processingThreads(Integer.parseInt(value));
+				else if (name.equalsIgnoreCase("processingQueue"))
+					options.processingQueue(Integer.parseInt(value));
+				else if (name.equalsIgnoreCase("port") || name.equalsIgnoreCase("nodeId")
+						|| name.equalsIgnoreCase("clusterPort") || name.equalsIgnoreCase("peers")
+						|| name.equalsIgnoreCase("clusterSecret")
+						|| name.equalsIgnoreCase("offlineDir") || name.equalsIgnoreCase("offlineMaxAge")
+						|| name.equalsIgnoreCase("offlineMaxSize") || name.equalsIgnoreCase("journalDir")
+						|| name.equalsIgnoreCase("journalSegments")
+						|| name.equalsIgnoreCase("rateLimit") || name.equalsIgnoreCase("messageLimit")
+						|| name.equalsIgnoreCase("handshakeLimit") || name.equalsIgnoreCase("ipMessageLimit")
+						|| name.equalsIgnoreCase("ipHandshakeLimit") || name.equalsIgnoreCase("keyPool")
+						|| name.equalsIgnoreCase("keyPoolThreads") || name.equalsIgnoreCase("tickets")
+						|| name.equalsIgnoreCase("ticketKeyFile") || name.equalsIgnoreCase("ticketLifetime")
+						|| name.equalsIgnoreCase("handshakeThreads") || name.equalsIgnoreCase("handshakeQueue"))
+					continue; // Siehe parsePort, parseCluster, parseOfflineStore, parseJournal usw.
+				else
+					System.err.println("Unbekannter Parameter: " + arg);
+			}
+			catch (IllegalArgumentException e)
+			{
+				reportInvalid(name, value);
+			}
+		}
+
+		return options;
+	}
+
+	private static ServerOptions.Backend parseBackend(String value)
+	{
+		if (value.equalsIgnoreCase("selector"))
+			return ServerOptions.Backend.SELECTOR;
+		if (value.equalsIgnoreCase("virtual"))
+			return ServerOptions.Backend.VIRTUAL_THREADS;
+		if (value.equalsIgnoreCase("thread"))
+			return ServerOptions.Backend.THREAD_PER_CONNECTION;
+		throw new IllegalArgumentException(value);
+	}
+
+	/**
+	 * @return true für <code>on</code> oder <code>true</code>, false für <code>off</code> oder <code>false</code>.
+	 * @throws IllegalArgumentException Bei jedem anderen Wert
+	 */
+	private static boolean parseSwitch(String value)
+	{
+		if (value.equalsIgnoreCase("on") || value.equalsIgnoreCase("true"))
+			return true;
+		if (value.equalsIgnoreCase("off") || value.equalsIgnoreCase("false"))
+			return false;
+		throw new IllegalArgumentException(value);
+	}
+
+	/**
+	 * @return Der Port des Parameters oder <code>defaultPort</code>, falls er fehlt oder ungültig ist.
+	 */
+	private static int parsePort(String[] args, String name, int defaultPort)
+	{
+		final String value = findArgument(args, name);
+		if (value == null)
+			return defaultPort;
+		final int port = parsePort(value);
+		if (port > 0)
+			return port;
+		reportInvalid(name, value);
+		return defaultPort;
+	}
+
+	/**
+	 * @return Der Port oder -1, falls der Wert keiner ist.
+	 */
+	private static int parsePort(String value)
+	{
+		try
+		{
+			final int port = Integer.parseInt(value.trim());
+			return port > 0 && port <= 65535 ? port : -1;
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Mit <code>clusterPort=</code> läuft der Server als Knoten eines Clusters, z. B. auf einem Rechner:
+	 * <pre>
+	 * port=1887 nodeId=a clusterPort=7001 peers=localhost:7002 clusterSecret=geheim
+	 * port=1888 nodeId=b clusterPort=7002 peers=localhost:7001 clusterSecret=geheim
+	 * </pre>
+	 * Alle Knoten müssen dasselbe <code>clusterSecret=</code> kennen. Ungültige Einträge in <code>peers=</code>
+	 * werden gemeldet und übergangen.
+	 *
+	 * @return Der Knoten oder <code>null</code>, falls kein gültiger Cluster-Port angegeben ist.
+	 */
+	private static ClusterNode parseCluster(String[] args)
+	{
+		final int clusterPort = parsePort(args, "clusterPort", -1);
+		if (clusterPort < 0)
+			return null;
+
+		final List<InetSocketAddress> peers = new ArrayList<>();
+		final String peerList = findArgument(args, "peers");
+		if (peerList != null)
+			for (String peer : peerList.split(","))
+				if (!peer.isBlank())
+				{
+					final int colon = peer.lastIndexOf(':');
+					final int port = colon > 0 ? parsePort(peer.substring(colon + 1)) : -1;
+					if (port < 0)
+					{
+						System.err.println("Ungültiger Wert für peers: " + peer.trim() + ", der Eintrag wird übergangen");
+						continue;
+					}
+					peers.add(new InetSocketAddress(peer.substring(0, colon).trim(), port));
+				}
+
+		final String secret = findArgument(args, "clusterSecret");
+		if (secret == null || secret.isEmpty())
+		{
+			System.err.println("Ohne clusterSecret= läuft der Server nicht als Knoten eines Clusters");
+			return null;
+		}
+
+		final String nodeId = findArgument(args, "nodeId");
+		return new ClusterNode(nodeId != null ? nodeId : "node-" + clusterPort, clusterPort, peers,
+				secret.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Mit <code>offlineDir=</code> werden Pakete an nicht verbundene Clients in diesem Verzeichnis aufbewahrt, bis sie
+	 * ihre Sitzung mit einem Ticket fortsetzen. <code>offlineMaxAge=</code> gibt in Sekunden an, wie lange höchstens
+	 * (Standard eine Woche), <code>offlineMaxSize=</code> in MiB, wie viel je Empfänger höchstens (Standard 16).
+	 *
+	 * @return Der Speicher oder <code>null</code>, falls kein Verzeichnis angegeben ist oder es nicht benutzbar ist.
+	 */
+	private static OfflineStore parseOfflineStore(String[] args)
+	{
+		final String directory = findArgument(args, "offlineDir");
+		if (directory == null)
+			return null;
+
+		try
+		{
+			return new OfflineStore(new File(directory), 1024 * 1024, 65536,
+					parseCount(args, "offlineMaxAge", 7 * 24 * 3600) * 1000L,
+					parseCount(args, "offlineMaxSize", 16) * 1024L * 1024);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Offline-Speicher konnte nicht geöffnet werden: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Mit <code>journalDir=</code> werden alle weitergeleiteten Nachrichten in diesem Verzeichnis aufgezeichnet. Es
+	 * bleiben höchstens <code>journalSegments=</code> Segmente zu je 64 MiB erhalten, standardmäßig 16.
+	 *
+	 * @return Das Journal oder <code>null</code>, falls kein Verzeichnis angegeben ist oder es nicht benutzbar ist.
+	 */
+	private static MessageJournal parseJournal(String[] args)
+	{
+		final String directory = findArgument(args, "journalDir");
+		if (directory == null)
+			return null;
+
+		try
+		{
+			return new MessageJournal(new File(directory), 64 * 1024 * 1024, parseCount(args, "journalSegments", 16));
+		}
+		catch (IOException e)
+		{
+			System.err.println("Journal konnte nicht geöffnet werden: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Pakete werden je Verbindung begrenzt, Handshakes getrennt von allen übrigen. Die Limits werden als
+	 * <code>Rate:Fassungsvermögen</code> angegeben, z. B. <code>handshakeLimit=2:10</code>: <code>messageLimit=</code>
+	 * und <code>handshakeLimit=</code>. Nur wenn <code>ipMessageLimit=</code> oder <code>ipHandshakeLimit=</code>
+	 * angegeben ist, werden zusätzlich alle Verbindungen einer IP-Adresse gemeinsam begrenzt, da sich hinter einer
+	 * Adresse viele Clients verbergen können. Mit <code>rateLimit=off</code> wird nicht begrenzt. Ungültige Limits
+	 * werden gemeldet, es gilt dann der Standardwert.
+	 *
+	 * @return Die Begrenzung oder <code>null</code>, falls sie abgeschaltet ist.
+	 */
+	private static RateLimiter parseRateLimiter(String[] args)
+	{
+		if ("off".equalsIgnoreCase(findArgument(args, "rateLimit")))
+			return null;
+
+		return new RateLimiter(parseLimit(args, "messageLimit", "100:200"), parseLimit(args, "handshakeLimit", "2:10"),
+				parseLimit(args, "ipMessageLimit", null), parseLimit(args, "ipHandshakeLimit", null));
+	}
+
+	/**
+	 * Schlüsselpaare für Handshakes werden im Hintergrund vorab erzeugt. <code>keyPool=min:max</code> begrenzt, wie
+	 * viele bereitliegen (Standard <code>2:64</code>), <code>keyPoolThreads=</code> gibt die Anzahl der erzeugenden
+	 * Threads an (Standard: die Hälfte der Prozessoren). Mit <code>keyPool=off</code> erzeugt jeder Handshake sein
+	 * Paar selbst. Ungültige Werte werden gemeldet, es gilt dann der Standardwert.
+	 *
+	 * @return Der Vorrat oder <code>null</code>, falls er abgeschaltet ist.
+	 */
+	private static RsaKeyPairPool parseKeyPairPool(String[] args)
+	{
+		final String pool = findArgument(args, "keyPool");
+		if ("off".equalsIgnoreCase(pool))
+			return null;
+
+		int[] bounds = {2, 64};
+		if (pool != null)
+		{
+			final int[] parsed = parseBounds(pool);
+			if (parsed != null)
+				bounds = parsed;
+			else
+				reportInvalid("keyPool", pool);
+		}
+		return new RsaKeyPairPool(bounds[0], bounds[1], parseCount(args, "keyPoolThreads",
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+	}
+
+	/**
+	 * @return Untere und obere Grenze aus <code>min:max</code> oder einer einzelnen Zahl, oder <code>null</code>,
+	 * falls der Wert ungültig ist.
+	 */
+	private static int[] parseBounds(String value)
+	{
+		final String[] bounds = value.split(":");
+		try
+		{
+			final int min = Integer.parseInt(bounds[0].trim());
+			final int max = Integer.parseInt(bounds[bounds.length - 1].trim());
+			return bounds.length <= 2 && min >= 0 && max >= Math.max(min, 1) ? new int[]{min, max} : null;
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Clients erhalten nach dem Handshake ein Ticket, mit dem sie ihre Sitzung nach einem Verbindungsabbruch ohne
+	 * neuen Handshake fortsetzen. <code>ticketKeyFile=</code> liest den Schlüssel der Tickets aus dieser Datei oder
+	 * legt sie an, damit Tickets einen Neustart überdauern und auf allen Knoten mit derselben Datei gelten; sonst
+	 * gelten sie nur bis zum Neustart. <code>ticketLifetime=</code> gibt ihre Gültigkeit in Sekunden an (Standard ein
+	 * Tag, ungültige Werte werden gemeldet). Mit <code>tickets=off</code> werden keine ausgestellt.
+	 *
+	 * @return Die Tickets oder <code>null</code>, falls sie abgeschaltet sind oder der Schlüssel nicht benutzbar ist.
+	 */
+	private static SessionTickets parseSessionTickets(String[] args)
+	{
+		if ("off".equalsIgnoreCase(findArgument(args, "tickets")))
+			return null;
+
+		final long lifetimeMillis = parseCount(args, "ticketLifetime", 86400) * 1000L;
+		final String keyFile = findArgument(args, "ticketKeyFile");
+		try
+		{
+			return keyFile != null ? SessionTickets.fromFile(new File(keyFile), lifetimeMillis)
+					: new SessionTickets(AesUtilities.generateSecretKey(256), lifetimeMillis);
+		}
+		catch (IOException | NoSuchAlgorithmException e)
+		{
+			System.err.println("Ticket-Schlüssel konnte nicht gelesen werden: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Handshakes an den Server werden auf eigenen Threads bearbeitet, damit das Weiterleiten von Nachrichten nicht
+	 * auf die Kryptographie wartet. <code>handshakeThreads=</code> gibt deren Anzahl an (Standard: die Anzahl der
+	 * Prozessoren), <code>handshakeQueue=</code> wie viele Handshakes warten dürfen, bevor Clients abgewiesen werden
+	 * (Standard 256). Mit <code>handshakeThreads=off</code> werden sie auf den lesenden Threads bearbeitet.
+	 *
+	 * @return Der Executor oder <code>null</code>, falls er abgeschaltet ist.
+	 */
+	private static HandshakeExecutor parseHandshakeExecutor(String[] args)
+	{
+		final String threads = findArgument(args, "handshakeThreads");
+		if ("off".equalsIgnoreCase(threads))
+			return null;
+
+		return new HandshakeExecutor(parseCount(args, "handshakeThreads", Runtime.getRuntime().availableProcessors()),
+				parseCount(args, "handshakeQueue", 256));
+	}
+
+	/**
+	 * @return Die positive Zahl des Parameters oder <code>defaultCount</code>, falls er fehlt oder ungültig ist.
+	 */
+	private static int parseCount(String[] args, String name, int defaultCount)
+	{
+		final String value = findArgument(args, name);
+		if (value == null)
+			return defaultCount;
+		try
+		{
+			final int count = Integer.parseInt(value);
+			if (count > 0)
+				return count;
+		}
+		catch (NumberFormatException e)
+		{
+			// Wird wie bei den übrigen Parametern gemeldet
+		}
+		reportInvalid(name, value);
+		return defaultCount;
+	}
+
+	/**
+	 * Meldet einen ungültigen Wert; ein Tippfehler soll den Start nicht mit einem Stacktrace abbrechen.
+	 */
+	private static void reportInvalid(String name, String value)
+	{
+		System.err.println("Ungültiger Wert für " + name + ": " + value + ", es gilt der Standardwert");
+	}
+
+	/**
+	 * @return Das Limit des Parameters oder <code>defaultLimit</code>, falls er fehlt oder ungültig ist;
+	 * <code>null</code> ohne Standardwert.
+	 */
+	private static TokenBucket.Limit parseLimit(String[] args, String name, String defaultLimit)
+	{
+		final String limit = findArgument(args, name);
+		if (limit != null)
+			try
+			{
+				return TokenBucket.Limit.parse(limit);
+			}
+			catch (IllegalArgumentException e)
+			{
+				reportInvalid(name, limit);
+			}
+		return defaultLimit != null ? TokenBucket.Limit.parse(defaultLimit) : null;
+	}
+
+	private static String findArgument(String[] args, String name)
+	{
+		for (String arg : args)
+			if (arg.indexOf('=') > 0 && arg.substring(0, arg.indexOf('=')).trim().equalsIgnoreCase(name))
+				return arg.substring(arg.indexOf('=') + 1).trim();
+		return null;
+	}
+
 	private void consoleThread()
 	{
 		new Thread(() ->
@@ -38,16 +464,23 @@ public class MessengerServerMain
 				while ((line = reader.readLine()) != null)
 				{
 
-					if (line.equalsIgnoreCase("end"))
+					// "end" leert vor dem Trennen die Warteschlangen, "end <host:port>" nennt den Clients einen anderen
+					// Server und "end now" beendet sofort
+					final String[] command = line.trim().split("\\s+");
+					if (command[0].equalsIgnoreCase("end"))
 					{
-						messengerServer.close();
+						if (command.length > 1 && command[1].equalsIgnoreCase("now"))
+							messengerServer.close();
+						else
+						{
+							System.out.println("Fahre Server herunter...");
+							messengerServer.drain(command.length > 1 ? command[1] : null);
+						}
 						reader.close();
 						break;
 					}
-					else
-					{
-						// TODO: Mach was mit dem console thread?
-					}
+					else if (command[0].equalsIgnoreCase("stats"))
+						System.out.println(messengerServer.getStatsReport());
 
 				}
 
@@ -0,0 +1,143 @@
+package de.confuse;
+
+import de.confuse.cluster.ClusterNode;
+import de.confuse.ratelimit.RateLimiter;
+import de.confuse.security.RsaKeyPairPool;
+import de.confuse.session.HandshakeExecutor;
+import de.confuse.session.SessionTickets;
+import de.confuse.store.MessageJournal;
+import de.confuse.store.OfflineStore;
+
+/**
+ * <p>
+ * Die Bestandteile, mit denen ein {@link MessengerServer} erzeugt wird; die Einstellungen des zugrunde liegenden
+ * Servers stehen in {@link de.confuse.abiKlassen.ServerOptions}.
+ * </p>
+ * <p>
+ * Ohne weitere Angaben ist jeder Bestandteil <code>null</code> und der Server verhält sich wie ohne ihn: kein
+ * Cluster, keine aufbewahrten Pakete, kein Journal, keine Begrenzung, Schlüsselpaare erst beim Handshake, keine
+ * Tickets und Handshakes auf den lesenden Threads. Alle Setter geben die Instanz zurück, damit die Angaben verkettet
+ * werden können.
+ * </p>
+ *
+ * @author Confuse
+ * @version 1
+ */
+public class MessengerServerOptions
+{
+	private ClusterNode cluster;
+	private OfflineStore offlineStore;
+	private MessageJournal journal;
+	private RateLimiter rateLimiter;
+	private RsaKeyPairPool keyPairPool;
+	private SessionTickets sessionTickets;
+	private HandshakeExecutor handshakeExecutor;
+
+	/**
+	 * @param pCluster Der Knoten, über den Pakete an Clients anderer Server des Clusters weitergeleitet werden; muss
+	 *                 nach dem Erzeugen des Servers mit {@link ClusterNode#start(de.confuse.abiKlassen.Server)}
+	 *                 gestartet werden
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public MessengerServerOptions cluster(ClusterNode pCluster)
+	{
+		this.cluster = pCluster;
+		return this;
+	}
+
+	/**
+	 * @param pOfflineStore Bewahrt Pakete an Clients auf, die weder hier noch im Cluster verbunden sind
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public MessengerServerOptions offlineStore(OfflineStore pOfflineStore)
+	{
+		this.offlineStore = pOfflineStore;
+		return this;
+	}
+
+	/**
+	 * @param pJournal Zeichnet alle weitergeleiteten <code>CryptoCommunication</code> Pakete auf
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public MessengerServerOptions journal(MessageJournal pJournal)
+	{
+		this.journal = pJournal;
+		return this;
+	}
+
+	/**
+	 * @param pRateLimiter Wird vor dem Parsen jedes Pakets gefragt; überzählige Pakete werden verworfen
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public MessengerServerOptions rateLimiter(RateLimiter pRateLimiter)
+	{
+		this.rateLimiter = pRateLimiter;
+		return this;
+	}
+
+	/**
+	 * @param pKeyPairPool Liefert die Schlüsselpaare für Handshakes, damit diese nicht auf deren Erzeugung warten
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public MessengerServerOptions keyPairPool(RsaKeyPairPool pKeyPairPool)
+	{
+		this.keyPairPool = pKeyPairPool;
+		return this;
+	}
+
+	/**
+	 * @param pSessionTickets Stellt Tickets aus, mit denen Clients nach einem Verbindungsabbruch ihre Sitzung ohne
+	 *                        neuen Handshake fortsetzen
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public MessengerServerOptions sessionTickets(SessionTickets pSessionTickets)
+	{
+		this.sessionTickets = pSessionTickets;
+		return this;
+	}
+
+	/**
+	 * @param pHandshakeExecutor Bearbeitet Handshakes, damit sie das Weiterleiten von Nachrichten nicht aufhalten
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public MessengerServerOptions handshakeExecutor(HandshakeExecutor pHandshakeExecutor)
+	{
+		this.handshakeExecutor = pHandshakeExecutor;
+		return this;
+	}
+
+	public ClusterNode getCluster()
+	{
+		return cluster;
+	}
+
+	public OfflineStore getOfflineStore()
+	{
+		return offlineStore;
+	}
+
+	public MessageJournal getJournal()
+	{
+		return journal;
+	}
+
+	public RateLimiter getRateLimiter()
+	{
+		return rateLimiter;
+	}
+
+	public RsaKeyPairPool getKeyPairPool()
+	{
+		return keyPairPool;
+	}
+
+	public SessionTickets getSessionTickets()
+	{
+		return sessionTickets;
+	}
+
+	public HandshakeExecutor getHandshakeExecutor()
+	{
+		return handshakeExecutor;
+	}
+}
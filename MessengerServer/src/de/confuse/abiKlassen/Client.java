@@ -1,10 +1,14 @@
 package de.confuse.abiKlassen;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -24,7 +28,8 @@ import java.net.Socket;
  * Ereignisbehandlungsmethode uebergeben, die in Unterklassen implementiert werden
  * muss. Es findet nur eine rudimentaere Fehlerbehandlung statt, so dass z.B.
  * Verbindungsabbrueche nicht zu einem Programmabbruch fuehren. Eine einmal
- * unterbrochene oder getrennte Verbindung kann nicht reaktiviert werden.
+ * unterbrochene oder getrennte Verbindung kann mit {@link #reconnect()} durch
+ * eine neue ersetzt werden.
  * </p>
  *
  * @author Qualitaets- und UnterstuetzungsAgentur - Landesinstitut fuer Schule
@@ -33,9 +38,21 @@ import java.net.Socket;
 
 public abstract class Client
 {
-	private MessageHandler messageHandler;
+	private volatile MessageHandler messageHandler;
+	private String serverIP;
+	private int serverPort;
+	private final boolean virtualThread;
+	private final boolean frames;
+	/**
+	 * So lange wird hoechstens auf die Antwort zur Aushandlung der {@link Frame}s gewartet. Ein Server ohne Rahmen
+	 * antwortet nie, danach wird zeilenweise gesendet.
+	 */
+	private static final long FRAME_UPGRADE_TIMEOUT_MS = 5000;
+	private static final int WIRE_UNDECIDED = 0;
+	private static final int WIRE_LINES = 1;
+	private static final int WIRE_FRAMES = 2;
 
-	private class MessageHandler extends Thread
+	private class MessageHandler implements Runnable
 	{
 		private SocketWrapper socketWrapper;
 		private boolean active;
@@ -43,16 +60,40 @@ public abstract class Client
 		private class SocketWrapper
 		{
 			private Socket socket;
-			private BufferedReader fromServer;
-			private PrintWriter toServer;
+			private WireInput fromServer;
+			private OutputStream toServer;
+			/**
+			 * Das Leitungsformat; es wird genau einmal festgelegt, durch die Antwort des Servers oder nach
+			 * {@link #FRAME_UPGRADE_TIMEOUT_MS}. Eine spaetere Antwort wird abgelehnt.
+			 */
+			private final AtomicInteger wire = new AtomicInteger(WIRE_LINES);
+			/**
+			 * Was vor der Festlegung gesendet wird, wartet hier, statt den Absender warten zu lassen. Gesichert durch
+			 * die Sperre des SocketWrappers.
+			 */
+			private final Queue<String> undecided = new ArrayDeque<String>();
+			private final FrameCompression compression = new FrameCompression();
+			private boolean requestedFrames;
+			/**
+			 * Gesetzt, sobald der Server die Komprimierung angenommen hat, siehe {@link #enableCompression()}.
+			 */
+			private volatile boolean compressing;
 
-			public SocketWrapper(String pServerIP, int pServerPort)
+			public SocketWrapper(String pServerIP, int pServerPort, boolean pFrames)
 			{
 				try
 				{
 					socket = new Socket(pServerIP, pServerPort);
-					toServer = new PrintWriter(socket.getOutputStream(), true);
-					fromServer = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+					toServer = socket.getOutputStream();
+					fromServer = new WireInput(socket.getInputStream());
+					if(pFrames)
+					{
+						requestedFrames = true;
+						wire.set(WIRE_UNDECIDED);
+						write(encodeLine(Frame.UPGRADE_REQUEST));
+						CompletableFuture.delayedExecutor(FRAME_UPGRADE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+								.execute(() -> decide(WIRE_LINES));
+					}
 				}
 				catch (IOException e)
 				{
@@ -67,7 +108,37 @@ public abstract class Client
 				if(fromServer != null)
 					try
 					{
-						return fromServer.readLine();
+						while (true)
+						{
+							if(wire.get() == WIRE_FRAMES)
+							{
+								Frame frame = fromServer.readFrame();
+								if(frame == null)
+									return(null);
+								frame = compression.inflate(frame);
+								// Unbekannte Typen werden uebergangen
+								if(frame.getType() == Frame.TYPE_MESSAGE)
+									return(frame.getText());
+								if(frame.getType() == Frame.TYPE_PING)
+									write(Frame.of(Frame.TYPE_PONG, (byte) 0, new byte[0]).getData());
+								else if(frame.getType() == Frame.TYPE_GOAWAY)
+									processGoAway(frame.getPayloadLength() > 0 ? frame.getText() : null);
+							}
+							else
+							{
+								String line = fromServer.readLine();
+								if(!requestedFrames || !Frame.UPGRADE_ACCEPT.equals(line))
+									return(line);
+
+								// Ab hier spricht der Server in beide Richtungen nur noch Rahmen
+								if(!decide(WIRE_FRAMES))
+								{
+									// Zu spaet: Es wurden schon Zeilen gesendet, die der Server als Rahmen liest
+									System.err.println("Rahmen zu spaet bestaetigt, Verbindung wird getrennt");
+									return(null);
+								}
+							}
+						}
 					}
 					catch (IOException e)
 					{
@@ -79,12 +150,80 @@ public abstract class Client
 			{
 				if(toServer != null)
 				{
-					toServer.println(pMessage);
+					synchronized(this)
+					{
+						if(wire.get() == WIRE_UNDECIDED)
+						{
+							undecided.add(pMessage);
+							return;
+						}
+					}
+					write(pMessage);
+				}
+			}
+
+			private void write(String pMessage)
+			{
+				try
+				{
+					if(wire.get() == WIRE_FRAMES)
+						writeFrame(Frame.message(pMessage).getData());
+					else
+						write(encodeLine(pMessage));
+				}
+				catch (IOException e)
+				{
+					/*
+					 * Einen Verbindungsabbruch bemerkt der empfangende Thread.
+					 */
 				}
 			}
 
+			/**
+			 * Legt das Leitungsformat fest und sendet, was bis dahin gewartet hat, in derselben Reihenfolge.
+			 *
+			 * @return false, falls das Format schon festgelegt war.
+			 */
+			private synchronized boolean decide(int pWire)
+			{
+				if(!wire.compareAndSet(WIRE_UNDECIDED, pWire))
+					return(false);
+				while(!undecided.isEmpty())
+					write(undecided.poll());
+				return(true);
+			}
+
+			private synchronized void write(byte[] pData) throws IOException
+			{
+				toServer.write(pData);
+				toServer.flush();
+			}
+
+			/**
+			 * Komprimiert unter der Sperre des Schreibens, da die {@link FrameCompression} nur von einem Thread
+			 * zugleich benutzt werden darf.
+			 */
+			private synchronized void writeFrame(byte[] pFrame) throws IOException
+			{
+				write(compressing ? compression.compress(pFrame) : pFrame);
+			}
+
+			private boolean isFramed()
+			{
+				return(wire.get() != WIRE_LINES);
+			}
+
+			private byte[] encodeLine(String pMessage)
+			{
+				return((pMessage + System.lineSeparator()).getBytes(Charset.defaultCharset()));
+			}
+
 			public void close()
 			{
+				synchronized(this)
+				{
+					undecided.clear();
+				}
 				if(socket != null)
 					try
 					{
@@ -101,12 +240,12 @@ public abstract class Client
 			}
 		}
 
-		private MessageHandler(String pServerIP, int pServerPort)
+		private MessageHandler(String pServerIP, int pServerPort, boolean pVirtualThread, boolean pFrames)
 		{
-			socketWrapper = new SocketWrapper(pServerIP, pServerPort);
-			start();
+			socketWrapper = new SocketWrapper(pServerIP, pServerPort, pFrames);
 			if(socketWrapper.socket != null)
 				active = true;
+			HandlerThreads.start(this, pVirtualThread);
 		}
 
 		public void run()
@@ -140,7 +279,32 @@ public abstract class Client
 
 	public Client(String pServerIP, int pServerPort)
 	{
-		messageHandler = new MessageHandler(pServerIP, pServerPort);
+		this(pServerIP, pServerPort, false);
+	}
+
+	/**
+	 * @param pVirtualThread Ob der Nachrichtenempfang in einem virtuellen Thread statt in einem Plattform-Thread
+	 *                       laufen soll. Ohne Unterstuetzung der JVM wird ein Plattform-Thread mit kleinem Stack
+	 *                       verwendet.
+	 */
+	public Client(String pServerIP, int pServerPort, boolean pVirtualThread)
+	{
+		this(pServerIP, pServerPort, pVirtualThread, false);
+	}
+
+	/**
+	 * @param pVirtualThread Siehe {@link #Client(String, int, boolean)}
+	 * @param pFrames        Ob statt einzelner Zeilen laengenpraefixierte {@link Frame}s ausgehandelt werden sollen.
+	 *                       Bis zur Antwort des Servers wird das Gesendete zurueckgehalten; kennt er keine
+	 *                       Rahmen, bleibt es nach kurzer Wartezeit bei Zeilen.
+	 */
+	public Client(String pServerIP, int pServerPort, boolean pVirtualThread, boolean pFrames)
+	{
+		serverIP = pServerIP;
+		serverPort = pServerPort;
+		virtualThread = pVirtualThread;
+		frames = pFrames;
+		messageHandler = new MessageHandler(pServerIP, pServerPort, pVirtualThread, pFrames);
 	}
 
 	public boolean isConnected()
@@ -153,11 +317,67 @@ public abstract class Client
 		messageHandler.send(pMessage);
 	}
 
+	/**
+	 * Wartet nicht auf die Antwort zur Aushandlung der {@link Frame}s.
+	 *
+	 * @return true, falls mit Rahmen gesendet wird oder die Aushandlung noch aussteht; nur dann kann Komprimierung
+	 * ausgehandelt werden. Der Server nimmt sie nur an, wenn er auch die Rahmen angenommen hat.
+	 */
+	public boolean isFramed()
+	{
+		return(messageHandler.socketWrapper.toServer != null && messageHandler.socketWrapper.isFramed());
+	}
+
+	/**
+	 * Komprimiert ab jetzt gesendete Rahmen, siehe {@link FrameCompression}. Erst aufrufen, wenn der Server die
+	 * Komprimierung angenommen hat; empfangene komprimierte Rahmen werden immer entpackt.
+	 */
+	public void enableCompression()
+	{
+		if(isFramed())
+			messageHandler.socketWrapper.compressing = true;
+	}
+
 	public void close()
 	{
 		messageHandler.close();
 	}
 
+	/**
+	 * Baut die Verbindung zum selben Server neu auf, z. B. nachdem sie unterbrochen wurde. Eine bestehende Verbindung
+	 * wird vorher getrennt; fuer den Server ist die neue Verbindung ein neuer Client.
+	 *
+	 * @return true, falls die neue Verbindung steht.
+	 */
+	public boolean reconnect()
+	{
+		return(reconnect(serverIP, serverPort));
+	}
+
+	/**
+	 * Wie {@link #reconnect()}, aber zu einem anderen Server, z. B. dem aus {@link #processGoAway(String)}. Spaetere
+	 * Aufrufe von {@link #reconnect()} verbinden ebenfalls zu diesem.
+	 */
+	public synchronized boolean reconnect(String pServerIP, int pServerPort)
+	{
+		messageHandler.close();
+		serverIP = pServerIP;
+		serverPort = pServerPort;
+		messageHandler = new MessageHandler(pServerIP, pServerPort, virtualThread, frames);
+		return(messageHandler.active);
+	}
+
 	public abstract void processMessage(String pMessage);
 
+	/**
+	 * Wird aufgerufen, wenn der Server ankuendigt, dass er herunterfaehrt. Bereits verschickte Nachrichten treffen
+	 * noch ein, danach trennt der Server die Verbindung. Ohne Ueberschreiben geschieht nichts.
+	 *
+	 * @param pAlternative Die Adresse eines anderen Servers, z. B. <code>example.org:1887</code>, oder
+	 *                     <code>null</code>
+	 */
+	public void processGoAway(String pAlternative)
+	{
+	}
+
 }
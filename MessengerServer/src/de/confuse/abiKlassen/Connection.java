@@ -0,0 +1,95 @@
+package de.confuse.abiKlassen;
+
+import java.io.IOException;
+
+/**
+ * Gemeinsame Sicht des {@link Server}s auf eine einzelne Verbindung zu einem Client, unabhaengig davon, ob sie von
+ * einem eigenen Thread oder von einer {@link SelectorLoop} bedient wird.
+ *
+ * @author Confuse
+ * @version 7
+ */
+interface Connection
+{
+	/**
+	 * Stellt die Nachricht im ausgehandelten Leitungsformat ein. Dieselbe {@link OutboundMessage} darf an mehrere
+	 * Verbindungen gehen.
+	 */
+	void send(OutboundMessage pMessage);
+
+	/**
+	 * Bestaetigt die Aushandlung der {@link Frame}s; alles danach Gesendete wird als Rahmen verschickt.
+	 */
+	void acceptFrames();
+
+	/**
+	 * Legt die Verbindung auf Zeilen fest, nachdem die erste Zeile keine Aushandlung war.
+	 */
+	void keepLines();
+
+	void close();
+
+	/**
+	 * @return true, falls alle eingestellten Nachrichten geschrieben sind.
+	 */
+	boolean isFlushed();
+
+	/**
+	 * @return true, falls die Verbindung {@link Frame}s ausgehandelt hat.
+	 */
+	boolean isFramed();
+
+	/**
+	 * @return Die Ueberwachung der Verbindung oder <code>null</code>, falls sie abgeschaltet ist.
+	 */
+	Heartbeat getHeartbeat();
+
+	void setHeartbeat(Heartbeat pHeartbeat);
+
+	/**
+	 * @return Der Zeitpunkt ({@link System#nanoTime()}), zu dem die Verbindung angenommen wurde.
+	 */
+	long getAcceptedNanos();
+
+	/**
+	 * Bearbeitet eine empfangene Nachricht im {@link ProcessingPool} oder, ohne Pool, sofort. Wird nur vom lesenden
+	 * Thread aufgerufen; ist die Warteschlange voll, wird das Lesen der Verbindung angehalten.
+	 */
+	void dispatch(Runnable pTask);
+
+	/**
+	 * Komprimiert ab jetzt ausgehende Rahmen, siehe {@link FrameCompression}.
+	 *
+	 * @return false, falls die Verbindung keine {@link Frame}s ausgehandelt hat.
+	 */
+	boolean enableCompression();
+
+	/**
+	 * Entpackt einen empfangenen Rahmen mit {@link Frame#FLAG_DEFLATE}. Nur von dem Thread aufzurufen, der die
+	 * Nachrichten der Verbindung bearbeitet.
+	 *
+	 * @throws IOException Falls der Rahmen beschaedigt ist
+	 */
+	Frame inflate(Frame pFrame) throws IOException;
+
+	/**
+	 * Liest den Anfang der Nutzdaten eines empfangenen Rahmens, bei {@link Frame#FLAG_DEFLATE} ohne den ganzen Rahmen
+	 * zu entpacken. Nur von dem Thread aufzurufen, der die Verbindung liest.
+	 *
+	 * @return Hoechstens <code>pLength</code> Zeichen als ISO-8859-1, bei beschaedigten Nutzdaten auch weniger.
+	 */
+	String peek(Frame pFrame, int pLength);
+
+	/**
+	 * @return Die Lane des {@link ProcessingPool}s, der die Nachrichten der Verbindung bearbeitet, oder
+	 * <code>null</code> ohne Pool.
+	 */
+	ProcessingPool.Lane getLane();
+
+	boolean isActive();
+
+	String getClientIP();
+
+	int getClientPort();
+
+}
@@ -0,0 +1,122 @@
+package de.confuse.abiKlassen;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verzeichnis aller aktuellen {@link Connection}s eines {@link Server}s. Suchen, Einfuegen und Entfernen kosten
+ * unabhaengig von der Anzahl der Verbindungen konstante Zeit und kommen ohne gemeinsame Sperre aus.<br>
+ * IPv4-Verbindungen werden ueber einen <code>long</code> Schluessel gefunden, in dem Adresse und Port zusammengepackt
+ * sind (siehe {@link #endpointKey(String, int)}); alle anderen Adressen ueber ihre Textform.
+ *
+ * @author Confuse
+ * @version 1
+ */
+class ConnectionRegistry
+{
+	private final ConcurrentHashMap<Long, Connection> ipv4Connections;
+	private final ConcurrentHashMap<String, Connection> otherConnections;
+
+	ConnectionRegistry()
+	{
+		ipv4Connections = new ConcurrentHashMap<>();
+		otherConnections = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Packt eine IPv4-Adresse in Punktschreibweise und einen Port in einen Schluessel: Die Adresse belegt die Bits
+	 * 16 bis 47, der Port die unteren 16 Bits.
+	 *
+	 * @param pClientIP   Die Adresse, z. B. '127.0.0.1'
+	 * @param pClientPort Der Port
+	 * @return Der Schluessel oder -1, falls die Adresse keine IPv4-Adresse ist.
+	 */
+	static long endpointKey(String pClientIP, int pClientPort)
+	{
+		if (pClientIP == null || pClientPort < 0 || pClientPort > 0xFFFF)
+			return (-1);
+
+		long address = 0;
+		int octet = 0;
+		int digits = 0;
+		int dots = 0;
+
+		for (int i = 0; i < pClientIP.length(); i++)
+		{
+			final char c = pClientIP.charAt(i);
+			if (c >= '0' && c <= '9')
+			{
+				octet = octet * 10 + (c - '0');
+				if (++digits > 3 || octet > 255)
+					return (-1);
+			}
+			else if (c == '.' && digits > 0 && dots < 3)
+			{
+				address = (address << 8) | octet;
+				octet = 0;
+				digits = 0;
+				dots++;
+			}
+			else
+				return (-1);
+		}
+
+		if (dots != 3 || digits == 0)
+			return (-1);
+
+		address = (address << 8) | octet;
+		return ((address << 16) | pClientPort);
+	}
+
+	void add(Connection pConnection)
+	{
+		final long key = endpointKey(pConnection.getClientIP(), pConnection.getClientPort());
+		if (key != -1)
+			ipv4Connections.put(key, pConnection);
+		else
+			otherConnections.put(pConnection.getClientIP() + ':' + pConnection.getClientPort(), pConnection);
+	}
+
+	/**
+	 * Entfernt genau diese Verbindung. Wurde unter derselben Adresse bereits eine neuere Verbindung eingetragen,
+	 * bleibt diese erhalten.
+	 *
+	 * @return true, falls die Verbindung eingetragen war.
+	 */
+	boolean remove(Connection pConnection)
+	{
+		final long key = endpointKey(pConnection.getClientIP(), pConnection.getClientPort());
+		if (key != -1)
+			return (ipv4Connections.remove(key, pConnection));
+		else
+			return (otherConnections.remove(pConnection.getClientIP() + ':' + pConnection.getClientPort(),
+					pConnection));
+	}
+
+	Connection find(String pClientIP, int pClientPort)
+	{
+		final long key = endpointKey(pClientIP, pClientPort);
+		if (key != -1)
+			return (ipv4Connections.get(key));
+		else
+			return (otherConnections.get(pClientIP + ':' + pClientPort));
+	}
+
+	/**
+	 * @return Eine Momentaufnahme aller eingetragenen Verbindungen.
+	 */
+	Collection<Connection> snapshot()
+	{
+		final Collection<Connection> connections = new ArrayList<>(size());
+		connections.addAll(ipv4Connections.values());
+		connections.addAll(otherConnections.values());
+		return (connections);
+	}
+
+	int size()
+	{
+		return (ipv4Connections.size() + otherConnections.size());
+	}
+
+}
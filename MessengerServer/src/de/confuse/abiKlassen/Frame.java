@@ -0,0 +1,148 @@
+package de.confuse.abiKlassen;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Ein Rahmen des binaeren Leitungsformats, das {@link Server} und {@link Client} statt des zeilenweisen Formats
+ * aushandeln koennen.
+ * </p>
+ * <p>
+ * Aushandlung: Der Client sendet direkt nach dem Verbindungsaufbau die Zeile {@link #UPGRADE_REQUEST} und danach
+ * nichts mehr, bis er {@link #UPGRADE_ACCEPT} oder {@link #UPGRADE_REFUSE} gelesen hat. Der Server beantwortet die
+ * Anfrage mit {@link #UPGRADE_ACCEPT} und verwendet ab dann in beide Richtungen nur noch Rahmen, oder er lehnt sie mit
+ * {@link #UPGRADE_REFUSE} ab, und beide Seiten bleiben beim zeilenweisen Format. Nur ein alter Server, der keine Rahmen
+ * kennt, antwortet gar nicht; der Client bleibt dann nach einer Wartezeit bei Zeilen.
+ * </p>
+ * <p>
+ * Aufbau auf der Leitung: Laenge der Nutzdaten (4 Bytes, Big Endian), Typ (1 Byte), Flags (1 Byte), Nutzdaten.
+ * Nachrichten koennen damit beliebige Bytes, auch Zeilentrenner, enthalten und muessen beim Empfang nicht nach einem
+ * Zeilenende durchsucht werden. Ein Rahmen haelt genau seine Bytes auf der Leitung, so dass er unveraendert
+ * weitergeleitet werden kann.
+ * </p>
+ *
+ * @author Confuse
+ * @version 5
+ */
+public final class Frame
+{
+	public static final String UPGRADE_REQUEST = "#frames v1";
+	public static final String UPGRADE_ACCEPT = "#frames v1 ok";
+	public static final String UPGRADE_REFUSE = "#frames v1 no";
+
+	public static final int HEADER_SIZE = 6;
+	/**
+	 * Groesste erlaubte Nutzdatenlaenge. Liegt unter 16 MiB, damit das erste Byte eines Rahmens immer 0 ist.
+	 */
+	public static final int MAX_PAYLOAD = 8 * 1024 * 1024;
+
+	/**
+	 * Eine Textnachricht, die Nutzdaten sind UTF-8 kodiert.
+	 */
+	public static final byte TYPE_MESSAGE = 1;
+	/**
+	 * Fragt, ob die Gegenseite noch erreichbar ist. Wird mit {@link #TYPE_PONG} beantwortet, beide ohne Nutzdaten.
+	 */
+	public static final byte TYPE_PING = 2;
+	public static final byte TYPE_PONG = 3;
+	/**
+	 * Kuendigt an, dass der Server herunterfaehrt. Bereits eingestellte Nachrichten folgen noch, danach wird die
+	 * Verbindung getrennt. Die Nutzdaten enthalten UTF-8 kodiert die Adresse eines anderen Servers, z. B.
+	 * <code>example.org:1887</code>, oder sind leer.
+	 */
+	public static final byte TYPE_GOAWAY = 4;
+
+	/**
+	 * Die Nutzdaten sind mit Deflate ohne zlib-Kopf komprimiert, siehe {@link FrameCompression}. Gesendet wird so nur
+	 * an eine Gegenseite, die Komprimierung ausgehandelt hat; entpackt wird immer.
+	 */
+	public static final byte FLAG_DEFLATE = 0x01;
+
+	private final byte[] data;
+
+	/**
+	 * @param pData Der vollstaendige Rahmen, wie er auf der Leitung steht
+	 */
+	Frame(byte[] pData)
+	{
+		data = pData;
+	}
+
+	/**
+	 * Erzeugt einen neuen Rahmen.
+	 *
+	 * @param pType    Der Typ, z. B. {@link #TYPE_MESSAGE}
+	 * @param pFlags   Die Flags
+	 * @param pPayload Die Nutzdaten
+	 * @return Der Rahmen.
+	 */
+	public static Frame of(byte pType, byte pFlags, byte[] pPayload)
+	{
+		final byte[] data = new byte[HEADER_SIZE + pPayload.length];
+		writeHeader(data, pPayload.length, pType, pFlags);
+		System.arraycopy(pPayload, 0, data, HEADER_SIZE, pPayload.length);
+		return (new Frame(data));
+	}
+
+	/**
+	 * @return Ein {@link #TYPE_MESSAGE} Rahmen mit der UTF-8 kodierten Nachricht.
+	 */
+	public static Frame message(String pMessage)
+	{
+		return (of(TYPE_MESSAGE, (byte) 0, pMessage.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	static void writeHeader(byte[] pTarget, int pPayloadLength, byte pType, byte pFlags)
+	{
+		pTarget[0] = (byte) (pPayloadLength >>> 24);
+		pTarget[1] = (byte) (pPayloadLength >>> 16);
+		pTarget[2] = (byte) (pPayloadLength >>> 8);
+		pTarget[3] = (byte) pPayloadLength;
+		pTarget[4] = pType;
+		pTarget[5] = pFlags;
+	}
+
+	/**
+	 * Liest die Nutzdatenlaenge aus einem Rahmenkopf.
+	 *
+	 * @return Die Laenge oder -1, falls sie ungueltig ist.
+	 */
+	static int readPayloadLength(byte[] pHeader)
+	{
+		final int length = ((pHeader[0] & 0xFF) << 24) | ((pHeader[1] & 0xFF) << 16) | ((pHeader[2] & 0xFF) << 8)
+				| (pHeader[3] & 0xFF);
+		return (length < 0 || length > MAX_PAYLOAD ? -1 : length);
+	}
+
+	public byte getType()
+	{
+		return (data[4]);
+	}
+
+	public byte getFlags()
+	{
+		return (data[5]);
+	}
+
+	public int getPayloadLength()
+	{
+		return (data.length - HEADER_SIZE);
+	}
+
+	/**
+	 * @return Der vollstaendige Rahmen, wie er auf der Leitung steht. Darf nicht veraendert werden.
+	 */
+	public byte[] getData()
+	{
+		return (data);
+	}
+
+	/**
+	 * @return Die Nutzdaten als UTF-8 Text.
+	 */
+	public String getText()
+	{
+		return (new String(data, HEADER_SIZE, getPayloadLength(), StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,97 @@
+package de.confuse.abiKlassen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Setzt nicht blockierend gelesene Bytes zu {@link Frame}s zusammen. Der Kopf gibt die Laenge vor, so dass die
+ * Nutzdaten ohne Suche nach einem Trenner direkt in ein Array kopiert werden. Dieses waechst mit den tatsaechlich
+ * angekommenen Bytes, damit ein Kopf mit grosser Laenge allein keinen Speicher belegt.
+ *
+ * @author Confuse
+ * @version 2
+ */
+class FrameDecoder
+{
+	/**
+	 * So gross ist das Array eines Rahmens anfangs hoechstens; es verdoppelt sich, bis der Rahmen hineinpasst.
+	 */
+	static final int INITIAL_CAPACITY = 64 * 1024;
+
+	private final byte[] header;
+	private int headerLength;
+	/**
+	 * Der angefangene Rahmen oder <code>null</code> zwischen zwei Rahmen.
+	 */
+	private byte[] data;
+	private int dataLength;
+	/**
+	 * Die Laenge des angefangenen Rahmens samt Kopf.
+	 */
+	private int frameLength;
+	/**
+	 * Ein '\n', das noch zur letzten Zeile vor der Aushandlung gehoert. Da ein Rahmen immer mit 0 beginnt, ist es
+	 * eindeutig.
+	 */
+	private boolean skipLineFeed;
+
+	FrameDecoder(boolean pSkipLineFeed)
+	{
+		header = new byte[Frame.HEADER_SIZE];
+		skipLineFeed = pSkipLineFeed;
+	}
+
+	/**
+	 * Liest aus dem Puffer bis zum Ende des naechsten Rahmens.
+	 *
+	 * @param pBuffer Der Puffer im Lesemodus
+	 * @return Der Rahmen oder <code>null</code>, falls der Puffer vorher leer ist.
+	 * @throws IOException Falls der Kopf eine ungueltige Laenge enthaelt
+	 */
+	Frame next(ByteBuffer pBuffer) throws IOException
+	{
+		if (skipLineFeed && pBuffer.hasRemaining())
+		{
+			skipLineFeed = false;
+			if (pBuffer.get(pBuffer.position()) == '\n')
+				pBuffer.get();
+		}
+
+		if (data == null)
+		{
+			final int n = Math.min(pBuffer.remaining(), Frame.HEADER_SIZE - headerLength);
+			pBuffer.get(header, headerLength, n);
+			headerLength += n;
+			if (headerLength < Frame.HEADER_SIZE)
+				return (null);
+
+			final int payloadLength = Frame.readPayloadLength(header);
+			if (payloadLength < 0)
+				throw new IOException("Invalid frame length");
+
+			frameLength = Frame.HEADER_SIZE + payloadLength;
+			data = new byte[Math.min(frameLength, INITIAL_CAPACITY)];
+			System.arraycopy(header, 0, data, 0, Frame.HEADER_SIZE);
+			dataLength = Frame.HEADER_SIZE;
+			headerLength = 0;
+		}
+
+		while (dataLength < frameLength)
+		{
+			if (!pBuffer.hasRemaining())
+				return (null);
+			if (dataLength == data.length)
+				data = Arrays.copyOf(data, (int) Math.min(2L * data.length, frameLength));
+
+			final int n = Math.min(pBuffer.remaining(), data.length - dataLength);
+			pBuffer.get(data, dataLength, n);
+			dataLength += n;
+		}
+
+		final Frame frame = new Frame(data);
+		data = null;
+		return (frame);
+	}
+
+}
@@ -0,0 +1,99 @@
+package de.confuse.abiKlassen;
+
+import java.lang.reflect.Method;
+
+/**
+ * Startet die Empfangs-Threads von {@link Server} und {@link Client} entweder als normale Plattform-Threads oder als
+ * virtuelle Threads.<br>
+ * Virtuelle Threads werden ueber Reflection angesprochen, damit die Klassen weiterhin mit aelteren JDKs uebersetzt
+ * werden koennen. Bietet die laufende JVM keine virtuellen Threads an, wird auf Plattform-Threads mit kleinem Stack
+ * ausgewichen.
+ *
+ * @author Confuse
+ * @version 1
+ */
+final class HandlerThreads
+{
+	/**
+	 * Stackgroesse der Ersatz-Threads, falls keine virtuellen Threads verfuegbar sind. Die Empfangsschleifen
+	 * benoetigen selbst kaum Stack.
+	 */
+	private static final long FALLBACK_STACK_SIZE = 256 * 1024;
+
+	private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+	private static final Method BUILDER_START = findMethod(findClass("java.lang.Thread$Builder"), "start",
+			Runnable.class);
+
+	private HandlerThreads()
+	{}
+
+	/**
+	 * @return true, falls die laufende JVM virtuelle Threads starten kann.
+	 */
+	static boolean isVirtualSupported()
+	{
+		return (OF_VIRTUAL != null && BUILDER_START != null);
+	}
+
+	/**
+	 * Startet die Aufgabe in einem neuen Thread.
+	 *
+	 * @param pTask    Die Empfangsschleife
+	 * @param pVirtual Ob ein virtueller Thread verwendet werden soll
+	 * @return Der gestartete Thread
+	 */
+	static Thread start(Runnable pTask, boolean pVirtual)
+	{
+		if (pVirtual)
+		{
+			if (isVirtualSupported())
+				try
+				{
+					return ((Thread) BUILDER_START.invoke(OF_VIRTUAL.invoke(null), pTask));
+				}
+				catch (ReflectiveOperationException | UnsupportedOperationException e)
+				{
+					/*
+					 * Z. B. Preview-Versionen ohne --enable-preview, es wird ein
+					 * Plattform-Thread verwendet.
+					 */
+				}
+
+			final Thread thread = new Thread(null, pTask, "Handler-" + pTask.hashCode(), FALLBACK_STACK_SIZE);
+			thread.start();
+			return (thread);
+		}
+
+		final Thread thread = new Thread(pTask);
+		thread.start();
+		return (thread);
+	}
+
+	private static Class<?> findClass(String pName)
+	{
+		try
+		{
+			return (Class.forName(pName));
+		}
+		catch (ClassNotFoundException e)
+		{
+			return (null);
+		}
+	}
+
+	private static Method findMethod(Class<?> pClass, String pName, Class<?>... pParameterTypes)
+	{
+		if (pClass == null)
+			return (null);
+
+		try
+		{
+			return (pClass.getMethod(pName, pParameterTypes));
+		}
+		catch (NoSuchMethodException e)
+		{
+			return (null);
+		}
+	}
+
+}
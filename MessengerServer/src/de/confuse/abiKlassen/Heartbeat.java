@@ -0,0 +1,96 @@
+package de.confuse.abiKlassen;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ueberwacht, ob von einer Verbindung noch etwas eingeht. Eingehende Nachrichten merken sich nur den Zeitpunkt; die
+ * eigentliche Pruefung laeuft einmal pro {@link ServerOptions#getHeartbeatInterval()} im {@link TimingWheel}.<br>
+ * Ist eine Verbindung mit {@link Frame}s eine Weile still, wird ihr ein {@link Frame#TYPE_PING} geschickt, auf den
+ * der Client antwortet. Kommt bis {@link ServerOptions#getIdleTimeout()} nichts an, gilt die Verbindung als tot und
+ * wird wie ein Verbindungsabbruch behandelt. Verbindungen mit Zeilen verstehen keine Pings; sie werden erst nach
+ * {@link ServerOptions#getLineIdleTimeout()} getrennt, sofern {@link ServerOptions#isReapingIdleLines()} gesetzt ist.
+ * <br>
+ * Wird die Verbindung ausgetragen, bricht {@link #stop()} den eingeplanten Auftrag ab, so dass das Rad keine
+ * geschlossenen Verbindungen mehr festhaelt.
+ *
+ * @author Confuse
+ * @version 2
+ */
+final class Heartbeat implements Runnable
+{
+	private static final OutboundMessage PING = new OutboundMessage(Frame.of(Frame.TYPE_PING, (byte) 0, new byte[0]));
+
+	private final Server server;
+	private final Connection connection;
+	private final TimingWheel wheel;
+	private final long intervalNanos;
+	private final long idleTimeoutNanos;
+	private final long lineIdleTimeoutNanos;
+	private final boolean reapLines;
+	private volatile long lastReceived;
+	private volatile TimingWheel.Timeout scheduled;
+	private volatile boolean stopped;
+
+	Heartbeat(Server pServer, Connection pConnection, TimingWheel pWheel)
+	{
+		server = pServer;
+		connection = pConnection;
+		wheel = pWheel;
+		intervalNanos = TimeUnit.MILLISECONDS.toNanos(pServer.getOptions().getHeartbeatInterval());
+		idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(pServer.getOptions().getIdleTimeout());
+		lineIdleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(pServer.getOptions().getLineIdleTimeout());
+		reapLines = pServer.getOptions().isReapingIdleLines();
+		lastReceived = pWheel.now();
+	}
+
+	void start()
+	{
+		reschedule();
+	}
+
+	/**
+	 * Beendet die Ueberwachung, z. B. weil die Verbindung geschlossen wurde.
+	 */
+	void stop()
+	{
+		stopped = true;
+		final TimingWheel.Timeout timeout = scheduled;
+		if (timeout != null)
+			timeout.cancel();
+	}
+
+	/**
+	 * Wird fuer jede eingehende Nachricht aufgerufen.
+	 */
+	void received()
+	{
+		lastReceived = wheel.now();
+	}
+
+	public void run()
+	{
+		if (stopped || !connection.isActive())
+			return;
+
+		final long idle = wheel.now() - lastReceived;
+		final boolean framed = connection.isFramed();
+		if (framed ? idle >= idleTimeoutNanos : reapLines && idle >= lineIdleTimeoutNanos)
+		{
+			server.reapIdleConnection(connection);
+			return;
+		}
+
+		if (framed && idle >= intervalNanos)
+			connection.send(PING);
+		reschedule();
+	}
+
+	private void reschedule()
+	{
+		scheduled = wheel.schedule(this, intervalNanos, TimeUnit.NANOSECONDS);
+		// stop() kann den vorigen Auftrag abgebrochen haben, waehrend dieser eingeplant wurde
+		if (stopped)
+			scheduled.cancel();
+	}
+
+}
@@ -0,0 +1,145 @@
+package de.confuse.abiKlassen;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ein Histogramm fuer Laufzeiten, das von beliebig vielen Threads ohne Sperre gefuellt werden kann. Jede Zweierpotenz
+ * an Nanosekunden ist in {@link #SUB_BUCKETS} gleich breite Faecher geteilt, so dass jeder Wert mit hoechstens
+ * 12,5 % Abweichung einsortiert wird; das Eintragen kostet nur ein paar Bitoperationen und ein atomares Erhoehen.
+ *
+ * @author Confuse
+ * @version 2
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray buckets;
+	private final LongAdder count;
+	private final LongAdder total;
+	private final LongAccumulator max;
+
+	public LatencyHistogram()
+	{
+		buckets = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+		count = new LongAdder();
+		total = new LongAdder();
+		max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Traegt eine Laufzeit ein.
+	 *
+	 * @param pNanos Die Laufzeit in Nanosekunden, negative Werte zaehlen als 0
+	 */
+	public void record(long pNanos)
+	{
+		final long value = Math.max(0, pNanos);
+		buckets.incrementAndGet(indexOf(value));
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Traegt die Zeit seit <code>pStartNanos</code> ein.
+	 *
+	 * @param pStartNanos Ein Zeitpunkt von {@link System#nanoTime()}
+	 */
+	public void recordSince(long pStartNanos)
+	{
+		record(System.nanoTime() - pStartNanos);
+	}
+
+	public long getCount()
+	{
+		return (count.sum());
+	}
+
+	/**
+	 * @return Die mittlere Laufzeit in Nanosekunden
+	 */
+	public long getMean()
+	{
+		final long n = count.sum();
+		return (n == 0 ? 0 : total.sum() / n);
+	}
+
+	/**
+	 * @return Die laengste Laufzeit in Nanosekunden
+	 */
+	public long getMax()
+	{
+		return (max.get());
+	}
+
+	/**
+	 * @param pPercentile Z. B. 99.0 fuer das 99. Perzentil
+	 * @return Die obere Grenze des Fachs, in das das Perzentil faellt, in Nanosekunden
+	 */
+	public long getPercentile(double pPercentile)
+	{
+		long counted = 0;
+		final long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++)
+			counted += counts[i] = buckets.get(i);
+		if (counted == 0)
+			return (0);
+
+		final long rank = (long) Math.ceil(counted * Math.min(100, Math.max(0, pPercentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= Math.max(1, rank))
+				return (Math.min(upperBoundOf(i), getMax()));
+		}
+		return (getMax());
+	}
+
+	@Override
+	public String toString()
+	{
+		return ("n=" + getCount() +
+				", mean=" + format(getMean()) +
+				", p50=" + format(getPercentile(50)) +
+				", p99=" + format(getPercentile(99)) +
+				", max=" + format(getMax()));
+	}
+
+	/**
+	 * Kleine Werte bekommen je ein eigenes Fach, groessere werden nach ihrer hoechsten Bitstelle und den
+	 * {@link #SUB_BUCKET_BITS} Bits darunter einsortiert.
+	 */
+	private static int indexOf(long pValue)
+	{
+		if (pValue < SUB_BUCKETS)
+			return ((int) pValue);
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(pValue) - SUB_BUCKET_BITS;
+		final int subBucket = (int) (pValue >>> exponent) & (SUB_BUCKETS - 1);
+		return ((exponent + 1) * SUB_BUCKETS + subBucket);
+	}
+
+	private static long upperBoundOf(int pIndex)
+	{
+		if (pIndex < SUB_BUCKETS)
+			return (pIndex);
+		final int exponent = pIndex / SUB_BUCKETS - 1;
+		final long subBucket = pIndex % SUB_BUCKETS;
+		return (((SUB_BUCKETS + subBucket + 1) << exponent) - 1);
+	}
+
+	private static String format(long pNanos)
+	{
+		if (pNanos < TimeUnit.MICROSECONDS.toNanos(10))
+			return (pNanos + "ns");
+		if (pNanos < TimeUnit.MILLISECONDS.toNanos(10))
+			return (TimeUnit.NANOSECONDS.toMicros(pNanos) + "us");
+		return (TimeUnit.NANOSECONDS.toMillis(pNanos) + "ms");
+	}
+
+}
@@ -0,0 +1,98 @@
+package de.confuse.abiKlassen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Zerlegt einen nicht blockierend gelesenen Bytestrom in Zeilen. Als Zeilentrenner gelten, wie bei
+ * {@link java.io.BufferedReader#readLine()}, '\n', '\r' und "\r\n". Angefangene Zeilen werden zwischen zwei Aufrufen
+ * von {@link #next(ByteBuffer)} aufbewahrt; eine Verbindung ohne angefangene Zeile belegt keinen Puffer.
+ *
+ * @author Confuse
+ * @version 2
+ */
+class LineDecoder
+{
+	/**
+	 * Laengere Zeilen werden als fehlerhafte Verbindung gewertet, damit ein Client nicht beliebig viel Speicher
+	 * belegen kann.
+	 */
+	static final int MAX_LINE_LENGTH = 8 * 1024 * 1024;
+	private static final int SHRINK_THRESHOLD = 4096;
+
+	private final Charset charset;
+	private byte[] line;
+	private int length;
+	private boolean skipLineFeed;
+
+	LineDecoder(Charset pCharset)
+	{
+		charset = pCharset;
+	}
+
+	/**
+	 * Liest aus dem Puffer bis zum Ende der naechsten Zeile. Bytes hinter dem Zeilentrenner bleiben im Puffer, damit
+	 * der Aufrufer z. B. nach einer Aushandlung anders weiterlesen kann.
+	 *
+	 * @param pBuffer Der Puffer im Lesemodus
+	 * @return Die Zeile ohne Zeilentrenner oder <code>null</code>, falls der Puffer vorher leer ist.
+	 * @throws IOException Falls eine Zeile {@link #MAX_LINE_LENGTH} ueberschreitet
+	 */
+	String next(ByteBuffer pBuffer) throws IOException
+	{
+		while (pBuffer.hasRemaining())
+		{
+			final byte b = pBuffer.get();
+
+			if (skipLineFeed)
+			{
+				skipLineFeed = false;
+				if (b == '\n')
+					continue;
+			}
+
+			if (b == '\n' || b == '\r')
+			{
+				skipLineFeed = b == '\r';
+				final String message = length == 0 ? "" : new String(line, 0, length, charset);
+				length = 0;
+
+				// Einmalig lange Zeilen sollen den Puffer nicht dauerhaft belegen
+				if (line != null && line.length > SHRINK_THRESHOLD)
+					line = null;
+				return (message);
+			}
+
+			if (length == MAX_LINE_LENGTH)
+				throw new IOException("Line too long");
+
+			append(b);
+		}
+
+		return (null);
+	}
+
+	/**
+	 * @return true, falls die letzte Zeile mit '\r' endete und ein folgendes '\n' noch dazu gehoert.
+	 */
+	boolean isSkippingLineFeed()
+	{
+		return (skipLineFeed);
+	}
+
+	private void append(byte b)
+	{
+		if (line == null)
+			line = new byte[128];
+		else if (length == line.length)
+		{
+			final byte[] grown = new byte[Math.min(line.length * 2, MAX_LINE_LENGTH)];
+			System.arraycopy(line, 0, grown, 0, length);
+			line = grown;
+		}
+
+		line[length++] = b;
+	}
+
+}
@@ -0,0 +1,339 @@
+package de.confuse.abiKlassen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Eine nicht blockierende Verbindung des {@link ServerOptions.Backend#SELECTOR} Backends. Gelesen und geschrieben
+ * wird ausschliesslich von der zugehoerigen {@link SelectorLoop}; {@link #send(OutboundMessage)} darf von jedem
+ * Thread aus aufgerufen werden und stellt die Nachricht nur in die {@link OutboundQueue}.
+ *
+ * @author Confuse
+ * @version 5
+ */
+class NioConnection implements Connection
+{
+	private final Server server;
+	private final SelectorLoop loop;
+	private final SocketChannel channel;
+	/**
+	 * Liest Zeilen, bis die erste Zeile {@link Frame}s aushandelt; danach liest der {@link FrameDecoder}.
+	 */
+	private LineDecoder lineDecoder;
+	private FrameDecoder frameDecoder;
+	private boolean firstLine;
+	private final OutboundQueue outbound;
+	/**
+	 * Rest eines zusammengefassten Schreibvorgangs, den der Kanal nicht sofort aufnehmen konnte.
+	 */
+	private ByteBuffer unwritten;
+	private final String clientIP;
+	private final int clientPort;
+	private SelectionKey key;
+	private volatile boolean active;
+	private Heartbeat heartbeat;
+	private final long acceptedNanos;
+	private final ProcessingPool.Lane lane;
+	/**
+	 * Empfangene Nachrichten, die keinen Platz mehr in der {@link #lane} hatten; solange welche warten, ist das Lesen
+	 * angehalten. Wird nur von der {@link SelectorLoop} verwendet.
+	 */
+	private final Queue<Runnable> deferred;
+	private final FrameCompression compression;
+
+	NioConnection(Server pServer, SelectorLoop pLoop, SocketChannel pChannel, long pAcceptedNanos) throws IOException
+	{
+		server = pServer;
+		loop = pLoop;
+		channel = pChannel;
+		lineDecoder = new LineDecoder(Charset.defaultCharset());
+		firstLine = true;
+		outbound = new OutboundQueue(pServer.getOptions(), pServer.getSlowConsumerStats(), pServer.getStats(),
+				this::afterEnqueue);
+		acceptedNanos = pAcceptedNanos;
+		lane = pServer.assignLane();
+		deferred = new ArrayDeque<>();
+		compression = new FrameCompression();
+
+		final InetSocketAddress address = (InetSocketAddress) pChannel.getRemoteAddress();
+		clientIP = address.getAddress().getHostAddress();
+		clientPort = address.getPort();
+		active = true;
+	}
+
+	public void send(OutboundMessage pMessage)
+	{
+		if (active)
+			afterEnqueue(outbound.enqueue(pMessage));
+	}
+
+	public void acceptFrames()
+	{
+		if (active)
+			afterEnqueue(outbound.acceptFrames());
+	}
+
+	public void keepLines()
+	{
+		outbound.keepLines();
+	}
+
+	private void afterEnqueue(OutboundQueue.Result pResult)
+	{
+		switch (pResult)
+		{
+			case START_DRAIN:
+				loop.execute(this, this::flush);
+				break;
+			case DISCONNECT:
+				server.closeLostConnection(this);
+				break;
+		}
+	}
+
+	/**
+	 * Zerlegt eingelesene Bytes in Zeilen bzw. nach der Aushandlung in {@link Frame}s und reicht sie an den
+	 * {@link Server} weiter. Laeuft immer im Thread der {@link SelectorLoop}.
+	 *
+	 * @param pBuffer Der Puffer im Lesemodus, wird vollstaendig gelesen
+	 * @throws IOException Falls eine Zeile zu lang oder ein Rahmen ungueltig ist
+	 */
+	void receive(ByteBuffer pBuffer) throws IOException
+	{
+		while (pBuffer.hasRemaining() && active)
+		{
+			if (frameDecoder != null)
+			{
+				final Frame frame = frameDecoder.next(pBuffer);
+				if (frame != null)
+					server.receiveFrame(this, frame);
+			}
+			else
+			{
+				final String line = lineDecoder.next(pBuffer);
+				if (line == null)
+					continue;
+
+				if (server.receiveLine(this, line, firstLine))
+				{
+					frameDecoder = new FrameDecoder(lineDecoder.isSkippingLineFeed());
+					lineDecoder = null;
+				}
+				firstLine = false;
+			}
+		}
+	}
+
+	/**
+	 * Fasst die wartenden Nachrichten im Schreibpuffer der {@link SelectorLoop} zusammen und schreibt sie mit
+	 * moeglichst wenigen Aufrufen. Kann der Kanal gerade nichts aufnehmen, wird der Rest aufbewahrt und auf
+	 * {@link SelectionKey#OP_WRITE} gewartet. Laeuft immer im Thread der {@link SelectorLoop}.
+	 */
+	void flush()
+	{
+		// Noch nicht angemeldet: Die SelectorLoop schreibt nach der Anmeldung
+		if (key == null || !key.isValid())
+			return;
+
+		try
+		{
+			if (unwritten != null)
+			{
+				channel.write(unwritten);
+				if (unwritten.hasRemaining())
+					return;
+				unwritten = null;
+			}
+
+			final ByteBuffer buffer = loop.getWriteBuffer();
+			do
+			{
+				buffer.clear();
+				while (outbound.fill(buffer))
+				{
+					buffer.flip();
+					channel.write(buffer);
+					if (buffer.hasRemaining())
+					{
+						unwritten = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+						interest(SelectionKey.OP_WRITE, 0);
+						return;
+					}
+					buffer.clear();
+				}
+				interest(0, SelectionKey.OP_WRITE);
+			}
+			while (outbound.finishDrain());
+		}
+		catch (IOException e)
+		{
+			server.closeLostConnection(this);
+		}
+	}
+
+	public void close()
+	{
+		if (active)
+		{
+			active = false;
+			outbound.clear();
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				/*
+				 * Falls eine Verbindung getrennt werden soll, deren Endpunkt
+				 * nicht mehr existiert bzw. ihrerseits bereits beendet worden ist,
+				 * geschieht nichts.
+				 */
+			}
+		}
+	}
+
+	public boolean isActive()
+	{
+		return (active);
+	}
+
+	public boolean isFramed()
+	{
+		return (outbound.isFramed());
+	}
+
+	public boolean isFlushed()
+	{
+		return (outbound.isFlushed());
+	}
+
+	public Heartbeat getHeartbeat()
+	{
+		return (heartbeat);
+	}
+
+	public void setHeartbeat(Heartbeat pHeartbeat)
+	{
+		heartbeat = pHeartbeat;
+	}
+
+	public long getAcceptedNanos()
+	{
+		return (acceptedNanos);
+	}
+
+	/**
+	 * Die {@link SelectorLoop} darf nicht warten: Ist die Lane voll, wird die Nachricht zurueckgestellt und das
+	 * Lesen angehalten, bis die Lane wieder Platz meldet. Was aus dem aktuellen Puffer noch zerlegt wird, wird
+	 * ebenfalls zurueckgestellt, so dass die Reihenfolge erhalten bleibt.
+	 */
+	public void dispatch(Runnable pTask)
+	{
+		if (lane == null)
+			pTask.run();
+		else if (!deferred.isEmpty() || !lane.offer(pTask))
+		{
+			deferred.add(pTask);
+			if (deferred.size() == 1)
+			{
+				interest(0, SelectionKey.OP_READ);
+				lane.whenSpace(() -> loop.execute(this, this::dispatchDeferred));
+			}
+		}
+	}
+
+	public ProcessingPool.Lane getLane()
+	{
+		return (lane);
+	}
+
+	public boolean enableCompression()
+	{
+		if (!outbound.isFramed())
+			return (false);
+		outbound.compressWith(compression);
+		return (true);
+	}
+
+	public Frame inflate(Frame pFrame) throws IOException
+	{
+		return (compression.inflate(pFrame));
+	}
+
+	public String peek(Frame pFrame, int pLength)
+	{
+		return (compression.peek(pFrame, pLength));
+	}
+
+	/**
+	 * Reicht zurueckgestellte Nachrichten nach und liest danach weiter. Laeuft immer im Thread der
+	 * {@link SelectorLoop}.
+	 */
+	private void dispatchDeferred()
+	{
+		if (!active)
+		{
+			deferred.clear();
+			return;
+		}
+
+		while (!deferred.isEmpty())
+		{
+			if (!lane.offer(deferred.peek()))
+			{
+				lane.whenSpace(() -> loop.execute(this, this::dispatchDeferred));
+				return;
+			}
+			deferred.poll();
+		}
+		interest(SelectionKey.OP_READ, 0);
+	}
+
+	/**
+	 * Aendert die Ereignisse, auf die der Selector fuer diese Verbindung wartet. Hat ein anderer Thread den Kanal
+	 * inzwischen geschlossen, ist der Schluessel ungueltig und es geschieht nichts.
+	 */
+	private void interest(int pAdd, int pRemove)
+	{
+		if (key == null || !key.isValid())
+			return;
+		try
+		{
+			key.interestOps((key.interestOps() | pAdd) & ~pRemove);
+		}
+		catch (CancelledKeyException e)
+		{
+			/*
+			 * Zwischen Pruefung und Aenderung geschlossen, die Verbindung wird ohnehin getrennt.
+			 */
+		}
+	}
+
+	public String getClientIP()
+	{
+		return (clientIP);
+	}
+
+	public int getClientPort()
+	{
+		return (clientPort);
+	}
+
+	SocketChannel getChannel()
+	{
+		return (channel);
+	}
+
+	void setKey(SelectionKey pKey)
+	{
+		key = pKey;
+	}
+
+}
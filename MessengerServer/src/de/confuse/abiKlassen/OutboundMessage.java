@@ -0,0 +1,58 @@
+package de.confuse.abiKlassen;
+
+/**
+ * Eine ausgehende Nachricht, die je nach ausgehandeltem Leitungsformat des Empfaengers als Zeile oder als
+ * {@link Frame} verschickt wird. Beide Formen werden erst bei Bedarf und dann nur einmal kodiert, so dass eine an viele
+ * Verbindungen verteilte Nachricht nicht mehrfach kodiert wird. Die Arrays werden nie veraendert.<br>
+ * Ein weitergeleiteter {@link Frame} wird an Empfaenger mit Rahmen unveraendert verschickt und nur fuer Empfaenger
+ * mit Zeilen dekodiert.
+ *
+ * @author Confuse
+ * @version 2
+ */
+final class OutboundMessage
+{
+	/**
+	 * Der Text oder <code>null</code>, falls die Nachricht aus einem empfangenen Rahmen stammt.
+	 */
+	private final String text;
+	private final Frame source;
+	private volatile byte[] line;
+	private volatile byte[] frame;
+
+	OutboundMessage(String pText)
+	{
+		text = pText;
+		source = null;
+	}
+
+	OutboundMessage(Frame pFrame)
+	{
+		text = null;
+		source = pFrame;
+		frame = pFrame.getData();
+	}
+
+	/**
+	 * @return Die Nachricht mit Zeilentrenner, siehe {@link Server#encodeLine(String)}.
+	 */
+	byte[] line()
+	{
+		byte[] encoded = line;
+		if (encoded == null)
+			line = encoded = Server.encodeLine(text != null ? text : source.getText());
+		return (encoded);
+	}
+
+	/**
+	 * @return Die Nachricht als {@link Frame#TYPE_MESSAGE} Rahmen.
+	 */
+	byte[] frame()
+	{
+		byte[] encoded = frame;
+		if (encoded == null)
+			frame = encoded = Frame.message(text).getData();
+		return (encoded);
+	}
+
+}
@@ -0,0 +1,491 @@
+package de.confuse.abiKlassen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Ausgehende Warteschlange einer einzelnen Verbindung. Nachrichten werden von beliebigen Threads eingestellt und von
+ * genau einem Schreibvorgang abgearbeitet, der mehrere wartende Nachrichten in einen Puffer zusammenfasst und sie
+ * mit einem einzigen Schreibaufruf verschickt.<br>
+ * Wer von {@link #enqueue(byte[])} {@link Result#START_DRAIN} erhaelt, muss einen Schreibvorgang anstossen. Der
+ * Schreibvorgang ruft {@link #fill(ByteBuffer)} so lange auf, bis nichts mehr wartet, und meldet sich danach mit
+ * {@link #finishDrain()} ab.<br>
+ * Im Speicher warten hoechstens {@link ServerOptions#getOutboundLimit()} Bytes, danach greift die
+ * {@link ServerOptions.SlowConsumerPolicy}. Ein langsamer Empfaenger haelt den Absender damit nie auf; auch
+ * ausgelagert wird nicht vom Absender, sondern von einem eigenen Thread, der ausserdem die Nachrichten aus der
+ * Datei zurueckholt und den Schreibvorgang anstoesst, sobald sie im Speicher sind.<br>
+ * Die Warteschlange kennt ausserdem das Leitungsformat der Verbindung und kodiert eine {@link OutboundMessage} beim
+ * Einstellen passend als Zeile oder {@link Frame}. Ist Komprimierung ausgehandelt, werden Rahmen erst beim Schreiben
+ * komprimiert.
+ *
+ * @author Confuse
+ * @version 6
+ */
+class OutboundQueue
+{
+	/**
+	 * Groesse eines zusammengefassten Schreibvorgangs.
+	 */
+	static final int BATCH_SIZE = 64 * 1024;
+
+	/**
+	 * Ergebnis von {@link #enqueue(byte[])}.
+	 */
+	enum Result
+	{
+		/**
+		 * Die Nachricht wartet oder wurde nach {@link ServerOptions.SlowConsumerPolicy#DROP} verworfen, ein
+		 * Schreibvorgang laeuft bereits.
+		 */
+		QUEUED,
+		/**
+		 * Der Aufrufer muss einen Schreibvorgang anstossen.
+		 */
+		START_DRAIN,
+		/**
+		 * Die Warteschlange ist voll und der Aufrufer muss die Verbindung trennen.
+		 */
+		DISCONNECT
+	}
+
+	private static final int WIRE_UNDECIDED = 0;
+	private static final int WIRE_LINES = 1;
+	private static final int WIRE_FRAMES = 2;
+
+	private final Queue<byte[]> messages;
+	private final AtomicBoolean draining;
+	private final AtomicLong pendingBytes;
+	private final int limit;
+	private final ServerOptions.SlowConsumerPolicy policy;
+	private final File spillDirectory;
+	private final SlowConsumerStats stats;
+	private final ServerStats serverStats;
+	/**
+	 * Wann der laufende Schreibvorgang angestossen wurde, fuer {@link ServerStats#getOutboundLatency()}.
+	 */
+	private volatile long drainRequested;
+	/**
+	 * Solange ausgelagert wird, landen auch neue Nachrichten im {@link #backlog}, damit die Reihenfolge erhalten
+	 * bleibt. Wird unter der Sperre der Warteschlange geaendert.
+	 */
+	private volatile boolean spilling;
+	/**
+	 * Ausgelagerte Nachrichten, die noch nicht in der Datei stehen; hoechstens so viele Bytes wie im Speicher.
+	 */
+	private final Queue<byte[]> backlog;
+	private final AtomicLong backlogBytes;
+	private final AtomicBoolean pumpScheduled;
+	/**
+	 * Sichert {@link #spillFile}; wird vor der Sperre der Warteschlange genommen.
+	 */
+	private final Object fileLock = new Object();
+	private SpillFile spillFile;
+	/**
+	 * Gesetzt, wenn die Auslagerungsdatei nicht mehr benutzbar ist; die Verbindung wird getrennt.
+	 */
+	private volatile boolean failed;
+	private volatile boolean closed;
+	/**
+	 * Erhaelt die Ergebnisse des Auslagerungs-Threads, wie sonst der Aufrufer von {@link #enqueue(byte[])}.
+	 */
+	private final Consumer<Result> listener;
+	/**
+	 * Die Nachricht, die nur teilweise in den letzten Puffer gepasst hat. Wird nur vom Schreibvorgang verwendet.
+	 */
+	private byte[] head;
+	private int headOffset;
+	/**
+	 * Das Leitungsformat. Steht es fest, wird ohne Sperre eingestellt; vorher sichert {@link #wireLock}, dass keine
+	 * Zeile hinter die Bestaetigung der Aushandlung geraet.
+	 */
+	private volatile int wire;
+	private final Object wireLock = new Object();
+	/**
+	 * Komprimiert ausgehende Rahmen, sobald gesetzt, siehe {@link #compressWith(FrameCompression)}.
+	 */
+	private volatile FrameCompression compression;
+
+	/**
+	 * @param pListener Erhaelt {@link Result#START_DRAIN}, wenn ausgelagerte Nachrichten zurueck im Speicher sind,
+	 *                  und {@link Result#DISCONNECT}, falls die Auslagerung scheitert
+	 */
+	OutboundQueue(ServerOptions pOptions, SlowConsumerStats pStats, ServerStats pServerStats,
+			Consumer<Result> pListener)
+	{
+		messages = new ConcurrentLinkedQueue<>();
+		backlog = new ConcurrentLinkedQueue<>();
+		backlogBytes = new AtomicLong();
+		pumpScheduled = new AtomicBoolean();
+		listener = pListener;
+		draining = new AtomicBoolean();
+		pendingBytes = new AtomicLong();
+		limit = pOptions.getOutboundLimit();
+		policy = pOptions.getSlowConsumerPolicy();
+		spillDirectory = pOptions.getSpillDirectory();
+		stats = pStats;
+		serverStats = pServerStats;
+	}
+
+	/**
+	 * Stellt die Nachricht im Leitungsformat der Verbindung ein.
+	 *
+	 * @return Was der Aufrufer als Naechstes tun muss, siehe {@link Result}.
+	 */
+	Result enqueue(OutboundMessage pMessage)
+	{
+		final int current = wire;
+		if (current != WIRE_UNDECIDED)
+			return (enqueue(current == WIRE_FRAMES ? pMessage.frame() : pMessage.line()));
+
+		synchronized (wireLock)
+		{
+			return (enqueue(wire == WIRE_FRAMES ? pMessage.frame() : pMessage.line()));
+		}
+	}
+
+	/**
+	 * Stellt die Bestaetigung der Aushandlung ein; alles danach Eingestellte wird als {@link Frame} kodiert.
+	 *
+	 * @return Was der Aufrufer als Naechstes tun muss, siehe {@link Result}.
+	 */
+	Result acceptFrames()
+	{
+		synchronized (wireLock)
+		{
+			final Result result = enqueue(Server.encodeLine(Frame.UPGRADE_ACCEPT));
+			wire = WIRE_FRAMES;
+			return (result);
+		}
+	}
+
+	/**
+	 * Legt die Verbindung auf Zeilen fest, danach wird ohne Sperre eingestellt.
+	 */
+	void keepLines()
+	{
+		wire = WIRE_LINES;
+	}
+
+	/**
+	 * Komprimiert ab jetzt alle Rahmen, die noch nicht geschrieben sind. Nur nach der Aushandlung der {@link Frame}s
+	 * aufzurufen.
+	 */
+	void compressWith(FrameCompression pCompression)
+	{
+		compression = pCompression;
+	}
+
+	/**
+	 * @return true, falls die Verbindung {@link Frame}s ausgehandelt hat.
+	 */
+	boolean isFramed()
+	{
+		return (wire == WIRE_FRAMES);
+	}
+
+	/**
+	 * Stellt die fertig kodierte Nachricht ein. Der Platz im Speicher wird atomar reserviert, so dass
+	 * {@link ServerOptions#getOutboundLimit()} auch bei vielen gleichzeitigen Absendern nie ueberschritten wird.
+	 *
+	 * @return Was der Aufrufer als Naechstes tun muss, siehe {@link Result}.
+	 */
+	Result enqueue(byte[] pMessage)
+	{
+		if (failed)
+			return (Result.DISCONNECT);
+		// Solange ausgelagert wird, geht alles hinter die ausgelagerten Nachrichten
+		if (!spilling && reserve(pMessage.length, false))
+		{
+			messages.add(pMessage);
+			return (requestDrain() ? Result.START_DRAIN : Result.QUEUED);
+		}
+
+		switch (policy)
+		{
+			case DROP:
+				stats.drop();
+				return (Result.QUEUED);
+			case SPILL:
+				return (spill(pMessage));
+			default:
+				stats.disconnect();
+				return (Result.DISCONNECT);
+		}
+	}
+
+	/**
+	 * Kopiert so viele wartende Nachrichten wie moeglich hintereinander in den Puffer. Ausgelagerte Nachrichten holt
+	 * der Auslagerungs-Thread nach, sobald im Speicher Platz wird; der Schreibvorgang wartet nie auf die Datei.
+	 *
+	 * @param pBuffer Der Puffer im Schreibmodus
+	 * @return true, falls mindestens ein Byte kopiert wurde.
+	 */
+	boolean fill(ByteBuffer pBuffer)
+	{
+		final int start = pBuffer.position();
+		while (pBuffer.hasRemaining())
+		{
+			if (head == null)
+			{
+				head = messages.poll();
+				if (head == null)
+					break;
+
+				headOffset = 0;
+				pendingBytes.addAndGet(-head.length);
+				serverStats.sentMessage();
+				// Erst hier, damit jeder Rahmen nur im einen laufenden Schreibvorgang komprimiert wird
+				final FrameCompression current = compression;
+				if (current != null)
+					head = current.compress(head);
+			}
+
+			final int length = Math.min(pBuffer.remaining(), head.length - headOffset);
+			pBuffer.put(head, headOffset, length);
+			headOffset += length;
+			if (headOffset == head.length)
+				head = null;
+		}
+
+		if (spilling && pendingBytes.get() <= limit / 2)
+			schedulePump();
+		serverStats.sent(pBuffer.position() - start);
+		return (pBuffer.position() > start);
+	}
+
+	/**
+	 * Beendet den laufenden Schreibvorgang.
+	 *
+	 * @return true, falls inzwischen neue Nachrichten eingetroffen sind und der Schreibvorgang weiterlaufen muss.
+	 */
+	boolean finishDrain()
+	{
+		serverStats.written(System.nanoTime() - drainRequested);
+		draining.set(false);
+		return (isPending() && requestDrain());
+	}
+
+	/**
+	 * Beendet einen Schreibvorgang, der wegen eines Fehlers abbricht. Danach darf nichts mehr eingestellt werden.
+	 */
+	void abortDrain()
+	{
+		draining.set(false);
+	}
+
+	/**
+	 * @return true, falls der Aufrufer den Schreibvorgang uebernommen hat.
+	 */
+	private boolean requestDrain()
+	{
+		if (!draining.compareAndSet(false, true))
+			return (false);
+		drainRequested = System.nanoTime();
+		return (true);
+	}
+
+	/**
+	 * @return true, falls im Speicher etwas zum Schreiben wartet.
+	 */
+	private boolean isPending()
+	{
+		return (head != null || !messages.isEmpty());
+	}
+
+	/**
+	 * @return true, falls nichts mehr wartet, auch nicht ausgelagert, und kein Schreibvorgang mehr laeuft, alles
+	 * Eingestellte also geschrieben ist.
+	 */
+	boolean isFlushed()
+	{
+		return (!draining.get() && !isPending() && !spilling);
+	}
+
+	void clear()
+	{
+		synchronized (fileLock)
+		{
+			synchronized (this)
+			{
+				closed = true;
+				messages.clear();
+				head = null;
+				pendingBytes.set(0);
+				backlog.clear();
+				backlogBytes.set(0);
+				spilling = false;
+			}
+			if (spillFile != null)
+				spillFile.close();
+			spillFile = null;
+		}
+	}
+
+	/**
+	 * Reserviert Platz im Speicher.
+	 *
+	 * @param pAlways Ob auch reserviert wird, wenn die Nachricht allein groesser als das Limit ist, damit auch sie
+	 *                irgendwann geschrieben wird
+	 * @return false, falls nicht genug Platz ist.
+	 */
+	private boolean reserve(int pLength, boolean pAlways)
+	{
+		long current;
+		do
+		{
+			current = pendingBytes.get();
+			if (current + pLength > limit && !(pAlways && current == 0))
+				return (false);
+		}
+		while (!pendingBytes.compareAndSet(current, current + pLength));
+		return (true);
+	}
+
+	/**
+	 * Haengt die Nachricht an den Rueckstau an, den der Auslagerungs-Thread in die Datei schreibt; der Absender wartet
+	 * dabei nie auf die Festplatte. Kommt die Festplatte nicht nach, wird getrennt.
+	 */
+	private Result spill(byte[] pMessage)
+	{
+		synchronized (this)
+		{
+			if (closed)
+				return (Result.QUEUED);
+			// Ist inzwischen alles Ausgelagerte zurueckgeholt und wieder Platz, geht es im Speicher weiter
+			if (!spilling && reserve(pMessage.length, false))
+			{
+				messages.add(pMessage);
+				return (requestDrain() ? Result.START_DRAIN : Result.QUEUED);
+			}
+			final long backlogged = backlogBytes.get();
+			if (backlogged > 0 && backlogged + pMessage.length > limit)
+			{
+				stats.disconnect();
+				return (Result.DISCONNECT);
+			}
+
+			spilling = true;
+			backlogBytes.addAndGet(pMessage.length);
+			backlog.add(pMessage);
+		}
+		schedulePump();
+		return (Result.QUEUED);
+	}
+
+	private void schedulePump()
+	{
+		if (pumpScheduled.compareAndSet(false, true))
+			SpillThread.EXECUTOR.execute(this::pump);
+	}
+
+	/**
+	 * Laeuft im Auslagerungs-Thread: Holt zuerst ausgelagerte Nachrichten in den freien Speicher zurueck, dann den
+	 * Rueckstau, sobald die Datei leer ist, und schreibt den Rest des Rueckstaus in die Datei. Die Reihenfolge
+	 * Speicher, Datei, Rueckstau bleibt so immer erhalten.
+	 */
+	private void pump()
+	{
+		boolean reloaded = false;
+		try
+		{
+			synchronized (fileLock)
+			{
+				if (closed)
+					return;
+
+				while (spillFile != null && !spillFile.isEmpty() && reserve(spillFile.peekLength(), true))
+				{
+					messages.add(spillFile.next());
+					reloaded = true;
+				}
+
+				if (spillFile == null || spillFile.isEmpty())
+				{
+					byte[] message;
+					while ((message = backlog.peek()) != null && reserve(message.length, true))
+					{
+						backlog.poll();
+						backlogBytes.addAndGet(-message.length);
+						messages.add(message);
+						reloaded = true;
+					}
+				}
+
+				// Der Rest wird in Bloecken von BATCH_SIZE mit je einem Schreibaufruf ausgelagert
+				final List<byte[]> batch = new ArrayList<>();
+				while (!backlog.isEmpty())
+				{
+					int batchBytes = 0;
+					for (byte[] message : backlog)
+					{
+						batch.add(message);
+						batchBytes += message.length;
+						if (batchBytes >= BATCH_SIZE)
+							break;
+					}
+
+					if (spillFile == null)
+						spillFile = new SpillFile(spillDirectory);
+					spillFile.append(batch);
+					for (byte[] message : batch)
+					{
+						backlog.poll();
+						backlogBytes.addAndGet(-message.length);
+						stats.spill(message.length);
+					}
+					batch.clear();
+				}
+
+				synchronized (this)
+				{
+					// Neue Nachrichten landen erst wieder im Speicher, wenn nichts mehr ausgelagert ist
+					if ((spillFile == null || spillFile.isEmpty()) && backlog.isEmpty())
+						spilling = false;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// Was nicht ausgelagert oder zurueckgeholt werden kann, ist verloren; die Verbindung wird getrennt
+			e.printStackTrace();
+			failed = true;
+			stats.disconnect();
+			listener.accept(Result.DISCONNECT);
+			return;
+		}
+		finally
+		{
+			pumpScheduled.set(false);
+		}
+
+		if (reloaded && requestDrain())
+			listener.accept(Result.START_DRAIN);
+		// Waehrenddessen neu ausgelagerte Nachrichten, oder wieder Platz fuer die naechsten aus der Datei
+		if (!backlog.isEmpty() || (spilling && pendingBytes.get() <= limit / 2 && !closed))
+			schedulePump();
+	}
+
+	/**
+	 * Ein Thread fuer die Auslagerungsdateien aller Verbindungen; er wird erst beim ersten Auslagern gestartet.
+	 */
+	private static final class SpillThread
+	{
+		private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(task ->
+		{
+			final Thread thread = new Thread(task, "Spill-Thread");
+			thread.setDaemon(true);
+			return (thread);
+		});
+	}
+
+}
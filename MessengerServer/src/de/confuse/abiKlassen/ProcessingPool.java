@@ -0,0 +1,248 @@
+package de.confuse.abiKlassen;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bearbeitet empfangene Nachrichten getrennt von den lesenden Threads. Jede Verbindung erhaelt beim Einrichten eine
+ * eigene {@link Lane}, die ihre Nachrichten der Reihe nach auf einem der gemeinsamen Threads des Pools bearbeitet;
+ * verschiedene Verbindungen laufen dabei parallel auf allen Kernen. Eine Lane belegt einen Thread nur, solange sie
+ * Nachrichten hat, und gibt ihn nach {@link #BATCH_SIZE} Nachrichten wieder ab, damit eine langsame oder sehr
+ * gespraechige Verbindung keine andere aufhaelt. Ein langsamer Auftrag, z. B. die Schluesselerzeugung eines
+ * Handshakes, haelt damit nie das Lesen auf.<br>
+ * In jeder Lane warten hoechstens {@link ServerOptions#getProcessingQueue()} Nachrichten. Ist sie voll, wartet ein
+ * blockierender Leser mit {@link Lane#put(Runnable)}, waehrend eine {@link SelectorLoop} mit
+ * {@link Lane#offer(Runnable)} nicht wartet, sondern das Lesen der Verbindung anhaelt, bis
+ * {@link Lane#whenSpace(Runnable)} meldet, dass wieder Platz ist. Es wartet also immer nur die Verbindung, die selbst
+ * zu viel sendet.
+ *
+ * @author Confuse
+ * @version 2
+ */
+class ProcessingPool
+{
+	/**
+	 * So viele Nachrichten bearbeitet eine Lane hoechstens, bevor sie den Thread fuer andere freigibt.
+	 */
+	static final int BATCH_SIZE = 64;
+
+	private final ExecutorService threads;
+	private final int capacity;
+	/**
+	 * Die Lanes der bestehenden Verbindungen, damit {@link #close()} wartende Leser freigeben kann.
+	 */
+	private final Set<Lane> lanes;
+	private volatile boolean active;
+
+	/**
+	 * @param pThreads  Anzahl der Threads
+	 * @param pCapacity So viele Nachrichten duerfen je Verbindung warten
+	 */
+	ProcessingPool(int pThreads, int pCapacity)
+	{
+		final AtomicInteger threadNumber = new AtomicInteger();
+		threads = Executors.newFixedThreadPool(Math.max(1, pThreads), task ->
+		{
+			final Thread thread = new Thread(task, "Processing-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return (thread);
+		});
+		capacity = Math.max(1, pCapacity);
+		lanes = ConcurrentHashMap.newKeySet();
+		active = true;
+	}
+
+	/**
+	 * @return Eine neue Lane fuer eine neue Verbindung.
+	 */
+	Lane assign()
+	{
+		final Lane lane = new Lane();
+		lanes.add(lane);
+		// Schliesst der Pool gleichzeitig, darf die neue Lane nicht uebrig bleiben
+		if (!active)
+			lane.release();
+		return (lane);
+	}
+
+	/**
+	 * Beendet die Threads; noch wartende Auftraege werden verworfen und Leser, die auf Platz warten, freigegeben.
+	 */
+	void close()
+	{
+		active = false;
+		threads.shutdownNow();
+		for (Lane lane : lanes)
+			lane.release();
+	}
+
+	/**
+	 * Die Warteschlange einer Verbindung.
+	 */
+	final class Lane
+	{
+		private final Queue<Runnable> tasks;
+		/**
+		 * Je ein Platz in der Warteschlange; Auftraege aus {@link #execute(Runnable)} brauchen keinen.
+		 */
+		private final Semaphore permits;
+		/**
+		 * Wer auf Platz wartet, siehe {@link #whenSpace(Runnable)}.
+		 */
+		private final Queue<Runnable> waiters;
+		/**
+		 * Ob die Lane gerade an einen Thread des Pools uebergeben ist.
+		 */
+		private final AtomicBoolean scheduled;
+
+		private Lane()
+		{
+			tasks = new ConcurrentLinkedQueue<>();
+			permits = new Semaphore(capacity);
+			waiters = new ConcurrentLinkedQueue<>();
+			scheduled = new AtomicBoolean();
+		}
+
+		/**
+		 * Stellt den Auftrag ein und wartet dafuer, falls noetig, auf Platz.
+		 *
+		 * @return false, falls der Pool beendet ist oder der Thread beim Warten unterbrochen wurde.
+		 */
+		boolean put(Runnable pTask)
+		{
+			try
+			{
+				permits.acquire();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return (false);
+			}
+			return (enqueue(pTask));
+		}
+
+		/**
+		 * Stellt den Auftrag nur ein, falls Platz ist.
+		 *
+		 * @return false, falls die Warteschlange voll oder der Pool beendet ist.
+		 */
+		boolean offer(Runnable pTask)
+		{
+			return (permits.tryAcquire() && enqueue(pTask));
+		}
+
+		/**
+		 * Stellt den Auftrag ohne Ruecksicht auf die Kapazitaet ein, z. B. die Meldung einer getrennten Verbindung,
+		 * die nach deren letzter Nachricht bearbeitet werden muss. Danach wird die Lane nicht mehr gebraucht.
+		 *
+		 * @return false, falls der Pool beendet ist.
+		 */
+		boolean execute(Runnable pTask)
+		{
+			lanes.remove(this);
+			if (!active)
+				return (false);
+			tasks.add(pTask);
+			schedule();
+			return (true);
+		}
+
+		/**
+		 * Fuehrt <code>pWaiter</code> einmal aus, sobald wieder Platz ist; das geschieht im Thread, der die Lane gerade
+		 * bearbeitet, der Auftrag muss also kurz sein.
+		 */
+		void whenSpace(Runnable pWaiter)
+		{
+			waiters.add(pWaiter);
+			// Ist inzwischen Platz geworden, gibt es keinen Auftrag mehr, nach dem gemeldet wuerde
+			if (permits.availablePermits() > 0)
+				notifyWaiters();
+		}
+
+		/**
+		 * Gibt Leser frei, die in {@link #put(Runnable)} auf Platz warten; sie finden den Pool danach beendet.
+		 */
+		private void release()
+		{
+			lanes.remove(this);
+			permits.release(capacity);
+		}
+
+		private boolean enqueue(Runnable pTask)
+		{
+			if (!active)
+			{
+				permits.release();
+				return (false);
+			}
+
+			tasks.add(() ->
+			{
+				try
+				{
+					pTask.run();
+				}
+				finally
+				{
+					permits.release();
+					notifyWaiters();
+				}
+			});
+			schedule();
+			return (true);
+		}
+
+		private void schedule()
+		{
+			if (!scheduled.compareAndSet(false, true))
+				return;
+			try
+			{
+				threads.execute(this::run);
+			}
+			catch (RejectedExecutionException e)
+			{
+				/*
+				 * Der Pool ist beendet; was noch wartet, wird verworfen.
+				 */
+			}
+		}
+
+		private void notifyWaiters()
+		{
+			Runnable waiter;
+			while ((waiter = waiters.poll()) != null)
+				waiter.run();
+		}
+
+		private void run()
+		{
+			Runnable task;
+			for (int i = 0; i < BATCH_SIZE && active && (task = tasks.poll()) != null; i++)
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException e)
+				{
+					// Ein fehlerhafter Auftrag darf die weiteren Nachrichten der Verbindung nicht aufhalten
+					e.printStackTrace();
+				}
+
+			scheduled.set(false);
+			// Kam waehrenddessen etwas hinzu oder ist der Stapel voll, stellt sich die Lane hinten an
+			if (!tasks.isEmpty())
+				schedule();
+		}
+	}
+
+}
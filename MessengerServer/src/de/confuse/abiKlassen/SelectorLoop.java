@@ -0,0 +1,206 @@
+package de.confuse.abiKlassen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Ein Ein-/Ausgabe-Thread des {@link ServerOptions.Backend#SELECTOR} Backends. Jede Schleife bedient beliebig viele
+ * {@link NioConnection}s ueber einen eigenen {@link Selector}. Alle Zugriffe auf die Kanaele finden in diesem Thread
+ * statt, andere Threads reichen ihre Auftraege ueber {@link #execute(NioConnection, Runnable)} ein.<br>
+ * Wirft die Bearbeitung einer Verbindung eine unerwartete Ausnahme, z. B. weil ein anderer Thread sie gerade
+ * geschlossen hat, wird nur diese Verbindung getrennt; die Schleife und ihre uebrigen Verbindungen laufen weiter.
+ *
+ * @author Confuse
+ * @version 2
+ */
+class SelectorLoop extends Thread
+{
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final Server server;
+	private final Selector selector;
+	/**
+	 * Wird von allen Verbindungen dieser Schleife gemeinsam genutzt, da eingelesene Bytes sofort zerlegt werden.
+	 */
+	private final ByteBuffer readBuffer;
+	/**
+	 * Sammelt die wartenden Nachrichten einer Verbindung fuer einen gemeinsamen Schreibaufruf.
+	 */
+	private final ByteBuffer writeBuffer;
+	private final Queue<Runnable> tasks;
+	private volatile boolean active;
+
+	SelectorLoop(Server pServer, int pIndex) throws IOException
+	{
+		super("Selector-Loop-" + pIndex);
+		server = pServer;
+		selector = Selector.open();
+		readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		writeBuffer = ByteBuffer.allocateDirect(OutboundQueue.BATCH_SIZE);
+		tasks = new ConcurrentLinkedQueue<>();
+		active = true;
+		start();
+	}
+
+	/**
+	 * Fuehrt den Auftrag fuer die Verbindung im Thread dieser Schleife aus. Scheitert er, wird die Verbindung getrennt.
+	 */
+	void execute(NioConnection pConnection, Runnable pTask)
+	{
+		tasks.add(() ->
+		{
+			try
+			{
+				pTask.run();
+			}
+			catch (RuntimeException e)
+			{
+				lost(pConnection, e);
+			}
+		});
+		selector.wakeup();
+	}
+
+	/**
+	 * Meldet eine neu angenommene Verbindung fuer das Lesen an.
+	 */
+	void register(NioConnection pConnection)
+	{
+		execute(pConnection, () ->
+		{
+			try
+			{
+				pConnection.getChannel().configureBlocking(false);
+				pConnection.setKey(pConnection.getChannel().register(selector, SelectionKey.OP_READ, pConnection));
+				// Nachrichten, die vor der Anmeldung gesendet wurden
+				pConnection.flush();
+			}
+			catch (IOException e)
+			{
+				server.closeLostConnection(pConnection);
+			}
+		});
+	}
+
+	public void run()
+	{
+		while (active)
+		{
+			try
+			{
+				selector.select();
+				runTasks();
+
+				final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext())
+				{
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+					final NioConnection connection = (NioConnection) key.attachment();
+
+					try
+					{
+						if (key.isValid() && key.isReadable())
+							read(connection);
+						if (key.isValid() && key.isWritable())
+							connection.flush();
+					}
+					catch (RuntimeException e)
+					{
+						lost(connection, e);
+					}
+				}
+			}
+			catch (IOException | ClosedSelectorException e)
+			{
+				/*
+				 * Wird der Selector beim Beenden des Servers geschlossen, endet die Schleife.
+				 */
+			}
+		}
+	}
+
+	private void runTasks()
+	{
+		Runnable task;
+		while ((task = tasks.poll()) != null)
+			task.run();
+	}
+
+	/**
+	 * Trennt eine Verbindung, deren Bearbeitung eine unerwartete Ausnahme geworfen hat. Auch eine Ausnahme beim
+	 * Melden der Trennung darf die Schleife nicht beenden.
+	 */
+	private void lost(NioConnection pConnection, RuntimeException pCause)
+	{
+		System.err.println("Verbindung " + pConnection.getClientIP() + ':' + pConnection.getClientPort()
+				+ " wird nach einem Fehler getrennt: " + pCause);
+		try
+		{
+			server.closeLostConnection(pConnection);
+		}
+		catch (RuntimeException e)
+		{
+			pConnection.close();
+			System.err.println("Fehler beim Trennen: " + e);
+		}
+	}
+
+	private void read(NioConnection pConnection)
+	{
+		int read;
+		readBuffer.clear();
+		try
+		{
+			read = pConnection.getChannel().read(readBuffer);
+		}
+		catch (IOException e)
+		{
+			read = -1;
+		}
+
+		if (read < 0)
+		{
+			server.closeLostConnection(pConnection);
+			return;
+		}
+		server.getStats().received(read);
+
+		readBuffer.flip();
+		try
+		{
+			pConnection.receive(readBuffer);
+		}
+		catch (IOException e)
+		{
+			server.closeLostConnection(pConnection);
+		}
+	}
+
+	ByteBuffer getWriteBuffer()
+	{
+		return (writeBuffer);
+	}
+
+	void close()
+	{
+		active = false;
+		try
+		{
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Ist der Selector bereits geschlossen, geschieht nichts.
+			 */
+		}
+	}
+
+}
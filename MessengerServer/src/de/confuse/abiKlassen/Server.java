@@ -23,50 +23,139 @@ package de.confuse.abiKlassen; /**
  * @version 30.08.2016
  */
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class Server
 {
 	private NewConnectionHandler connectionHandler;
-	private List<ClientMessageHandler> messageHandlers;
+	private ConnectionRegistry messageHandlers;
+	private final ServerOptions options;
+	/**
+	 * Nur beim {@link ServerOptions.Backend#SELECTOR} Backend gesetzt, sonst <code>null</code>.
+	 */
+	private SelectorLoop[] selectorLoops;
+	private final AtomicInteger nextSelectorLoop = new AtomicInteger();
+	/**
+	 * Arbeitet die {@link OutboundQueue}s der blockierenden Verbindungen ab. Beim
+	 * {@link ServerOptions.Backend#SELECTOR} Backend schreiben die SelectorLoops selbst.
+	 */
+	private Executor writerPool;
+	/**
+	 * Bearbeitet empfangene Nachrichten, <code>null</code> falls {@link ServerOptions#getProcessingThreads()} 0 ist
+	 * und im lesenden Thread bearbeitet wird.
+	 */
+	private ProcessingPool processingPool;
+	/**
+	 * Richtet angenommene Verbindungen ein, damit die annehmenden Threads sofort weiter annehmen koennen.
+	 */
+	private Executor setupPool;
+	/**
+	 * Sammelpuffer der Schreib-Threads, siehe {@link OutboundQueue#fill(ByteBuffer)}.
+	 */
+	private static final ThreadLocal<ByteBuffer> BATCH_BUFFER =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocate(OutboundQueue.BATCH_SIZE));
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	/**
+	 * So viele Zeichen einer Nachricht erhaelt {@link #admitMessage(String, int, String)} hoechstens.
+	 */
+	public static final int ADMIT_SCAN_LENGTH = 64;
+	/**
+	 * Ab dieser Anzahl an Empfaengern verteilt {@link #sendToAll(String)} parallel.
+	 */
+	private static final int PARALLEL_BROADCAST_THRESHOLD = 1024;
+	/**
+	 * So oft prueft {@link #drain(String)}, ob die Verbindungen alles geschrieben haben.
+	 */
+	private static final long DRAIN_POLL_MS = 10;
+	private final SlowConsumerStats slowConsumerStats = new SlowConsumerStats();
+	private final ServerStats stats = new ServerStats();
+	/**
+	 * Treibt die {@link Heartbeat}s aller Verbindungen an, <code>null</code> falls
+	 * {@link ServerOptions#getIdleTimeout()} 0 ist.
+	 */
+	private TimingWheel timingWheel;
+	private static final OutboundMessage PONG = new OutboundMessage(Frame.of(Frame.TYPE_PONG, (byte) 0, new byte[0]));
+	private static final OutboundMessage UPGRADE_REFUSE = new OutboundMessage(Frame.UPGRADE_REFUSE);
 
-	private class NewConnectionHandler extends Thread
+	/**
+	 * Nimmt neue Verbindungen mit {@link ServerOptions#getAcceptorThreads()} Threads an und reicht sie sofort an den
+	 * {@link #setupPool} weiter, damit sich die Warteschlange des Systems auch bei vielen gleichzeitigen
+	 * Verbindungsversuchen schnell leert.
+	 */
+	private class NewConnectionHandler
 	{
-		private ServerSocket serverSocket;
-		private boolean active;
+		private ServerSocketChannel[] serverChannels;
+		private volatile boolean active;
 
 		public NewConnectionHandler(int pPort)
 		{
 			try
 			{
-				serverSocket = new ServerSocket(pPort);
-				start();
+				serverChannels = openServerChannels(pPort);
 				active = true;
+				for (int i = 0; i < options.getAcceptorThreads(); i++)
+				{
+					ServerSocketChannel serverChannel = serverChannels[i % serverChannels.length];
+					HandlerThreads.start(() -> accept(serverChannel), usesVirtualThreads());
+				}
 			}
 			catch (Exception e)
 			{
-				serverSocket = null;
+				close();
+				serverChannels = null;
 				active = false;
 			}
 		}
 
-		public void run()
+		/**
+		 * Oeffnet die Sockets zum Annehmen. Mit <code>SO_REUSEPORT</code> erhaelt jeder Thread einen eigenen, sonst
+		 * teilen sich alle einen.
+		 */
+		private ServerSocketChannel[] openServerChannels(int pPort) throws IOException
+		{
+			int amount = options.getAcceptorThreads();
+			ServerSocketChannel first = ServerSocketChannel.open();
+			boolean reusePort = amount > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+			ServerSocketChannel[] channels = new ServerSocketChannel[reusePort ? amount : 1];
+			channels[0] = first;
+			for (int i = 1; i < channels.length; i++)
+				channels[i] = ServerSocketChannel.open();
+
+			for (ServerSocketChannel channel : channels)
+			{
+				if (reusePort)
+					channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				channel.bind(new InetSocketAddress(pPort), options.getAcceptBacklog());
+			}
+			return (channels);
+		}
+
+		private void accept(ServerSocketChannel pServerChannel)
 		{
 			while (active)
 			{
 				try
 				{
 					//Warten auf Verbdinungsversuch durch de.confuse.abiKlassen.Client:
-					Socket clientSocket = serverSocket.accept();
-					// Eingehende Nachrichten vom neu verbundenen de.confuse.abiKlassen.Client werden
-					// in einem eigenen Thread empfangen:
-					addNewClientMessageHandler(clientSocket);
-					processNewConnection(clientSocket.getInetAddress().getHostAddress(), clientSocket.getPort());
+					SocketChannel clientChannel = pServerChannel.accept();
+					long accepted = System.nanoTime();
+					setupPool.execute(() -> setUpConnection(clientChannel, accepted));
 				}
 
 				catch (IOException e)
@@ -82,46 +171,79 @@ public abstract class Server
 		public void close()
 		{
 			active = false;
-			if (serverSocket != null)
-				try
-				{
-					serverSocket.close();
-				}
-				catch (IOException e)
-				{
-					/*
-					 * Befindet sich der ServerSocket im accept()-Wartezustand oder wurde
-					 * er bereits geschlossen, geschieht nichts.
-					 */
-				}
+			if (serverChannels != null)
+				for (ServerSocketChannel serverChannel : serverChannels)
+					if (serverChannel != null)
+						try
+						{
+							serverChannel.close();
+						}
+						catch (IOException e)
+						{
+							/*
+							 * Befindet sich der ServerSocket im accept()-Wartezustand oder wurde
+							 * er bereits geschlossen, geschieht nichts.
+							 */
+						}
 		}
 	}
 
-	private class ClientMessageHandler extends Thread
+	private class ClientMessageHandler implements Runnable, Connection
 	{
 		private ClientSocketWrapper socketWrapper;
 		private boolean active;
+		/**
+		 * Gesetzt, sobald der Client {@link Frame}s ausgehandelt hat. Wird nur vom lesenden Thread verwendet.
+		 */
+		private boolean framed;
+		private Heartbeat heartbeat;
+		private final long acceptedNanos;
+		private final ProcessingPool.Lane lane;
+		private final FrameCompression compression = new FrameCompression();
 
 		private class ClientSocketWrapper
 		{
-			private Socket clientSocket;
-			private BufferedReader fromClient;
-			private PrintWriter toClient;
+			private final Socket clientSocket;
+			private final WireInput fromClient;
+			private final OutputStream toClient;
+			private final OutboundQueue outbound = new OutboundQueue(options, slowConsumerStats, stats,
+					this::afterEnqueue);
+			/**
+			 * Solange gesetzt, wird eingestellt und geschrieben. Wird vom lesenden Thread beim Trennen und vom
+			 * Schreib-Thread bei einem Fehler zurueckgesetzt, daher volatile.
+			 */
+			private volatile boolean writable;
 
 			public ClientSocketWrapper(Socket pSocket)
 			{
+				Socket socket = pSocket;
+				WireInput input = null;
+				OutputStream output = null;
 				try
 				{
-					clientSocket = pSocket;
-					toClient = new PrintWriter(clientSocket.getOutputStream(), true);
-					fromClient = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+					output = socket.getOutputStream();
+					input = new WireInput(new FilterInputStream(socket.getInputStream())
+					{
+						@Override
+						public int read(byte[] pBuffer, int pOffset, int pLength) throws IOException
+						{
+							final int read = super.read(pBuffer, pOffset, pLength);
+							if (read > 0)
+								stats.received(read);
+							return (read);
+						}
+					});
 				}
 				catch (IOException e)
 				{
-					clientSocket = null;
-					toClient = null;
-					fromClient = null;
+					socket = null;
+					input = null;
+					output = null;
 				}
+				clientSocket = socket;
+				fromClient = input;
+				toClient = output;
+				writable = output != null;
 			}
 
 			public String receive()
@@ -137,11 +259,78 @@ public abstract class Server
 				return (null);
 			}
 
-			public void send(String pMessage)
+			public Frame receiveFrame()
+			{
+				if (fromClient != null)
+					try
+					{
+						return fromClient.readFrame();
+					}
+					catch (IOException e)
+					{
+					}
+				return (null);
+			}
+
+			public void send(OutboundMessage pMessage)
 			{
-				if (toClient != null)
+				if (writable)
+					afterEnqueue(outbound.enqueue(pMessage));
+			}
+
+			public void acceptFrames()
+			{
+				if (writable)
+					afterEnqueue(outbound.acceptFrames());
+			}
+
+			private void afterEnqueue(OutboundQueue.Result pResult)
+			{
+				// Geschrieben wird gesammelt von einem Schreib-Thread
+				switch (pResult)
+				{
+					case START_DRAIN:
+						writerPool.execute(this::drain);
+						break;
+					case DISCONNECT:
+						closeLostConnection(ClientMessageHandler.this);
+						break;
+				}
+			}
+
+			/**
+			 * Schreibt alle wartenden Nachrichten, zusammengefasst zu moeglichst grossen Bloecken, und leert den
+			 * Ausgabestrom einmal pro Durchgang.
+			 */
+			private void drain()
+			{
+				final ByteBuffer buffer = BATCH_BUFFER.get();
+				try
+				{
+					if (!writable)
+						throw new IOException("Verbindung getrennt");
+					do
+					{
+						buffer.clear();
+						while (outbound.fill(buffer))
+						{
+							toClient.write(buffer.array(), 0, buffer.position());
+							buffer.clear();
+						}
+						toClient.flush();
+					}
+					while (outbound.finishDrain());
+				}
+				catch (IOException e)
 				{
-					toClient.println(pMessage);
+					/*
+					 * Ist die Verbindung abgebrochen, werden wartende Nachrichten
+					 * verworfen und nichts Neues mehr eingestellt; den Abbruch
+					 * bemerkt der lesende Thread.
+					 */
+					writable = false;
+					outbound.clear();
+					outbound.abortDrain();
 				}
 			}
 
@@ -163,6 +352,8 @@ public abstract class Server
 
 			public void close()
 			{
+				writable = false;
+				outbound.clear();
 				if (clientSocket != null)
 					try
 					{
@@ -179,48 +370,69 @@ public abstract class Server
 			}
 		}
 
-		private ClientMessageHandler(Socket pClientSocket)
+		private ClientMessageHandler(Socket pClientSocket, long pAcceptedNanos)
 		{
 			socketWrapper = new ClientSocketWrapper(pClientSocket);
-			if (pClientSocket != null)
-			{
-				start();
-				active = true;
-			}
-			else
-			{
-				active = false;
-			}
+			active = pClientSocket != null;
+			acceptedNanos = pAcceptedNanos;
+			lane = assignLane();
+		}
+
+		/**
+		 * Startet den Empfang. Erst nach dem Eintragen aufrufen, damit Antworten auf die ersten Nachrichten den
+		 * Handler auch finden.
+		 */
+		private void start()
+		{
+			if (active)
+				HandlerThreads.start(this, usesVirtualThreads());
 		}
 
 		public void run()
 		{
 			String message = null;
-			while (active)
+			boolean firstLine = true;
+			while (active && !framed)
 			{
 				message = socketWrapper.receive();
 				if (message != null)
-					processMessage(socketWrapper.getClientIP(), socketWrapper.getClientPort(), message);
-				else
 				{
-					ClientMessageHandler aMessageHandler = findClientMessageHandler(socketWrapper.getClientIP(),
-							socketWrapper.getClientPort());
-					if (aMessageHandler != null)
-					{
-						aMessageHandler.close();
-						removeClientMessageHandler(aMessageHandler);
-						processClosingConnection(socketWrapper.getClientIP(), socketWrapper.getClientPort());
-					}
+					framed = receiveLine(this, message, firstLine);
+					firstLine = false;
 				}
+				else
+					// Ist der Handler noch nicht oder nicht mehr eingetragen, wird er trotzdem beendet
+					closeLostConnection(this);
+			}
+
+			Frame frame = null;
+			while (active)
+			{
+				frame = socketWrapper.receiveFrame();
+				if (frame != null)
+					receiveFrame(this, frame);
+				else
+					closeLostConnection(this);
 			}
 		}
 
-		public void send(String pMessage)
+		public void send(OutboundMessage pMessage)
 		{
 			if (active)
 				socketWrapper.send(pMessage);
 		}
 
+		public void acceptFrames()
+		{
+			if (active)
+				socketWrapper.acceptFrames();
+		}
+
+		public void keepLines()
+		{
+			socketWrapper.outbound.keepLines();
+		}
+
 		public void close()
 		{
 			if (active)
@@ -230,6 +442,70 @@ public abstract class Server
 			}
 		}
 
+		public boolean isActive()
+		{
+			return (active);
+		}
+
+		public boolean isFramed()
+		{
+			return (socketWrapper.outbound.isFramed());
+		}
+
+		public boolean isFlushed()
+		{
+			return (socketWrapper.outbound.isFlushed());
+		}
+
+		public Heartbeat getHeartbeat()
+		{
+			return (heartbeat);
+		}
+
+		public void setHeartbeat(Heartbeat pHeartbeat)
+		{
+			heartbeat = pHeartbeat;
+		}
+
+		public long getAcceptedNanos()
+		{
+			return (acceptedNanos);
+		}
+
+		/**
+		 * Wartet bei voller Warteschlange, so dass der Client erst weiter gelesen wird, wenn wieder Platz ist.
+		 */
+		public void dispatch(Runnable pTask)
+		{
+			if (lane == null)
+				pTask.run();
+			else
+				lane.put(pTask);
+		}
+
+		public ProcessingPool.Lane getLane()
+		{
+			return (lane);
+		}
+
+		public boolean enableCompression()
+		{
+			if (!socketWrapper.outbound.isFramed())
+				return (false);
+			socketWrapper.outbound.compressWith(compression);
+			return (true);
+		}
+
+		public Frame inflate(Frame pFrame) throws IOException
+		{
+			return (compression.inflate(pFrame));
+		}
+
+		public String peek(Frame pFrame, int pLength)
+		{
+			return (compression.peek(pFrame, pLength));
+		}
+
 		public String getClientIP()
 		{
 			return (socketWrapper.getClientIP());
@@ -244,8 +520,28 @@ public abstract class Server
 
 	public Server(int pPort)
 	{
+		this(pPort, new ServerOptions());
+	}
+
+	/**
+	 * Erzeugt einen Server mit den angegebenen {@link ServerOptions}, z. B. mit dem
+	 * {@link ServerOptions.Backend#SELECTOR} Backend, bei dem eine kleine, feste Anzahl an Threads alle Verbindungen
+	 * bedient.
+	 */
+	public Server(int pPort, ServerOptions pOptions)
+	{
+		options = pOptions;
+		messageHandlers = new ConnectionRegistry();
+		if (options.getBackend() == ServerOptions.Backend.SELECTOR)
+			selectorLoops = openSelectorLoops(options.getSelectorThreads());
+		if (selectorLoops == null)
+			writerPool = openWriterPool();
+		setupPool = openSetupPool();
+		if (options.getProcessingThreads() > 0)
+			processingPool = new ProcessingPool(options.getProcessingThreads(), options.getProcessingQueue());
+		if (options.getIdleTimeout() > 0)
+			timingWheel = new TimingWheel(100, 512, "Timing-Wheel");
 		connectionHandler = new NewConnectionHandler(pPort);
-		messageHandlers = new List<ClientMessageHandler>();
 	}
 
 	public boolean isOpen()
@@ -255,112 +551,475 @@ public abstract class Server
 
 	public boolean isConnectedTo(String pClientIP, int pClientPort)
 	{
-		ClientMessageHandler aMessageHandler = findClientMessageHandler(pClientIP, pClientPort);
+		Connection aMessageHandler = findClientMessageHandler(pClientIP, pClientPort);
 		if (aMessageHandler != null)
-			return (aMessageHandler.active);
+			return (aMessageHandler.isActive());
 		else
 			return (false);
 	}
 
 	public void send(String pClientIP, int pClientPort, String pMessage)
 	{
-		ClientMessageHandler aMessageHandler = this.findClientMessageHandler(pClientIP, pClientPort);
+		Connection aMessageHandler = this.findClientMessageHandler(pClientIP, pClientPort);
 		if (aMessageHandler != null)
-			aMessageHandler.send(pMessage);
+			aMessageHandler.send(new OutboundMessage(pMessage));
 	}
 
+	/**
+	 * Sendet die Nachricht an alle Clients. Die Nachricht wird je Leitungsformat nur einmal kodiert und ohne Sperre
+	 * auf die Verbindungen verteilt; bei vielen Empfaengern geschieht das Einstellen parallel, geschrieben wird ohnehin von den
+	 * Schreib-Threads der einzelnen Verbindungen.
+	 */
 	public void sendToAll(String pMessage)
 	{
-		synchronized (messageHandlers)
-		{
-			messageHandlers.toFirst();
-			while (messageHandlers.hasAccess())
-			{
-				messageHandlers.getContent().send(pMessage);
-				messageHandlers.next();
-			}
-		}
+		final OutboundMessage message = new OutboundMessage(pMessage);
+		final Collection<Connection> recipients = messageHandlers.snapshot();
+
+		if (recipients.size() < PARALLEL_BROADCAST_THRESHOLD)
+			for (Connection aMessageHandler : recipients)
+				aMessageHandler.send(message);
+		else
+			recipients.parallelStream().forEach(aMessageHandler -> aMessageHandler.send(message));
 	}
 
 	public void closeConnection(String pClientIP, int pClientPort)
 	{
-		ClientMessageHandler aMessageHandler = findClientMessageHandler(pClientIP, pClientPort);
-		if (aMessageHandler != null)
+		Connection aMessageHandler = findClientMessageHandler(pClientIP, pClientPort);
+		// Nur wer die Verbindung austraegt, meldet sie auch als geschlossen
+		if (aMessageHandler != null && removeClientMessageHandler(aMessageHandler))
 		{
-			processClosingConnection(pClientIP, pClientPort);
+			reportClosing(aMessageHandler);
 			aMessageHandler.close();
-			removeClientMessageHandler(aMessageHandler);
 		}
 
 	}
 
+	/**
+	 * Komprimiert ab jetzt die {@link Frame}s an den Client mit Deflate, siehe {@link FrameCompression}. Der Client
+	 * muss die Komprimierung vorher angeboten haben, z. B. im Handshake der Anwendung; da jeder Rahmen mit
+	 * {@link Frame#FLAG_DEFLATE} gekennzeichnet ist, muss der Zeitpunkt nicht abgestimmt werden.
+	 *
+	 * @return false, falls der Client nicht verbunden ist, keine Rahmen spricht oder
+	 * {@link ServerOptions#isCompressionEnabled()} false ist.
+	 */
+	public boolean enableCompression(String pClientIP, int pClientPort)
+	{
+		Connection aMessageHandler = findClientMessageHandler(pClientIP, pClientPort);
+		return (options.isCompressionEnabled() && aMessageHandler != null && aMessageHandler.enableCompression());
+	}
+
+	/**
+	 * Beendet den Server sofort; noch wartende Nachrichten gehen verloren. Siehe {@link #drain(String)}.
+	 */
 	public void close()
 	{
 		connectionHandler.close();
+		closeAll();
+	}
+
+	/**
+	 * Faehrt den Server geordnet herunter, z. B. fuer einen Neustart: Es werden keine neuen Verbindungen mehr
+	 * angenommen und Clients mit {@link Frame}s erhalten ein {@link Frame#TYPE_GOAWAY}, damit sie sich anderswo neu
+	 * verbinden koennen. Danach wird hoechstens {@link ServerOptions#getDrainTimeout()} darauf gewartet, dass alle
+	 * eingestellten Nachrichten geschrieben sind, bevor die Verbindungen parallel getrennt werden. Clients mit Zeilen
+	 * kennen keine Ankuendigung und bemerken nur die Trennung.
+	 *
+	 * @param pAlternative Die Adresse eines anderen Servers, z. B. <code>example.org:1887</code>, oder
+	 *                     <code>null</code>
+	 */
+	public void drain(String pAlternative)
+	{
+		connectionHandler.close();
+
+		final OutboundMessage goAway = new OutboundMessage(Frame.of(Frame.TYPE_GOAWAY, (byte) 0,
+				pAlternative == null ? new byte[0] : pAlternative.getBytes(StandardCharsets.UTF_8)));
+		final Collection<Connection> connections = messageHandlers.snapshot();
+		for (Connection aMessageHandler : connections)
+			if (aMessageHandler.isFramed())
+				aMessageHandler.send(goAway);
+
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.getDrainTimeout());
+		for (Connection aMessageHandler : connections)
+			while (aMessageHandler.isActive() && !aMessageHandler.isFlushed() && System.nanoTime() < deadline)
+				try
+				{
+					Thread.sleep(DRAIN_POLL_MS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					break;
+				}
 
-		synchronized (messageHandlers)
+		closeAll();
+	}
+
+	/**
+	 * Trennt alle Verbindungen parallel, jeweils ausserhalb der Sperre des Verzeichnisses, und gibt die Threads des
+	 * Servers frei.
+	 */
+	private void closeAll()
+	{
+		// Erst das Rad anhalten, damit keine Ueberwachung mehr Arbeit an die beendeten Pools gibt
+		if (timingWheel != null)
+			timingWheel.stop();
+		// Danach meldet closeAll die Verbindungen selbst als geschlossen
+		if (processingPool != null)
+			processingPool.close();
+
+		messageHandlers.snapshot().parallelStream().forEach(aMessageHandler ->
 		{
-			ClientMessageHandler aMessageHandler;
-			messageHandlers.toFirst();
-			while (messageHandlers.hasAccess())
+			if (removeClientMessageHandler(aMessageHandler))
 			{
-				aMessageHandler = messageHandlers.getContent();
-				processClosingConnection(aMessageHandler.getClientIP(), aMessageHandler.getClientPort());
 				aMessageHandler.close();
-				messageHandlers.remove();
+				processClosingConnection(aMessageHandler.getClientIP(), aMessageHandler.getClientPort());
 			}
-		}
+		});
 
+		if (selectorLoops != null)
+			for (SelectorLoop loop : selectorLoops)
+				loop.close();
+		if (writerPool instanceof ExecutorService)
+			((ExecutorService) writerPool).shutdown();
+		if (setupPool instanceof ExecutorService)
+			((ExecutorService) setupPool).shutdown();
+	}
+
+	/**
+	 * Leitet einen empfangenen {@link Frame} ohne Dekodieren an einen anderen Client weiter. Spricht der Empfaenger
+	 * ebenfalls Rahmen, werden die empfangenen Bytes unveraendert eingestellt, sonst wird einmalig als Zeile kodiert.
+	 *
+	 * @return false, falls zu dem Empfaenger keine Verbindung besteht.
+	 */
+	public boolean relay(String pClientIP, int pClientPort, Frame pFrame)
+	{
+		Connection aMessageHandler = this.findClientMessageHandler(pClientIP, pClientPort);
+		if (aMessageHandler == null)
+			return (false);
+
+		aMessageHandler.send(new OutboundMessage(pFrame));
+		return (true);
 	}
 
 	public abstract void processNewConnection(String pClientIP, int pClientPort);
 
+	/**
+	 * Wird im lesenden Thread fuer jede empfangene Nachricht aufgerufen, bevor sie zur Bearbeitung weitergereicht
+	 * wird. Eine Unterklasse kann hier z. B. ueberzaehlige Nachrichten verwerfen, ohne dass diese die Bearbeitung
+	 * aufhalten; die Methode muss dafuer schnell sein.
+	 *
+	 * @param pStart Hoechstens {@link #ADMIT_SCAN_LENGTH} Zeichen vom Anfang der Nachricht, bei Rahmen als ISO-8859-1
+	 * @return false, falls die Nachricht verworfen wird.
+	 */
+	public boolean admitMessage(String pClientIP, int pClientPort, String pStart)
+	{
+		return (true);
+	}
+
+	/**
+	 * Wird fuer jeden empfangenen {@link Frame#TYPE_MESSAGE} Rahmen aufgerufen, bevor er dekodiert wird. Eine
+	 * Unterklasse kann ihn hier z. B. mit {@link #relay(String, int, Frame)} weiterleiten und true zurueckgeben; dann
+	 * entfaellt der Aufruf von {@link #processMessage(String, int, String)}.
+	 *
+	 * @return true, falls der Rahmen erledigt ist.
+	 */
+	public boolean processFrame(String pClientIP, int pClientPort, Frame pFrame)
+	{
+		return (false);
+	}
+
 	public abstract void processMessage(String pClientIP, int pClientPort, String pMessage);
 
 	public abstract void processClosingConnection(String pClientIP, int pClientPort);
 
-	private void addNewClientMessageHandler(Socket pClientSocket)
+	/**
+	 * Traegt eine angenommene Verbindung ein und meldet sie mit {@link #processNewConnection(String, int)}, bevor
+	 * von ihr gelesen wird; die erste Nachricht des Clients trifft so immer nach der Meldung ein.
+	 */
+	private void setUpConnection(SocketChannel pClientChannel, long pAcceptedNanos)
+	{
+		try
+		{
+			// Erkennt tote Gegenstellen auch bei Verbindungen, die nicht angepingt werden koennen
+			pClientChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+			if (selectorLoops != null)
+			{
+				SelectorLoop loop = selectorLoops[Math.floorMod(nextSelectorLoop.getAndIncrement(),
+						selectorLoops.length)];
+				NioConnection connection = new NioConnection(this, loop, pClientChannel, pAcceptedNanos);
+				messageHandlers.add(connection);
+				startHeartbeat(connection);
+				processNewConnection(connection.getClientIP(), connection.getClientPort());
+				stats.opened(pAcceptedNanos);
+				loop.register(connection);
+			}
+			else
+			{
+				ClientMessageHandler aMessageHandler = new ClientMessageHandler(pClientChannel.socket(),
+						pAcceptedNanos);
+				messageHandlers.add(aMessageHandler);
+				startHeartbeat(aMessageHandler);
+				processNewConnection(aMessageHandler.getClientIP(), aMessageHandler.getClientPort());
+				stats.opened(pAcceptedNanos);
+				aMessageHandler.start();
+			}
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Ist die Verbindung schon vor dem Einrichten abgebrochen, geschieht nichts.
+			 */
+			try
+			{
+				pClientChannel.close();
+			}
+			catch (IOException ignored)
+			{
+			}
+		}
+	}
+
+	private void startHeartbeat(Connection pConnection)
 	{
-		synchronized (messageHandlers)
+		if (timingWheel != null)
 		{
-			messageHandlers.append(new ClientMessageHandler(pClientSocket));
+			Heartbeat heartbeat = new Heartbeat(this, pConnection, timingWheel);
+			pConnection.setHeartbeat(heartbeat);
+			heartbeat.start();
 		}
 	}
 
-	private void removeClientMessageHandler(ClientMessageHandler pClientMessageHandler)
+	/**
+	 * Trennt eine Verbindung, von der zu lange nichts eingegangen ist. Wird vom {@link TimingWheel} aufgerufen, das
+	 * selbst nicht auf {@link #processClosingConnection(String, int)} warten soll.
+	 */
+	void reapIdleConnection(Connection pConnection)
+	{
+		setupPool.execute(() -> closeLostConnection(pConnection));
+	}
+
+	private boolean usesVirtualThreads()
+	{
+		return (options.getBackend() == ServerOptions.Backend.VIRTUAL_THREADS);
+	}
+
+	/**
+	 * @return Wie oft die {@link ServerOptions.SlowConsumerPolicy} bisher gegriffen hat.
+	 */
+	public SlowConsumerStats getSlowConsumerStats()
+	{
+		return (slowConsumerStats);
+	}
+
+	/**
+	 * @return Zaehler und Laufzeiten der Verbindungen und ihres Datenverkehrs.
+	 */
+	public ServerStats getStats()
+	{
+		return (stats);
+	}
+
+	/**
+	 * @return Der Zeitpunkt ({@link System#nanoTime()}), zu dem die Verbindung zum Client angenommen wurde, oder -1,
+	 * falls der Client nicht verbunden ist.
+	 */
+	public long getAcceptedNanos(String pClientIP, int pClientPort)
+	{
+		Connection aMessageHandler = findClientMessageHandler(pClientIP, pClientPort);
+		return (aMessageHandler != null ? aMessageHandler.getAcceptedNanos() : -1);
+	}
+
+	/**
+	 * Kodiert eine Nachricht so, wie sie auf der Leitung steht: mit Zeilentrenner und im Standard-Zeichensatz.
+	 */
+	static byte[] encodeLine(String pMessage)
+	{
+		return ((pMessage + LINE_SEPARATOR).getBytes(Charset.defaultCharset()));
+	}
+
+	/**
+	 * Verarbeitet eine empfangene Zeile. Ist es die erste Zeile einer Verbindung, darf sie {@link Frame}s aushandeln
+	 * und wird dann nicht als Nachricht weitergereicht.
+	 *
+	 * @return true, falls die Verbindung ab jetzt Rahmen liest.
+	 */
+	boolean receiveLine(Connection pConnection, String pLine, boolean pFirstLine)
 	{
-		synchronized (messageHandlers)
+		received(pConnection);
+		if (pFirstLine)
 		{
-			messageHandlers.toFirst();
-			while (messageHandlers.hasAccess())
+			if (Frame.UPGRADE_REQUEST.equals(pLine))
 			{
-				if (pClientMessageHandler == messageHandlers.getContent())
+				if (options.isFramesEnabled())
 				{
-					messageHandlers.remove();
-					return;
+					pConnection.acceptFrames();
+					return (true);
 				}
-				else
-					messageHandlers.next();
+
+				// Ausdruecklich ablehnen, damit der Client seine zurueckgehaltenen Nachrichten sofort sendet
+				pConnection.keepLines();
+				pConnection.send(UPGRADE_REFUSE);
+				return (false);
 			}
+			pConnection.keepLines();
 		}
+
+		if (pConnection.isActive() && admitMessage(pConnection.getClientIP(), pConnection.getClientPort(),
+				pLine.length() > ADMIT_SCAN_LENGTH ? pLine.substring(0, ADMIT_SCAN_LENGTH) : pLine))
+		{
+			stats.receivedMessage();
+			pConnection.dispatch(() -> processMessage(pConnection.getClientIP(), pConnection.getClientPort(), pLine));
+		}
+		return (false);
 	}
 
-	private ClientMessageHandler findClientMessageHandler(String pClientIP, int pClientPort)
+	void receiveFrame(Connection pConnection, Frame pFrame)
 	{
-		synchronized (messageHandlers)
-		{
-			ClientMessageHandler aMessageHandler;
-			messageHandlers.toFirst();
+		// Unbekannte Typen werden uebergangen, damit spaetere Versionen weitere einfuehren koennen
+		received(pConnection);
+		if (pFrame.getType() == Frame.TYPE_PING)
+			pConnection.send(PONG);
+		if (pFrame.getType() != Frame.TYPE_MESSAGE || !pConnection.isActive())
+			return;
+		if (!admitMessage(pConnection.getClientIP(), pConnection.getClientPort(),
+				pConnection.peek(pFrame, ADMIT_SCAN_LENGTH)))
+			return;
 
-			while (messageHandlers.hasAccess())
+		stats.receivedMessage();
+		pConnection.dispatch(() ->
+		{
+			// Entpackt wird erst hier, damit der lesende Thread davon nicht aufgehalten wird
+			final Frame frame;
+			try
+			{
+				frame = pConnection.inflate(pFrame);
+			}
+			catch (IOException e)
 			{
-				aMessageHandler = messageHandlers.getContent();
-				if (aMessageHandler.getClientIP().equals(pClientIP) && aMessageHandler.getClientPort() == pClientPort)
-					return (aMessageHandler);
-				messageHandlers.next();
+				closeLostConnection(pConnection);
+				return;
 			}
+
+			if (!processFrame(pConnection.getClientIP(), pConnection.getClientPort(), frame))
+				processMessage(pConnection.getClientIP(), pConnection.getClientPort(), frame.getText());
+		});
+	}
+
+	/**
+	 * @return Die Lane des {@link ProcessingPool}s fuer eine neue Verbindung oder <code>null</code> ohne Pool.
+	 */
+	ProcessingPool.Lane assignLane()
+	{
+		return (processingPool != null ? processingPool.assign() : null);
+	}
+
+	/**
+	 * Meldet eine getrennte Verbindung mit {@link #processClosingConnection(String, int)}. Mit {@link ProcessingPool}
+	 * geschieht das in ihrer Lane, also erst nachdem ihre bereits empfangenen Nachrichten bearbeitet sind.
+	 */
+	private void reportClosing(Connection pConnection)
+	{
+		final String clientIP = pConnection.getClientIP();
+		final int clientPort = pConnection.getClientPort();
+		final ProcessingPool.Lane lane = pConnection.getLane();
+		if (lane == null || !lane.execute(() -> processClosingConnection(clientIP, clientPort)))
+			processClosingConnection(clientIP, clientPort);
+	}
+
+	private static void received(Connection pConnection)
+	{
+		Heartbeat heartbeat = pConnection.getHeartbeat();
+		if (heartbeat != null)
+			heartbeat.received();
+	}
+
+	ServerOptions getOptions()
+	{
+		return (options);
+	}
+
+	private Executor openWriterPool()
+	{
+		// Virtuelle Threads sind billig genug, um fuer jeden Schreibdurchgang einen neuen zu starten
+		if (usesVirtualThreads())
+			return (task -> HandlerThreads.start(task, true));
+
+		/*
+		 * Ein Schreib-Thread, der an einem langsamen Empfaenger haengt, darf die
+		 * anderen Verbindungen nicht aufhalten, daher waechst der Pool nach Bedarf.
+		 */
+		return (Executors.newCachedThreadPool(task ->
+		{
+			Thread thread = new Thread(task, "Writer-Thread");
+			thread.setDaemon(true);
+			return (thread);
+		}));
+	}
+
+	private Executor openSetupPool()
+	{
+		if (usesVirtualThreads())
+			return (task -> HandlerThreads.start(task, true));
+
+		return (Executors.newFixedThreadPool(options.getSetupThreads(), task ->
+		{
+			Thread thread = new Thread(task, "Setup-Thread");
+			thread.setDaemon(true);
+			return (thread);
+		}));
+	}
+
+	private SelectorLoop[] openSelectorLoops(int pAmount)
+	{
+		SelectorLoop[] loops = new SelectorLoop[pAmount];
+		try
+		{
+			for (int i = 0; i < pAmount; i++)
+				loops[i] = new SelectorLoop(this, i);
+			return (loops);
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Kann kein Selector geoeffnet werden, wird auf einen Thread pro
+			 * Verbindung zurueckgegriffen.
+			 */
+			for (SelectorLoop loop : loops)
+				if (loop != null)
+					loop.close();
 			return (null);
 		}
 	}
 
+	/**
+	 * Wird von einer Verbindung aufgerufen, deren Gegenseite die Verbindung beendet hat oder bei der ein Lese- bzw.
+	 * Schreibfehler aufgetreten ist.
+	 */
+	void closeLostConnection(Connection pConnection)
+	{
+		if (removeClientMessageHandler(pConnection))
+		{
+			pConnection.close();
+			reportClosing(pConnection);
+		}
+		else
+			pConnection.close();
+	}
+
+	private boolean removeClientMessageHandler(Connection pClientMessageHandler)
+	{
+		if (!messageHandlers.remove(pClientMessageHandler))
+			return (false);
+		Heartbeat heartbeat = pClientMessageHandler.getHeartbeat();
+		if (heartbeat != null)
+			heartbeat.stop();
+		stats.closed();
+		return (true);
+	}
+
+	private Connection findClientMessageHandler(String pClientIP, int pClientPort)
+	{
+		return (messageHandlers.find(pClientIP, pClientPort));
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,348 @@
+package de.confuse.abiKlassen;
+
+import java.io.File;
+
+/**
+ * <p>
+ * Einstellungen, mit denen ein {@link Server} erzeugt wird.
+ * </p>
+ * <p>
+ * Ohne weitere Angaben verhaelt sich der {@link Server} wie die urspruengliche Abiturklasse: Jede Verbindung wird
+ * von einem eigenen Thread blockierend gelesen. Alle Setter geben die Instanz zurueck, damit die Einstellungen
+ * verkettet werden koennen.
+ * </p>
+ *
+ * @author Confuse
+ * @version 2
+ */
+public class ServerOptions
+{
+	/**
+	 * Die Art, wie der {@link Server} Verbindungen annimmt und liest.
+	 */
+	public enum Backend
+	{
+		/**
+		 * Ein Thread pro Verbindung, der blockierend auf <code>readLine()</code> wartet.
+		 */
+		THREAD_PER_CONNECTION,
+		/**
+		 * Wie {@link #THREAD_PER_CONNECTION}, jedoch laufen Verbindungsannahme und Empfangsschleifen in virtuellen
+		 * Threads. Bietet die JVM keine virtuellen Threads an, werden Plattform-Threads mit kleinem Stack verwendet.
+		 */
+		VIRTUAL_THREADS,
+		/**
+		 * Nicht blockierende Ein- und Ausgabe ueber eine kleine, feste Anzahl an {@link java.nio.channels.Selector}
+		 * Threads. Eine Verbindung belegt hier keinen eigenen Thread.
+		 */
+		SELECTOR
+	}
+
+	/**
+	 * Was mit einer Nachricht geschieht, wenn die ausgehende Warteschlange eines Empfaengers voll ist, weil dieser
+	 * langsamer liest, als Nachrichten fuer ihn eintreffen.
+	 */
+	public enum SlowConsumerPolicy
+	{
+		/**
+		 * Die Nachricht wird verworfen.
+		 */
+		DROP,
+		/**
+		 * Die Verbindung zum Empfaenger wird getrennt.
+		 */
+		DISCONNECT,
+		/**
+		 * Die Nachricht wird in eine Datei ausgelagert und nachgeschoben, sobald der Empfaenger aufgeholt hat.
+		 */
+		SPILL
+	}
+
+	private Backend backend = Backend.THREAD_PER_CONNECTION;
+	private int selectorThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private int outboundLimit = 4 * 1024 * 1024;
+	private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+	private File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+	private boolean frames = true;
+	private int acceptorThreads = 1;
+	private int setupThreads = Runtime.getRuntime().availableProcessors();
+	private int acceptBacklog = 1024;
+	private long heartbeatInterval = 15000;
+	private long idleTimeout = 45000;
+	private boolean reapIdleLines;
+	private long lineIdleTimeout = 300000;
+	private long drainTimeout = 10000;
+	private int processingThreads = Runtime.getRuntime().availableProcessors();
+	private int processingQueue = 128;
+	private boolean compression = true;
+
+	/**
+	 * @param pBackend Das zu verwendende {@link Backend}
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions backend(Backend pBackend)
+	{
+		backend = pBackend;
+		return (this);
+	}
+
+	/**
+	 * @param pSelectorThreads Anzahl der Selector-Threads, nur fuer {@link Backend#SELECTOR} relevant
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions selectorThreads(int pSelectorThreads)
+	{
+		selectorThreads = Math.max(1, pSelectorThreads);
+		return (this);
+	}
+
+	/**
+	 * @param pOutboundLimit Wie viele Bytes pro Verbindung hoechstens im Speicher auf das Senden warten
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions outboundLimit(int pOutboundLimit)
+	{
+		outboundLimit = Math.max(1, pOutboundLimit);
+		return (this);
+	}
+
+	/**
+	 * @param pSlowConsumerPolicy Verhalten bei voller Warteschlange, siehe {@link SlowConsumerPolicy}
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions slowConsumerPolicy(SlowConsumerPolicy pSlowConsumerPolicy)
+	{
+		slowConsumerPolicy = pSlowConsumerPolicy;
+		return (this);
+	}
+
+	/**
+	 * @param pSpillDirectory Verzeichnis fuer {@link SlowConsumerPolicy#SPILL}
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions spillDirectory(File pSpillDirectory)
+	{
+		spillDirectory = pSpillDirectory;
+		return (this);
+	}
+
+	/**
+	 * @param pFrames Ob Clients statt einzelner Zeilen {@link Frame}s aushandeln duerfen
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions frames(boolean pFrames)
+	{
+		frames = pFrames;
+		return (this);
+	}
+
+	/**
+	 * @param pAcceptorThreads Anzahl der Threads, die neue Verbindungen annehmen. Unterstuetzt das System
+	 *                         <code>SO_REUSEPORT</code>, erhaelt jeder Thread einen eigenen Socket, auf den der
+	 *                         Kernel die Verbindungen verteilt.
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions acceptorThreads(int pAcceptorThreads)
+	{
+		acceptorThreads = Math.max(1, pAcceptorThreads);
+		return (this);
+	}
+
+	/**
+	 * @param pSetupThreads Anzahl der Threads, die angenommene Verbindungen einrichten und
+	 *                      {@link Server#processNewConnection(String, int)} aufrufen
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions setupThreads(int pSetupThreads)
+	{
+		setupThreads = Math.max(1, pSetupThreads);
+		return (this);
+	}
+
+	/**
+	 * @param pAcceptBacklog Wie viele Verbindungsversuche das System hoechstens fuer die Annahme vorhaelt
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions acceptBacklog(int pAcceptBacklog)
+	{
+		acceptBacklog = Math.max(1, pAcceptBacklog);
+		return (this);
+	}
+
+	/**
+	 * @param pHeartbeatInterval So oft in Millisekunden wird geprueft, ob von einer Verbindung etwas eingegangen ist;
+	 *                           stille Verbindungen mit {@link Frame}s erhalten dann einen Ping
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions heartbeatInterval(long pHeartbeatInterval)
+	{
+		heartbeatInterval = Math.max(1, pHeartbeatInterval);
+		return (this);
+	}
+
+	/**
+	 * @param pIdleTimeout Nach so vielen Millisekunden ohne eingehende Nachricht wird eine Verbindung getrennt, 0
+	 *                     schaltet die Ueberwachung ab
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions idleTimeout(long pIdleTimeout)
+	{
+		idleTimeout = Math.max(0, pIdleTimeout);
+		return (this);
+	}
+
+	/**
+	 * @param pReapIdleLines Ob auch Verbindungen mit Zeilen nach {@link #lineIdleTimeout(long)} getrennt werden. Sie
+	 *                       koennen nicht angepingt werden, so dass auch lediglich stille Clients getrennt werden.
+	 *                       Standardmaessig aus, getrennt werden dann nur Verbindungen mit {@link Frame}s, die auf
+	 *                       Pings nicht mehr antworten.
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions reapIdleLines(boolean pReapIdleLines)
+	{
+		reapIdleLines = pReapIdleLines;
+		return (this);
+	}
+
+	/**
+	 * @param pLineIdleTimeout Nach so vielen Millisekunden ohne eingehende Zeile wird eine Verbindung mit Zeilen
+	 *                         getrennt. Da sie keinen Ping beantwortet, sollte der Wert deutlich ueber
+	 *                         {@link #idleTimeout(long)} liegen.
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions lineIdleTimeout(long pLineIdleTimeout)
+	{
+		lineIdleTimeout = Math.max(1, pLineIdleTimeout);
+		return (this);
+	}
+
+	/**
+	 * @param pDrainTimeout So viele Millisekunden wartet {@link Server#drain(String)} hoechstens darauf, dass alle
+	 *                      ausgehenden Nachrichten geschrieben sind
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions drainTimeout(long pDrainTimeout)
+	{
+		drainTimeout = Math.max(0, pDrainTimeout);
+		return (this);
+	}
+
+	/**
+	 * @param pCompression Ob Clients komprimierte {@link Frame}s aushandeln duerfen, siehe
+	 *                     {@link Server#enableCompression(String, int)}
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions compression(boolean pCompression)
+	{
+		compression = pCompression;
+		return (this);
+	}
+
+	/**
+	 * @param pProcessingThreads So viele Threads bearbeiten empfangene Nachrichten, die einer Verbindung der Reihe
+	 *                           nach; 0 bearbeitet sie wie frueher im lesenden Thread
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions processingThreads(int pProcessingThreads)
+	{
+		processingThreads = Math.max(0, pProcessingThreads);
+		return (this);
+	}
+
+	/**
+	 * @param pProcessingQueue So viele Nachrichten duerfen je Verbindung auf die Bearbeitung warten, bevor das Lesen
+	 *                         der Verbindung angehalten wird
+	 * @return Diese Instanz zum Verketten.
+	 */
+	public ServerOptions processingQueue(int pProcessingQueue)
+	{
+		processingQueue = Math.max(1, pProcessingQueue);
+		return (this);
+	}
+
+	public Backend getBackend()
+	{
+		return (backend);
+	}
+
+	public int getSelectorThreads()
+	{
+		return (selectorThreads);
+	}
+
+	public int getOutboundLimit()
+	{
+		return (outboundLimit);
+	}
+
+	public SlowConsumerPolicy getSlowConsumerPolicy()
+	{
+		return (slowConsumerPolicy);
+	}
+
+	public File getSpillDirectory()
+	{
+		return (spillDirectory);
+	}
+
+	public boolean isFramesEnabled()
+	{
+		return (frames);
+	}
+
+	public int getAcceptorThreads()
+	{
+		return (acceptorThreads);
+	}
+
+	public int getSetupThreads()
+	{
+		return (setupThreads);
+	}
+
+	public int getAcceptBacklog()
+	{
+		return (acceptBacklog);
+	}
+
+	public long getHeartbeatInterval()
+	{
+		return (heartbeatInterval);
+	}
+
+	public long getIdleTimeout()
+	{
+		return (idleTimeout);
+	}
+
+	public boolean isReapingIdleLines()
+	{
+		return (reapIdleLines);
+	}
+
+	public long getLineIdleTimeout()
+	{
+		return (lineIdleTimeout);
+	}
+
+	public long getDrainTimeout()
+	{
+		return (drainTimeout);
+	}
+
+	public boolean isCompressionEnabled()
+	{
+		return (compression);
+	}
+
+	public int getProcessingThreads()
+	{
+		return (processingThreads);
+	}
+
+	public int getProcessingQueue()
+	{
+		return (processingQueue);
+	}
+
+}
@@ -0,0 +1,130 @@
+package de.confuse.abiKlassen;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Zaehler und Laufzeiten eines {@link Server}s. Wie bei den {@link SlowConsumerStats} sind die Zaehler gestreift und
+ * die {@link LatencyHistogram}s kommen ohne Sperre aus, so dass die Erfassung den lesenden und schreibenden Threads
+ * kaum Zeit kostet.
+ *
+ * @author Confuse
+ * @version 1
+ */
+public class ServerStats
+{
+	private final LongAdder opened = new LongAdder();
+	private final LongAdder closed = new LongAdder();
+	private final LongAdder messagesIn = new LongAdder();
+	private final LongAdder messagesOut = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LatencyHistogram setup = new LatencyHistogram();
+	private final LatencyHistogram outboundWait = new LatencyHistogram();
+
+	void opened(long pAcceptedNanos)
+	{
+		opened.increment();
+		setup.recordSince(pAcceptedNanos);
+	}
+
+	void closed()
+	{
+		closed.increment();
+	}
+
+	void received(int pBytes)
+	{
+		bytesIn.add(pBytes);
+	}
+
+	void receivedMessage()
+	{
+		messagesIn.increment();
+	}
+
+	void sent(int pBytes)
+	{
+		bytesOut.add(pBytes);
+	}
+
+	void sentMessage()
+	{
+		messagesOut.increment();
+	}
+
+	void written(long pWaitNanos)
+	{
+		outboundWait.record(pWaitNanos);
+	}
+
+	/**
+	 * @return Anzahl der derzeit verbundenen Clients
+	 */
+	public long getActiveConnections()
+	{
+		return (opened.sum() - closed.sum());
+	}
+
+	/**
+	 * @return Anzahl aller angenommenen Verbindungen
+	 */
+	public long getOpenedConnections()
+	{
+		return (opened.sum());
+	}
+
+	public long getMessagesIn()
+	{
+		return (messagesIn.sum());
+	}
+
+	public long getMessagesOut()
+	{
+		return (messagesOut.sum());
+	}
+
+	public long getBytesIn()
+	{
+		return (bytesIn.sum());
+	}
+
+	public long getBytesOut()
+	{
+		return (bytesOut.sum());
+	}
+
+	/**
+	 * @return Die Zeit von der Annahme einer Verbindung bis sie eingerichtet und gemeldet ist, siehe
+	 * {@link Server#processNewConnection(String, int)}
+	 */
+	public LatencyHistogram getSetupLatency()
+	{
+		return (setup);
+	}
+
+	/**
+	 * @return Die Zeit vom Einstellen einer Nachricht, die einen Schreibvorgang anstoesst, bis alles bis dahin
+	 * Eingestellte geschrieben ist. Da nur die erste Nachricht jedes Schreibvorgangs erfasst wird, ist das die
+	 * Wartezeit der jeweils aeltesten Nachricht.
+	 */
+	public LatencyHistogram getOutboundLatency()
+	{
+		return (outboundWait);
+	}
+
+	@Override
+	public String toString()
+	{
+		return ("ServerStats{" +
+				"activeConnections=" + getActiveConnections() +
+				", openedConnections=" + getOpenedConnections() +
+				", messagesIn=" + getMessagesIn() +
+				", messagesOut=" + getMessagesOut() +
+				", bytesIn=" + getBytesIn() +
+				", bytesOut=" + getBytesOut() +
+				", setup=[" + setup +
+				"], outbound=[" + outboundWait +
+				"]}");
+	}
+
+}
@@ -0,0 +1,78 @@
+package de.confuse.abiKlassen;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Zaehlt, wie oft die {@link ServerOptions.SlowConsumerPolicy} eines {@link Server}s gegriffen hat. Die Zaehler sind
+ * gestreift und koennen von allen sendenden Threads ohne gegenseitiges Warten erhoeht werden.
+ *
+ * @author Confuse
+ * @version 1
+ */
+public class SlowConsumerStats
+{
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder disconnected = new LongAdder();
+	private final LongAdder spilled = new LongAdder();
+	private final LongAdder spilledBytes = new LongAdder();
+
+	void drop()
+	{
+		dropped.increment();
+	}
+
+	void disconnect()
+	{
+		disconnected.increment();
+	}
+
+	void spill(int pBytes)
+	{
+		spilled.increment();
+		spilledBytes.add(pBytes);
+	}
+
+	/**
+	 * @return Anzahl verworfener Nachrichten ({@link ServerOptions.SlowConsumerPolicy#DROP})
+	 */
+	public long getDropped()
+	{
+		return (dropped.sum());
+	}
+
+	/**
+	 * @return Anzahl getrennter Verbindungen ({@link ServerOptions.SlowConsumerPolicy#DISCONNECT})
+	 */
+	public long getDisconnected()
+	{
+		return (disconnected.sum());
+	}
+
+	/**
+	 * @return Anzahl ausgelagerter Nachrichten ({@link ServerOptions.SlowConsumerPolicy#SPILL})
+	 */
+	public long getSpilled()
+	{
+		return (spilled.sum());
+	}
+
+	/**
+	 * @return Summe der ausgelagerten Bytes ({@link ServerOptions.SlowConsumerPolicy#SPILL})
+	 */
+	public long getSpilledBytes()
+	{
+		return (spilledBytes.sum());
+	}
+
+	@Override
+	public String toString()
+	{
+		return ("SlowConsumerStats{" +
+				"dropped=" + getDropped() +
+				", disconnected=" + getDisconnected() +
+				", spilled=" + getSpilled() +
+				", spilledBytes=" + getSpilledBytes() +
+				'}');
+	}
+
+}
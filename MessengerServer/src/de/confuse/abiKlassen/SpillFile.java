@@ -0,0 +1,125 @@
+package de.confuse.abiKlassen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Auslagerungsdatei einer {@link OutboundQueue} fuer {@link ServerOptions.SlowConsumerPolicy#SPILL}. Nachrichten
+ * werden hinten angehaengt und in derselben Reihenfolge wieder gelesen; jede Nachricht ist als Laenge (4 Bytes)
+ * gefolgt von ihren Bytes abgelegt. Ist alles gelesen, wird die Datei wieder auf 0 Bytes gekuerzt.<br>
+ * Nicht threadsicher, der Aufrufer synchronisiert.
+ *
+ * @author Confuse
+ * @version 1
+ */
+class SpillFile
+{
+	private final Path path;
+	private final FileChannel channel;
+	private final ByteBuffer header;
+	private long writePosition;
+	private long readPosition;
+
+	SpillFile(File pDirectory) throws IOException
+	{
+		path = Files.createTempFile(pDirectory.toPath(), "outbound-", ".spill");
+		channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE);
+		header = ByteBuffer.allocate(Integer.BYTES);
+	}
+
+	/**
+	 * Haengt mehrere Nachrichten mit einem einzigen Schreibaufruf an.
+	 */
+	void append(List<byte[]> pMessages) throws IOException
+	{
+		int length = 0;
+		for (byte[] message : pMessages)
+			length += Integer.BYTES + message.length;
+
+		final ByteBuffer batch = ByteBuffer.allocate(length);
+		for (byte[] message : pMessages)
+			batch.putInt(message.length).put(message);
+		writePosition += write(batch.flip(), writePosition);
+	}
+
+	/**
+	 * @return Die Laenge der naechsten Nachricht, ohne sie zu lesen. Nur aufzurufen, falls die Datei nicht leer ist.
+	 */
+	int peekLength() throws IOException
+	{
+		header.clear();
+		read(header, readPosition);
+		return (header.flip().getInt());
+	}
+
+	/**
+	 * @return Die naechste ausgelagerte Nachricht oder <code>null</code>, falls keine mehr vorhanden ist.
+	 */
+	byte[] next() throws IOException
+	{
+		if (isEmpty())
+			return (null);
+
+		header.clear();
+		readPosition += read(header, readPosition);
+		final ByteBuffer message = ByteBuffer.allocate(header.flip().getInt());
+		readPosition += read(message, readPosition);
+
+		if (isEmpty())
+		{
+			channel.truncate(0);
+			writePosition = 0;
+			readPosition = 0;
+		}
+
+		return (message.array());
+	}
+
+	boolean isEmpty()
+	{
+		return (readPosition >= writePosition);
+	}
+
+	void close()
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Die Datei wird beim Schliessen geloescht, ein Fehler dabei wird ignoriert.
+			 */
+		}
+	}
+
+	private int write(ByteBuffer pBuffer, long pPosition) throws IOException
+	{
+		int written = 0;
+		while (pBuffer.hasRemaining())
+			written += channel.write(pBuffer, pPosition + written);
+		return (written);
+	}
+
+	private int read(ByteBuffer pBuffer, long pPosition) throws IOException
+	{
+		int read = 0;
+		while (pBuffer.hasRemaining())
+		{
+			final int n = channel.read(pBuffer, pPosition + read);
+			if (n < 0)
+				throw new IOException("Unexpected end of spill file " + path);
+			read += n;
+		}
+		return (read);
+	}
+
+}
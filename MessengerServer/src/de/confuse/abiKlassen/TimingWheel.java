@@ -0,0 +1,204 @@
+package de.confuse.abiKlassen;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ein Hashed Timing Wheel: Zeitgesteuerte Auftraege werden in einem Ring aus Faechern abgelegt, von denen ein eigener
+ * Thread pro Takt genau eines abarbeitet. Einplanen und Abbrechen kosten unabhaengig von der Anzahl der Auftraege
+ * O(1); die Genauigkeit ist dafuer auf einen Takt begrenzt, was fuer Zeitueberschreitungen im Sekundenbereich
+ * genuegt.<br>
+ * Die Auftraege laufen im Thread des Rades und muessen daher kurz sein; laengere Arbeit geben sie weiter.
+ *
+ * @author Confuse
+ * @version 1
+ */
+class TimingWheel
+{
+	/**
+	 * Ein eingeplanter Auftrag.
+	 */
+	static final class Timeout
+	{
+		private final Runnable task;
+		/**
+		 * Faelligkeit in Nanosekunden seit dem Start des Rades.
+		 */
+		private final long deadline;
+		/**
+		 * Wie viele volle Umdrehungen der Auftrag noch in seinem Fach wartet.
+		 */
+		private long rounds;
+		private Timeout next;
+		private volatile boolean cancelled;
+
+		private Timeout(Runnable pTask, long pDeadline)
+		{
+			task = pTask;
+			deadline = pDeadline;
+		}
+
+		/**
+		 * Der Auftrag wird nicht mehr ausgefuehrt; entfernt wird er, wenn sein Fach das naechste Mal an der Reihe ist.
+		 */
+		void cancel()
+		{
+			cancelled = true;
+		}
+	}
+
+	private final long tickNanos;
+	private final Timeout[] wheel;
+	private final int mask;
+	/**
+	 * Neu eingeplante Auftraege, die der Thread des Rades zu Beginn jedes Takts einsortiert. Die Faecher selbst
+	 * beruehrt nur dieser Thread.
+	 */
+	private final Queue<Timeout> pending;
+	private final long startTime;
+	private final Thread worker;
+	/**
+	 * Beginn des aktuellen Takts in Nanosekunden seit dem Start, siehe {@link #now()}.
+	 */
+	private volatile long currentTime;
+	private long tick;
+	private volatile boolean active;
+
+	/**
+	 * @param pTickMillis Dauer eines Takts
+	 * @param pTicks      Anzahl der Faecher, wird auf eine Zweierpotenz aufgerundet
+	 * @param pName       Name des Threads
+	 */
+	TimingWheel(long pTickMillis, int pTicks, String pName)
+	{
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, pTickMillis));
+		wheel = new Timeout[Integer.highestOneBit(Math.max(1, pTicks) * 2 - 1)];
+		mask = wheel.length - 1;
+		pending = new ConcurrentLinkedQueue<>();
+		startTime = System.nanoTime();
+		active = true;
+		worker = new Thread(this::run, pName);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Plant den Auftrag ein. Darf von jedem Thread aus aufgerufen werden.
+	 *
+	 * @return Der Auftrag, um ihn ggf. abzubrechen.
+	 */
+	Timeout schedule(Runnable pTask, long pDelay, TimeUnit pUnit)
+	{
+		final Timeout timeout = new Timeout(pTask, now() + pUnit.toNanos(pDelay));
+		pending.add(timeout);
+		return (timeout);
+	}
+
+	/**
+	 * @return Eine grobe Uhr in Nanosekunden seit dem Start des Rades, die nur einmal pro Takt weiterlaeuft und daher
+	 * billiger als {@link System#nanoTime()} zu lesen ist.
+	 */
+	long now()
+	{
+		return (currentTime);
+	}
+
+	void stop()
+	{
+		active = false;
+		worker.interrupt();
+	}
+
+	private void run()
+	{
+		while (active)
+		{
+			if (!awaitTick())
+				return;
+
+			transferPending();
+			expire(wheel[(int) (tick & mask)], (int) (tick & mask));
+			tick++;
+		}
+	}
+
+	/**
+	 * Wartet bis zum Beginn des naechsten Takts.
+	 *
+	 * @return false, falls das Rad angehalten wurde.
+	 */
+	private boolean awaitTick()
+	{
+		final long deadline = (tick + 1) * tickNanos;
+		long now;
+		while ((now = System.nanoTime() - startTime) < deadline)
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(deadline - now);
+			}
+			catch (InterruptedException e)
+			{
+				if (!active)
+					return (false);
+			}
+
+		currentTime = now;
+		return (true);
+	}
+
+	private void transferPending()
+	{
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null)
+		{
+			if (timeout.cancelled)
+				continue;
+
+			// Bereits faellige Auftraege kommen in das aktuelle Fach
+			final long ticks = Math.max(timeout.deadline / tickNanos, tick);
+			timeout.rounds = (ticks - tick) / wheel.length;
+
+			final int index = (int) (ticks & mask);
+			timeout.next = wheel[index];
+			wheel[index] = timeout;
+		}
+	}
+
+	/**
+	 * Fuehrt alle faelligen Auftraege des Fachs aus und behaelt die uebrigen.
+	 */
+	private void expire(Timeout pHead, int pIndex)
+	{
+		Timeout remaining = null;
+		Timeout timeout = pHead;
+		while (timeout != null)
+		{
+			final Timeout next = timeout.next;
+			timeout.next = null;
+
+			if (!timeout.cancelled)
+			{
+				if (timeout.rounds > 0)
+				{
+					timeout.rounds--;
+					timeout.next = remaining;
+					remaining = timeout;
+				}
+				else
+					try
+					{
+						timeout.task.run();
+					}
+					catch (RuntimeException e)
+					{
+						e.printStackTrace();
+					}
+			}
+
+			timeout = next;
+		}
+		wheel[pIndex] = remaining;
+	}
+
+}
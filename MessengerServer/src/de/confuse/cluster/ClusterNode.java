@@ -0,0 +1,391 @@
+package de.confuse.cluster;
+
+import de.confuse.abiKlassen.Frame;
+import de.confuse.abiKlassen.Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verbindet mehrere Server-Prozesse zu einem Cluster, so dass sich Clients auch dann Nachrichten schicken können, wenn
+ * sie mit verschiedenen Knoten verbunden sind.<br>
+ * Jeder Knoten hält zu jedem anderen eine dauerhafte {@link PeerLink}, über die er seine Clients ankündigt und
+ * Nachrichten an fremde Clients weiterleitet. Die bekannten Peers werden angewählt und nach einem Abbruch mit
+ * wachsender Wartezeit erneut angewählt; umgekehrt nimmt der Knoten auf seinem Cluster-Port Verbindungen der anderen
+ * Knoten an. Wählen sich zwei Knoten gleichzeitig an, bleibt auf beiden Seiten die Verbindung bestehen, die der Knoten
+ * mit der kleineren ID aufgebaut hat.<br>
+ * Weitergeleitete Nachrichten werden beim Empfänger nur an eigene Clients zugestellt und nie erneut weitergeleitet.<br>
+ * Nur Knoten mit demselben Geheimnis werden aufgenommen. Untereinander bezeichnen die Knoten Clients mit
+ * {@link #qualify(String, String)}, so dass zwei Clients mit derselben Adresse an verschiedenen Knoten nicht
+ * verwechselt werden.
+ *
+ * @author Confuse
+ * @version 2
+ */
+public class ClusterNode
+{
+	private static final long MIN_RECONNECT_DELAY_MS = 100;
+	private static final long MAX_RECONNECT_DELAY_MS = 5000;
+	private static final int CONNECT_TIMEOUT_MS = 2000;
+
+	private final String nodeId;
+	private final int clusterPort;
+	private final List<InetSocketAddress> peers;
+	private final byte[] secret;
+	private final RoutingTable routes;
+	/**
+	 * Die Clients dieses Knotens, die allen anderen angekündigt werden.
+	 */
+	private final Set<String> localClients;
+	/**
+	 * Die aktive Verbindung zu jedem erreichbaren Knoten. Geändert wird nur unter der Sperre der Map selbst, damit
+	 * Ersetzen und Entfernen einer Verbindung nicht ineinandergreifen.
+	 */
+	private final ConcurrentHashMap<String, PeerLink> links;
+	private final Set<PeerLink> openLinks;
+	private ServerSocket serverSocket;
+	private volatile Server server;
+	private volatile boolean active;
+
+	/**
+	 * @param pNodeId      Eine im Cluster eindeutige ID dieses Knotens
+	 * @param pClusterPort Der Port, auf dem die anderen Knoten sich verbinden
+	 * @param pPeers       Die Cluster-Ports der anderen Knoten; es genügt, wenn einer von zwei Knoten den anderen
+	 *                     kennt
+	 * @param pSecret      Das Geheimnis, das alle Knoten des Clusters teilen
+	 */
+	public ClusterNode(String pNodeId, int pClusterPort, List<InetSocketAddress> pPeers, byte[] pSecret)
+	{
+		this.nodeId = pNodeId;
+		this.clusterPort = pClusterPort;
+		this.peers = pPeers;
+		this.secret = pSecret.clone();
+		this.routes = new RoutingTable();
+		this.localClients = ConcurrentHashMap.newKeySet();
+		this.links = new ConcurrentHashMap<>();
+		this.openLinks = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * Öffnet den Cluster-Port und beginnt, die Peers anzuwählen. Weitergeleitete Nachrichten werden danach mit
+	 * {@link Server#relay(String, int, Frame)} an die eigenen Clients zugestellt.
+	 */
+	public void start(Server pServer) throws IOException
+	{
+		this.server = pServer;
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(clusterPort));
+		active = true;
+
+		startThread(this::accept, "Cluster-Acceptor");
+		for (InetSocketAddress peer : peers)
+			startThread(() -> dial(peer), "Cluster-Dialer " + peer.getHostString() + ':' + peer.getPort());
+	}
+
+	/**
+	 * Kündigt einen neu verbundenen Client allen Knoten an.
+	 */
+	public void addClient(String pClientIP, int pClientPort)
+	{
+		final String clientId = qualify(nodeId, pClientIP + ':' + pClientPort);
+		if (localClients.add(clientId))
+			for (PeerLink link : links.values())
+				link.announce(clientId);
+	}
+
+	/**
+	 * Meldet einen getrennten Client bei allen Knoten ab.
+	 */
+	public void removeClient(String pClientIP, int pClientPort)
+	{
+		final String clientId = qualify(nodeId, pClientIP + ':' + pClientPort);
+		if (localClients.remove(clientId))
+			for (PeerLink link : links.values())
+				link.withdraw(clientId);
+	}
+
+	/**
+	 * Leitet die Nutzdaten einer Nachricht an den Knoten weiter, mit dem der Client verbunden ist.
+	 *
+	 * @return false, falls der Client keinem oder mehreren erreichbaren Knoten bekannt ist oder der Knoten gerade zu
+	 * viel aufzuholen hat.
+	 */
+	public boolean forward(String pClientIP, int pClientPort, byte[] pData, int pOffset, int pLength)
+	{
+		final String address = pClientIP + ':' + pClientPort;
+		final String owner = routes.lookup(address);
+		if (owner == null)
+			return false;
+
+		final PeerLink link = links.get(owner);
+		return link != null && link.forward(qualify(owner, address), pData, pOffset, pLength);
+	}
+
+	/**
+	 * Trennt alle Verbindungen zu anderen Knoten; diese entfernen daraufhin alle Clients dieses Knotens.
+	 */
+	public void close()
+	{
+		active = false;
+		try
+		{
+			if (serverSocket != null)
+				serverSocket.close();
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Ist der Port bereits geschlossen, geschieht nichts.
+			 */
+		}
+		for (PeerLink link : openLinks)
+			link.close();
+	}
+
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+
+	/**
+	 * @return Die ID, unter der der Client des Knotens im Cluster bekannt ist: <code>Knoten/IP:Port</code>.
+	 */
+	static String qualify(String pNodeId, String pAddress)
+	{
+		return pNodeId + '/' + pAddress;
+	}
+
+	void routeAdded(PeerLink pLink, String pClientId)
+	{
+		final String address = addressOf(pLink.getNodeId(), pClientId);
+		if (address != null)
+			routes.put(address, pLink.getNodeId());
+	}
+
+	void routeRemoved(PeerLink pLink, String pClientId)
+	{
+		final String address = addressOf(pLink.getNodeId(), pClientId);
+		if (address != null)
+			routes.remove(address, pLink.getNodeId());
+	}
+
+	void deliver(String pClientId, byte[] pPayload)
+	{
+		final String address = addressOf(nodeId, pClientId);
+		final int colon = address != null ? address.lastIndexOf(':') : -1;
+		if (colon < 0)
+			return;
+		try
+		{
+			server.relay(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)),
+					Frame.of(Frame.TYPE_MESSAGE, (byte) 0, pPayload));
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("Cluster: Ungültiger Empfänger " + pClientId);
+		}
+	}
+
+	private void accept()
+	{
+		while (active)
+			try
+			{
+				final Socket socket = serverSocket.accept();
+				startThread(() ->
+				{
+					try
+					{
+						serve(new PeerLink(socket, false, secret));
+					}
+					catch (IOException e)
+					{
+						// Z. B. ein Knoten mit falschem Geheimnis
+						System.err.println("Cluster: Verbindung von " + socket.getRemoteSocketAddress() + " abgelehnt: "
+								+ e.getMessage());
+						closeQuietly(socket);
+					}
+				}, "Cluster-Link");
+			}
+			catch (IOException e)
+			{
+				/*
+				 * Wurde der Port geschlossen, endet die Schleife; sonst wird weiter angenommen.
+				 */
+			}
+	}
+
+	/**
+	 * Wählt den Peer an und hält die Verbindung, solange der Knoten läuft. Besteht bereits eine Verbindung, die der
+	 * Peer aufgebaut hat, wird gewartet, bis sie abreißt.
+	 */
+	private void dial(InetSocketAddress pPeer)
+	{
+		long delay = MIN_RECONNECT_DELAY_MS;
+		String peerId = null;
+		while (active)
+		{
+			long wait = MIN_RECONNECT_DELAY_MS;
+			if (peerId == null || !links.containsKey(peerId))
+			{
+				final Socket socket = new Socket();
+				try
+				{
+					socket.connect(pPeer, CONNECT_TIMEOUT_MS);
+					peerId = serve(new PeerLink(socket, true, secret));
+					if (nodeId.equals(peerId))
+					{
+						System.err.println("Cluster: " + pPeer + " ist dieser Knoten selbst");
+						return;
+					}
+					delay = MIN_RECONNECT_DELAY_MS;
+				}
+				catch (IOException e)
+				{
+					// Nicht erreichbare Peers werden immer seltener angewählt
+					closeQuietly(socket);
+					wait = delay;
+					delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+				}
+			}
+
+			try
+			{
+				Thread.sleep(wait);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stellt die Knoten einander vor, trägt die Verbindung ein und liest von ihr, bis sie abreißt.
+	 *
+	 * @return Die ID der Gegenseite.
+	 */
+	private String serve(PeerLink pLink) throws IOException
+	{
+		openLinks.add(pLink);
+		try
+		{
+			final String peerId = pLink.handshake(nodeId);
+			if (!active || peerId.equals(nodeId) || !register(pLink))
+				return peerId;
+
+			System.out.println("Cluster: Verbunden mit " + peerId);
+			try
+			{
+				pLink.read(this);
+			}
+			catch (IOException e)
+			{
+				/*
+				 * Abbruch der Verbindung, wird unten wie ein reguläres Ende behandelt.
+				 */
+			}
+			if (unregister(pLink))
+				System.out.println("Cluster: Verbindung zu " + peerId + " getrennt");
+			return peerId;
+		}
+		finally
+		{
+			pLink.close();
+			openLinks.remove(pLink);
+		}
+	}
+
+	/**
+	 * Trägt die Verbindung ein, falls sie einer bestehenden vorzuziehen ist, und kündigt ihr alle eigenen Clients an.
+	 *
+	 * @return false, falls die bestehende Verbindung bleibt.
+	 */
+	private boolean register(PeerLink pLink)
+	{
+		final PeerLink replaced;
+		synchronized (links)
+		{
+			final PeerLink existing = links.get(pLink.getNodeId());
+			if (existing != null && !isPreferred(pLink, existing))
+				return false;
+			links.put(pLink.getNodeId(), pLink);
+			replaced = existing;
+		}
+
+		if (replaced != null)
+			replaced.close();
+		// Ankündigungen von vor dem Eintragen haben diese Verbindung verfehlt und werden hier nachgeholt
+		return pLink.announceAll(localClients);
+	}
+
+	/**
+	 * @return true, falls die Verbindung zu diesem Knoten nicht inzwischen ersetzt wurde und seine Clients daher
+	 * entfernt wurden.
+	 */
+	private boolean unregister(PeerLink pLink)
+	{
+		synchronized (links)
+		{
+			if (!links.remove(pLink.getNodeId(), pLink))
+				return false;
+			routes.removeNode(pLink.getNodeId());
+			return true;
+		}
+	}
+
+	/**
+	 * Beide Knoten entscheiden gleich: Es gewinnt die Verbindung, die der Knoten mit der kleineren ID aufgebaut hat,
+	 * bei gleichem Urheber die neuere.
+	 */
+	private boolean isPreferred(PeerLink pNew, PeerLink pExisting)
+	{
+		final String newDialer = pNew.isDialed() ? nodeId : pNew.getNodeId();
+		final String existingDialer = pExisting.isDialed() ? nodeId : pExisting.getNodeId();
+		if (newDialer.equals(existingDialer))
+			return true;
+		return newDialer.compareTo(existingDialer) < 0;
+	}
+
+	/**
+	 * @return Die Adresse des Clients, falls er zu dem Knoten gehört, sonst <code>null</code>.
+	 */
+	private static String addressOf(String pNodeId, String pClientId)
+	{
+		final String prefix = qualify(pNodeId, "");
+		if (!pClientId.startsWith(prefix))
+		{
+			System.err.println("Cluster: " + pClientId + " gehört nicht zu Knoten " + pNodeId);
+			return null;
+		}
+		return pClientId.substring(prefix.length());
+	}
+
+	private static void startThread(Runnable pTask, String pName)
+	{
+		final Thread thread = new Thread(pTask, pName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void closeQuietly(Socket pSocket)
+	{
+		try
+		{
+			pSocket.close();
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Ist der Socket bereits geschlossen, geschieht nichts.
+			 */
+		}
+	}
+
+}
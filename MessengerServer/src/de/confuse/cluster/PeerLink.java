@@ -0,0 +1,343 @@
+package de.confuse.cluster;
+
+import de.confuse.abiKlassen.Frame;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Eine dauerhafte Verbindung zu einem anderen Knoten des Clusters. Beide Seiten stellen sich zuerst mit ihrer
+ * Knoten-ID und einer Zufallszahl vor und beweisen mit einem HMAC über die Zufallszahl der Gegenseite, dass sie das
+ * gemeinsame Geheimnis des Clusters kennen. Danach fließen in beide Richtungen Ankündigungen von Clients und
+ * weitergeleitete Nachrichten.<br>
+ * Jede Nachricht beginnt mit einem Typ-Byte; Clients werden dabei mit der ID ihres Knotens bezeichnet, siehe
+ * {@link ClusterNode#qualify(String, String)}:
+ * <ul>
+ *     <li>{@link #ANNOUNCE}, Client-ID: Der Client ist jetzt mit dem Absender verbunden</li>
+ *     <li>{@link #WITHDRAW}, Client-ID: Der Client hat die Verbindung zum Absender getrennt</li>
+ *     <li>{@link #FORWARD}, Client-ID, Länge, Nutzdaten: Eine Nachricht für einen Client des Empfängers</li>
+ * </ul>
+ * Gesendet werden darf von jedem Thread aus: Nachrichten werden nur in eine Warteschlange gelegt, die ein eigener
+ * Thread der Verbindung schreibt, so dass ein langsamer Knoten weder den weiterleitenden noch den Selector-Thread
+ * aufhält. Weitergeleitete Nachrichten belegen dort höchstens {@link #OUTBOUND_LIMIT} Bytes; was darüber hinausgeht,
+ * wird abgelehnt. Gelesen wird nur von dem Thread, der {@link #read(ClusterNode)} aufruft.
+ *
+ * @author Confuse
+ * @version 2
+ */
+final class PeerLink
+{
+	private static final int MAGIC = 0x4D434C32; // "MCL2"
+	private static final byte ANNOUNCE = 1;
+	private static final byte WITHDRAW = 2;
+	private static final byte FORWARD = 3;
+	/**
+	 * So lange darf die Vorstellung der Gegenseite höchstens dauern.
+	 */
+	private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+	private static final int NONCE_LENGTH = 16;
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	/**
+	 * So viele Bytes weitergeleiteter Nachrichten dürfen auf das Schreiben warten.
+	 */
+	private static final int OUTBOUND_LIMIT = 4 * 1024 * 1024;
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	/**
+	 * Ob dieser Knoten die Verbindung aufgebaut hat.
+	 */
+	private final boolean dialed;
+	private final byte[] secret;
+	/**
+	 * Fertig codierte Nachrichten in der Reihenfolge, in der sie geschrieben werden.
+	 */
+	private final LinkedBlockingQueue<byte[]> outbound;
+	/**
+	 * Die Bytes der weitergeleiteten Nachrichten in {@link #outbound}. Ankündigungen zählen nicht mit, da sie klein sind
+	 * und keine verloren gehen darf.
+	 */
+	private final AtomicInteger pendingBytes;
+	private volatile Thread writer;
+	private String nodeId;
+
+	/**
+	 * @param pSecret Das gemeinsame Geheimnis des Clusters
+	 */
+	PeerLink(Socket pSocket, boolean pDialed, byte[] pSecret) throws IOException
+	{
+		this.socket = pSocket;
+		this.dialed = pDialed;
+		this.secret = pSecret;
+		this.outbound = new LinkedBlockingQueue<>();
+		this.pendingBytes = new AtomicInteger();
+		pSocket.setTcpNoDelay(true);
+		pSocket.setKeepAlive(true);
+		this.in = new DataInputStream(new BufferedInputStream(pSocket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(pSocket.getOutputStream()));
+	}
+
+	/**
+	 * Stellt beide Knoten einander vor, prüft, ob die Gegenseite das Geheimnis kennt, und startet danach den
+	 * schreibenden Thread.
+	 *
+	 * @return Die ID der Gegenseite.
+	 */
+	String handshake(String pOwnId) throws IOException
+	{
+		final byte[] ownNonce = new byte[NONCE_LENGTH];
+		new SecureRandom().nextBytes(ownNonce);
+		out.writeInt(MAGIC);
+		out.writeUTF(pOwnId);
+		out.write(ownNonce);
+		out.flush();
+
+		socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+		if (in.readInt() != MAGIC)
+			throw new IOException("Gegenseite ist kein Knoten des Clusters");
+		final String peerId = in.readUTF();
+		final byte[] peerNonce = new byte[NONCE_LENGTH];
+		in.readFully(peerNonce);
+
+		// Jede Seite bindet ihren Beweis an die Zufallszahl der anderen und an die eigene ID
+		out.write(proof(peerNonce, pOwnId));
+		out.flush();
+		final byte[] expected = proof(ownNonce, peerId);
+		final byte[] received = new byte[expected.length];
+		in.readFully(received);
+		if (!MessageDigest.isEqual(expected, received))
+			throw new IOException("Knoten " + peerId + " kennt das Geheimnis des Clusters nicht");
+		socket.setSoTimeout(0);
+
+		nodeId = peerId;
+		final Thread thread = new Thread(this::write, "Cluster-Writer " + peerId);
+		thread.setDaemon(true);
+		writer = thread;
+		thread.start();
+		return nodeId;
+	}
+
+	/**
+	 * Liest, bis die Verbindung endet, und gibt alles an den Knoten weiter.
+	 */
+	void read(ClusterNode pNode) throws IOException
+	{
+		int type;
+		while ((type = in.read()) != -1)
+		{
+			switch (type)
+			{
+				case ANNOUNCE:
+					pNode.routeAdded(this, in.readUTF());
+					break;
+				case WITHDRAW:
+					pNode.routeRemoved(this, in.readUTF());
+					break;
+				case FORWARD:
+					final String clientId = in.readUTF();
+					final int length = in.readInt();
+					if (length < 0 || length > Frame.MAX_PAYLOAD)
+						throw new IOException("Ungültige Länge: " + length);
+					final byte[] payload = new byte[length];
+					in.readFully(payload);
+					pNode.deliver(clientId, payload);
+					break;
+				default:
+					throw new IOException("Unbekannter Typ: " + type);
+			}
+		}
+	}
+
+	/**
+	 * Kündigt alle Clients auf einmal an, z. B. direkt nach dem Verbindungsaufbau. Da die Sammlung unter derselben
+	 * Sperre wie jede einzelne Ankündigung gelesen wird, kann eine gleichzeitige Abmeldung nicht überholt werden.
+	 */
+	boolean announceAll(Collection<String> pClientIds)
+	{
+		synchronized (outbound)
+		{
+			for (String clientId : pClientIds)
+				outbound.add(encode(ANNOUNCE, clientId));
+		}
+		return !socket.isClosed();
+	}
+
+	boolean announce(String pClientId)
+	{
+		return enqueue(ANNOUNCE, pClientId);
+	}
+
+	boolean withdraw(String pClientId)
+	{
+		return enqueue(WITHDRAW, pClientId);
+	}
+
+	/**
+	 * Legt die Nutzdaten einer Nachricht an einen Client der Gegenseite in die Warteschlange.
+	 *
+	 * @return false, falls die Verbindung abgerissen ist oder schon {@link #OUTBOUND_LIMIT} Bytes warten.
+	 */
+	boolean forward(String pClientId, byte[] pData, int pOffset, int pLength)
+	{
+		if (socket.isClosed())
+			return false;
+
+		int pending;
+		do
+		{
+			pending = pendingBytes.get();
+			if (pending + pLength > OUTBOUND_LIMIT)
+				return false;
+		} while (!pendingBytes.compareAndSet(pending, pending + pLength));
+
+		try
+		{
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream(pLength + pClientId.length() + 16);
+			final DataOutputStream message = new DataOutputStream(buffer);
+			message.writeByte(FORWARD);
+			message.writeUTF(pClientId);
+			message.writeInt(pLength);
+			message.write(pData, pOffset, pLength);
+			outbound.add(buffer.toByteArray());
+			return true;
+		}
+		catch (IOException e)
+		{
+			// Kann beim Schreiben in ein Byte-Array nicht auftreten
+			pendingBytes.addAndGet(-pLength);
+			return false;
+		}
+	}
+
+	void close()
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Ist die Verbindung bereits beendet, geschieht nichts.
+			 */
+		}
+		final Thread thread = writer;
+		if (thread != null)
+			thread.interrupt();
+	}
+
+	/**
+	 * @return Die ID der Gegenseite, gesetzt nach {@link #handshake(String)}.
+	 */
+	String getNodeId()
+	{
+		return nodeId;
+	}
+
+	boolean isDialed()
+	{
+		return dialed;
+	}
+
+	private boolean enqueue(byte pType, String pClientId)
+	{
+		if (socket.isClosed())
+			return false;
+
+		synchronized (outbound)
+		{
+			outbound.add(encode(pType, pClientId));
+		}
+		return true;
+	}
+
+	/**
+	 * Schreibt die Warteschlange, bis die Verbindung geschlossen wird. Was gerade wartet, wird gemeinsam geschrieben
+	 * und erst dann abgeschickt.
+	 */
+	private void write()
+	{
+		try
+		{
+			while (!socket.isClosed())
+			{
+				byte[] message = outbound.take();
+				do
+				{
+					out.write(message);
+					if (message[0] == FORWARD)
+						pendingBytes.addAndGet(-(message.length - forwardOverhead(message)));
+				} while ((message = outbound.poll()) != null);
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// Den Abbruch bemerkt der lesende Thread
+			close();
+		}
+		catch (InterruptedException e)
+		{
+			/*
+			 * Die Verbindung wurde geschlossen.
+			 */
+		}
+		outbound.clear();
+	}
+
+	private byte[] proof(byte[] pNonce, String pNodeId) throws IOException
+	{
+		try
+		{
+			final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(new SecretKeySpec(secret, HMAC_ALGORITHM));
+			mac.update(pNonce);
+			return mac.doFinal(pNodeId.getBytes(StandardCharsets.UTF_8));
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new IOException("HMAC nicht verfügbar", e);
+		}
+	}
+
+	/**
+	 * @return Die Länge von Typ, Client-ID und Längenangabe vor den Nutzdaten einer {@link #FORWARD}-Nachricht.
+	 */
+	private static int forwardOverhead(byte[] pMessage)
+	{
+		final int idLength = ((pMessage[1] & 0xFF) << 8) | (pMessage[2] & 0xFF);
+		return 1 + 2 + idLength + 4;
+	}
+
+	private static byte[] encode(byte pType, String pClientId)
+	{
+		try
+		{
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream(pClientId.length() + 3);
+			final DataOutputStream message = new DataOutputStream(buffer);
+			message.writeByte(pType);
+			message.writeUTF(pClientId);
+			return buffer.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package de.confuse.cluster;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ordnet jedem Client, der mit einem anderen Knoten des Clusters verbunden ist, diesen Knoten zu. Clients werden wie
+ * überall im Messenger als <code>IP:Port</code> bezeichnet. Die Einträge stammen aus den Ankündigungen der anderen
+ * Knoten und werden vollständig entfernt, wenn die Verbindung zu einem Knoten abreißt.<br>
+ * Da jeder Knoten die Adressen seiner Clients selbst sieht, können zwei Knoten dieselbe Adresse ankündigen, z. B.
+ * hinter einem NAT. Eine solche Adresse wird bei keinem der beiden gesucht, statt die Nachricht dem zuletzt
+ * angekündigten zuzustellen.
+ *
+ * @author Confuse
+ * @version 2
+ */
+final class RoutingTable
+{
+	private final ConcurrentHashMap<String, Set<String>> owners = new ConcurrentHashMap<>();
+
+	void put(String pAddress, String pNodeId)
+	{
+		// Unter der Sperre des Eintrags, damit ein gleichzeitiges remove die Menge nicht gerade verwirft
+		owners.compute(pAddress, (address, nodes) ->
+		{
+			final Set<String> owning = nodes != null ? nodes : ConcurrentHashMap.newKeySet();
+			owning.add(pNodeId);
+			return owning;
+		});
+	}
+
+	/**
+	 * Entfernt nur den Eintrag dieses Knotens; hat sich der Client inzwischen mit einem anderen Knoten verbunden,
+	 * bleibt dessen Eintrag bestehen.
+	 */
+	void remove(String pAddress, String pNodeId)
+	{
+		owners.computeIfPresent(pAddress, (address, nodes) ->
+		{
+			nodes.remove(pNodeId);
+			return nodes.isEmpty() ? null : nodes;
+		});
+	}
+
+	/**
+	 * Entfernt alle Clients des Knotens.
+	 */
+	void removeNode(String pNodeId)
+	{
+		for (String address : owners.keySet())
+			remove(address, pNodeId);
+	}
+
+	/**
+	 * @return Der Knoten, mit dem der Client verbunden ist, oder <code>null</code>, falls kein oder mehr als ein
+	 * Knoten die Adresse angekündigt hat.
+	 */
+	String lookup(String pAddress)
+	{
+		final Set<String> nodes = owners.get(pAddress);
+		if (nodes == null)
+			return null;
+
+		String owner = null;
+		for (String node : nodes)
+		{
+			if (owner != null)
+				return null;
+			owner = node;
+		}
+		return owner;
+	}
+
+}
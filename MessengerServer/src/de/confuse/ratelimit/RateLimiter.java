@@ -0,0 +1,305 @@
+package de.confuse.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Begrenzt, wie viele Pakete ein Client verarbeiten lassen darf, bevor der Server sie überhaupt parst. Jede Verbindung
+ * hat je einen {@link TokenBucket} für Handshakes, die den Server Schlüsselerzeugung kosten, und einen für alle
+ * übrigen Pakete. Auf Wunsch werden zusätzlich alle Verbindungen einer IP-Adresse gemeinsam begrenzt, damit es nicht
+ * hilft, viele Verbindungen zu öffnen; da sich hinter einer Adresse aber auch viele Clients verbergen können (NAT,
+ * andere Knoten des Clusters), geschieht das nur, wenn die Limits dafür angegeben werden. Die Buckets einer
+ * IP-Adresse bleiben über das Trennen hinaus bestehen, bis sie wieder voll sind, damit ein erneutes Verbinden das
+ * Limit nicht zurücksetzt; volle Buckets entfernt ein Timer.<br>
+ * Pakete einer Verbindung werden mitgezählt. Nach einer Ablehnung erfährt der Client, ab welchem Paket verworfen
+ * wird, und alles Weitere wird stillschweigend verworfen, bis er mit einer Wiederholungsmarke anzeigt, dass er ab
+ * dort erneut sendet; die Marke selbst kostet dann kein Token. So kommen die wiederholten Pakete in der
+ * ursprünglichen Reihenfolge an. Clients, die nicht wiederholen, werden nach {@link #RETRY_TIMEOUT_MS} wieder wie
+ * zuvor behandelt.<br>
+ * {@link #tryAcquire(String, int, boolean, boolean)} darf für eine Verbindung nur von dem Thread aufgerufen werden,
+ * der sie liest.
+ *
+ * @author Confuse
+ * @version 2
+ */
+public class RateLimiter
+{
+	/**
+	 * Ergebnis von {@link #tryAcquire(String, int, boolean, boolean)}.
+	 */
+	public enum Decision
+	{
+		ADMIT,
+		/**
+		 * Das Paket wird verworfen, der Client wurde bereits benachrichtigt.
+		 */
+		REJECT,
+		/**
+		 * Das Paket wird verworfen und der Client sollte benachrichtigt werden; das geschieht nur bei der ersten
+		 * Ablehnung nach einem angenommenen Paket, damit Ablehnungen billig bleiben.
+		 */
+		REJECT_AND_NOTIFY
+	}
+
+	/**
+	 * So lange wartet der Server nach einer Benachrichtigung auf die Wiederholungsmarke.
+	 */
+	public static final long RETRY_TIMEOUT_MS = 15000;
+	/**
+	 * In diesem Abstand werden die vollen Buckets der IP-Adressen entfernt.
+	 */
+	private static final long SWEEP_INTERVAL_MS = 10000;
+
+	private final TokenBucket.Limit connectionMessages;
+	private final TokenBucket.Limit connectionHandshakes;
+	private final TokenBucket.Limit addressMessages;
+	private final TokenBucket.Limit addressHandshakes;
+	private final Map<String, Buckets> connections;
+	private final Map<String, Buckets> addresses;
+	/**
+	 * Entfernt die vollen Buckets der IP-Adressen, <code>null</code> ohne Limits für IP-Adressen.
+	 */
+	private final ScheduledExecutorService sweeper;
+	private final LongAdder rejectedMessages;
+	private final LongAdder rejectedHandshakes;
+
+	/**
+	 * Begrenzt nur die einzelnen Verbindungen.
+	 *
+	 * @param pConnectionMessages   Pakete je Verbindung
+	 * @param pConnectionHandshakes Handshakes je Verbindung
+	 */
+	public RateLimiter(TokenBucket.Limit pConnectionMessages, TokenBucket.Limit pConnectionHandshakes)
+	{
+		this(pConnectionMessages, pConnectionHandshakes, null, null);
+	}
+
+	/**
+	 * @param pConnectionMessages   Pakete je Verbindung
+	 * @param pConnectionHandshakes Handshakes je Verbindung
+	 * @param pAddressMessages      Pakete aller Verbindungen einer IP-Adresse zusammen, <code>null</code> für
+	 *                              unbegrenzt
+	 * @param pAddressHandshakes    Handshakes aller Verbindungen einer IP-Adresse zusammen, <code>null</code> für
+	 *                              unbegrenzt
+	 */
+	public RateLimiter(TokenBucket.Limit pConnectionMessages, TokenBucket.Limit pConnectionHandshakes,
+			TokenBucket.Limit pAddressMessages, TokenBucket.Limit pAddressHandshakes)
+	{
+		this.connectionMessages = pConnectionMessages;
+		this.connectionHandshakes = pConnectionHandshakes;
+		this.addressMessages = pAddressMessages;
+		this.addressHandshakes = pAddressHandshakes;
+		this.connections = new ConcurrentHashMap<>();
+		this.addresses = new ConcurrentHashMap<>();
+		this.rejectedMessages = new LongAdder();
+		this.rejectedHandshakes = new LongAdder();
+
+		if (pAddressMessages != null || pAddressHandshakes != null)
+		{
+			this.sweeper = Executors.newSingleThreadScheduledExecutor(task ->
+			{
+				final Thread thread = new Thread(task, "RateLimiter-Sweeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+		else
+			this.sweeper = null;
+	}
+
+	/**
+	 * Legt die Buckets einer neuen Verbindung an.
+	 */
+	public void connected(String pClientIP, int pClientPort)
+	{
+		connections.put(pClientIP + ':' + pClientPort,
+				new Buckets(connectionMessages, connectionHandshakes, System.nanoTime()));
+	}
+
+	/**
+	 * Entfernt die Buckets der Verbindung und die ihrer IP-Adresse, falls diese wieder voll sind.
+	 */
+	public void disconnected(String pClientIP, int pClientPort)
+	{
+		connections.remove(pClientIP + ':' + pClientPort);
+		final long now = System.nanoTime();
+		addresses.computeIfPresent(pClientIP, (address, buckets) -> buckets.isFull(now) ? null : buckets);
+	}
+
+	/**
+	 * Zählt ein Paket des Clients und nimmt ein Token dafür.
+	 *
+	 * @param pHandshake true, falls das Paket ein Handshake ist
+	 * @param pRetry     true, falls das Paket die Wiederholungsmarke ist, nach der der Client die verworfenen Pakete
+	 *                   erneut sendet
+	 */
+	public Decision tryAcquire(String pClientIP, int pClientPort, boolean pHandshake, boolean pRetry)
+	{
+		final long now = System.nanoTime();
+		final Buckets connection = connections.get(pClientIP + ':' + pClientPort);
+		if (connection == null)
+		{
+			// Die Verbindung wird getrennt; was jetzt noch eintrifft, zählt nur für die IP-Adresse
+			if (addressAcquire(pClientIP, pHandshake, now))
+				return Decision.ADMIT;
+			(pHandshake ? rejectedHandshakes : rejectedMessages).increment();
+			return Decision.REJECT;
+		}
+
+		final long packet = ++connection.received;
+		if (connection.droppedFrom > 0 && pRetry)
+		{
+			// Die Marke selbst kostet nichts, sonst nähme sie den wiederholten Paketen das Token weg
+			connection.droppedFrom = 0;
+			return Decision.ADMIT;
+		}
+		if (connection.droppedFrom > 0)
+		{
+			if (now - connection.notifiedAt < TimeUnit.MILLISECONDS.toNanos(RETRY_TIMEOUT_MS))
+			{
+				(pHandshake ? rejectedHandshakes : rejectedMessages).increment();
+				return Decision.REJECT;
+			}
+			// Der Client wiederholt nicht; was er danach sendet, wird wieder einzeln geprüft
+			connection.droppedFrom = 0;
+		}
+
+		if (connection.tryAcquire(pHandshake, now) && addressAcquire(pClientIP, pHandshake, now))
+		{
+			connection.droppedFrom = 0;
+			return Decision.ADMIT;
+		}
+
+		(pHandshake ? rejectedHandshakes : rejectedMessages).increment();
+		if (connection.droppedFrom == 0)
+			connection.droppedFrom = packet;
+		connection.notifiedAt = now;
+		final Buckets address = addresses.get(pClientIP);
+		connection.retryAfterNanos = Math.max(connection.nanosUntilToken(pHandshake, now),
+				address != null ? address.nanosUntilToken(pHandshake, now) : 0);
+		return Decision.REJECT_AND_NOTIFY;
+	}
+
+	/**
+	 * @return Die Nummer des ersten verworfenen Pakets der Verbindung, das erste Paket hat die Nummer 1, oder 0, falls
+	 * gerade nichts verworfen wird.
+	 */
+	public long getFirstDropped(String pClientIP, int pClientPort)
+	{
+		final Buckets connection = connections.get(pClientIP + ':' + pClientPort);
+		return connection != null ? connection.droppedFrom : 0;
+	}
+
+	/**
+	 * @return So viele Millisekunden sollte der Client nach der letzten Ablehnung mindestens warten.
+	 */
+	public long getRetryAfterMillis(String pClientIP, int pClientPort)
+	{
+		final Buckets connection = connections.get(pClientIP + ':' + pClientPort);
+		return connection != null ? TimeUnit.NANOSECONDS.toMillis(connection.retryAfterNanos) + 1 : 0;
+	}
+
+	/**
+	 * Beendet den Timer, der die Buckets der IP-Adressen aufräumt.
+	 */
+	public void close()
+	{
+		if (sweeper != null)
+			sweeper.shutdownNow();
+	}
+
+	public long getRejectedMessages()
+	{
+		return rejectedMessages.sum();
+	}
+
+	public long getRejectedHandshakes()
+	{
+		return rejectedHandshakes.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RateLimiter{" +
+				"rejectedMessages=" + getRejectedMessages() +
+				", rejectedHandshakes=" + getRejectedHandshakes() +
+				", addresses=" + addresses.size() +
+				'}';
+	}
+
+	/**
+	 * @return true, falls die IP-Adresse nicht begrenzt wird oder ein Token hat.
+	 */
+	private boolean addressAcquire(String pClientIP, boolean pHandshake, long pNow)
+	{
+		if ((pHandshake ? addressHandshakes : addressMessages) == null)
+			return true;
+
+		Buckets buckets = addresses.get(pClientIP);
+		if (buckets == null)
+			buckets = addresses.computeIfAbsent(pClientIP,
+					address -> new Buckets(addressMessages, addressHandshakes, pNow));
+		return buckets.tryAcquire(pHandshake, pNow);
+	}
+
+	private void sweep()
+	{
+		final long now = System.nanoTime();
+		addresses.values().removeIf(buckets -> buckets.isFull(now));
+	}
+
+	private static final class Buckets
+	{
+		/**
+		 * <code>null</code>, falls nicht begrenzt wird.
+		 */
+		private final TokenBucket messages;
+		private final TokenBucket handshakes;
+		/*
+		 * Die folgenden Felder schreibt und liest nur der Thread, der die Verbindung liest.
+		 */
+		/**
+		 * Die Anzahl der bisher gezählten Pakete.
+		 */
+		private long received;
+		/**
+		 * Ab diesem Paket wird verworfen, bis die Wiederholungsmarke kommt, 0 falls nicht.
+		 */
+		private long droppedFrom;
+		/**
+		 * Der Zeitpunkt ({@link System#nanoTime()}) der letzten Benachrichtigung.
+		 */
+		private long notifiedAt;
+		private long retryAfterNanos;
+
+		private Buckets(TokenBucket.Limit pMessages, TokenBucket.Limit pHandshakes, long pNow)
+		{
+			this.messages = pMessages != null ? new TokenBucket(pMessages, pNow) : null;
+			this.handshakes = pHandshakes != null ? new TokenBucket(pHandshakes, pNow) : null;
+		}
+
+		boolean tryAcquire(boolean pHandshake, long pNow)
+		{
+			final TokenBucket bucket = pHandshake ? handshakes : messages;
+			return bucket == null || bucket.tryAcquire(pNow);
+		}
+
+		long nanosUntilToken(boolean pHandshake, long pNow)
+		{
+			final TokenBucket bucket = pHandshake ? handshakes : messages;
+			return bucket != null ? bucket.nanosUntilToken(pNow) : 0;
+		}
+
+		boolean isFull(long pNow)
+		{
+			return (messages == null || messages.isFull(pNow)) && (handshakes == null || handshakes.isFull(pNow));
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package de.confuse.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ein Token Bucket ohne Sperre. Statt Füllstand und Zeitpunkt der letzten Auffüllung getrennt zu führen, speichert der
+ * Bucket nur den Zeitpunkt, zu dem er wieder voll wäre; ein Token zu nehmen verschiebt diesen Zeitpunkt um den Abstand
+ * zweier Tokens. Damit genügt ein einziges <code>compareAndSet</code>, und beliebig viele Threads dürfen gleichzeitig
+ * nehmen.
+ *
+ * @author Confuse
+ * @version 3
+ */
+public final class TokenBucket
+{
+	private final long nanosPerToken;
+	private final long burstNanos;
+	/**
+	 * Ab diesem Zeitpunkt ({@link System#nanoTime()}) ist der Bucket wieder voll.
+	 */
+	private final AtomicLong fullAt;
+
+	/**
+	 * @param pLimit Rate und Fassungsvermögen; der Bucket beginnt voll
+	 */
+	public TokenBucket(Limit pLimit, long pNow)
+	{
+		this.nanosPerToken = pLimit.getNanosPerToken();
+		this.burstNanos = nanosPerToken * pLimit.getBurst();
+		this.fullAt = new AtomicLong(pNow);
+	}
+
+	/**
+	 * Nimmt ein Token, falls eines da ist.
+	 *
+	 * @param pNow Der aktuelle Zeitpunkt von {@link System#nanoTime()}
+	 * @return false, falls der Bucket leer ist.
+	 */
+	public boolean tryAcquire(long pNow)
+	{
+		while (true)
+		{
+			final long current = fullAt.get();
+			final long next = Math.max(current, pNow) + nanosPerToken;
+			if (next - pNow > burstNanos)
+				return false;
+			if (fullAt.compareAndSet(current, next))
+				return true;
+		}
+	}
+
+	/**
+	 * @return Die Zeit in Nanosekunden, bis wieder ein Token da ist, 0 falls schon eines da ist.
+	 */
+	public long nanosUntilToken(long pNow)
+	{
+		return Math.max(0, fullAt.get() + nanosPerToken - burstNanos - pNow);
+	}
+
+	/**
+	 * @return true, falls der Bucket voll ist und daher durch einen neuen ersetzt werden kann.
+	 */
+	public boolean isFull(long pNow)
+	{
+		return fullAt.get() - pNow <= 0;
+	}
+
+	/**
+	 * Rate und Fassungsvermögen eines {@link TokenBucket}s.
+	 */
+	public static final class Limit
+	{
+		private final double perSecond;
+		private final int burst;
+
+		/**
+		 * @param pPerSecond So viele Tokens kommen je Sekunde hinzu
+		 * @param pBurst     So viele Tokens fasst der Bucket, mindestens 1
+		 */
+		public Limit(double pPerSecond, int pBurst)
+		{
+			if (!(pPerSecond > 0) || Double.isInfinite(pPerSecond))
+				throw new IllegalArgumentException("Rate muss positiv und endlich sein: " + pPerSecond);
+			this.perSecond = pPerSecond;
+			this.burst = Math.max(1, pBurst);
+		}
+
+		/**
+		 * Liest ein Limit der Form <code>Rate</code> oder <code>Rate:Fassungsvermögen</code>, z. B. <code>5:10</code>.
+		 * Ohne Fassungsvermögen fasst der Bucket eine Sekunde.
+		 *
+		 * @throws IllegalArgumentException Falls die Angabe keine Zahlen oder keine positive, endliche Rate enthält
+		 */
+		public static Limit parse(String pLimit)
+		{
+			final int colon = pLimit.indexOf(':');
+			final double perSecond = Double.parseDouble(colon < 0 ? pLimit : pLimit.substring(0, colon));
+			final int burst = colon < 0 ? (int) Math.ceil(perSecond) : Integer.parseInt(pLimit.substring(colon + 1));
+			return new Limit(perSecond, burst);
+		}
+
+		public double getPerSecond()
+		{
+			return perSecond;
+		}
+
+		public int getBurst()
+		{
+			return burst;
+		}
+
+		long getNanosPerToken()
+		{
+			return Math.max(1, (long) (1_000_000_000L / perSecond));
+		}
+
+		@Override
+		public String toString()
+		{
+			return perSecond + "/s:" + burst;
+		}
+	}
+
+}
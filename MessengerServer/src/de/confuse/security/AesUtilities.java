@@ -1,6 +1,7 @@
 package de.confuse.security;
 
 import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -17,6 +18,15 @@ public class AesUtilities
 	//	private static final String AES_ALGORITHM = "AES/GCM/NoPadding";
 	public static final String AES_ALGORITHM = "AES/OFB/NoPadding";
 	//	private static final String AES_ALGORITHM = "AES/CBC/PKCS5Padding";
+	public static final String AES_GCM_ALGORITHM = "AES/GCM/NoPadding";
+	/**
+	 * The length of a {@value AES_GCM_ALGORITHM} nonce in bytes, as recommended by NIST SP 800-38D.
+	 */
+	public static final int GCM_NONCE_LENGTH = 12;
+	/**
+	 * The length of the authentication tag appended to every {@value AES_GCM_ALGORITHM} ciphertext in bits.
+	 */
+	public static final int GCM_TAG_LENGTH = 128;
 
 	/**
 	 * Generates a new AES-{@link SecretKey}
@@ -69,7 +79,18 @@ public class AesUtilities
 	 */
 	public static String encryptAsString(String input, SecretKey key, IvParameterSpec iv) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
 	{
-		return Base64.getEncoder().encodeToString(encryptAsBytes(input, key, iv));
+		return encryptAsString(input, key, iv, CipherCache.NONE);
+	}
+
+	/**
+	 * Encrypts the given string with {@value AES_ALGORITHM} using a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 * @see #encryptAsString(String, SecretKey, IvParameterSpec)
+	 */
+	public static String encryptAsString(String input, SecretKey key, IvParameterSpec iv, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
+	{
+		return Base64.getEncoder().encodeToString(encryptAsBytes(input, key, iv, cache));
 	}
 
 	/**
@@ -83,9 +104,18 @@ public class AesUtilities
 	 */
 	public static byte[] encryptAsBytes(String input, SecretKey key, IvParameterSpec iv) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
 	{
-		Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
-		cipher.init(Cipher.ENCRYPT_MODE, key, iv);
-		return cipher.doFinal(input.getBytes());
+		return encryptAsBytes(input, key, iv, CipherCache.NONE);
+	}
+
+	/**
+	 * Encrypts the given string with {@value AES_ALGORITHM} using a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 * @see #encryptAsBytes(String, SecretKey, IvParameterSpec)
+	 */
+	public static byte[] encryptAsBytes(String input, SecretKey key, IvParameterSpec iv, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
+	{
+		return cache.get(AES_ALGORITHM, Cipher.ENCRYPT_MODE, key, iv).doFinal(input.getBytes());
 	}
 
 	/**
@@ -99,10 +129,82 @@ public class AesUtilities
 	 */
 	public static String decrypt(String cipherText, SecretKey key, IvParameterSpec iv) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
 	{
-		Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
-		cipher.init(Cipher.DECRYPT_MODE, key, iv);
-		byte[] plainText = cipher.doFinal(Base64.getDecoder().decode(cipherText));
+		return decrypt(cipherText, key, iv, CipherCache.NONE);
+	}
+
+	/**
+	 * Decrypts the ciphertext using a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 * @see #decrypt(String, SecretKey, IvParameterSpec)
+	 */
+	public static String decrypt(String cipherText, SecretKey key, IvParameterSpec iv, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
+	{
+		byte[] plainText = cache.get(AES_ALGORITHM, Cipher.DECRYPT_MODE, key, iv)
+				.doFinal(Base64.getDecoder().decode(cipherText));
 		return new String(plainText);
 	}
 
+	/**
+	 * Encrypts and authenticates the given bytes with {@value AES_GCM_ALGORITHM}. A nonce must never be used twice
+	 * with the same key.
+	 *
+	 * @param input The bytes to encrypt
+	 * @param key   The secret key to use
+	 * @param nonce The {@value GCM_NONCE_LENGTH} byte nonce
+	 * @param aad   Additional data that is authenticated but not encrypted, may be null
+	 * @return the ciphertext followed by the authentication tag.
+	 * @throws InvalidKeyException if the key was invalid
+	 */
+	public static byte[] encryptGcm(byte[] input, SecretKey key, byte[] nonce, byte[] aad) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
+	{
+		return encryptGcm(input, key, nonce, aad, CipherCache.NONE);
+	}
+
+	/**
+	 * Encrypts and authenticates the given bytes with {@value AES_GCM_ALGORITHM} using a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 * @see #encryptGcm(byte[], SecretKey, byte[], byte[])
+	 */
+	public static byte[] encryptGcm(byte[] input, SecretKey key, byte[] nonce, byte[] aad, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
+	{
+		final Cipher cipher = cache.get(AES_GCM_ALGORITHM, Cipher.ENCRYPT_MODE, key,
+				new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+		if (aad != null)
+			cipher.updateAAD(aad);
+		return cipher.doFinal(input);
+	}
+
+	/**
+	 * Decrypts and verifies a ciphertext created by {@link #encryptGcm(byte[], SecretKey, byte[], byte[])}.
+	 *
+	 * @param cipherText The ciphertext followed by the authentication tag
+	 * @param key        The secret key to use
+	 * @param nonce      The nonce the ciphertext was created with
+	 * @param aad        The additional data the ciphertext was created with, may be null
+	 * @return the decrypted bytes.
+	 * @throws AEADBadTagException if the ciphertext, nonce or additional data has been tampered with
+	 */
+	public static byte[] decryptGcm(byte[] cipherText, SecretKey key, byte[] nonce, byte[] aad) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
+	{
+		return decryptGcm(cipherText, key, nonce, aad, CipherCache.NONE);
+	}
+
+	/**
+	 * Decrypts and verifies a ciphertext created by {@link #encryptGcm(byte[], SecretKey, byte[], byte[])} using a
+	 * cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 * @see #decryptGcm(byte[], SecretKey, byte[], byte[])
+	 */
+	public static byte[] decryptGcm(byte[] cipherText, SecretKey key, byte[] nonce, byte[] aad, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
+	{
+		final Cipher cipher = cache.get(AES_GCM_ALGORITHM, Cipher.DECRYPT_MODE, key,
+				new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+		if (aad != null)
+			cipher.updateAAD(aad);
+		return cipher.doFinal(cipherText);
+	}
+
 }
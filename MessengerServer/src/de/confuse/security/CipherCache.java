@@ -0,0 +1,162 @@
+package de.confuse.security;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps ready {@link Cipher}s per thread, keyed by algorithm, mode and key, so that a session only looks up the
+ * provider and expands its keys once instead of for every message. {@link Cipher}s are not thread safe, hence every
+ * thread gets its own ones.<br> Meant to be held by one session (see
+ * {@link de.confuse.util.CryptoCommunication.CryptoStorage}), so it only ever holds the few keys of that session. The
+ * ciphers are held by the cache itself rather than by the threads, so {@link #clear()} drops them and their expanded
+ * keys as soon as the session ends, and at most {@link #MAX_THREADS} threads get their own ones.
+ *
+ * @author Confuse
+ * @version 2
+ */
+public final class CipherCache
+{
+	/**
+	 * Creates a new {@link Cipher} for every call, used by the methods that are not given a cache.
+	 */
+	public static final CipherCache NONE = new CipherCache(false);
+
+	/**
+	 * Further threads create a new {@link Cipher} for every call.
+	 */
+	public static final int MAX_THREADS = 32;
+
+	private final Map<Thread, Map<Entry, Cipher>> ciphers;
+
+	public CipherCache()
+	{
+		this(true);
+	}
+
+	private CipherCache(boolean caching)
+	{
+		this.ciphers = caching ? new ConcurrentHashMap<>() : null;
+	}
+
+	/**
+	 * Drops all ciphers, e.g. once the session has ended. Later calls create new ones.
+	 */
+	public void clear()
+	{
+		if (ciphers != null)
+			ciphers.clear();
+	}
+
+	/**
+	 * Returns a cipher that is initialized with the given key and mode, for algorithms without parameters such as
+	 * RSA. The cipher is only initialized when it is created, {@link Cipher#doFinal()} resets it to that state.
+	 *
+	 * @param algorithm The transformation, see {@link Cipher#getInstance(String)}
+	 * @param mode      {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+	 * @param key       The key to use
+	 * @return the ready cipher, only to be used by the calling thread.
+	 */
+	public Cipher get(String algorithm, int mode, Key key) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException
+	{
+		final Map<Entry, Cipher> cache = threadCache();
+		final Entry entry = new Entry(algorithm, mode, key);
+		Cipher cipher = cache != null ? cache.get(entry) : null;
+		if (cipher == null)
+		{
+			cipher = Cipher.getInstance(algorithm);
+			cipher.init(mode, key);
+			if (cache != null)
+				cache.put(entry, cipher);
+		}
+		return cipher;
+	}
+
+	/**
+	 * Returns a cipher that is initialized with the given key, mode and parameters, for algorithms that need a new IV
+	 * or nonce for every message such as AES. The cipher is reinitialized on every call, but the providers keep the
+	 * expanded key when it is initialized with the same key again.
+	 *
+	 * @param algorithm  The transformation, see {@link Cipher#getInstance(String)}
+	 * @param mode       {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+	 * @param key        The key to use
+	 * @param parameters The IV or nonce of this message
+	 * @return the ready cipher, only to be used by the calling thread.
+	 */
+	public Cipher get(String algorithm, int mode, Key key, AlgorithmParameterSpec parameters) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException
+	{
+		final Map<Entry, Cipher> cache = threadCache();
+		final Entry entry = new Entry(algorithm, mode, key);
+		Cipher cipher = cache != null ? cache.get(entry) : null;
+		if (cipher == null)
+		{
+			cipher = Cipher.getInstance(algorithm);
+			if (cache != null)
+				cache.put(entry, cipher);
+		}
+		cipher.init(mode, key, parameters);
+		return cipher;
+	}
+
+	/**
+	 * @return the ciphers of the calling thread or null if it gets none.
+	 */
+	private Map<Entry, Cipher> threadCache()
+	{
+		if (ciphers == null)
+			return null;
+
+		final Thread thread = Thread.currentThread();
+		final Map<Entry, Cipher> cache = ciphers.get(thread);
+		if (cache != null)
+			return cache;
+
+		if (ciphers.size() >= MAX_THREADS)
+		{
+			ciphers.keySet().removeIf(candidate -> !candidate.isAlive());
+			if (ciphers.size() >= MAX_THREADS)
+				return null;
+		}
+		final Map<Entry, Cipher> created = new HashMap<>();
+		ciphers.put(thread, created);
+		return created;
+	}
+
+	private static final class Entry
+	{
+		private final String algorithm;
+		private final int mode;
+		private final Key key;
+
+		private Entry(String algorithm, int mode, Key key)
+		{
+			this.algorithm = algorithm;
+			this.mode = mode;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (!(o instanceof Entry)) return false;
+			final Entry entry = (Entry) o;
+			return mode == entry.mode && algorithm.equals(entry.algorithm) && key.equals(entry.key);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(algorithm, mode, key);
+		}
+	}
+
+}
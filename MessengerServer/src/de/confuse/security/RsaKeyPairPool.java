@@ -0,0 +1,227 @@
+package de.confuse.security;
+
+import java.security.KeyPair;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates RSA {@link KeyPair}s on background threads ahead of time, so that a handshake takes a ready pair instead
+ * of waiting tens of milliseconds for {@link RsaUtilities#generateRsaKeyPair(int)}.<br> The pool keeps as many pairs
+ * as were taken during the last {@value #HORIZON_SECONDS} seconds, at least <code>minPairs</code> and at most
+ * <code>maxPairs</code>, so an idle pool costs next to nothing while a burst of handshakes finds enough pairs. Only
+ * if the pool runs dry does {@link #take()} generate a pair itself.<br> Every pair is handed out only once.
+ *
+ * @author Confuse
+ * @version 1
+ */
+public final class RsaKeyPairPool
+{
+	/**
+	 * The pool holds as many pairs as were taken in this many seconds.
+	 */
+	private static final int HORIZON_SECONDS = 2;
+	/**
+	 * The rate of taken pairs is measured over windows of this length.
+	 */
+	private static final long WINDOW_NANOS = 1_000_000_000L;
+
+	private final int keySize;
+	private final int minPairs;
+	private final int maxPairs;
+	private final BlockingQueue<KeyPair> pairs;
+	private final Thread[] generators;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder generated;
+	private volatile boolean active;
+	/**
+	 * The number of pairs to keep, derived from {@link #rate}.
+	 */
+	private volatile int target;
+
+	// Guarded by this
+	private double rate;
+	private long windowStart;
+	private int windowTakes;
+
+	/**
+	 * Creates a pool of 2048 bit pairs and starts its threads.
+	 *
+	 * @param minPairs The number of pairs kept even when no handshakes happen
+	 * @param maxPairs The number of pairs kept at most
+	 * @param threads  The number of threads generating pairs
+	 */
+	public RsaKeyPairPool(int minPairs, int maxPairs, int threads)
+	{
+		this(2048, minPairs, maxPairs, threads);
+	}
+
+	/**
+	 * Creates a pool and starts its threads.
+	 *
+	 * @param keySize  The key-size of the pairs, see {@link RsaUtilities#generateRsaKeyPair(int)}
+	 * @param minPairs The number of pairs kept even when no handshakes happen
+	 * @param maxPairs The number of pairs kept at most
+	 * @param threads  The number of threads generating pairs
+	 */
+	public RsaKeyPairPool(int keySize, int minPairs, int maxPairs, int threads)
+	{
+		this.keySize = keySize;
+		this.maxPairs = Math.max(1, maxPairs);
+		this.minPairs = Math.max(0, Math.min(minPairs, this.maxPairs));
+		this.pairs = new LinkedBlockingQueue<>(this.maxPairs);
+		this.generators = new Thread[Math.max(1, threads)];
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.generated = new LongAdder();
+		this.active = true;
+		this.target = this.minPairs;
+		this.windowStart = System.nanoTime();
+
+		for (int i = 0; i < generators.length; i++)
+		{
+			generators[i] = new Thread(this::generate, "RsaKeyPairPool-" + i);
+			generators[i].setDaemon(true);
+			generators[i].start();
+		}
+	}
+
+	/**
+	 * @return a ready pair, or a newly generated one if the pool ran dry. Null only if the JVM does not support RSA.
+	 */
+	public KeyPair take()
+	{
+		final KeyPair pair = pairs.poll();
+		taken(System.nanoTime());
+
+		if (pair != null)
+		{
+			hits.increment();
+			return pair;
+		}
+		misses.increment();
+		return RsaUtilities.generateRsaKeyPair(keySize);
+	}
+
+	/**
+	 * Stops the threads; pairs still in the pool are dropped.
+	 */
+	public void close()
+	{
+		active = false;
+		pairs.clear();
+		for (Thread generator : generators)
+			generator.interrupt();
+	}
+
+	/**
+	 * @return the number of ready pairs.
+	 */
+	public int getAvailable()
+	{
+		return pairs.size();
+	}
+
+	/**
+	 * @return the number of pairs the pool currently aims to keep.
+	 */
+	public int getTarget()
+	{
+		return target;
+	}
+
+	/**
+	 * @return how many handshakes found a ready pair.
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return how many handshakes had to generate their pair themselves.
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RsaKeyPairPool{" +
+				"available=" + getAvailable() +
+				", target=" + target +
+				", hits=" + getHits() +
+				", misses=" + getMisses() +
+				", generated=" + generated.sum() +
+				'}';
+	}
+
+	/**
+	 * Counts a taken pair and wakes the threads to replace it.
+	 */
+	private synchronized void taken(long now)
+	{
+		windowTakes++;
+		updateTarget(now);
+		notifyAll();
+	}
+
+	/**
+	 * Closes the current window once it is over and averages its rate into {@link #rate}, so the target follows a
+	 * burst quickly and shrinks again over a few windows without handshakes.
+	 */
+	private synchronized void updateTarget(long now)
+	{
+		final long elapsed = now - windowStart;
+		if (elapsed < WINDOW_NANOS)
+		{
+			// A burst within the current window raises the target right away
+			target = clamp(Math.max(target, windowTakes * HORIZON_SECONDS));
+			return;
+		}
+
+		rate = (rate + windowTakes * (double) WINDOW_NANOS / elapsed) / 2;
+		windowStart = now;
+		windowTakes = 0;
+		target = clamp((int) Math.ceil(rate * HORIZON_SECONDS));
+	}
+
+	private int clamp(int pairs)
+	{
+		return Math.max(minPairs, Math.min(maxPairs, pairs));
+	}
+
+	private void generate()
+	{
+		while (active)
+			try
+			{
+				synchronized (this)
+				{
+					updateTarget(System.nanoTime());
+					if (pairs.size() >= target)
+					{
+						// Also wakes up once per window so that the target can shrink
+						wait(WINDOW_NANOS / 1_000_000);
+						continue;
+					}
+				}
+
+				final KeyPair pair = RsaUtilities.generateRsaKeyPair(keySize);
+				if (pair == null)
+					return; // RSA is not supported, take() reports it
+				generated.increment();
+				pairs.offer(pair);
+			}
+			catch (InterruptedException e)
+			{
+				/*
+				 * Ends the loop when the pool is closed.
+				 */
+			}
+	}
+
+}
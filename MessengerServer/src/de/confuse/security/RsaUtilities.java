@@ -69,9 +69,17 @@ public final class RsaUtilities
 	 */
 	public static byte[] encryptStringWithRsa(PublicKey publicKey, final String message) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
 	{
-		Cipher encryptCipher = Cipher.getInstance("RSA");
-		encryptCipher.init(Cipher.ENCRYPT_MODE, publicKey);
+		return encryptStringWithRsa(publicKey, message, CipherCache.NONE);
+	}
 
+	/**
+	 * Same as {@link #encryptStringWithRsa(PublicKey, String)}, but uses a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 */
+	public static byte[] encryptStringWithRsa(PublicKey publicKey, final String message, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
+	{
+		final Cipher encryptCipher = cache.get("RSA", Cipher.ENCRYPT_MODE, publicKey);
 		return encryptCipher.doFinal(message.getBytes(StandardCharsets.UTF_8));
 	}
 
@@ -87,9 +95,17 @@ public final class RsaUtilities
 	 */
 	public static byte[] encryptStringWithRsa(PublicKey publicKey, final byte[] message) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
 	{
-		Cipher encryptCipher = Cipher.getInstance("RSA");
-		encryptCipher.init(Cipher.ENCRYPT_MODE, publicKey);
+		return encryptStringWithRsa(publicKey, message, CipherCache.NONE);
+	}
 
+	/**
+	 * Same as {@link #encryptStringWithRsa(PublicKey, byte[])}, but uses a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 */
+	public static byte[] encryptStringWithRsa(PublicKey publicKey, final byte[] message, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
+	{
+		final Cipher encryptCipher = cache.get("RSA", Cipher.ENCRYPT_MODE, publicKey);
 		return encryptCipher.doFinal(message);
 	}
 
@@ -105,9 +121,17 @@ public final class RsaUtilities
 	 */
 	public static String decryptBytesWithRsaToString(PrivateKey privateKey, final byte[] bytes) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
 	{
-		Cipher decryptCipher = Cipher.getInstance("RSA");
-		decryptCipher.init(Cipher.DECRYPT_MODE, privateKey);
+		return decryptBytesWithRsaToString(privateKey, bytes, CipherCache.NONE);
+	}
 
+	/**
+	 * Same as {@link #decryptBytesWithRsaToString(PrivateKey, byte[])}, but uses a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 */
+	public static String decryptBytesWithRsaToString(PrivateKey privateKey, final byte[] bytes, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
+	{
+		final Cipher decryptCipher = cache.get("RSA", Cipher.DECRYPT_MODE, privateKey);
 		return new String(decryptCipher.doFinal(bytes), StandardCharsets.UTF_8);
 	}
 
@@ -123,9 +147,17 @@ public final class RsaUtilities
 	 */
 	public static byte[] decryptBytesWithRsaToByteArray(PrivateKey privateKey, final byte[] bytes) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
 	{
-		Cipher decryptCipher = Cipher.getInstance("RSA");
-		decryptCipher.init(Cipher.DECRYPT_MODE, privateKey);
+		return decryptBytesWithRsaToByteArray(privateKey, bytes, CipherCache.NONE);
+	}
 
+	/**
+	 * Same as {@link #decryptBytesWithRsaToByteArray(PrivateKey, byte[])}, but uses a cipher of the given cache.
+	 *
+	 * @param cache The cache of the session
+	 */
+	public static byte[] decryptBytesWithRsaToByteArray(PrivateKey privateKey, final byte[] bytes, CipherCache cache) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
+	{
+		final Cipher decryptCipher = cache.get("RSA", Cipher.DECRYPT_MODE, privateKey);
 		return decryptCipher.doFinal(bytes);
 	}
 
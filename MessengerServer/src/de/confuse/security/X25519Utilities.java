@@ -0,0 +1,123 @@
+package de.confuse.security;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Offers the X25519 key agreement (RFC 7748) and HKDF (RFC 5869) to derive session keys from its shared secret.
+ * Generating an X25519 key pair and agreeing on a secret takes well below a millisecond, where an RSA-2048 key pair
+ * takes tens of milliseconds or more.
+ *
+ * @author Confuse
+ * @version 1
+ */
+public final class X25519Utilities
+{
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	private static final int HASH_LENGTH = 32;
+
+	/**
+	 * @return A new X25519 key pair or null if your JVM does not support X25519.
+	 */
+	public static KeyPair generateKeyPair()
+	{
+		try
+		{
+			return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Reads a public key encoded by {@link PublicKey#getEncoded()}.
+	 *
+	 * @param bytes The X.509 encoded key
+	 * @return The public key or null if your JVM does not support X25519.
+	 * @throws InvalidKeySpecException Thrown if the bytes are no X25519 public key.
+	 */
+	public static PublicKey readPublicKeyFromBytes(byte[] bytes) throws InvalidKeySpecException
+	{
+		try
+		{
+			return KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(bytes));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Computes the secret shared by both sides. Never use it as a key directly, derive keys from it with {@link
+	 * #hkdf(byte[], byte[], byte[], int)}.
+	 *
+	 * @param privateKey Your private key
+	 * @param publicKey  The public key of the other side
+	 * @return the 32 byte shared secret.
+	 * @throws InvalidKeyException Thrown if a key is no X25519 key or the public key is invalid.
+	 */
+	public static byte[] agree(PrivateKey privateKey, PublicKey publicKey) throws NoSuchAlgorithmException, InvalidKeyException
+	{
+		final KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+		agreement.init(privateKey);
+		agreement.doPhase(publicKey, true);
+		return agreement.generateSecret();
+	}
+
+	/**
+	 * Derives key material from a secret with HKDF-SHA256.
+	 *
+	 * @param salt   A non-secret random value, may be null
+	 * @param secret The input key material, e.g. the result of {@link #agree(PrivateKey, PublicKey)}
+	 * @param info   Binds the derived keys to their purpose, may be null
+	 * @param length The number of bytes to derive, at most 255 * 32
+	 * @return the derived bytes.
+	 */
+	public static byte[] hkdf(byte[] salt, byte[] secret, byte[] info, int length) throws NoSuchAlgorithmException, InvalidKeyException
+	{
+		if (length > 255 * HASH_LENGTH)
+			throw new IllegalArgumentException("HKDF can derive at most " + 255 * HASH_LENGTH + " bytes");
+
+		// Extract
+		final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+		mac.init(new SecretKeySpec(salt != null && salt.length > 0 ? salt : new byte[HASH_LENGTH], HMAC_ALGORITHM));
+		final byte[] pseudoRandomKey = mac.doFinal(secret);
+
+		// Expand
+		mac.init(new SecretKeySpec(pseudoRandomKey, HMAC_ALGORITHM));
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(length + HASH_LENGTH);
+		byte[] block = new byte[0];
+		for (int counter = 1; output.size() < length; counter++)
+		{
+			mac.update(block);
+			if (info != null)
+				mac.update(info);
+			mac.update((byte) counter);
+			block = mac.doFinal();
+			output.write(block, 0, block.length);
+		}
+
+		final byte[] derived = new byte[length];
+		System.arraycopy(output.toByteArray(), 0, derived, 0, length);
+		return derived;
+	}
+
+}
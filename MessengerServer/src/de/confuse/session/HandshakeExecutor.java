@@ -0,0 +1,135 @@
+package de.confuse.session;
+
+import de.confuse.abiKlassen.LatencyHistogram;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bearbeitet Handshakes, die an den Server gerichtet sind, auf eigenen Threads. Schlüsselerzeugung, RSA und die
+ * Prüfung der Handshakes halten so weder die lesenden Threads noch einen Thread des Verarbeitungspools auf, und das
+ * Weiterleiten von Nachrichten bleibt auch dann schnell, wenn sich viele Clients zugleich anmelden. Die Antworten
+ * gehen wie sonst auch über die Warteschlange der Verbindung hinaus.<br>
+ * Es warten höchstens <code>capacity</code> Handshakes; ist die Warteschlange voll, lehnt
+ * {@link #submit(Runnable)} ab, und der Client wird gebeten, es später erneut zu versuchen, statt dass sich die
+ * Wartezeit aller Anmeldungen immer weiter verlängert.
+ *
+ * @author Confuse
+ * @version 1
+ */
+public class HandshakeExecutor
+{
+	private final ThreadPoolExecutor executor;
+	private final LongAdder completed;
+	private final LongAdder rejected;
+	/**
+	 * Die Zeit, die ein Handshake in der Warteschlange verbringt.
+	 */
+	private final LatencyHistogram queueLatency;
+
+	/**
+	 * @param pThreads  Anzahl der Threads
+	 * @param pCapacity So viele Handshakes dürfen warten
+	 */
+	public HandshakeExecutor(int pThreads, int pCapacity)
+	{
+		final AtomicInteger threadNumber = new AtomicInteger();
+		final ThreadFactory threadFactory = task ->
+		{
+			final Thread thread = new Thread(task, "Handshake-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.executor = new ThreadPoolExecutor(Math.max(1, pThreads), Math.max(1, pThreads), 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, pCapacity)), threadFactory);
+		this.completed = new LongAdder();
+		this.rejected = new LongAdder();
+		this.queueLatency = new LatencyHistogram();
+	}
+
+	/**
+	 * Stellt einen Handshake ein, falls Platz ist.
+	 *
+	 * @return false, falls die Warteschlange voll oder der Executor beendet ist.
+	 */
+	public boolean submit(Runnable pHandshake)
+	{
+		final long submitted = System.nanoTime();
+		try
+		{
+			executor.execute(() ->
+			{
+				queueLatency.recordSince(submitted);
+				try
+				{
+					pHandshake.run();
+				}
+				finally
+				{
+					completed.increment();
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e)
+		{
+			rejected.increment();
+			return false;
+		}
+	}
+
+	/**
+	 * Beendet die Threads; noch wartende Handshakes werden verworfen.
+	 */
+	public void close()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return Die Anzahl der wartenden Handshakes.
+	 */
+	public int getQueued()
+	{
+		return executor.getQueue().size();
+	}
+
+	public long getCompleted()
+	{
+		return completed.sum();
+	}
+
+	/**
+	 * @return Wie oft ein Handshake wegen voller Warteschlange abgelehnt wurde.
+	 */
+	public long getRejected()
+	{
+		return rejected.sum();
+	}
+
+	/**
+	 * @return Die Zeit, die Handshakes auf einen freien Thread warten.
+	 */
+	public LatencyHistogram getQueueLatency()
+	{
+		return queueLatency;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "HandshakeExecutor{" +
+				"threads=" + executor.getMaximumPoolSize() +
+				", queued=" + getQueued() +
+				", completed=" + getCompleted() +
+				", rejected=" + getRejected() +
+				", wait=" + queueLatency +
+				'}';
+	}
+
+}
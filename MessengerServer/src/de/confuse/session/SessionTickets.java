@@ -0,0 +1,275 @@
+package de.confuse.session;
+
+import de.confuse.confFileV2.ConfFileFieldV2;
+import de.confuse.security.AesUtilities;
+import de.confuse.security.CipherCache;
+import de.confuse.util.CryptoCommunication;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stellt Tickets aus, mit denen ein Client nach einem Verbindungsabbruch seine Sitzung in einem einzigen Schritt und
+ * ohne asymmetrische Kryptographie fortsetzen kann, siehe
+ * {@link CryptoCommunication#generateCryptoHandshakeResume(String, byte[], CryptoCommunication.CryptoStorage)}. Ein
+ * Ticket
+ * enthält den Namen des Clients und den Sitzungsschlüssel seines Handshakes, verschlüsselt und authentifiziert mit
+ * AES-GCM unter einem Schlüssel, den nur die Server kennen; je Sitzung muss also nichts aufbewahrt werden. Beim
+ * Einlösen beweist der Client, dass er den Sitzungsschlüssel kennt, indem er die Herausforderung verschlüsselt, die
+ * ihm der Server beim Verbinden geschickt hat ({@link #newChallenge()}); ein mitgeschnittener Handshake gilt also auf
+ * keiner anderen Verbindung.<br>
+ * Wird der Ticket-Schlüssel mit {@link #fromFile(File, long)} gelesen, gelten die Tickets auch nach einem Neustart
+ * und auf allen Knoten eines Clusters, die dieselbe Datei verwenden. Jedes Ticket kann nur einmal eingelöst werden,
+ * beim Fortsetzen erhält der Client ein neues; geprüft wird das je Server, nicht im ganzen Cluster.
+ *
+ * @author Confuse
+ * @version 2
+ */
+public class SessionTickets
+{
+	private static final byte VERSION = 1;
+	private static final int KEY_LENGTH = 32;
+	/**
+	 * Die Nonce am Anfang jedes Tickets, in Base64; unterscheidet Tickets beim Einlösen.
+	 */
+	private static final int ID_LENGTH = 16;
+	/**
+	 * Die Länge der Herausforderung in Bytes.
+	 */
+	private static final int CHALLENGE_LENGTH = 16;
+	/**
+	 * Ab so vielen eingelösten Tickets werden bei jedem weiteren die abgelaufenen entfernt.
+	 */
+	private static final int SWEEP_THRESHOLD = 4096;
+
+	private final SecretKey ticketKey;
+	private final long lifetimeMillis;
+	private final SecureRandom random;
+	private final CipherCache cipherCache;
+	/**
+	 * Eingelöste Tickets und wann sie ablaufen.
+	 */
+	private final Map<String, Long> redeemed;
+	private final LongAdder issued;
+	private final LongAdder resumed;
+	private final LongAdder rejected;
+
+	/**
+	 * @param pTicketKey      Der AES Schlüssel, mit dem Tickets verschlüsselt werden
+	 * @param pLifetimeMillis So lange kann ein Ticket eingelöst werden
+	 */
+	public SessionTickets(SecretKey pTicketKey, long pLifetimeMillis)
+	{
+		this.ticketKey = pTicketKey;
+		this.lifetimeMillis = pLifetimeMillis;
+		this.random = new SecureRandom();
+		this.cipherCache = new CipherCache();
+		this.redeemed = new ConcurrentHashMap<>();
+		this.issued = new LongAdder();
+		this.resumed = new LongAdder();
+		this.rejected = new LongAdder();
+	}
+
+	/**
+	 * Liest den Ticket-Schlüssel aus der Datei oder legt sie mit einem neuen Schlüssel an.
+	 *
+	 * @throws IOException Falls die Datei nicht gelesen oder angelegt werden kann oder keinen Schlüssel enthält
+	 */
+	public static SessionTickets fromFile(File pKeyFile, long pLifetimeMillis) throws IOException
+	{
+		byte[] key;
+		if (pKeyFile.exists())
+			key = Files.readAllBytes(pKeyFile.toPath());
+		else
+		{
+			key = new byte[KEY_LENGTH];
+			new SecureRandom().nextBytes(key);
+			Files.write(pKeyFile.toPath(), key, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		}
+
+		if (key.length != KEY_LENGTH)
+			throw new IOException("Ungültiger Ticket-Schlüssel in " + pKeyFile + ": " + key.length + " statt "
+					+ KEY_LENGTH + " Bytes");
+		return new SessionTickets(new SecretKeySpec(key, "AES"), pLifetimeMillis);
+	}
+
+	/**
+	 * @param pName    Der Name des Clients, den er beim Fortsetzen behält
+	 * @param pSession Die Schlüssel seines Handshakes
+	 * @return Das Ticket oder <code>null</code>, falls es nicht verschlüsselt werden konnte.
+	 */
+	public String issue(String pName, CryptoCommunication.CryptoStorage pSession)
+	{
+		final byte[] name = pName.getBytes(StandardCharsets.UTF_8);
+		final byte[] key = pSession.secretKey.getEncoded();
+		final byte[] iv = pSession.ivParameterSpec.getIV();
+		final byte[] plainText = ByteBuffer.allocate(1 + 8 + 1 + key.length + 1 + iv.length + name.length)
+				.put(VERSION).putLong(System.currentTimeMillis() + lifetimeMillis)
+				.put((byte) key.length).put(key).put((byte) iv.length).put(iv).put(name).array();
+
+		final byte[] nonce = new byte[AesUtilities.GCM_NONCE_LENGTH];
+		random.nextBytes(nonce);
+		try
+		{
+			final byte[] cipherText = AesUtilities.encryptGcm(plainText, ticketKey, nonce, null, cipherCache);
+			issued.increment();
+			return Base64.getEncoder().encodeToString(ByteBuffer.allocate(nonce.length + cipherText.length)
+					.put(nonce).put(cipherText).array());
+		}
+		catch (GeneralSecurityException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @return Eine neue Herausforderung für eine neue Verbindung, die der Client beim Einlösen beantwortet.
+	 */
+	public byte[] newChallenge()
+	{
+		final byte[] challenge = new byte[CHALLENGE_LENGTH];
+		random.nextBytes(challenge);
+		return challenge;
+	}
+
+	/**
+	 * Löst das Ticket eines <code>resume</code> Handshakes ein, falls es gültig und noch nicht eingelöst ist und der
+	 * Client den Sitzungsschlüssel kennt.
+	 *
+	 * @param pChallenge Die Herausforderung, die der Verbindung geschickt wurde, <code>null</code> falls keine
+	 * @return Die fortgesetzte Sitzung oder <code>null</code>, falls sie nicht fortgesetzt werden darf.
+	 */
+	public Session redeem(ConfFileFieldV2 pHandshake, byte[] pChallenge)
+	{
+		final String ticket = pHandshake.getValue("ticket");
+		final Session session = ticket != null && pChallenge != null ? open(ticket) : null;
+		if (session == null || !CryptoCommunication.extractHandshakeDataResume(pHandshake, pChallenge,
+				session.storage))
+		{
+			rejected.increment();
+			return null;
+		}
+
+		final long now = System.currentTimeMillis();
+		if (redeemed.size() >= SWEEP_THRESHOLD)
+			redeemed.values().removeIf(expires -> expires < now);
+		if (redeemed.putIfAbsent(ticket.substring(0, ID_LENGTH), session.expires) != null)
+		{
+			rejected.increment();
+			return null;
+		}
+		resumed.increment();
+		return session;
+	}
+
+	public long getIssued()
+	{
+		return issued.sum();
+	}
+
+	public long getResumed()
+	{
+		return resumed.sum();
+	}
+
+	public long getRejected()
+	{
+		return rejected.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SessionTickets{" +
+				"issued=" + getIssued() +
+				", resumed=" + getResumed() +
+				", rejected=" + getRejected() +
+				'}';
+	}
+
+	/**
+	 * @return Die Sitzung im Ticket oder <code>null</code>, falls es beschädigt, gefälscht oder abgelaufen ist.
+	 */
+	private Session open(String pTicket)
+	{
+		try
+		{
+			final byte[] data = Base64.getDecoder().decode(pTicket);
+			if (data.length <= AesUtilities.GCM_NONCE_LENGTH)
+				return null;
+			final ByteBuffer plainText = ByteBuffer.wrap(AesUtilities.decryptGcm(Arrays.copyOfRange(data,
+					AesUtilities.GCM_NONCE_LENGTH, data.length), ticketKey, Arrays.copyOf(data,
+					AesUtilities.GCM_NONCE_LENGTH), null, cipherCache));
+
+			if (plainText.get() != VERSION)
+				return null;
+			final long expires = plainText.getLong();
+			if (expires < System.currentTimeMillis())
+				return null;
+			final byte[] key = new byte[plainText.get()];
+			plainText.get(key);
+			final byte[] iv = new byte[plainText.get()];
+			plainText.get(iv);
+			final byte[] name = new byte[plainText.remaining()];
+			plainText.get(name);
+
+			return new Session(new String(name, StandardCharsets.UTF_8), expires,
+					new CryptoCommunication.CryptoStorage(new SecretKeySpec(key, "AES"), null,
+							new IvParameterSpec(iv)));
+		}
+		catch (GeneralSecurityException | RuntimeException e)
+		{
+			// Beschädigte oder gefälschte Tickets sind kein Fehler des Servers
+			return null;
+		}
+	}
+
+	/**
+	 * Eine aus einem Ticket gelesene Sitzung.
+	 */
+	public static final class Session
+	{
+		private final String name;
+		private final long expires;
+		private final CryptoCommunication.CryptoStorage storage;
+
+		private Session(String pName, long pExpires, CryptoCommunication.CryptoStorage pStorage)
+		{
+			this.name = pName;
+			this.expires = pExpires;
+			this.storage = pStorage;
+		}
+
+		/**
+		 * @return Der Name, unter dem der Client die Sitzung begonnen hat.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return Die Schlüssel des ursprünglichen Handshakes.
+		 */
+		public CryptoCommunication.CryptoStorage getStorage()
+		{
+			return storage;
+		}
+	}
+
+}
@@ -0,0 +1,702 @@
+package de.confuse.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Ein Journal, das Nachrichten, z. B. die Nutzdaten weitergeleiteter Pakete, in Segmente fester Größe schreibt, die
+ * als {@link MappedByteBuffer} eingeblendet sind. Anhängen kopiert nur in den eingeblendeten Speicher und kommt ohne
+ * Systemaufruf aus; auf die Platte schreibt das Betriebssystem im Hintergrund, festgeschrieben wird beim Wechsel des
+ * Segments und beim Schließen.<br>
+ * Jede Nachricht erhält eine fortlaufende Nummer, unter der sie sich mit {@link #read(long, int, Consumer)} ohne
+ * Kopie wieder lesen lässt. Ein Segment beginnt mit der Nummer seiner ersten Nachricht; jede Nachricht steht dort als
+ * Länge, Nummer im Segment und CRC32 (je 4 Bytes) gefolgt von ihren Bytes, aufgefüllt auf ein Vielfaches von 4.<br>
+ * Schreibende Threads reservieren Platz und Nummer im aktuellen Segment ohne Sperre mit einem einzigen
+ * <code>compareAndSet</code> und schreiben danach gleichzeitig; die Länge schreiben sie zuletzt, erst damit wird die
+ * Nachricht sichtbar. Nur wer das Segment füllt, wechselt unter einer Sperre zum nächsten. Dieses hat ein eigener
+ * Thread bereits angelegt und eingeblendet, der auch volle Segmente festschreibt, ausblendet und von den ältesten so
+ * viele löscht, dass höchstens {@link #retainedSegments} übrig bleiben.<br>
+ * Der Index mit der Position jeder Nachricht wird beim Lesen des aktuellen Segments fortgeschrieben, beim Wechsel
+ * vervollständigt und beim Öffnen aus den vorhandenen Segmenten neu aufgebaut. Ein Platz, den ein Thread vor einem
+ * Absturz noch reserviert, aber nicht mehr beschrieben hat, liest sich als Länge 0; der Aufbau beim Öffnen sucht
+ * dann die nächste Nachricht mit passender Prüfsumme, die Nummer des fehlenden Platzes bleibt leer.
+ *
+ * @author Confuse
+ * @version 3
+ */
+public class MessageJournal
+{
+	private static final String SEGMENT_SUFFIX = ".journal";
+	/**
+	 * Die Nummer der ersten Nachricht im Segment.
+	 */
+	private static final int SEGMENT_HEADER = Long.BYTES;
+	/**
+	 * Länge, Nummer im Segment und CRC32 einer Nachricht.
+	 */
+	private static final int RECORD_HEADER = 3 * Integer.BYTES;
+	/**
+	 * Liest und schreibt die Länge mit Acquire-/Release-Semantik, damit eine sichtbare Länge für vollständig
+	 * geschriebene Bytes steht.
+	 */
+	private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final Unmapper UNMAPPER = new Unmapper();
+
+	private final File directory;
+	private final int segmentSize;
+	private final int retainedSegments;
+	/**
+	 * Alle Segmente auf der Platte außer dem aktuellen und dem vorbereiteten, die ältesten zuerst; geschützt durch
+	 * sich selbst.
+	 */
+	private final Deque<Segment> finished;
+	/**
+	 * Legt Segmente an und schreibt volle fest, damit das keinem schreibenden Thread zufällt.
+	 */
+	private final ExecutorService background;
+	/**
+	 * Lesende halten die Lesesperre, solange sie eine Einblendung benutzen; ausgeblendet wird unter der Schreibsperre.
+	 */
+	private final ReadWriteLock mappingLock;
+	private volatile Segment current;
+	/**
+	 * Das im Hintergrund angelegte nächste Segment oder <code>null</code>; geschützt durch <code>this</code>.
+	 */
+	private Segment prepared;
+	private long nextIndex;
+
+	/**
+	 * Öffnet das Journal und baut den Index der vorhandenen Segmente auf; neue Nachrichten kommen in ein neues
+	 * Segment.
+	 *
+	 * @param pSegmentSize      Die Größe eines Segments in Bytes, zugleich die Obergrenze für eine Nachricht
+	 * @param pRetainedSegments So viele Segmente bleiben höchstens auf der Platte, einschließlich des aktuellen
+	 */
+	public MessageJournal(File pDirectory, int pSegmentSize, int pRetainedSegments) throws IOException
+	{
+		if (!pDirectory.isDirectory() && !pDirectory.mkdirs())
+			throw new IOException("Verzeichnis konnte nicht angelegt werden: " + pDirectory);
+		this.directory = pDirectory;
+		this.segmentSize = pSegmentSize;
+		this.retainedSegments = Math.max(1, pRetainedSegments);
+		this.finished = new ArrayDeque<>();
+		this.mappingLock = new ReentrantReadWriteLock();
+		this.background = Executors.newSingleThreadExecutor(task ->
+		{
+			final Thread thread = new Thread(task, "Journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long nextSequence = 0;
+		final File[] existing = pDirectory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+		if (existing != null)
+		{
+			Arrays.sort(existing);
+			for (File file : existing)
+			{
+				nextIndex = Long.parseLong(file.getName().replace(SEGMENT_SUFFIX, "")) + 1;
+				final Segment segment = Segment.recover(file);
+				// Vorbereitete, aber nie benutzte Segmente eines früheren Laufs
+				if (segment.getCount() == 0 && file.delete())
+					continue;
+				finished.add(segment);
+				nextSequence = Math.max(nextSequence, segment.baseSequence + segment.getCount());
+			}
+		}
+
+		current = Segment.create(nextSegmentFile(), segmentSize);
+		current.begin(nextSequence);
+		background.execute(this::retain);
+		background.execute(this::prepare);
+	}
+
+	/**
+	 * Hängt die Nachricht an. Darf von beliebig vielen Threads gleichzeitig aufgerufen werden.
+	 *
+	 * @return Die Nummer der Nachricht oder -1, falls sie nicht in ein Segment passt oder das Journal geschlossen ist.
+	 */
+	public long append(byte[] pData, int pOffset, int pLength) throws IOException
+	{
+		if (pLength <= 0 || pLength > segmentSize - SEGMENT_HEADER - RECORD_HEADER)
+			return -1;
+		final int size = recordSize(pLength);
+		// Die Prüfsumme entsteht vor der Reservierung, damit der reservierte Platz möglichst kurz leer bleibt
+		final CRC32 checksum = new CRC32();
+		checksum.update(pData, pOffset, pLength);
+		final int crc = (int) checksum.getValue();
+
+		while (true)
+		{
+			final Segment segment = current;
+			if (segment == null)
+				return -1;
+			final int number = segment.append(pData, pOffset, pLength, size, crc);
+			if (number >= 0)
+				return segment.baseSequence + number;
+			roll(segment);
+		}
+	}
+
+	/**
+	 * Übergibt ab der Nummer <code>pFrom</code> höchstens <code>pMax</code> Nachrichten der Reihe nach an den
+	 * Leser. Jede Sicht ist schreibgeschützt, beginnt bei den Bytes der Nachricht und gilt nur während des Aufrufs.
+	 * Nachrichten, die gerade noch geschrieben werden, und alle danach folgen erst bei einem späteren Aufruf.
+	 *
+	 * @return Die Nummer, ab der weiterzulesen ist. Gelöschte Segmente und leere Plätze werden übersprungen.
+	 */
+	public long read(long pFrom, int pMax, Consumer<ByteBuffer> pReader) throws IOException
+	{
+		final Segment[] snapshot;
+		synchronized (this)
+		{
+			synchronized (finished)
+			{
+				snapshot = finished.toArray(new Segment[finished.size() + 1]);
+			}
+			snapshot[snapshot.length - 1] = current;
+		}
+
+		long next = pFrom;
+		int read = 0;
+		for (Segment segment : snapshot)
+		{
+			if (segment == null || read == pMax)
+				break;
+			if (segment.complete && next >= segment.baseSequence + segment.getCount())
+				continue;
+
+			mappingLock.readLock().lock();
+			MappedByteBuffer temporary = null;
+			try
+			{
+				// Ausgeblendete Segmente werden nur für diesen Aufruf lesend eingeblendet
+				final MappedByteBuffer mapped = segment.buffer;
+				if (mapped == null)
+					temporary = segment.mapReadOnly();
+				final ByteBuffer view = mapped != null ? mapped.duplicate() : temporary.duplicate();
+				if (!segment.complete)
+					segment.index(view, segment.getReservedEnd(view.capacity()), false);
+
+				final int count = segment.getCount();
+				final int[] offsets = segment.offsets;
+				int i = (int) Math.max(0, next - segment.baseSequence);
+				for (; i < count && read < pMax; i++)
+				{
+					final int offset = offsets[i];
+					if (offset < 0)
+						continue;
+					final int length = view.getInt(offset);
+					view.limit(offset + RECORD_HEADER + length).position(offset + RECORD_HEADER);
+					pReader.accept(view.slice().asReadOnlyBuffer());
+					view.clear();
+					read++;
+				}
+				next = Math.max(next, segment.baseSequence + i);
+				// Eine Nachricht wird noch geschrieben, die folgenden kommen beim nächsten Aufruf
+				if (i < segment.getReserved())
+					break;
+			}
+			catch (NoSuchFileException e)
+			{
+				// Inzwischen gelöscht
+			}
+			finally
+			{
+				mappingLock.readLock().unlock();
+				if (temporary != null)
+					UNMAPPER.unmap(temporary);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * @return Die Nummer, die die nächste Nachricht erhält.
+	 */
+	public long getNextSequence()
+	{
+		synchronized (this)
+		{
+			if (current != null)
+				return current.baseSequence + current.getReserved();
+		}
+		synchronized (finished)
+		{
+			final Segment last = finished.peekLast();
+			return last != null ? last.baseSequence + last.getReserved() : 0;
+		}
+	}
+
+	/**
+	 * Schreibt das aktuelle Segment fest, blendet alle Segmente aus und wartet, bis der Hintergrund-Thread fertig ist.
+	 */
+	public void close() throws IOException
+	{
+		final Segment last;
+		final Segment unused;
+		synchronized (this)
+		{
+			last = current;
+			if (last == null)
+				return;
+			last.seal();
+			synchronized (finished)
+			{
+				finished.add(last);
+			}
+			current = null;
+			unused = prepared;
+			prepared = null;
+		}
+
+		background.execute(() ->
+		{
+			finish(last);
+			if (unused != null)
+			{
+				unused.unmap();
+				unused.file.delete();
+			}
+		});
+		background.shutdown();
+		try
+		{
+			background.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wechselt zum nächsten Segment, falls <code>pFull</code> noch das aktuelle ist. Ist im Hintergrund noch keines
+	 * vorbereitet, wird es ausnahmsweise hier angelegt.
+	 */
+	private void roll(Segment pFull) throws IOException
+	{
+		synchronized (this)
+		{
+			if (current != pFull)
+				return;
+
+			Segment next = prepared;
+			prepared = null;
+			if (next == null)
+				next = Segment.create(nextSegmentFile(), segmentSize);
+			next.begin(pFull.baseSequence + pFull.seal());
+			// Schon jetzt, damit Lesende das Segment zwischen Wechsel und Festschreiben nicht übergehen
+			synchronized (finished)
+			{
+				finished.add(pFull);
+			}
+			current = next;
+		}
+
+		background.execute(() ->
+		{
+			finish(pFull);
+			retain();
+			prepare();
+		});
+	}
+
+	/**
+	 * Vervollständigt den Index des versiegelten Segments, schreibt es fest und blendet es aus.
+	 */
+	private void finish(Segment pSegment)
+	{
+		pSegment.finish();
+		mappingLock.writeLock().lock();
+		try
+		{
+			pSegment.unmap();
+		}
+		finally
+		{
+			mappingLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Legt das nächste Segment an, falls noch keines bereitliegt. Läuft im Hintergrund-Thread.
+	 */
+	private void prepare()
+	{
+		final File file;
+		synchronized (this)
+		{
+			if (prepared != null || current == null)
+				return;
+			file = nextSegmentFile();
+		}
+
+		try
+		{
+			final Segment segment = Segment.create(file, segmentSize);
+			synchronized (this)
+			{
+				if (prepared == null && current != null)
+				{
+					prepared = segment;
+					return;
+				}
+			}
+			segment.unmap();
+			file.delete();
+		}
+		catch (IOException e)
+		{
+			// Das nächste Segment wird dann beim Wechsel angelegt
+			System.err.println("Journal-Segment konnte nicht angelegt werden: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Löscht die ältesten Segmente, bis neben dem aktuellen höchstens {@link #retainedSegments} - 1 übrig sind.
+	 */
+	private void retain()
+	{
+		synchronized (finished)
+		{
+			while (finished.size() > retainedSegments - 1)
+			{
+				final Segment oldest = finished.removeFirst();
+				if (!oldest.file.delete())
+					System.err.println("Journal-Segment konnte nicht gelöscht werden: " + oldest.file);
+			}
+		}
+	}
+
+	/**
+	 * Nur unter der Sperre von <code>this</code> oder vor dem Start des Hintergrund-Threads aufzurufen.
+	 */
+	private File nextSegmentFile()
+	{
+		return new File(directory, String.format("%020d", nextIndex++) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * @return Der Platz für eine Nachricht samt Kopf, aufgerundet auf ein Vielfaches von 4, damit jede Länge
+	 * ausgerichtet liegt.
+	 */
+	private static int recordSize(int pLength)
+	{
+		return (RECORD_HEADER + pLength + 3) & ~3;
+	}
+
+	private static final class Segment
+	{
+		private final File file;
+		/**
+		 * Der eingeblendete Inhalt oder <code>null</code>, falls ausgeblendet.
+		 */
+		private volatile MappedByteBuffer buffer;
+		/**
+		 * Die Anzahl der Reservierungen in den oberen und die nächste freie Position in den unteren 32 Bits; die
+		 * Position ist größer als das Segment, sobald es versiegelt ist.
+		 */
+		private final AtomicLong state;
+		/**
+		 * Die Threads, die gerade in das Segment schreiben. Ausgeblendet wird erst, wenn es keine mehr gibt.
+		 */
+		private final AtomicInteger writers;
+		/**
+		 * Wird gesetzt, bevor das Segment zum aktuellen wird.
+		 */
+		private long baseSequence;
+		/**
+		 * Das Ende der Reservierungen beim Versiegeln.
+		 */
+		private int end;
+		/**
+		 * Die Position jeder Nachricht, -1 für einen leeren Platz; Lesende sehen nur die ersten {@link #count}
+		 * Einträge.
+		 */
+		private volatile int[] offsets;
+		private volatile int count;
+		/**
+		 * Bis hierher ist der Index aufgebaut; geschützt durch das Segment.
+		 */
+		private int scanned;
+		/**
+		 * Der Index ist vollständig, das Segment ändert sich nicht mehr.
+		 */
+		private volatile boolean complete;
+
+		private Segment(File pFile, MappedByteBuffer pBuffer)
+		{
+			this.file = pFile;
+			this.buffer = pBuffer;
+			this.state = new AtomicLong(SEGMENT_HEADER);
+			this.writers = new AtomicInteger();
+			this.offsets = new int[64];
+			this.scanned = SEGMENT_HEADER;
+		}
+
+		static Segment create(File pFile, int pSize) throws IOException
+		{
+			try (FileChannel channel = FileChannel.open(pFile.toPath(), StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				// Die Einblendung bleibt nach dem Schließen des Kanals gültig
+				return new Segment(pFile, channel.map(FileChannel.MapMode.READ_WRITE, 0, pSize));
+			}
+		}
+
+		/**
+		 * Baut den Index eines vorhandenen Segments auf und überspringt dabei leere Plätze.
+		 */
+		static Segment recover(File pFile) throws IOException
+		{
+			final Segment segment = new Segment(pFile, null);
+			final MappedByteBuffer view = segment.mapReadOnly();
+			try
+			{
+				if (view.capacity() >= SEGMENT_HEADER)
+				{
+					segment.baseSequence = view.getLong(0);
+					segment.index(view, view.capacity(), true);
+				}
+			}
+			finally
+			{
+				UNMAPPER.unmap(view);
+			}
+			segment.state.set((long) segment.count << 32 | (long) Integer.MAX_VALUE);
+			segment.complete = true;
+			return segment;
+		}
+
+		/**
+		 * Macht das Segment mit der Nummer seiner ersten Nachricht zum aktuellen; nur unter der Sperre des Journals.
+		 */
+		void begin(long pBaseSequence)
+		{
+			baseSequence = pBaseSequence;
+			buffer.putLong(0, pBaseSequence);
+		}
+
+		/**
+		 * Reserviert Platz und Nummer und schreibt die Nachricht dorthin, die Länge zuletzt.
+		 *
+		 * @return Die Nummer im Segment oder -1, falls das Segment voll oder versiegelt ist.
+		 */
+		int append(byte[] pData, int pOffset, int pLength, int pSize, int pChecksum)
+		{
+			writers.incrementAndGet();
+			try
+			{
+				long reserved;
+				int start;
+				do
+				{
+					reserved = state.get();
+					start = (int) reserved;
+					if (start + pSize > buffer.capacity())
+						return -1;
+				} while (!state.compareAndSet(reserved, reserved + (1L << 32) + pSize));
+
+				final int number = (int) (reserved >>> 32);
+				final ByteBuffer target = buffer.duplicate();
+				target.position(start + Integer.BYTES);
+				target.putInt(number).putInt(pChecksum).put(pData, pOffset, pLength);
+				LENGTH.setRelease(buffer, start, pLength);
+				return number;
+			}
+			finally
+			{
+				writers.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Verhindert weitere Reservierungen; wer schon reserviert hat, schreibt noch zu Ende.
+		 *
+		 * @return Die Anzahl der Reservierungen.
+		 */
+		int seal()
+		{
+			final int sealed = buffer.capacity() + 1;
+			final long reserved = state.getAndUpdate(value -> value & 0xFFFFFFFF00000000L | sealed);
+			end = Math.min((int) reserved, buffer.capacity());
+			return (int) (reserved >>> 32);
+		}
+
+		/**
+		 * Wartet auf die letzten Schreibenden, vervollständigt den Index und schreibt das Segment fest. Nur nach
+		 * {@link #seal()} aufzurufen.
+		 */
+		void finish()
+		{
+			while (writers.get() != 0)
+				Thread.onSpinWait();
+			index(buffer.duplicate(), end, false);
+			complete = true;
+			buffer.force();
+		}
+
+		/**
+		 * Nimmt die Nachrichten ab {@link #scanned} bis <code>pLimit</code> in den Index auf. Eine Länge 0 beendet
+		 * das, solange noch geschrieben wird. Beim Wiederherstellen kann sie auch ein nach einem Absturz leerer Platz
+		 * sein: Dann wird in Schritten von 4 Bytes nach der nächsten Nachricht gesucht, deren Nummer und Prüfsumme
+		 * passen.
+		 */
+		synchronized void index(ByteBuffer pView, int pLimit, boolean pRecovering)
+		{
+			int position = scanned;
+			while (position + RECORD_HEADER <= pLimit)
+			{
+				final int length = (int) LENGTH.getAcquire(pView, position);
+				if (length > 0 && length <= pLimit - position - RECORD_HEADER)
+				{
+					final int number = pView.getInt(position + Integer.BYTES);
+					if (!pRecovering || (number >= count
+							&& checksum(pView, position, length) == pView.getInt(position + 2 * Integer.BYTES)))
+					{
+						while (count < number)
+							addOffset(-1);
+						addOffset(position);
+						position += recordSize(length);
+						scanned = position;
+						continue;
+					}
+				}
+				if (!pRecovering)
+					break;
+				position += Integer.BYTES;
+			}
+		}
+
+		private static int checksum(ByteBuffer pView, int pPosition, int pLength)
+		{
+			final ByteBuffer bytes = pView.duplicate();
+			bytes.limit(pPosition + RECORD_HEADER + pLength).position(pPosition + RECORD_HEADER);
+			final CRC32 checksum = new CRC32();
+			checksum.update(bytes);
+			return (int) checksum.getValue();
+		}
+
+		/**
+		 * Nur unter der Sperre des Segments aufzurufen; der Eintrag wird erst mit dem Erhöhen von {@link #count}
+		 * sichtbar.
+		 */
+		private void addOffset(int pOffset)
+		{
+			int[] index = offsets;
+			if (count == index.length)
+			{
+				index = Arrays.copyOf(index, index.length * 2);
+				offsets = index;
+			}
+			index[count] = pOffset;
+			count = count + 1;
+		}
+
+		int getCount()
+		{
+			return count;
+		}
+
+		int getReserved()
+		{
+			return (int) (state.get() >>> 32);
+		}
+
+		/**
+		 * @return Bis hierher ist Platz reserviert.
+		 */
+		int getReservedEnd(int pCapacity)
+		{
+			return (int) Math.min(state.get() & 0xFFFFFFFFL, pCapacity);
+		}
+
+		MappedByteBuffer mapReadOnly() throws IOException
+		{
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+			{
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		}
+
+		void unmap()
+		{
+			final MappedByteBuffer mapped = buffer;
+			buffer = null;
+			if (mapped != null)
+				UNMAPPER.unmap(mapped);
+		}
+	}
+
+	/**
+	 * Gibt eingeblendeten Speicher sofort frei. Das JDK bietet dafür keine öffentliche Schnittstelle; die Methode
+	 * <code>invokeCleaner</code> aus <code>sun.misc.Unsafe</code> wird daher über Reflection angesprochen. Fehlt sie,
+	 * gibt der Garbage Collector den Speicher frei, sobald keine Referenz mehr besteht.
+	 */
+	private static final class Unmapper
+	{
+		private final Object unsafe;
+		private final Method invokeCleaner;
+
+		private Unmapper()
+		{
+			Object foundUnsafe = null;
+			Method foundInvokeCleaner = null;
+			try
+			{
+				final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				foundUnsafe = theUnsafe.get(null);
+				foundInvokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			}
+			catch (ReflectiveOperationException | RuntimeException e)
+			{
+				/*
+				 * Z. B. JDK 8 oder ein JDK ohne jdk.unsupported, es bleibt beim Garbage Collector.
+				 */
+			}
+			this.unsafe = foundUnsafe;
+			this.invokeCleaner = foundInvokeCleaner;
+		}
+
+		void unmap(MappedByteBuffer pBuffer)
+		{
+			if (invokeCleaner != null)
+				try
+				{
+					invokeCleaner.invoke(unsafe, pBuffer);
+				}
+				catch (ReflectiveOperationException e)
+				{
+					/*
+					 * Der Garbage Collector gibt den Speicher später frei.
+					 */
+				}
+		}
+	}
+
+}
@@ -0,0 +1,417 @@
+package de.confuse.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Bewahrt Nachrichten an Clients auf, die gerade nicht verbunden sind, und stellt sie zu, sobald der Client wieder
+ * da ist.<br>
+ * Jeder Empfänger hat ein eigenes {@link RecipientLog} auf der Platte. Eingestellt wird nur in eine Warteschlange,
+ * so dass der aufrufende Thread, typischerweise der Empfangs-Thread eines Absenders, nie auf die Platte wartet.
+ * Ein eigener Schreib-Thread hängt alle gerade wartenden Nachrichten an und schreibt jedes betroffene Protokoll danach
+ * mit einem einzigen <code>fsync</code> fest (Group Commit); erst dann wird der Absender benachrichtigt. Je mehr
+ * Nachrichten auf einmal eintreffen, desto mehr teilen sich einen <code>fsync</code>.<br>
+ * Zugestellte Segmente werden sofort in das Verzeichnis <code>reclaim</code> verschoben und von einem weiteren
+ * Thread im Hintergrund gelöscht. Kann eine Nachricht nicht zugestellt werden, bleibt sie mit allen folgenden in
+ * ihrer Reihenfolge für die nächste Zustellung liegen.<br>
+ * Viele Empfänger kommen nie zurück, deshalb wird nicht unbegrenzt aufbewahrt: Wächst das Protokoll eines Empfängers
+ * über die erlaubte Größe, werden seine ältesten Segmente verworfen, und Segmente, in die länger als die erlaubte
+ * Zeit nichts geschrieben wurde, werden regelmäßig entfernt.
+ *
+ * @author Confuse
+ * @version 3
+ */
+public class OfflineStore
+{
+	/**
+	 * Benachrichtigung, sobald eine eingestellte Nachricht festgeschrieben ist.
+	 */
+	public interface Callback
+	{
+		/**
+		 * @param pStored false, falls die Nachricht nicht geschrieben werden konnte
+		 */
+		void stored(boolean pStored);
+	}
+
+	private static final String RECLAIM_DIRECTORY = "reclaim";
+	/**
+	 * So viele Aufträge bearbeitet der Schreib-Thread höchstens zwischen zwei Festschreibungen.
+	 */
+	private static final int MAX_BATCH = 4096;
+	/**
+	 * In diesem Abstand werden abgelaufene Segmente entfernt.
+	 */
+	private static final long EXPIRY_INTERVAL_MS = 60000;
+
+	private final File directory;
+	private final File reclaimDirectory;
+	private final long segmentSize;
+	private final BlockingQueue<Object> tasks;
+	/**
+	 * Die Anzahl der wartenden {@link Append}s; Zustellungen zählen nicht mit und werden nie abgelehnt.
+	 */
+	private final AtomicInteger pendingAppends;
+	private final int queueCapacity;
+	private final long maxAgeMillis;
+	private final long maxBytes;
+	private final BlockingQueue<File> reclaimQueue;
+	/**
+	 * Die geöffneten Protokolle; nur der Schreib-Thread greift darauf zu.
+	 */
+	private final Map<String, RecipientLog> logs;
+	private final Thread writer;
+	private final Thread reclaimer;
+	private long reclaimCounter;
+	private long lastExpiry;
+	private volatile boolean active;
+
+	/**
+	 * @param pDirectory     Das Verzeichnis der Protokolle; Nachrichten früherer Läufe werden übernommen
+	 * @param pSegmentSize   Die Größe, ab der ein neues Segment begonnen wird
+	 * @param pQueueCapacity So viele Nachrichten dürfen auf den Schreib-Thread warten, bevor neue abgelehnt werden
+	 * @param pMaxAgeMillis  So lange werden Nachrichten höchstens aufbewahrt, gemessen am letzten Schreiben ihres
+	 *                       Segments
+	 * @param pMaxBytes      So viel wird je Empfänger höchstens aufbewahrt; darüber werden die ältesten Segmente
+	 *                       verworfen
+	 */
+	public OfflineStore(File pDirectory, long pSegmentSize, int pQueueCapacity, long pMaxAgeMillis, long pMaxBytes)
+			throws IOException
+	{
+		this.directory = pDirectory;
+		this.reclaimDirectory = new File(pDirectory, RECLAIM_DIRECTORY);
+		if (!reclaimDirectory.isDirectory() && !reclaimDirectory.mkdirs())
+			throw new IOException("Verzeichnis konnte nicht angelegt werden: " + reclaimDirectory);
+		this.segmentSize = pSegmentSize;
+		this.tasks = new LinkedBlockingQueue<>();
+		this.pendingAppends = new AtomicInteger();
+		this.queueCapacity = pQueueCapacity;
+		this.maxAgeMillis = pMaxAgeMillis;
+		this.maxBytes = pMaxBytes;
+		// Die erste Bereinigung läuft gleich nach dem Start
+		this.lastExpiry = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(EXPIRY_INTERVAL_MS);
+		this.reclaimQueue = new LinkedBlockingQueue<>();
+		this.logs = new HashMap<>();
+		this.active = true;
+
+		// Reste eines früheren Laufs, der vor dem Löschen beendet wurde
+		final File[] leftovers = reclaimDirectory.listFiles();
+		if (leftovers != null)
+			for (File leftover : leftovers)
+				reclaimQueue.add(leftover);
+
+		this.writer = new Thread(this::write, "Offline-Store");
+		this.reclaimer = new Thread(this::reclaim, "Offline-Reclaim");
+		this.writer.setDaemon(true);
+		this.reclaimer.setDaemon(true);
+		this.writer.start();
+		this.reclaimer.start();
+	}
+
+	/**
+	 * Stellt eine Nachricht für einen Empfänger ein. Das Array darf danach nicht mehr verändert werden.
+	 *
+	 * @param pRecipient Der Name des Empfängers, unter dem er auch nach einem Neuverbinden bekannt ist, z. B.
+	 *                   <code>127.0.0.1:53241</code>
+	 * @param pCallback  Wird im Schreib-Thread aufgerufen, sobald die Nachricht festgeschrieben ist
+	 * @return false, falls die Warteschlange voll oder der Speicher geschlossen ist; der Callback wird dann nicht
+	 * aufgerufen.
+	 */
+	public boolean store(String pRecipient, byte[] pData, int pOffset, int pLength, Callback pCallback)
+	{
+		if (!active || pendingAppends.incrementAndGet() > queueCapacity)
+		{
+			pendingAppends.decrementAndGet();
+			return false;
+		}
+		tasks.add(new Append(pRecipient, pData, pOffset, pLength, pCallback));
+		return true;
+	}
+
+	/**
+	 * Übergibt die für den Empfänger wartenden Nachrichten in ihrer Reihenfolge an <code>pSink</code>. Das geschieht
+	 * im Schreib-Thread, nachdem alle zuvor eingestellten Nachrichten geschrieben sind; angenommene Nachrichten gelten
+	 * danach als zugestellt. Lehnt <code>pSink</code> eine Nachricht ab, z. B. weil sich der Empfänger wieder getrennt
+	 * hat, endet die Zustellung, und sie wartet mit allen folgenden auf die nächste. Darf auch aus einem
+	 * {@link Callback} heraus aufgerufen werden.
+	 */
+	public void deliver(String pRecipient, Predicate<byte[]> pSink)
+	{
+		if (active)
+			tasks.add(new Deliver(pRecipient, pSink));
+	}
+
+	/**
+	 * Schreibt alles Eingestellte fest und beendet den Speicher; wartende Nachrichten bleiben für den nächsten Lauf
+	 * erhalten.
+	 */
+	public void close()
+	{
+		active = false;
+		try
+		{
+			writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write()
+	{
+		final List<Object> batch = new ArrayList<>();
+		final Set<RecipientLog> dirty = new LinkedHashSet<>();
+		final List<Append> pending = new ArrayList<>();
+
+		while (active || !tasks.isEmpty())
+		{
+			try
+			{
+				final Object first = tasks.poll(100, TimeUnit.MILLISECONDS);
+				if (System.nanoTime() - lastExpiry > TimeUnit.MILLISECONDS.toNanos(EXPIRY_INTERVAL_MS))
+				{
+					// Vorher Angehängtes ist bereits festgeschrieben, der Stapel ist leer
+					expire();
+					lastExpiry = System.nanoTime();
+				}
+				if (first == null)
+					continue;
+				batch.add(first);
+			}
+			catch (InterruptedException e)
+			{
+				continue;
+			}
+			tasks.drainTo(batch, MAX_BATCH - 1);
+
+			for (Object task : batch)
+				if (task instanceof Append)
+				{
+					final Append append = (Append) task;
+					pendingAppends.decrementAndGet();
+					try
+					{
+						final RecipientLog log = logFor(append.recipient);
+						log.append(append.data, append.offset, append.length);
+						dirty.add(log);
+						pending.add(append);
+						final List<File> dropped = log.trim(maxBytes);
+						if (!dropped.isEmpty())
+						{
+							System.err.println("Offline-Nachrichten für " + append.recipient + " überschreiten "
+									+ maxBytes + " Bytes, die ältesten werden verworfen");
+							reclaim(dropped);
+						}
+					}
+					catch (IOException e)
+					{
+						System.err.println("Offline-Nachricht für " + append.recipient + " konnte nicht geschrieben "
+								+ "werden: " + e.getMessage());
+						append.callback.stored(false);
+					}
+				}
+				else
+				{
+					// Was vor der Zustellung eingestellt wurde, muss vor ihr festgeschrieben sein
+					commit(dirty, pending);
+					deliver((Deliver) task);
+				}
+			commit(dirty, pending);
+			batch.clear();
+		}
+
+		for (RecipientLog log : logs.values())
+			try
+			{
+				log.close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Offline-Protokoll konnte nicht geschlossen werden: " + log.getDirectory() + ", "
+						+ e.getMessage());
+			}
+	}
+
+	/**
+	 * Schreibt jedes veränderte Protokoll mit einem <code>fsync</code> fest und benachrichtigt danach die Absender.
+	 */
+	private void commit(Set<RecipientLog> pDirty, List<Append> pPending)
+	{
+		final Set<RecipientLog> failed = new LinkedHashSet<>();
+		for (RecipientLog log : pDirty)
+			try
+			{
+				log.force();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Offline-Protokoll konnte nicht festgeschrieben werden: " + log.getDirectory()
+						+ ", " + e.getMessage());
+				failed.add(log);
+			}
+
+		for (Append append : pPending)
+			append.callback.stored(!failed.contains(logs.get(append.recipient)));
+		pDirty.clear();
+		pPending.clear();
+	}
+
+	private void deliver(Deliver pDeliver)
+	{
+		RecipientLog log = logs.get(pDeliver.recipient);
+		if (log == null)
+		{
+			// Nach einem Neustart liegen die Nachrichten nur auf der Platte
+			final File recipientDirectory = directoryFor(pDeliver.recipient);
+			if (!recipientDirectory.isDirectory())
+				return;
+			log = new RecipientLog(recipientDirectory, segmentSize);
+		}
+
+		try
+		{
+			reclaim(log.deliver(pDeliver.sink));
+		}
+		catch (IOException e)
+		{
+			System.err.println("Offline-Nachrichten für " + pDeliver.recipient + " konnten nicht zugestellt werden: "
+					+ e.getMessage());
+		}
+
+		keepOrRemove(pDeliver.recipient, log);
+	}
+
+	/**
+	 * Entfernt die Segmente aller Empfänger, in die länger als {@link #maxAgeMillis} nichts geschrieben wurde, auch
+	 * die von Empfängern, deren Protokoll seit dem Start nicht geöffnet wurde.
+	 */
+	private void expire()
+	{
+		final File[] directories = directory.listFiles(file -> file.isDirectory() && !file.equals(reclaimDirectory));
+		if (directories == null)
+			return;
+
+		final long cutoff = System.currentTimeMillis() - maxAgeMillis;
+		for (File recipientDirectory : directories)
+		{
+			final String recipient = URLDecoder.decode(recipientDirectory.getName(), StandardCharsets.UTF_8);
+			final RecipientLog open = logs.get(recipient);
+			final RecipientLog log = open != null ? open : new RecipientLog(recipientDirectory, segmentSize);
+			try
+			{
+				final List<File> expired = log.expire(cutoff);
+				if (!expired.isEmpty())
+				{
+					System.out.println("Abgelaufene Offline-Nachrichten für " + recipient + " werden entfernt");
+					reclaim(expired);
+				}
+			}
+			catch (IOException e)
+			{
+				System.err.println("Offline-Nachrichten für " + recipient + " konnten nicht entfernt werden: "
+						+ e.getMessage());
+			}
+			if (open != null || log.isEmpty())
+				keepOrRemove(recipient, log);
+		}
+	}
+
+	/**
+	 * Behält das Protokoll geöffnet oder entfernt es samt Verzeichnis, falls nichts mehr darin wartet.
+	 */
+	private void keepOrRemove(String pRecipient, RecipientLog pLog)
+	{
+		if (pLog.isEmpty())
+		{
+			logs.remove(pRecipient);
+			// Leer ist das Verzeichnis nur, falls alle Segmente verschoben wurden
+			pLog.getDirectory().delete();
+		}
+		else
+			logs.put(pRecipient, pLog);
+	}
+
+	/**
+	 * Verschiebt die Segmente in das Verzeichnis <code>reclaim</code>, aus dem sie im Hintergrund gelöscht werden.
+	 */
+	private void reclaim(List<File> pSegments)
+	{
+		for (File segment : pSegments)
+		{
+			final File target = new File(reclaimDirectory, System.nanoTime() + "-" + reclaimCounter++
+					+ RecipientLog.SEGMENT_SUFFIX);
+			reclaimQueue.add(segment.renameTo(target) ? target : segment);
+		}
+	}
+
+	private RecipientLog logFor(String pRecipient)
+	{
+		return logs.computeIfAbsent(pRecipient, recipient -> new RecipientLog(directoryFor(recipient), segmentSize));
+	}
+
+	private File directoryFor(String pRecipient)
+	{
+		return new File(directory, URLEncoder.encode(pRecipient, StandardCharsets.UTF_8));
+	}
+
+	private void reclaim()
+	{
+		while (true)
+			try
+			{
+				final File segment = reclaimQueue.take();
+				if (segment.exists() && !segment.delete())
+					System.err.println("Segment konnte nicht gelöscht werden: " + segment);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+	}
+
+	private static final class Append
+	{
+		private final String recipient;
+		private final byte[] data;
+		private final int offset;
+		private final int length;
+		private final Callback callback;
+
+		private Append(String pRecipient, byte[] pData, int pOffset, int pLength, Callback pCallback)
+		{
+			this.recipient = pRecipient;
+			this.data = pData;
+			this.offset = pOffset;
+			this.length = pLength;
+			this.callback = pCallback;
+		}
+	}
+
+	private static final class Deliver
+	{
+		private final String recipient;
+		private final Predicate<byte[]> sink;
+
+		private Deliver(String pRecipient, Predicate<byte[]> pSink)
+		{
+			this.recipient = pRecipient;
+			this.sink = pSink;
+		}
+	}
+
+}
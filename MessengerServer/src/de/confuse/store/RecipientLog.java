@@ -0,0 +1,253 @@
+package de.confuse.store;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Das Protokoll der wartenden Nachrichten eines einzelnen Empfängers: ein Verzeichnis mit fortlaufend nummerierten
+ * Segmenten, an die nur angehängt wird. Jede Nachricht steht als Länge (4 Bytes) gefolgt von ihren Bytes im Segment.
+ * Ist ein Segment voll, wird das nächste begonnen; nach einem Neustart wird nie an ein bestehendes Segment angehängt,
+ * so dass ein beim Absturz abgeschnittener Eintrag nur das Ende seines Segments betrifft. Aufbewahrungsgrenzen
+ * werden segmentweise durchgesetzt, siehe {@link #trim(long)} und {@link #expire(long)}.<br>
+ * Wird ausschließlich vom Schreib-Thread des {@link OfflineStore}s benutzt.
+ *
+ * @author Confuse
+ * @version 3
+ */
+final class RecipientLog
+{
+	static final String SEGMENT_SUFFIX = ".seg";
+
+	private final File directory;
+	private final long segmentSize;
+	private final List<File> segments;
+	private final ByteBuffer header;
+	private FileChannel current;
+	private long currentSize;
+	private long nextIndex;
+	private boolean dirty;
+
+	/**
+	 * Öffnet das Protokoll und übernimmt bereits vorhandene Segmente, z. B. nach einem Neustart.
+	 */
+	RecipientLog(File pDirectory, long pSegmentSize)
+	{
+		this.directory = pDirectory;
+		this.segmentSize = pSegmentSize;
+		this.segments = new ArrayList<>();
+		this.header = ByteBuffer.allocate(Integer.BYTES);
+
+		final File[] existing = pDirectory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+		if (existing != null)
+		{
+			// Die Namen sind gleich lang, daher entspricht die alphabetische der zeitlichen Reihenfolge
+			Arrays.sort(existing);
+			segments.addAll(Arrays.asList(existing));
+			if (existing.length > 0)
+				nextIndex = Long.parseLong(existing[existing.length - 1].getName().replace(SEGMENT_SUFFIX, "")) + 1;
+		}
+	}
+
+	/**
+	 * Hängt die Nachricht an, ohne sie auf die Platte zu zwingen; das geschieht gesammelt mit {@link #force()}.
+	 */
+	void append(byte[] pData, int pOffset, int pLength) throws IOException
+	{
+		if (current == null || currentSize > 0 && currentSize + Integer.BYTES + pLength > segmentSize)
+			roll();
+
+		header.clear();
+		header.putInt(pLength).flip();
+		final ByteBuffer[] record = {header, ByteBuffer.wrap(pData, pOffset, pLength)};
+		while (record[1].hasRemaining())
+			current.write(record);
+
+		currentSize += Integer.BYTES + pLength;
+		dirty = true;
+	}
+
+	void force() throws IOException
+	{
+		if (dirty)
+		{
+			current.force(false);
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Übergibt die Nachrichten in der Reihenfolge, in der sie angehängt wurden, bis <code>pSink</code> eine ablehnt.
+	 * Diese und alle folgenden bleiben in ihrer Reihenfolge im Protokoll; das angebrochene Segment wird dazu durch
+	 * seinen Rest ersetzt. Ein abgeschnittener letzter Eintrag eines Segments wird übergangen.
+	 *
+	 * @return Die vollständig zugestellten Segmente; sie gehören danach dem Aufrufer.
+	 */
+	List<File> deliver(Predicate<byte[]> pSink) throws IOException
+	{
+		closeCurrent();
+
+		final List<File> delivered = new ArrayList<>();
+		while (!segments.isEmpty())
+		{
+			final File segment = segments.get(0);
+			final long rejectedAt = deliver(segment, pSink);
+			if (rejectedAt >= 0)
+			{
+				keepFrom(segment, rejectedAt);
+				break;
+			}
+			delivered.add(segments.remove(0));
+		}
+		return delivered;
+	}
+
+	/**
+	 * Verwirft die ältesten Segmente, bis höchstens <code>pMaxBytes</code> aufbewahrt werden; das Segment, an das
+	 * gerade angehängt wird, bleibt immer erhalten.
+	 *
+	 * @return Die verworfenen Segmente; sie gehören danach dem Aufrufer.
+	 */
+	List<File> trim(long pMaxBytes)
+	{
+		long size = 0;
+		for (File segment : segments)
+			size += segment.length();
+
+		final List<File> dropped = new ArrayList<>();
+		while (size > pMaxBytes && segments.size() > 1)
+		{
+			final File segment = segments.remove(0);
+			size -= segment.length();
+			dropped.add(segment);
+		}
+		return dropped;
+	}
+
+	/**
+	 * Verwirft die Segmente, in die seit <code>pCutoff</code> ({@link System#currentTimeMillis()}) nichts mehr
+	 * geschrieben wurde. Da nur an das jüngste angehängt wird, sind das immer die ältesten.
+	 *
+	 * @return Die verworfenen Segmente; sie gehören danach dem Aufrufer.
+	 */
+	List<File> expire(long pCutoff) throws IOException
+	{
+		final List<File> expired = new ArrayList<>();
+		while (!segments.isEmpty() && segments.get(0).lastModified() < pCutoff)
+		{
+			// Ist auch das aktuelle Segment abgelaufen, beginnt die nächste Nachricht ein neues
+			if (segments.size() == 1)
+				closeCurrent();
+			expired.add(segments.remove(0));
+		}
+		return expired;
+	}
+
+	/**
+	 * @return true, falls keine Nachricht wartet.
+	 */
+	boolean isEmpty()
+	{
+		return segments.isEmpty();
+	}
+
+	File getDirectory()
+	{
+		return directory;
+	}
+
+	void close() throws IOException
+	{
+		closeCurrent();
+	}
+
+	private void roll() throws IOException
+	{
+		// Ein volles Segment wird vor dem Schließen festgeschrieben, damit force() nur das aktuelle betrifft
+		closeCurrent();
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Verzeichnis konnte nicht angelegt werden: " + directory);
+		final File segment = new File(directory, String.format("%020d", nextIndex++) + SEGMENT_SUFFIX);
+		current = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		segments.add(segment);
+		currentSize = 0;
+	}
+
+	/**
+	 * @return Die Position der abgelehnten Nachricht im Segment oder -1, falls alle zugestellt wurden.
+	 */
+	private static long deliver(File pSegment, Predicate<byte[]> pSink) throws IOException
+	{
+		long position = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pSegment))))
+		{
+			while (true)
+			{
+				final byte[] message;
+				try
+				{
+					final int length = in.readInt();
+					if (length < 0)
+						return -1;
+					message = new byte[length];
+					in.readFully(message);
+				}
+				catch (EOFException e)
+				{
+					return -1;
+				}
+				if (!pSink.test(message))
+					return position;
+				position += Integer.BYTES + message.length;
+			}
+		}
+	}
+
+	/**
+	 * Ersetzt das Segment durch seinen Rest ab <code>pPosition</code>, so dass dieser seinen Platz in der Reihenfolge
+	 * behält. Erst das Umbenennen ersetzt das Segment, ein Absturz davor stellt höchstens erneut zu.
+	 */
+	private void keepFrom(File pSegment, long pPosition) throws IOException
+	{
+		if (pPosition == 0)
+			return;
+
+		final File rest = new File(directory, pSegment.getName() + ".rest");
+		try (FileChannel source = FileChannel.open(pSegment.toPath(), StandardOpenOption.READ);
+			 FileChannel target = FileChannel.open(rest.toPath(), StandardOpenOption.CREATE,
+					 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			final long size = source.size();
+			long position = pPosition;
+			while (position < size)
+				position += source.transferTo(position, size - position, target);
+			target.force(false);
+		}
+		Files.move(rest.toPath(), pSegment.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void closeCurrent() throws IOException
+	{
+		if (current != null)
+		{
+			force();
+			current.close();
+			current = null;
+		}
+	}
+
+}
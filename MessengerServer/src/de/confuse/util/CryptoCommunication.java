@@ -2,7 +2,9 @@ package de.confuse.util;
 
 import de.confuse.confFileV2.ConfFileFieldV2;
 import de.confuse.security.AesUtilities;
+import de.confuse.security.CipherCache;
 import de.confuse.security.RsaUtilities;
+import de.confuse.security.X25519Utilities;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -11,16 +13,53 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.Destroyable;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Base64;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CryptoCommunication
 {
 
 	public static final String CONNECTION_ESTABLISHED = "Connection Established!";
+	/**
+	 * The value both sides put under "aead" in their handshakes to agree on {@link #generateAeadPacket(String,
+	 * AeadSession, String)} packets.
+	 */
+	public static final String AEAD_GCM = "gcm";
+	/**
+	 * The "version" of packets created by {@link #generateAeadPacket(String, AeadSession, String)}; packets without a
+	 * version are created by {@link #generateCryptoPacket(String, PublicKey, SecretKey, IvParameterSpec)}.
+	 */
+	public static final String AEAD_PACKET_VERSION = "2";
+	/**
+	 * The "version" of handshakes that agree on the session key with X25519 instead of sending it wrapped with RSA,
+	 * see {@link #generateCryptoHandshakeStage1(PublicKey, PublicKey)}.
+	 */
+	public static final String X25519_HANDSHAKE_VERSION = "2";
+	/**
+	 * Binds the keys derived by {@link #deriveX25519Session(KeyPair, PublicKey, boolean)} to this protocol.
+	 */
+	private static final byte[] X25519_SESSION_INFO = "InformatikQ2-Messenger X25519 session"
+			.getBytes(StandardCharsets.UTF_8);
+	/**
+	 * The nonce of the stage 3 confirmation; the side marker 0 is never used by an {@link AeadSession}.
+	 */
+	private static final byte[] X25519_CONFIRMATION_NONCE = new byte[AesUtilities.GCM_NONCE_LENGTH];
+	/**
+	 * The stage of a handshake that resumes a session with a ticket instead of agreeing on a new one, see {@link
+	 * #generateCryptoHandshakeResume(String, byte[], CryptoStorage)}.
+	 */
+	public static final String RESUME_STAGE = "resume";
+	/**
+	 * The stage of the answer to a handshake that could not be completed, e.g. because no session key could be agreed
+	 * on, see {@link #generateCryptoHandshakeFailure()}.
+	 */
+	public static final String FAILED_STAGE = "failed";
+	private static final byte[] RESUME_INFO = "InformatikQ2-Messenger resume".getBytes(StandardCharsets.UTF_8);
 
 	/**
 	 * Generates a crypto packet that encrypts the input string using the {@value AesUtilities#AES_ALGORITHM} algorithm
@@ -57,6 +96,68 @@ public class CryptoCommunication
 
 	}
 
+	/**
+	 * Generates a crypto packet like {@link #generateCryptoPacket(String, PublicKey, SecretKey, IvParameterSpec)}
+	 * with the keys of the given {@link CryptoStorage}, reusing the ciphers of its {@link CipherCache}.
+	 *
+	 * @param message       The string to encrypt
+	 * @param cryptoStorage The keys of the receiver
+	 * @return a formatted crypto packet
+	 */
+	public static ConfFileFieldV2 generateCryptoPacket(String message, CryptoStorage cryptoStorage)
+	{
+		final ConfFileFieldV2 field = new ConfFileFieldV2("CryptoCommunication", true);
+		try
+		{
+			field.put("iv", Base64.getEncoder().encodeToString(RsaUtilities.encryptStringWithRsa(
+					cryptoStorage.serverPublicKey, cryptoStorage.ivParameterSpec.getIV(), cryptoStorage.cipherCache)))
+					.put("content", AesUtilities.encryptAsString(message, cryptoStorage.secretKey,
+							cryptoStorage.ivParameterSpec, cryptoStorage.cipherCache));
+			return field;
+		}
+		catch (NoSuchPaddingException | InvalidKeyException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidAlgorithmParameterException e)
+		{
+			System.err.println("[CryptoCommunication-Generation Warning] Couldn't package the data, returning null!");
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Generates a crypto packet that encrypts and authenticates the input string with {@value
+	 * AesUtilities#AES_GCM_ALGORITHM} using only the session key of the given {@link AeadSession}. Unlike {@link
+	 * #generateCryptoPacket(String, PublicKey, SecretKey, IvParameterSpec)} no RSA operation is needed on either side,
+	 * so only send these to peers that agreed on {@value AEAD_GCM} during the handshake.
+	 *
+	 * @param message The string to encrypt
+	 * @param session The session both sides agreed on
+	 * @param sender  Your name, authenticated along with the message
+	 * @return a formatted crypto packet or null if the encryption failed.
+	 *
+	 * @see #decryptAeadPacket(ConfFileFieldV2, AeadSession, String)
+	 */
+	public static ConfFileFieldV2 generateAeadPacket(String message, AeadSession session, String sender)
+	{
+		final ConfFileFieldV2 field = new ConfFileFieldV2("CryptoCommunication", true);
+		try
+		{
+			final byte[] nonce = session.nextNonce();
+			field.put("version", AEAD_PACKET_VERSION).put("nonce", Base64.getEncoder().encodeToString(nonce))
+					.put("content", Base64.getEncoder().encodeToString(AesUtilities.encryptGcm(
+							message.getBytes(StandardCharsets.UTF_8), session.secretKey, nonce,
+							sender.getBytes(StandardCharsets.UTF_8), session.cipherCache)));
+			return field;
+		}
+		catch (NoSuchPaddingException | InvalidKeyException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidAlgorithmParameterException e)
+		{
+			System.err.println("[CryptoCommunication-Generation Warning] Couldn't package the data, returning null!");
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
 	/**
 	 * Generates a new handshake that is sent by the client to the server to let the server know your public key.
 	 *
@@ -73,6 +174,245 @@ public class CryptoCommunication
 
 	}
 
+	/**
+	 * Generates a new handshake like {@link #generateCryptoHandshakeStage1(PublicKey)} that additionally offers an
+	 * X25519 key. Peers that understand {@value X25519_HANDSHAKE_VERSION} answer with {@link
+	 * #generateCryptoHandshakeStage2X25519(PublicKey)}, older ones ignore it and answer with RSA.
+	 *
+	 * @param publicKey       The RSA public key for peers that only understand RSA
+	 * @param x25519PublicKey The public key of your X25519 key pair
+	 * @return a formatted handshake packet
+	 *
+	 * @see X25519Utilities#generateKeyPair()
+	 */
+	public static ConfFileFieldV2 generateCryptoHandshakeStage1(PublicKey publicKey, PublicKey x25519PublicKey)
+	{
+		return generateCryptoHandshakeStage1(publicKey).put("x25519",
+				Base64.getEncoder().encodeToString(x25519PublicKey.getEncoded())).put("version",
+				X25519_HANDSHAKE_VERSION);
+	}
+
+	/**
+	 * Generates a new handshake like {@link #generateCryptoHandshakeStage1(PublicKey, PublicKey)} that only offers
+	 * X25519, so no RSA key pair is needed. Older peers do not answer it; offer RSA as well if no answer arrives.
+	 *
+	 * @param x25519PublicKey The public key of your X25519 key pair
+	 * @return a formatted handshake packet
+	 */
+	public static ConfFileFieldV2 generateCryptoHandshakeStage1X25519(PublicKey x25519PublicKey)
+	{
+		final ConfFileFieldV2 field = new ConfFileFieldV2("CryptoHandshake", true);
+		field.put("x25519", Base64.getEncoder().encodeToString(x25519PublicKey.getEncoded())).put("version",
+				X25519_HANDSHAKE_VERSION).put("stage", "1");
+		return field;
+	}
+
+	/**
+	 * Generates the answer to a handshake that could not be completed. The other side drops the session it offered.
+	 *
+	 * @return a formatted handshake packet
+	 */
+	public static ConfFileFieldV2 generateCryptoHandshakeFailure()
+	{
+		return new ConfFileFieldV2("CryptoHandshake", true).put("stage", FAILED_STAGE);
+	}
+
+	/**
+	 * @param handshake A received handshake of any stage
+	 * @return true if the handshake uses X25519 instead of RSA.
+	 */
+	public static boolean isX25519Handshake(ConfFileFieldV2 handshake)
+	{
+		return X25519_HANDSHAKE_VERSION.equals(handshake.getValue("version")) && handshake.getValue("x25519") != null;
+	}
+
+	/**
+	 * @param handshake A received stage 1 or 2 handshake for which {@link #isX25519Handshake(ConfFileFieldV2)} holds
+	 * @return the X25519 public key of the other side.
+	 */
+	public static PublicKey extractX25519PublicKey(ConfFileFieldV2 handshake) throws InvalidKeySpecException
+	{
+		return X25519Utilities.readPublicKeyFromBytes(Base64.getDecoder().decode(handshake.getValue("x25519")));
+	}
+
+	/**
+	 * Generates the answer to an X25519 stage 1 handshake. Nothing secret is sent, both sides derive the session key
+	 * with {@link #deriveX25519Session(KeyPair, PublicKey, boolean)}.
+	 *
+	 * @param x25519PublicKey The public key of your X25519 key pair
+	 * @return a formatted handshake packet
+	 */
+	public static ConfFileFieldV2 generateCryptoHandshakeStage2X25519(PublicKey x25519PublicKey)
+	{
+		final ConfFileFieldV2 field = new ConfFileFieldV2("CryptoHandshake", true);
+		field.put("x25519", Base64.getEncoder().encodeToString(x25519PublicKey.getEncoded())).put("version",
+				X25519_HANDSHAKE_VERSION).put("stage", "2");
+		return field;
+	}
+
+	/**
+	 * Derives the session key and initialization vector from the X25519 shared secret with HKDF-SHA256, bound to the
+	 * public keys of both sides.
+	 *
+	 * @param ownKeyPair    Your X25519 key pair
+	 * @param peerPublicKey The X25519 public key of the other side
+	 * @param initiator     true if you sent stage 1 of the handshake
+	 * @return the session in form of a {@link CryptoStorage} without RSA keys or null if the agreement failed.
+	 */
+	public static CryptoStorage deriveX25519Session(KeyPair ownKeyPair, PublicKey peerPublicKey, boolean initiator)
+	{
+		try
+		{
+			final byte[] initiatorKey = (initiator ? ownKeyPair.getPublic() : peerPublicKey).getEncoded();
+			final byte[] responderKey = (initiator ? peerPublicKey : ownKeyPair.getPublic()).getEncoded();
+			final byte[] info = ByteBuffer.allocate(X25519_SESSION_INFO.length + initiatorKey.length
+					+ responderKey.length).put(X25519_SESSION_INFO).put(initiatorKey).put(responderKey).array();
+
+			final byte[] keyMaterial = X25519Utilities.hkdf(null, X25519Utilities.agree(ownKeyPair.getPrivate(),
+					peerPublicKey), info, 48);
+			return new CryptoStorage(new SecretKeySpec(keyMaterial, 0, 32, "AES"), null,
+					new IvParameterSpec(keyMaterial, 32, 16));
+		}
+		catch (NoSuchAlgorithmException | InvalidKeyException e)
+		{
+			System.err.println("[CryptoHandshake-Agreement Warning] Couldn't agree on a session key, returning null!");
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Generates a new handshake like {@link #generateCryptoHandshakeStage3(PublicKey, SecretKey, IvParameterSpec)}
+	 * for X25519 sessions; it proves that both sides derived the same session key.
+	 *
+	 * @param cryptoStorage The session derived by {@link #deriveX25519Session(KeyPair, PublicKey, boolean)}
+	 * @return a formatted handshake packet or null if the encryption failed.
+	 */
+	public static ConfFileFieldV2 generateCryptoHandshakeStage3X25519(CryptoStorage cryptoStorage)
+	{
+		final ConfFileFieldV2 field = new ConfFileFieldV2("CryptoHandshake", true);
+		try
+		{
+			field.put("content", Base64.getEncoder().encodeToString(AesUtilities.encryptGcm(
+					CONNECTION_ESTABLISHED.getBytes(StandardCharsets.UTF_8), cryptoStorage.secretKey,
+					X25519_CONFIRMATION_NONCE, X25519_SESSION_INFO, cryptoStorage.cipherCache)))
+					.put("version", X25519_HANDSHAKE_VERSION).put("stage", "3");
+			return field;
+		}
+		catch (NoSuchPaddingException | InvalidKeyException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidAlgorithmParameterException e)
+		{
+			System.err.println("[CryptoHandshake-Generation Warning] Couldn't package the data, returning null!");
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Received by the server and checks, if the client derived the same session key.
+	 *
+	 * @param cryptoCommunication The received stage 3 packet
+	 * @param cryptoStorage       The session derived by {@link #deriveX25519Session(KeyPair, PublicKey, boolean)}
+	 * @return true if everything worked correctly, false if otherwise.
+	 */
+	public static boolean extractHandshakeDataStage3X25519(ConfFileFieldV2 cryptoCommunication,
+														   CryptoStorage cryptoStorage)
+	{
+		try
+		{
+			final byte[] plainText = AesUtilities.decryptGcm(Base64.getDecoder().decode(cryptoCommunication
+					.getValue("content").getBytes(StandardCharsets.UTF_8)), cryptoStorage.secretKey,
+					X25519_CONFIRMATION_NONCE, X25519_SESSION_INFO, cryptoStorage.cipherCache);
+			return CONNECTION_ESTABLISHED.equals(new String(plainText, StandardCharsets.UTF_8));
+		}
+		catch (NullPointerException | IllegalArgumentException e)
+		{
+			System.err.println("[CryptoHandshake-Validation Warning] Given ConfFileField was not a CryptoHandshake, " +
+					"returning false!");
+			return false;
+		}
+		catch (InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+
+	}
+
+	/**
+	 * Generates a handshake that resumes an earlier session with the ticket the server issued for it, in a single
+	 * round trip and without any RSA or X25519 operation. It proves that you know the session key by encrypting the
+	 * challenge the server sent for this connection with it, bound to the ticket, so the handshake cannot be replayed
+	 * on another connection.
+	 *
+	 * @param ticket        The ticket the server issued
+	 * @param challenge     The challenge the server sent when the connection was accepted
+	 * @param cryptoStorage The session the ticket was issued for
+	 * @return a formatted handshake packet or null if the encryption failed.
+	 */
+	public static ConfFileFieldV2 generateCryptoHandshakeResume(String ticket, byte[] challenge,
+																CryptoStorage cryptoStorage)
+	{
+		final ConfFileFieldV2 field = new ConfFileFieldV2("CryptoHandshake", true);
+		try
+		{
+			final byte[] nonce = new byte[AesUtilities.GCM_NONCE_LENGTH];
+			new SecureRandom().nextBytes(nonce);
+			field.put("ticket", ticket).put("nonce", Base64.getEncoder().encodeToString(nonce)).put("content",
+					Base64.getEncoder().encodeToString(AesUtilities.encryptGcm(challenge, cryptoStorage.secretKey,
+							nonce, resumeInfo(ticket), cryptoStorage.cipherCache))).put("stage", RESUME_STAGE);
+			return field;
+		}
+		catch (NoSuchPaddingException | InvalidKeyException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidAlgorithmParameterException e)
+		{
+			System.err.println("[CryptoHandshake-Generation Warning] Couldn't package the data, returning null!");
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Received by the server and checks, if the client knows the key of the session its ticket was issued for and
+	 * answered the challenge of this connection.
+	 *
+	 * @param handshake     The received resume packet
+	 * @param challenge     The challenge the server sent on this connection
+	 * @param cryptoStorage The session read from the ticket
+	 * @return true if the client may resume the session, false if otherwise.
+	 */
+	public static boolean extractHandshakeDataResume(ConfFileFieldV2 handshake, byte[] challenge,
+													 CryptoStorage cryptoStorage)
+	{
+		try
+		{
+			final byte[] plainText = AesUtilities.decryptGcm(Base64.getDecoder().decode(handshake.getValue("content")
+							.getBytes(StandardCharsets.UTF_8)), cryptoStorage.secretKey,
+					Base64.getDecoder().decode(handshake.getValue("nonce").getBytes(StandardCharsets.UTF_8)),
+					resumeInfo(handshake.getValue("ticket")), cryptoStorage.cipherCache);
+			return MessageDigest.isEqual(plainText, challenge);
+		}
+		catch (NullPointerException | IllegalArgumentException e)
+		{
+			System.err.println("[CryptoHandshake-Validation Warning] Given ConfFileField was not a resume " +
+					"CryptoHandshake, returning false!");
+			return false;
+		}
+		catch (InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+
+	}
+
+	private static byte[] resumeInfo(String ticket)
+	{
+		final byte[] ticketBytes = ticket.getBytes(StandardCharsets.UTF_8);
+		return ByteBuffer.allocate(RESUME_INFO.length + ticketBytes.length).put(RESUME_INFO).put(ticketBytes).array();
+	}
+
 	/**
 	 * Generates a new handshake that tells the client the servers {@link PublicKey}, as well as the {@link SecretKey}
 	 * (AES-Key) and the {@link IvParameterSpec} that will be used.
@@ -252,11 +592,12 @@ public class CryptoCommunication
 		{
 			byte[] receivedIvBytes =
 					Base64.getDecoder().decode(cryptoCommunication.getValue("iv").getBytes(StandardCharsets.UTF_8));
-			receivedIvBytes = RsaUtilities.decryptBytesWithRsaToByteArray(privateKey, receivedIvBytes);
+			receivedIvBytes = RsaUtilities.decryptBytesWithRsaToByteArray(privateKey, receivedIvBytes,
+					cryptoStorage.cipherCache);
 			String receivedMessage = cryptoCommunication.getValue("content");
 
 			return AesUtilities.decrypt(receivedMessage, cryptoStorage.secretKey,
-					new IvParameterSpec(receivedIvBytes));
+					new IvParameterSpec(receivedIvBytes), cryptoStorage.cipherCache);
 		}
 		catch (NullPointerException e)
 		{
@@ -273,6 +614,142 @@ public class CryptoCommunication
 
 	}
 
+	/**
+	 * @param cryptoCommunication The received {@link ConfFileFieldV2}
+	 * @return true if the packet was created by {@link #generateAeadPacket(String, AeadSession, String)}.
+	 */
+	public static boolean isAeadPacket(ConfFileFieldV2 cryptoCommunication)
+	{
+		return AEAD_PACKET_VERSION.equals(cryptoCommunication.getValue("version"));
+	}
+
+	/**
+	 * Decrypts and verifies the contents of a packet created by {@link #generateAeadPacket(String, AeadSession,
+	 * String)}. Packets that were tampered with, sent by the wrong side or received before (replayed) are rejected.
+	 *
+	 * @param cryptoCommunication The received {@link ConfFileFieldV2}
+	 * @param session             The session both sides agreed on
+	 * @param sender              The name of the sender
+	 * @return the actual data sent in form of a string or null if the packet was rejected.
+	 */
+	public static String decryptAeadPacket(ConfFileFieldV2 cryptoCommunication, AeadSession session, String sender)
+	{
+		try
+		{
+			final byte[] nonce = Base64.getDecoder().decode(cryptoCommunication.getValue("nonce")
+					.getBytes(StandardCharsets.UTF_8));
+			if (!session.isFresh(nonce))
+			{
+				System.err.println("[CryptoCommunication-Decryption Warning] Replayed or misdirected packet, " +
+						"returning null!");
+				return null;
+			}
+
+			final byte[] plainText = AesUtilities.decryptGcm(Base64.getDecoder().decode(cryptoCommunication
+					.getValue("content").getBytes(StandardCharsets.UTF_8)), session.secretKey, nonce,
+					sender.getBytes(StandardCharsets.UTF_8), session.cipherCache);
+			// Only authentic packets may move the window, otherwise a forged nonce could block the real ones
+			if (!session.accept(nonce))
+				return null;
+			return new String(plainText, StandardCharsets.UTF_8);
+		}
+		catch (NullPointerException | IllegalArgumentException e)
+		{
+			System.err.println("[CryptoCommunication-Decryption Warning] Given ConfFileField was not a CryptoPacket, " +
+					"returning null!");
+			e.printStackTrace();
+			return null;
+		}
+		catch (InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * The state of a session using {@link #generateAeadPacket(String, AeadSession, String)} packets: the shared
+	 * session key and the counters the nonces are built from.<br> Both sides encrypt with the same key, so a nonce
+	 * starts with the side that sent it (1 for the side that started the handshake, 2 for the other one), followed by
+	 * a counter of the packets that side has sent. No nonce is ever used twice. The receiver accepts every nonce of
+	 * the other side only once; since packets of one sender can overtake each other on the way through the server, e.g.
+	 * when one of them is resent, it keeps a window of the last {@link #REPLAY_WINDOW} counters instead of only the
+	 * largest one.
+	 */
+	public static class AeadSession
+	{
+		private final SecretKey secretKey;
+		private final CipherCache cipherCache;
+		private final int sendingSide;
+		private final int receivingSide;
+		/**
+		 * So many counters below the largest one received are still accepted if they were not received before.
+		 */
+		public static final int REPLAY_WINDOW = 64;
+
+		private final AtomicLong sent;
+		/**
+		 * The largest counter received so far.
+		 */
+		private long received;
+		/**
+		 * Bit i is set if the counter <code>received - i</code> was received.
+		 */
+		private long window;
+
+		/**
+		 * @param secretKey   The session key exchanged in stage 2 of the handshake
+		 * @param initiator   true if you sent stage 1 of the handshake
+		 * @param cipherCache The cache of the {@link CryptoStorage} this session belongs to
+		 */
+		public AeadSession(SecretKey secretKey, boolean initiator, CipherCache cipherCache)
+		{
+			this.secretKey = secretKey;
+			this.cipherCache = cipherCache;
+			this.sendingSide = initiator ? 1 : 2;
+			this.receivingSide = initiator ? 2 : 1;
+			this.sent = new AtomicLong();
+			this.received = 0;
+		}
+
+		private byte[] nextNonce()
+		{
+			return ByteBuffer.allocate(AesUtilities.GCM_NONCE_LENGTH).putInt(sendingSide)
+					.putLong(sent.incrementAndGet()).array();
+		}
+
+		private synchronized boolean isFresh(byte[] nonce)
+		{
+			if (nonce.length != AesUtilities.GCM_NONCE_LENGTH)
+				return false;
+			final ByteBuffer buffer = ByteBuffer.wrap(nonce);
+			if (buffer.getInt() != receivingSide)
+				return false;
+			final long counter = buffer.getLong();
+			if (counter > received)
+				return true;
+			final long age = received - counter;
+			return counter > 0 && age < REPLAY_WINDOW && (window & (1L << age)) == 0;
+		}
+
+		private synchronized boolean accept(byte[] nonce)
+		{
+			if (!isFresh(nonce))
+				return false;
+			final long counter = ByteBuffer.wrap(nonce, 4, 8).getLong();
+			if (counter > received)
+			{
+				final long shift = counter - received;
+				window = shift < REPLAY_WINDOW ? (window << shift) | 1 : 1;
+				received = counter;
+			}
+			else
+				window |= 1L << (received - counter);
+			return true;
+		}
+	}
+
 	/**
 	 * Stores the keys for later usage.
 	 */
@@ -282,6 +759,19 @@ public class CryptoCommunication
 		public PublicKey serverPublicKey;
 		public PrivateKey serverPrivateKey;
 		public IvParameterSpec ivParameterSpec;
+		/**
+		 * The session for {@link #generateAeadPacket(String, AeadSession, String)} packets, null if the other side
+		 * only understands {@link #generateCryptoPacket(String, PublicKey, SecretKey, IvParameterSpec)} packets.
+		 */
+		public AeadSession aeadSession;
+		/**
+		 * The ciphers of this session, so hot sessions only reinitialize the IV or nonce per message.
+		 */
+		public final CipherCache cipherCache;
+		/**
+		 * Your X25519 key pair while waiting for the answer to an X25519 stage 1 handshake, otherwise null.
+		 */
+		public KeyPair x25519KeyPair;
 
 		public CryptoStorage(SecretKey secretKey, PublicKey serverPublicKey, IvParameterSpec ivParameterSpec)
 		{
@@ -289,6 +779,7 @@ public class CryptoCommunication
 			this.serverPublicKey = serverPublicKey;
 			this.serverPrivateKey = null;
 			this.ivParameterSpec = ivParameterSpec;
+			this.cipherCache = new CipherCache();
 		}
 
 		public CryptoStorage(SecretKey clientSecretKey, PublicKey clientPublicKey, PrivateKey clientPrivateKey,
@@ -298,6 +789,16 @@ public class CryptoCommunication
 			this.serverPublicKey = clientPublicKey;
 			this.serverPrivateKey = clientPrivateKey;
 			this.ivParameterSpec = clientIvParameterSpec;
+			this.cipherCache = new CipherCache();
+		}
+
+		/**
+		 * Drops the cached ciphers of this session and with them the expanded keys, call once the session has ended.
+		 */
+		@Override
+		public void destroy()
+		{
+			cipherCache.clear();
 		}
 
 	}
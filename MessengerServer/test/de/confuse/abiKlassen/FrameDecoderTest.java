@@ -0,0 +1,108 @@
+package de.confuse.abiKlassen;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class FrameDecoderTest
+{
+	@Test
+	void frameArrivingByteByByteIsAssembled() throws IOException
+	{
+		final byte[] data = Frame.message("hallo welt").getData();
+		final FrameDecoder decoder = new FrameDecoder(false);
+
+		for (int i = 0; i < data.length - 1; i++)
+			assertNull(decoder.next(ByteBuffer.wrap(data, i, 1)));
+		final Frame frame = decoder.next(ByteBuffer.wrap(data, data.length - 1, 1));
+
+		assertNotNull(frame);
+		assertEquals(Frame.TYPE_MESSAGE, frame.getType());
+		assertEquals("hallo welt", frame.getText());
+	}
+
+	@Test
+	void severalFramesInOneBuffer() throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(Frame.message("eins").getData()).put(Frame.message("zwei").getData());
+		buffer.put(Frame.message("drei").getData(), 0, 3);
+		buffer.flip();
+		final FrameDecoder decoder = new FrameDecoder(false);
+
+		assertEquals("eins", decoder.next(buffer).getText());
+		assertEquals("zwei", decoder.next(buffer).getText());
+		assertNull(decoder.next(buffer));
+		assertEquals(0, buffer.remaining());
+	}
+
+	@Test
+	void lineFeedAfterUpgradeRequestIsSkipped() throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(32);
+		buffer.put((byte) '\n').put(Frame.message("eins").getData());
+		buffer.flip();
+
+		assertEquals("eins", new FrameDecoder(true).next(buffer).getText());
+	}
+
+	@Test
+	void largeFrameGrowsBeyondInitialCapacity() throws IOException
+	{
+		final byte[] payload = new byte[3 * FrameDecoder.INITIAL_CAPACITY + 17];
+		new Random(7).nextBytes(payload);
+		final byte[] data = Frame.of(Frame.TYPE_MESSAGE, (byte) 0, payload).getData();
+		final FrameDecoder decoder = new FrameDecoder(false);
+
+		Frame frame = null;
+		for (int offset = 0; offset < data.length; offset += 7000)
+		{
+			assertNull(frame);
+			frame = decoder.next(ByteBuffer.wrap(data, offset, Math.min(7000, data.length - offset)));
+		}
+
+		assertNotNull(frame);
+		assertArrayEquals(data, frame.getData());
+	}
+
+	@Test
+	void oversizedLengthIsRejected()
+	{
+		final ByteBuffer header = ByteBuffer.allocate(Frame.HEADER_SIZE).putInt(Frame.MAX_PAYLOAD + 1)
+				.put(Frame.TYPE_MESSAGE).put((byte) 0).flip();
+
+		assertThrows(IOException.class, () -> new FrameDecoder(false).next(header));
+	}
+
+	@Test
+	void negativeLengthIsRejected()
+	{
+		final ByteBuffer header = ByteBuffer.allocate(Frame.HEADER_SIZE).putInt(-1).put(Frame.TYPE_MESSAGE)
+				.put((byte) 0).flip();
+
+		assertThrows(IOException.class, () -> new FrameDecoder(false).next(header));
+	}
+
+	@Test
+	void headerSplitAcrossReadsIsAssembled() throws IOException
+	{
+		final byte[] data = Frame.message("geteilt").getData();
+		final FrameDecoder decoder = new FrameDecoder(false);
+
+		assertNull(decoder.next(ByteBuffer.wrap(data, 0, 3)));
+		assertEquals("geteilt", decoder.next(ByteBuffer.wrap(data, 3, data.length - 3)).getText());
+	}
+
+}
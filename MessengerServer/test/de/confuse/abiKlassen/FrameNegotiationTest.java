@@ -0,0 +1,144 @@
+package de.confuse.abiKlassen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class FrameNegotiationTest
+{
+	private static final int TIMEOUT_MS = 5000;
+
+	@ParameterizedTest
+	@EnumSource(ServerOptions.Backend.class)
+	void acceptedUpgradeSwitchesToFrames(ServerOptions.Backend pBackend) throws IOException
+	{
+		final int port = freePort();
+		final Server server = echoServer(port, new ServerOptions().backend(pBackend).frames(true));
+		try (Socket socket = connect(port))
+		{
+			final InputStream in = socket.getInputStream();
+			send(socket, encode(Frame.UPGRADE_REQUEST));
+			assertEquals(Frame.UPGRADE_ACCEPT, readLine(in));
+
+			send(socket, Frame.message("hallo").getData());
+			assertEquals("echo hallo", readFrame(in).getText());
+		}
+		finally
+		{
+			server.close();
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(ServerOptions.Backend.class)
+	void refusedUpgradeIsAnsweredAndKeepsLines(ServerOptions.Backend pBackend) throws IOException
+	{
+		final int port = freePort();
+		final Server server = echoServer(port, new ServerOptions().backend(pBackend).frames(false));
+		try (Socket socket = connect(port))
+		{
+			final InputStream in = socket.getInputStream();
+			// Die Ablehnung kommt sofort, der Client muss nicht auf eine Zeitueberschreitung warten
+			send(socket, encode(Frame.UPGRADE_REQUEST));
+			assertEquals(Frame.UPGRADE_REFUSE, readLine(in));
+
+			send(socket, encode("hallo"));
+			assertEquals("echo hallo", readLine(in));
+		}
+		finally
+		{
+			server.close();
+		}
+	}
+
+	private static Server echoServer(int pPort, ServerOptions pOptions)
+	{
+		return (new Server(pPort, pOptions)
+		{
+			@Override
+			public void processNewConnection(String pClientIP, int pClientPort)
+			{
+			}
+
+			@Override
+			public void processMessage(String pClientIP, int pClientPort, String pMessage)
+			{
+				send(pClientIP, pClientPort, "echo " + pMessage);
+			}
+
+			@Override
+			public void processClosingConnection(String pClientIP, int pClientPort)
+			{
+			}
+		});
+	}
+
+	private static int freePort() throws IOException
+	{
+		try (ServerSocket probe = new ServerSocket(0))
+		{
+			return (probe.getLocalPort());
+		}
+	}
+
+	private static Socket connect(int pPort) throws IOException
+	{
+		final Socket socket = new Socket("127.0.0.1", pPort);
+		socket.setSoTimeout(TIMEOUT_MS);
+		return (socket);
+	}
+
+	private static byte[] encode(String pLine)
+	{
+		return ((pLine + "\n").getBytes(Charset.defaultCharset()));
+	}
+
+	private static void send(Socket pSocket, byte[] pData) throws IOException
+	{
+		final OutputStream out = pSocket.getOutputStream();
+		out.write(pData);
+		out.flush();
+	}
+
+	/**
+	 * Liest Byte fuer Byte, damit nichts von einem folgenden Rahmen verbraucht wird.
+	 */
+	private static String readLine(InputStream pIn) throws IOException
+	{
+		final StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = pIn.read()) != '\n')
+		{
+			if (b < 0)
+				throw new IOException("Connection closed");
+			if (b != '\r')
+				line.append((char) b);
+		}
+		return (line.toString());
+	}
+
+	private static Frame readFrame(InputStream pIn) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(pIn);
+		final byte[] header = new byte[Frame.HEADER_SIZE];
+		in.readFully(header);
+		final byte[] data = new byte[Frame.HEADER_SIZE + Frame.readPayloadLength(header)];
+		System.arraycopy(header, 0, data, 0, Frame.HEADER_SIZE);
+		in.readFully(data, Frame.HEADER_SIZE, data.length - Frame.HEADER_SIZE);
+		return (new Frame(data));
+	}
+
+}
@@ -0,0 +1,207 @@
+package de.confuse.abiKlassen;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Confuse
+ * @version 3
+ */
+class OutboundQueueTest
+{
+	@Test
+	void onlyFirstSenderStartsDrain()
+	{
+		final OutboundQueue queue = newQueue(new ServerOptions());
+
+		assertEquals(OutboundQueue.Result.START_DRAIN, queue.enqueue(bytes("a")));
+		assertEquals(OutboundQueue.Result.QUEUED, queue.enqueue(bytes("b")));
+		assertEquals(OutboundQueue.Result.QUEUED, queue.enqueue(bytes("c")));
+	}
+
+	@Test
+	void fillCoalescesWaitingMessagesInOrder()
+	{
+		final OutboundQueue queue = newQueue(new ServerOptions());
+		queue.enqueue(bytes("eins\n"));
+		queue.enqueue(bytes("zwei\n"));
+		queue.enqueue(bytes("drei\n"));
+
+		final ByteBuffer buffer = ByteBuffer.allocate(OutboundQueue.BATCH_SIZE);
+		assertTrue(queue.fill(buffer));
+		assertEquals("eins\nzwei\ndrei\n", text(buffer));
+
+		buffer.clear();
+		assertFalse(queue.fill(buffer));
+		assertFalse(queue.finishDrain());
+		assertTrue(queue.isFlushed());
+	}
+
+	@Test
+	void messageLargerThanBufferSpansSeveralFills()
+	{
+		final OutboundQueue queue = newQueue(new ServerOptions());
+		queue.enqueue(bytes("0123456789"));
+		queue.enqueue(bytes("ab"));
+
+		final ByteBuffer buffer = ByteBuffer.allocate(4);
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		while (queue.fill(buffer))
+		{
+			written.write(buffer.array(), 0, buffer.position());
+			buffer.clear();
+		}
+		assertEquals("0123456789ab", written.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void finishDrainContinuesWithMessagesArrivedMeanwhile()
+	{
+		final OutboundQueue queue = newQueue(new ServerOptions());
+		assertEquals(OutboundQueue.Result.START_DRAIN, queue.enqueue(bytes("a")));
+		final ByteBuffer buffer = ByteBuffer.allocate(OutboundQueue.BATCH_SIZE);
+		queue.fill(buffer);
+
+		// Waehrend geschrieben wird, stoesst niemand einen zweiten Schreibvorgang an
+		assertEquals(OutboundQueue.Result.QUEUED, queue.enqueue(bytes("b")));
+		assertTrue(queue.finishDrain());
+
+		buffer.clear();
+		queue.fill(buffer);
+		assertEquals("b", text(buffer));
+		assertFalse(queue.finishDrain());
+	}
+
+	@Test
+	void fullQueueDisconnects()
+	{
+		final SlowConsumerStats stats = new SlowConsumerStats();
+		final OutboundQueue queue = newQueue(new ServerOptions().outboundLimit(10), stats, pResult ->
+		{
+		});
+
+		assertEquals(OutboundQueue.Result.START_DRAIN, queue.enqueue(bytes("123456")));
+		assertEquals(OutboundQueue.Result.DISCONNECT, queue.enqueue(bytes("789012")));
+		assertEquals(1, stats.getDisconnected());
+	}
+
+	@Test
+	void fullQueueDropsWithDropPolicy()
+	{
+		final SlowConsumerStats stats = new SlowConsumerStats();
+		final OutboundQueue queue = newQueue(new ServerOptions().outboundLimit(10)
+				.slowConsumerPolicy(ServerOptions.SlowConsumerPolicy.DROP), stats, pResult ->
+		{
+		});
+
+		queue.enqueue(bytes("123456"));
+		assertEquals(OutboundQueue.Result.QUEUED, queue.enqueue(bytes("789012")));
+		// Was noch passt, wird weiter angenommen
+		assertEquals(OutboundQueue.Result.QUEUED, queue.enqueue(bytes("ab")));
+		assertEquals(1, stats.getDropped());
+
+		final ByteBuffer buffer = ByteBuffer.allocate(OutboundQueue.BATCH_SIZE);
+		queue.fill(buffer);
+		assertEquals("123456ab", text(buffer));
+	}
+
+	@Test
+	void spilledMessagesArriveInOrder(@TempDir File pSpillDirectory) throws InterruptedException
+	{
+		final OutboundQueue queue = newQueue(new ServerOptions().outboundLimit(100)
+				.slowConsumerPolicy(ServerOptions.SlowConsumerPolicy.SPILL).spillDirectory(pSpillDirectory),
+				new SlowConsumerStats(), pResult ->
+				{
+				});
+
+		// Je 13 Bytes: 7 passen in den Speicher, 7 weitere in den Rueckstau, auch wenn noch nichts ausgelagert ist
+		final StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 14; i++)
+		{
+			final String message = String.format("nachricht %02d\n", i);
+			expected.append(message);
+			assertNotEquals(OutboundQueue.Result.DISCONNECT, queue.enqueue(bytes(message)));
+		}
+
+		// Zurueckgeholt wird im Hintergrund, daher wird geschrieben, bis alles da ist
+		final StringBuilder written = new StringBuilder();
+		final ByteBuffer buffer = ByteBuffer.allocate(OutboundQueue.BATCH_SIZE);
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (written.length() < expected.length() && System.nanoTime() < deadline)
+		{
+			buffer.clear();
+			if (queue.fill(buffer))
+				written.append(text(buffer));
+			else
+				Thread.sleep(5);
+			queue.finishDrain();
+		}
+		assertEquals(expected.toString(), written.toString());
+	}
+
+	@Test
+	void linesUntilFramesAreAccepted()
+	{
+		final OutboundQueue queue = newQueue(new ServerOptions());
+		queue.enqueue(new OutboundMessage("vorher"));
+		queue.acceptFrames();
+		queue.enqueue(new OutboundMessage("nachher"));
+
+		final ByteBuffer buffer = ByteBuffer.allocate(OutboundQueue.BATCH_SIZE);
+		queue.fill(buffer);
+		buffer.flip();
+		final byte[] expected = concat(Server.encodeLine("vorher"), Server.encodeLine(Frame.UPGRADE_ACCEPT),
+				Frame.of(Frame.TYPE_MESSAGE, (byte) 0, bytes("nachher")).getData());
+		final byte[] actual = new byte[buffer.remaining()];
+		buffer.get(actual);
+		assertArrayEquals(expected, actual);
+	}
+
+	private static OutboundQueue newQueue(ServerOptions pOptions)
+	{
+		return (newQueue(pOptions, new SlowConsumerStats(), pResult ->
+		{
+		}));
+	}
+
+	private static OutboundQueue newQueue(ServerOptions pOptions, SlowConsumerStats pStats,
+			Consumer<OutboundQueue.Result> pListener)
+	{
+		return (new OutboundQueue(pOptions, pStats, new ServerStats(), pListener));
+	}
+
+	private static byte[] bytes(String pText)
+	{
+		return (pText.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param pBuffer Ein Puffer im Schreibmodus, wie ihn {@link OutboundQueue#fill(ByteBuffer)} hinterlaesst
+	 */
+	private static String text(ByteBuffer pBuffer)
+	{
+		return (new String(pBuffer.array(), 0, pBuffer.position(), StandardCharsets.UTF_8));
+	}
+
+	private static byte[] concat(byte[]... pParts)
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : pParts)
+			out.writeBytes(part);
+		return (out.toByteArray());
+	}
+
+}
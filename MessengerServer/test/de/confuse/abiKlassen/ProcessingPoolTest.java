@@ -0,0 +1,131 @@
+package de.confuse.abiKlassen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class ProcessingPoolTest
+{
+	private ProcessingPool pool;
+
+	@AfterEach
+	void closePool()
+	{
+		if (pool != null)
+			pool.close();
+	}
+
+	@Test
+	void tasksOfOneLaneRunInOrderOneAtATime() throws InterruptedException
+	{
+		pool = new ProcessingPool(4, 16);
+		final ProcessingPool.Lane lane = pool.assign();
+		final List<Integer> order = new ArrayList<>();
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1000);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			final int number = i;
+			assertTrue(lane.put(() ->
+			{
+				if (running.incrementAndGet() > 1)
+					overlaps.incrementAndGet();
+				// Nur ein Thread zugleich, die Liste braucht daher keine Sperre
+				order.add(number);
+				running.decrementAndGet();
+				done.countDown();
+			}));
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(0, overlaps.get());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(i, order.get(i));
+	}
+
+	@Test
+	void blockedLaneDoesNotHoldUpOthers() throws InterruptedException
+	{
+		pool = new ProcessingPool(2, 16);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch other = new CountDownLatch(1);
+
+		pool.assign().put(() -> await(release));
+		pool.assign().put(other::countDown);
+
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+	@Test
+	void fullLaneRefusesOfferAndReportsSpace() throws InterruptedException
+	{
+		pool = new ProcessingPool(1, 1);
+		final ProcessingPool.Lane lane = pool.assign();
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch space = new CountDownLatch(1);
+
+		assertTrue(lane.offer(() -> await(release)));
+		assertFalse(lane.offer(() ->
+		{
+		}));
+		lane.whenSpace(space::countDown);
+
+		release.countDown();
+		assertTrue(space.await(5, TimeUnit.SECONDS));
+		assertTrue(lane.offer(() ->
+		{
+		}));
+	}
+
+	@Test
+	void closeReleasesWaitingReader() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		pool = new ProcessingPool(1, 1);
+		final ProcessingPool.Lane lane = pool.assign();
+		final CountDownLatch release = new CountDownLatch(1);
+		lane.put(() -> await(release));
+
+		// Die Lane ist voll, der zweite Leser wartet auf Platz
+		final CompletableFuture<Boolean> reader = CompletableFuture.supplyAsync(() -> lane.put(() ->
+		{
+		}));
+		Thread.sleep(50);
+		assertFalse(reader.isDone());
+
+		pool.close();
+		assertFalse(reader.get(5, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+	private static void await(CountDownLatch pLatch)
+	{
+		try
+		{
+			pLatch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
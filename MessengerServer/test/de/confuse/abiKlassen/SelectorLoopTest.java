@@ -0,0 +1,135 @@
+package de.confuse.abiKlassen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class SelectorLoopTest
+{
+	private static final int TIMEOUT_MS = 5000;
+
+	private Server server;
+	private int port;
+
+	@BeforeEach
+	void startServer() throws IOException
+	{
+		try (ServerSocket probe = new ServerSocket(0))
+		{
+			port = probe.getLocalPort();
+		}
+
+		// Eine Schleife fuer alle Verbindungen, verarbeitet wird in ihrem Thread
+		server = new Server(port, new ServerOptions().backend(ServerOptions.Backend.SELECTOR).selectorThreads(1)
+				.processingThreads(0))
+		{
+			@Override
+			public void processNewConnection(String pClientIP, int pClientPort)
+			{
+			}
+
+			@Override
+			public void processMessage(String pClientIP, int pClientPort, String pMessage)
+			{
+				if (pMessage.equals("boom"))
+					throw new IllegalStateException("boom");
+				send(pClientIP, pClientPort, "echo " + pMessage);
+			}
+
+			@Override
+			public void processClosingConnection(String pClientIP, int pClientPort)
+			{
+			}
+		};
+	}
+
+	@AfterEach
+	void stopServer()
+	{
+		server.close();
+	}
+
+	@Test
+	void failingConnectionIsClosedAndLoopKeepsRunning() throws IOException
+	{
+		try (Socket failing = connect(); Socket healthy = connect())
+		{
+			final BufferedReader healthyIn = reader(healthy);
+			send(healthy, "vorher");
+			assertEquals("echo vorher", healthyIn.readLine());
+
+			send(failing, "boom");
+			assertClosed(reader(failing));
+
+			send(healthy, "nachher");
+			assertEquals("echo nachher", healthyIn.readLine());
+		}
+	}
+
+	@Test
+	void newConnectionsAreServedAfterFailure() throws IOException
+	{
+		try (Socket failing = connect())
+		{
+			send(failing, "boom");
+			assertClosed(reader(failing));
+		}
+
+		try (Socket later = connect())
+		{
+			send(later, "hallo");
+			assertEquals("echo hallo", reader(later).readLine());
+		}
+	}
+
+	private Socket connect() throws IOException
+	{
+		final Socket socket = new Socket("127.0.0.1", port);
+		socket.setSoTimeout(TIMEOUT_MS);
+		return (socket);
+	}
+
+	private static BufferedReader reader(Socket pSocket) throws IOException
+	{
+		return (new BufferedReader(new InputStreamReader(pSocket.getInputStream(), StandardCharsets.UTF_8)));
+	}
+
+	private static void send(Socket pSocket, String pLine) throws IOException
+	{
+		final OutputStream out = pSocket.getOutputStream();
+		out.write((pLine + "\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	/**
+	 * Die Verbindung muss vom Server getrennt werden, bevor der Lese-Timeout ablaeuft.
+	 */
+	private static void assertClosed(BufferedReader pIn) throws IOException
+	{
+		try
+		{
+			assertNull(pIn.readLine());
+		}
+		catch (SocketException e)
+		{
+			// Zuruecksetzen statt Schliessen zaehlt ebenfalls als getrennt
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package de.confuse.abiKlassen;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class TimingWheelTest
+{
+	private static final long TICK_MS = 10;
+
+	private TimingWheel wheel;
+
+	@BeforeEach
+	void startWheel()
+	{
+		// 8 Faecher, eine Umdrehung dauert also 80 ms
+		wheel = new TimingWheel(TICK_MS, 8, "Test-Wheel");
+	}
+
+	@AfterEach
+	void stopWheel()
+	{
+		wheel.stop();
+	}
+
+	@Test
+	void runsNotBeforeDeadline() throws InterruptedException
+	{
+		assertDeadline(50);
+	}
+
+	@Test
+	void runsAfterSeveralRounds() throws InterruptedException
+	{
+		assertDeadline(300);
+	}
+
+	@Test
+	void cancelledTimeoutDoesNotRun() throws InterruptedException
+	{
+		final AtomicBoolean ran = new AtomicBoolean();
+		final CountDownLatch later = new CountDownLatch(1);
+		wheel.schedule(() -> ran.set(true), 30, TimeUnit.MILLISECONDS).cancel();
+		wheel.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+
+		assertTrue(later.await(5, TimeUnit.SECONDS));
+		assertFalse(ran.get());
+	}
+
+	@Test
+	void failingTaskDoesNotStopWheel() throws InterruptedException
+	{
+		final CountDownLatch later = new CountDownLatch(1);
+		wheel.schedule(() ->
+		{
+			throw new IllegalStateException("Testfehler");
+		}, 10, TimeUnit.MILLISECONDS);
+		wheel.schedule(later::countDown, 50, TimeUnit.MILLISECONDS);
+
+		assertTrue(later.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Der Auftrag darf hoechstens zwei Takte zu frueh laufen: {@link TimingWheel#now()} laeuft nur einmal pro Takt
+	 * weiter, und ausgefuehrt wird zu Beginn des Takts, in den die Faelligkeit faellt. Viel spaeter soll er nicht
+	 * laufen.
+	 */
+	private void assertDeadline(long pDelayMillis) throws InterruptedException
+	{
+		final AtomicLong ranAt = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(1);
+		final long start = System.nanoTime();
+		wheel.schedule(() ->
+		{
+			ranAt.set(System.nanoTime());
+			done.countDown();
+		}, pDelayMillis, TimeUnit.MILLISECONDS);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(ranAt.get() - start);
+		assertTrue(elapsed >= pDelayMillis - 2 * TICK_MS, "Zu frueh: " + elapsed + " ms");
+		assertTrue(elapsed <= pDelayMillis + 20 * TICK_MS, "Zu spaet: " + elapsed + " ms");
+	}
+
+}
@@ -0,0 +1,96 @@
+package de.confuse.abiKlassen;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class WireInputTest
+{
+	@Test
+	void linesThenFramesWithCarriageReturn() throws IOException
+	{
+		final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		wire.writeBytes(("erste\r\n" + Frame.UPGRADE_REQUEST + "\r\n").getBytes(Charset.defaultCharset()));
+		wire.writeBytes(Frame.message("eins").getData());
+		wire.writeBytes(Frame.message("zwei").getData());
+		final WireInput in = new WireInput(trickle(wire.toByteArray(), 3));
+
+		assertEquals("erste", in.readLine());
+		assertEquals(Frame.UPGRADE_REQUEST, in.readLine());
+		assertEquals("eins", in.readFrame().getText());
+		assertEquals("zwei", in.readFrame().getText());
+		assertNull(in.readFrame());
+	}
+
+	@Test
+	void largeFrameReadInSmallPieces() throws IOException
+	{
+		// Groesser als der anfaengliche Puffer von 64 KiB, er muss also wachsen
+		final byte[] payload = new byte[2 * 64 * 1024 + 5];
+		new Random(11).nextBytes(payload);
+		final byte[] data = Frame.of(Frame.TYPE_MESSAGE, (byte) 0, payload).getData();
+
+		assertArrayEquals(data, new WireInput(trickle(data, 1000)).readFrame().getData());
+	}
+
+	@Test
+	void oversizedLengthIsRejected()
+	{
+		final byte[] header = ByteBuffer.allocate(Frame.HEADER_SIZE).putInt(Frame.MAX_PAYLOAD + 1)
+				.put(Frame.TYPE_MESSAGE).put((byte) 0).array();
+
+		assertThrows(IOException.class, () -> new WireInput(new ByteArrayInputStream(header)).readFrame());
+	}
+
+	@Test
+	void endInsideFrameIsAnError()
+	{
+		final byte[] data = Frame.message("abgeschnitten").getData();
+		final byte[] truncated = Arrays.copyOf(data, data.length - 2);
+
+		assertThrows(EOFException.class, () -> new WireInput(trickle(truncated, 4)).readFrame());
+	}
+
+	@Test
+	void lastLineWithoutSeparator() throws IOException
+	{
+		final WireInput in = new WireInput(new ByteArrayInputStream("a\nb".getBytes(Charset.defaultCharset())));
+
+		assertEquals("a", in.readLine());
+		assertEquals("b", in.readLine());
+		assertNull(in.readLine());
+	}
+
+	/**
+	 * @return Ein Datenstrom, der pro Aufruf hoechstens <code>pChunk</code> Bytes liefert, wie ein Socket unter Last.
+	 */
+	private static InputStream trickle(byte[] pData, int pChunk)
+	{
+		return (new ByteArrayInputStream(pData)
+		{
+			@Override
+			public synchronized int read(byte[] pTarget, int pOffset, int pLength)
+			{
+				return (super.read(pTarget, pOffset, Math.min(pLength, pChunk)));
+			}
+		});
+	}
+
+}
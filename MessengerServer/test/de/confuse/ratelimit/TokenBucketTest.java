@@ -0,0 +1,137 @@
+package de.confuse.ratelimit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Die Zeit wird vorgegeben statt gemessen, damit die Tests nicht von der Last der Maschine abhängen.
+ *
+ * @author Confuse
+ * @version 1
+ */
+class TokenBucketTest
+{
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final long START = 1_000 * SECOND;
+
+	@Test
+	void startsFullWithBurst()
+	{
+		final TokenBucket bucket = new TokenBucket(new TokenBucket.Limit(10, 3), START);
+
+		assertTrue(bucket.tryAcquire(START));
+		assertTrue(bucket.tryAcquire(START));
+		assertTrue(bucket.tryAcquire(START));
+		assertFalse(bucket.tryAcquire(START));
+	}
+
+	@Test
+	void refillsAtRate()
+	{
+		final TokenBucket bucket = emptied(new TokenBucket.Limit(10, 3));
+
+		assertFalse(bucket.tryAcquire(START + SECOND / 10 - 1));
+		assertTrue(bucket.tryAcquire(START + SECOND / 10));
+		assertFalse(bucket.tryAcquire(START + SECOND / 10));
+	}
+
+	@Test
+	void refillIsCappedAtBurst()
+	{
+		final TokenBucket bucket = emptied(new TokenBucket.Limit(10, 3));
+		final long later = START + 60 * SECOND;
+
+		assertTrue(bucket.isFull(later));
+		int acquired = 0;
+		while (bucket.tryAcquire(later))
+			acquired++;
+		assertEquals(3, acquired);
+	}
+
+	@Test
+	void reportsTimeUntilNextToken()
+	{
+		final TokenBucket bucket = new TokenBucket(new TokenBucket.Limit(4, 1), START);
+
+		assertEquals(0, bucket.nanosUntilToken(START));
+		bucket.tryAcquire(START);
+		assertEquals(SECOND / 4, bucket.nanosUntilToken(START));
+		assertEquals(SECOND / 8, bucket.nanosUntilToken(START + SECOND / 8));
+	}
+
+	@Test
+	void concurrentAcquiresNeverExceedBurst() throws InterruptedException
+	{
+		final TokenBucket bucket = new TokenBucket(new TokenBucket.Limit(1, 100), START);
+		final AtomicInteger acquired = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++)
+		{
+			final Thread thread = new Thread(() ->
+			{
+				try
+				{
+					start.await();
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				for (int j = 0; j < 1000; j++)
+					if (bucket.tryAcquire(START))
+						acquired.incrementAndGet();
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(100, acquired.get());
+	}
+
+	@Test
+	void parsesRateAndBurst()
+	{
+		final TokenBucket.Limit limit = TokenBucket.Limit.parse("5:10");
+		assertEquals(5, limit.getPerSecond());
+		assertEquals(10, limit.getBurst());
+
+		// Ohne Fassungsvermögen fasst der Bucket eine Sekunde, aufgerundet
+		assertEquals(3, TokenBucket.Limit.parse("2.5").getBurst());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "0", "-1", "NaN", "Infinity", "abc", "5:x" })
+	void rejectsInvalidLimits(String pLimit)
+	{
+		assertThrows(IllegalArgumentException.class, () -> TokenBucket.Limit.parse(pLimit));
+	}
+
+	/**
+	 * @return Ein Bucket, dem zum Zeitpunkt {@link #START} alle Tokens genommen wurden.
+	 */
+	private static TokenBucket emptied(TokenBucket.Limit pLimit)
+	{
+		final TokenBucket bucket = new TokenBucket(pLimit, START);
+		while (bucket.tryAcquire(START))
+		{
+		}
+		return bucket;
+	}
+
+}
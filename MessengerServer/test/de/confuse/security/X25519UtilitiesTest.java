@@ -0,0 +1,57 @@
+package de.confuse.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class X25519UtilitiesTest
+{
+	@Test
+	void hkdfMatchesRfc5869TestCase1() throws Exception
+	{
+		final HexFormat hex = HexFormat.of();
+		final byte[] secret = hex.parseHex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+		final byte[] salt = hex.parseHex("000102030405060708090a0b0c");
+		final byte[] info = hex.parseHex("f0f1f2f3f4f5f6f7f8f9");
+
+		assertArrayEquals(hex.parseHex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf"
+				+ "34007208d5b887185865"), X25519Utilities.hkdf(salt, secret, info, 42));
+	}
+
+	@Test
+	void hkdfWithoutSaltMatchesRfc5869TestCase3() throws Exception
+	{
+		final HexFormat hex = HexFormat.of();
+		final byte[] secret = hex.parseHex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+
+		assertArrayEquals(hex.parseHex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d"
+				+ "9d201395faa4b61a96c8"), X25519Utilities.hkdf(null, secret, null, 42));
+	}
+
+	@Test
+	void bothSidesAgreeOnTheSameSecret() throws Exception
+	{
+		final KeyPair first = X25519Utilities.generateKeyPair();
+		final KeyPair second = X25519Utilities.generateKeyPair();
+
+		assertArrayEquals(X25519Utilities.agree(first.getPrivate(), second.getPublic()),
+				X25519Utilities.agree(second.getPrivate(), first.getPublic()));
+	}
+
+	@Test
+	void publicKeySurvivesEncoding() throws Exception
+	{
+		final KeyPair keyPair = X25519Utilities.generateKeyPair();
+
+		assertArrayEquals(keyPair.getPublic().getEncoded(),
+				X25519Utilities.readPublicKeyFromBytes(keyPair.getPublic().getEncoded()).getEncoded());
+	}
+
+}
@@ -0,0 +1,143 @@
+package de.confuse.session;
+
+import de.confuse.confFileV2.ConfFileFieldV2;
+import de.confuse.security.AesUtilities;
+import de.confuse.util.CryptoCommunication;
+import de.confuse.util.CryptoCommunication.CryptoStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Confuse
+ * @version 1
+ */
+class SessionTicketsTest
+{
+	private static final long LIFETIME = 60_000;
+
+	private SessionTickets tickets;
+	private CryptoStorage session;
+
+	@BeforeEach
+	void createTickets() throws NoSuchAlgorithmException
+	{
+		this.tickets = new SessionTickets(AesUtilities.generateSecretKey(256), LIFETIME);
+		this.session = newSession();
+	}
+
+	@Test
+	void ticketResumesSessionOnce()
+	{
+		final String ticket = tickets.issue("127.0.0.1:4000", session);
+		final byte[] challenge = tickets.newChallenge();
+		final ConfFileFieldV2 handshake = CryptoCommunication.generateCryptoHandshakeResume(ticket, challenge,
+				session);
+
+		final SessionTickets.Session resumed = tickets.redeem(handshake, challenge);
+		assertNotNull(resumed);
+		assertEquals("127.0.0.1:4000", resumed.getName());
+		assertArrayEquals(session.secretKey.getEncoded(), resumed.getStorage().secretKey.getEncoded());
+		assertArrayEquals(session.ivParameterSpec.getIV(), resumed.getStorage().ivParameterSpec.getIV());
+
+		// Auch auf einer neuen Verbindung mit neuer Herausforderung gilt das Ticket nur einmal
+		final byte[] next = tickets.newChallenge();
+		assertNull(tickets.redeem(CryptoCommunication.generateCryptoHandshakeResume(ticket, next, session), next));
+		assertEquals(1, tickets.getIssued());
+		assertEquals(1, tickets.getResumed());
+		assertEquals(1, tickets.getRejected());
+	}
+
+	@Test
+	void handshakeIsBoundToChallengeOfConnection()
+	{
+		final String ticket = tickets.issue("a", session);
+		final byte[] challenge = tickets.newChallenge();
+		final ConfFileFieldV2 handshake = CryptoCommunication.generateCryptoHandshakeResume(ticket, challenge,
+				session);
+
+		// Ein mitgeschnittener Handshake gilt auf keiner anderen Verbindung und verbraucht das Ticket nicht
+		assertNull(tickets.redeem(handshake, tickets.newChallenge()));
+		assertNull(tickets.redeem(handshake, null));
+		assertNotNull(tickets.redeem(handshake, challenge));
+	}
+
+	@Test
+	void clientMustKnowSessionKey() throws NoSuchAlgorithmException
+	{
+		final String ticket = tickets.issue("a", session);
+		final byte[] challenge = tickets.newChallenge();
+
+		assertNull(tickets.redeem(CryptoCommunication.generateCryptoHandshakeResume(ticket, challenge,
+				newSession()), challenge));
+	}
+
+	@Test
+	void expiredTicketIsRejected() throws NoSuchAlgorithmException
+	{
+		final SessionTickets expired = new SessionTickets(AesUtilities.generateSecretKey(256), -1);
+		final byte[] challenge = expired.newChallenge();
+
+		assertNull(expired.redeem(CryptoCommunication.generateCryptoHandshakeResume(expired.issue("a", session),
+				challenge, session), challenge));
+	}
+
+	@Test
+	void ticketOfOtherKeyIsRejected() throws NoSuchAlgorithmException
+	{
+		final SessionTickets other = new SessionTickets(AesUtilities.generateSecretKey(256), LIFETIME);
+		final byte[] challenge = tickets.newChallenge();
+
+		assertNull(tickets.redeem(CryptoCommunication.generateCryptoHandshakeResume(other.issue("a", session),
+				challenge, session), challenge));
+	}
+
+	@Test
+	void damagedTicketIsRejected()
+	{
+		final byte[] challenge = tickets.newChallenge();
+
+		assertNull(tickets.redeem(CryptoCommunication.generateCryptoHandshakeResume("kein Ticket", challenge,
+				session), challenge));
+		assertNull(tickets.redeem(CryptoCommunication.generateCryptoHandshakeResume("AAAA", challenge, session),
+				challenge));
+	}
+
+	@Test
+	void keyFileIsSharedAcrossInstances(@TempDir File pDirectory) throws IOException
+	{
+		final File keyFile = new File(pDirectory, "tickets.key");
+		final SessionTickets first = SessionTickets.fromFile(keyFile, LIFETIME);
+		final SessionTickets second = SessionTickets.fromFile(keyFile, LIFETIME);
+		final byte[] challenge = second.newChallenge();
+
+		assertNotNull(second.redeem(CryptoCommunication.generateCryptoHandshakeResume(first.issue("a", session),
+				challenge, session), challenge));
+	}
+
+	@Test
+	void invalidKeyFileIsReported(@TempDir File pDirectory) throws IOException
+	{
+		final File keyFile = new File(pDirectory, "tickets.key");
+		Files.write(keyFile.toPath(), new byte[7]);
+
+		assertThrows(IOException.class, () -> SessionTickets.fromFile(keyFile, LIFETIME));
+	}
+
+	private static CryptoStorage newSession() throws NoSuchAlgorithmException
+	{
+		return new CryptoStorage(AesUtilities.generateSecretKey(256), null, AesUtilities.generateIv());
+	}
+
+}
@@ -0,0 +1,126 @@
+package de.confuse.util;
+
+import de.confuse.confFileV2.ConfFileFieldV2;
+import de.confuse.security.CipherCache;
+import de.confuse.util.CryptoCommunication.AeadSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests the replay window of {@link AeadSession}: every packet is accepted once, also out of order, as long as it is
+ * not older than {@link AeadSession#REPLAY_WINDOW} packets.
+ *
+ * @author Confuse
+ * @version 1
+ */
+class AeadSessionTest
+{
+	private static final String SENDER = "127.0.0.1:4000";
+
+	private AeadSession initiator;
+	private AeadSession responder;
+
+	@BeforeEach
+	void createSessions() throws NoSuchAlgorithmException
+	{
+		final KeyGenerator generator = KeyGenerator.getInstance("AES");
+		generator.init(256);
+		final SecretKey key = generator.generateKey();
+		initiator = new AeadSession(key, true, new CipherCache());
+		responder = new AeadSession(key, false, new CipherCache());
+	}
+
+	@Test
+	void packetIsAcceptedOnlyOnce()
+	{
+		final ConfFileFieldV2 packet = CryptoCommunication.generateAeadPacket("hallo", initiator, SENDER);
+
+		assertEquals("hallo", CryptoCommunication.decryptAeadPacket(packet, responder, SENDER));
+		assertNull(CryptoCommunication.decryptAeadPacket(packet, responder, SENDER));
+	}
+
+	@Test
+	void reorderedPacketsAreAccepted()
+	{
+		final List<ConfFileFieldV2> packets = send(3);
+
+		assertEquals("2", CryptoCommunication.decryptAeadPacket(packets.get(2), responder, SENDER));
+		assertEquals("0", CryptoCommunication.decryptAeadPacket(packets.get(0), responder, SENDER));
+		assertEquals("1", CryptoCommunication.decryptAeadPacket(packets.get(1), responder, SENDER));
+		assertNull(CryptoCommunication.decryptAeadPacket(packets.get(0), responder, SENDER));
+	}
+
+	@Test
+	void packetsOlderThanWindowAreRejected()
+	{
+		final int count = AeadSession.REPLAY_WINDOW + 6;
+		final List<ConfFileFieldV2> packets = send(count);
+
+		assertEquals(String.valueOf(count - 1),
+				CryptoCommunication.decryptAeadPacket(packets.get(count - 1), responder, SENDER));
+		// Counter 1 is REPLAY_WINDOW + 5 behind the largest one, counter 10 is still inside the window
+		assertNull(CryptoCommunication.decryptAeadPacket(packets.get(0), responder, SENDER));
+		assertEquals("9", CryptoCommunication.decryptAeadPacket(packets.get(9), responder, SENDER));
+	}
+
+	@Test
+	void ownPacketsAreRejected()
+	{
+		final ConfFileFieldV2 packet = CryptoCommunication.generateAeadPacket("echo", responder, SENDER);
+
+		assertNull(CryptoCommunication.decryptAeadPacket(packet, responder, SENDER));
+	}
+
+	@Test
+	void forgedPacketDoesNotMoveWindow()
+	{
+		final List<ConfFileFieldV2> packets = send(2);
+		final ConfFileFieldV2 forged = withContent(packets.get(1), packets.get(0).getValue("content"));
+
+		assertNull(CryptoCommunication.decryptAeadPacket(forged, responder, SENDER));
+		assertNull(CryptoCommunication.decryptAeadPacket(packets.get(1), responder, "someone else"));
+		// Neither attempt may have used up counter 2
+		assertEquals("1", CryptoCommunication.decryptAeadPacket(packets.get(1), responder, SENDER));
+		assertEquals("0", CryptoCommunication.decryptAeadPacket(packets.get(0), responder, SENDER));
+	}
+
+	@Test
+	void tamperedContentIsRejected()
+	{
+		final ConfFileFieldV2 packet = CryptoCommunication.generateAeadPacket("hallo", initiator, SENDER);
+		final byte[] cipherText = Base64.getDecoder().decode(packet.getValue("content"));
+		cipherText[0] ^= 1;
+
+		assertNull(CryptoCommunication.decryptAeadPacket(withContent(packet,
+				Base64.getEncoder().encodeToString(cipherText)), responder, SENDER));
+		assertEquals("hallo", CryptoCommunication.decryptAeadPacket(packet, responder, SENDER));
+	}
+
+	/**
+	 * @return the packets "0" to "count - 1", encrypted by the initiator in this order.
+	 */
+	private List<ConfFileFieldV2> send(int count)
+	{
+		final List<ConfFileFieldV2> packets = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			packets.add(CryptoCommunication.generateAeadPacket(String.valueOf(i), initiator, SENDER));
+		return packets;
+	}
+
+	private static ConfFileFieldV2 withContent(ConfFileFieldV2 packet, String content)
+	{
+		return new ConfFileFieldV2(packet.getName(), true).put("version", packet.getValue("version"))
+				.put("nonce", packet.getValue("nonce")).put("content", content);
+	}
+
+}
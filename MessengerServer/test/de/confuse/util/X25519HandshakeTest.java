@@ -0,0 +1,78 @@
+package de.confuse.util;
+
+import de.confuse.confFileV2.ConfFileFieldV2;
+import de.confuse.security.RsaUtilities;
+import de.confuse.security.X25519Utilities;
+import de.confuse.util.CryptoCommunication.CryptoStorage;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.spec.InvalidKeySpecException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the X25519 handshake between two sides in memory, the way client and server exchange its stages.
+ *
+ * @author Confuse
+ * @version 1
+ */
+class X25519HandshakeTest
+{
+	@Test
+	void bothSidesDeriveTheSameSession() throws InvalidKeySpecException
+	{
+		final KeyPair client = X25519Utilities.generateKeyPair();
+		final KeyPair server = X25519Utilities.generateKeyPair();
+
+		final ConfFileFieldV2 stage1 = CryptoCommunication.generateCryptoHandshakeStage1X25519(client.getPublic());
+		assertTrue(CryptoCommunication.isX25519Handshake(stage1));
+		final CryptoStorage serverSession = CryptoCommunication.deriveX25519Session(server,
+				CryptoCommunication.extractX25519PublicKey(stage1), false);
+
+		final ConfFileFieldV2 stage2 = CryptoCommunication.generateCryptoHandshakeStage2X25519(server.getPublic());
+		final CryptoStorage clientSession = CryptoCommunication.deriveX25519Session(client,
+				CryptoCommunication.extractX25519PublicKey(stage2), true);
+
+		assertArrayEquals(serverSession.secretKey.getEncoded(), clientSession.secretKey.getEncoded());
+		assertArrayEquals(serverSession.ivParameterSpec.getIV(), clientSession.ivParameterSpec.getIV());
+		assertTrue(CryptoCommunication.extractHandshakeDataStage3X25519(
+				CryptoCommunication.generateCryptoHandshakeStage3X25519(clientSession), serverSession));
+	}
+
+	@Test
+	void sessionWithAnotherKeyIsNotConfirmed()
+	{
+		final KeyPair client = X25519Utilities.generateKeyPair();
+		final KeyPair server = X25519Utilities.generateKeyPair();
+		final KeyPair attacker = X25519Utilities.generateKeyPair();
+
+		final CryptoStorage serverSession = CryptoCommunication.deriveX25519Session(server, client.getPublic(), false);
+		final CryptoStorage attackerSession = CryptoCommunication.deriveX25519Session(attacker, server.getPublic(),
+				true);
+
+		assertFalse(CryptoCommunication.extractHandshakeDataStage3X25519(
+				CryptoCommunication.generateCryptoHandshakeStage3X25519(attackerSession), serverSession));
+	}
+
+	@Test
+	void combinedOfferCarriesBothKeys() throws Exception
+	{
+		final KeyPair rsa = RsaUtilities.generateRsaKeyPair();
+		final KeyPair x25519 = X25519Utilities.generateKeyPair();
+
+		final ConfFileFieldV2 offer = CryptoCommunication.generateCryptoHandshakeStage1(rsa.getPublic(),
+				x25519.getPublic());
+		assertTrue(CryptoCommunication.isX25519Handshake(offer));
+		assertEquals(x25519.getPublic(), CryptoCommunication.extractX25519PublicKey(offer));
+		assertEquals(rsa.getPublic(), CryptoCommunication.extractHandshakeDataStage1(offer));
+
+		// Older clients only offer RSA
+		assertFalse(CryptoCommunication.isX25519Handshake(CryptoCommunication.generateCryptoHandshakeStage1(
+				rsa.getPublic())));
+	}
+
+}